@@ -2,23 +2,34 @@ package edu.berkeley.cs186.database;
 
 import java.util.Iterator;
 import java.util.List;
+import java.util.function.Predicate;
 
 import edu.berkeley.cs186.database.common.BacktrackingIterator;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.io.IOStats;
 import edu.berkeley.cs186.database.io.Page;
 import edu.berkeley.cs186.database.io.PageAllocator.PageIterator;
 import edu.berkeley.cs186.database.query.QueryPlan;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.RecordId;
-import edu.berkeley.cs186.database.table.RecordIterator;
 import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.Table;
 import edu.berkeley.cs186.database.table.stats.TableStats;
+import edu.berkeley.cs186.database.table.stats.ZoneMap;
 
 public interface BaseTransaction {
     long getTransNum();
     boolean isActive();
     void end();
 
+    /**
+     * @return the buffer pool activity caused by this transaction, or null if
+     * it is not tracked
+     */
+    default IOStats getIOStats() {
+        return null;
+    }
+
     /**
      * Create a new table in this database.
      *
@@ -28,6 +39,17 @@ public interface BaseTransaction {
      */
     void createTable(Schema s, String tableName) throws DatabaseException;
 
+    /**
+     * Create a new table in this database whose records are stored in the
+     * format layout.
+     *
+     * @param s the table schema
+     * @param tableName the name of the table
+     * @param layout the format of the table's data pages
+     * @throws DatabaseException
+     */
+    void createTable(Schema s, String tableName, Table.Layout layout) throws DatabaseException;
+
     /**
      * Create a new table in this database with an index on each of the given column names.
      * @param s the table schema
@@ -109,13 +131,40 @@ public interface BaseTransaction {
 
     RecordId addRecord(String tableName, List<DataBox> values) throws DatabaseException;
 
+    List<RecordId> addRecords(String tableName,
+                              Iterator<List<DataBox>> values) throws DatabaseException;
+
     int getNumMemoryPages() throws DatabaseException;
 
     RecordId deleteRecord(String tableName, RecordId rid)  throws DatabaseException;
 
+    /**
+     * Compacts a table, moving records off its sparsest pages and freeing the
+     * pages emptied, and keeps its indices up to date.
+     *
+     * @param tableName the name of the table
+     * @return the number of records moved
+     */
+    int vacuum(String tableName) throws DatabaseException;
+
     Record getRecord(String tableName, RecordId rid) throws DatabaseException;
 
-    RecordIterator getRecordIterator(String tableName) throws DatabaseException;
+    BacktrackingIterator<Record> getRecordIterator(String tableName) throws DatabaseException;
+
+    /**
+     * Returns an iterator over the records of a table, projected onto the
+     * fields numbered columns (in that order).
+     */
+    BacktrackingIterator<Record> getRecordIterator(String tableName,
+            List<Integer> columns) throws DatabaseException;
+
+    /**
+     * Like getRecordIterator(tableName, columns), but skips the pages whose
+     * zone maps do not pass pageFilter (see Table.iterator). columns may be
+     * null to return every field.
+     */
+    BacktrackingIterator<Record> getRecordIterator(String tableName, List<Integer> columns,
+            Predicate<ZoneMap> pageFilter) throws DatabaseException;
 
     RecordId updateRecord(String tableName, List<DataBox> values,
                           RecordId rid)  throws DatabaseException;
@@ -5,6 +5,8 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.logging.XMLFormatter;
 
 import edu.berkeley.cs186.database.common.BacktrackingIterator;
@@ -14,27 +16,37 @@ import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.index.BPlusTree;
 import edu.berkeley.cs186.database.index.BPlusTreeException;
+import edu.berkeley.cs186.database.io.BufferManager;
+import edu.berkeley.cs186.database.io.EvictionPolicy;
+import edu.berkeley.cs186.database.io.IOStats;
 import edu.berkeley.cs186.database.io.Page;
 import edu.berkeley.cs186.database.query.QueryPlan;
 import edu.berkeley.cs186.database.query.QueryPlanException;
 import edu.berkeley.cs186.database.query.SortOperator;
 import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordBatch;
 import edu.berkeley.cs186.database.table.RecordId;
 import edu.berkeley.cs186.database.table.RecordIterator;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.Table;
 import edu.berkeley.cs186.database.table.stats.TableStats;
+import edu.berkeley.cs186.database.table.stats.ZoneMap;
 import edu.berkeley.cs186.database.io.PageAllocator.PageIterator;
 
 import javax.annotation.Resource;
 
 public class Database {
+    // The fill factor of the leaves of indexes bulk loaded by addRecords. The
+    // rest of each leaf is left for later puts.
+    private static final float BULK_LOAD_FILL_FACTOR = 0.75f;
+
     private Map<String, Table> tableLookup;
     private Map<String, BPlusTree> indexLookup;
     private Map<String, List<String>> tableIndices;
     private long numTransactions;
     private String fileDir;
     private LockManager lockManager;
+    private BufferManager bufferManager;
     private int numMemoryPages;
 
     /**
@@ -68,7 +80,57 @@ public class Database {
      */
     public Database(String fileDir, int numMemoryPages, LockManager lockManager)
     throws DatabaseException {
+        this(fileDir, numMemoryPages, lockManager, new BufferManager(BufferManager.DEFAULT_NUM_FRAMES));
+    }
+
+    /**
+     * Creates a new database whose buffer pool evicts pages according to the given policy, e.g.
+     *
+     *   new Database(fileDir, 5, lockManager, ClockEvictionPolicy::new);
+     *
+     * @param fileDir the directory to put the table files in
+     * @param numMemoryPages the number of pages of memory Database Operations should use when executing Queries
+     * @param lockManager the lock manager
+     * @param evictionPolicyFactory creates the eviction policy of the buffer pool
+     * @throws DatabaseException
+     */
+    public Database(String fileDir, int numMemoryPages, LockManager lockManager,
+                    Supplier<? extends EvictionPolicy> evictionPolicyFactory) throws DatabaseException {
+        this(fileDir, numMemoryPages, lockManager,
+             new BufferManager(BufferManager.DEFAULT_NUM_FRAMES, evictionPolicyFactory));
+    }
+
+    /**
+     * Creates a new database whose buffer pool reads and writes pages
+     * according to ioMode, e.g. to avoid creating a memory mapping per page:
+     *
+     *   new Database(fileDir, 5, lockManager, BufferManager.IOMode.POSITIONAL);
+     *
+     * @param fileDir the directory to put the table files in
+     * @param numMemoryPages the number of pages of memory Database Operations should use when executing Queries
+     * @param lockManager the lock manager
+     * @param ioMode how the buffer pool reads and writes pages
+     * @throws DatabaseException
+     */
+    public Database(String fileDir, int numMemoryPages, LockManager lockManager,
+                    BufferManager.IOMode ioMode) throws DatabaseException {
+        this(fileDir, numMemoryPages, lockManager,
+             new BufferManager(BufferManager.DEFAULT_NUM_FRAMES, ioMode));
+    }
+
+    /**
+     * Creates a new database.
+     *
+     * @param fileDir the directory to put the table files in
+     * @param numMemoryPages the number of pages of memory Database Operations should use when executing Queries
+     * @param lockManager the lock manager
+     * @param bufferManager the buffer pool that caches the pages of every table and index
+     * @throws DatabaseException
+     */
+    public Database(String fileDir, int numMemoryPages, LockManager lockManager,
+                    BufferManager bufferManager) throws DatabaseException {
         this.numMemoryPages = numMemoryPages;
+        this.bufferManager = bufferManager;
         this.fileDir = fileDir;
         numTransactions = 0;
         tableLookup = new ConcurrentHashMap<>();
@@ -93,7 +155,8 @@ public class Database {
                 int lastIndex = fName.lastIndexOf(Table.FILENAME_EXTENSION);
                 String tableName = fName.substring(0, lastIndex);
                 tableLookup.put(tableName, new Table(tableName, f.toPath().toString(),
-                                                     lockContext.childContext("table-" + tableName), initTransaction));
+                                                     lockContext.childContext("table-" + tableName), bufferManager,
+                                                     initTransaction));
                 if (!tableIndices.containsKey(tableName)) {
                     tableIndices.put(tableName, new ArrayList<>());
                 }
@@ -101,8 +164,12 @@ public class Database {
                 int lastIndex = fName.lastIndexOf(BPlusTree.FILENAME_EXTENSION);
                 String indexName = fName.substring(0, lastIndex);
                 String tableName = indexName.split(",", 2)[0];
-                indexLookup.put(indexName, new BPlusTree(f.toString(), getIndexContext(indexName),
-                                initTransaction));
+                try {
+                    indexLookup.put(indexName, new BPlusTree(f.toString(), getIndexContext(indexName),
+                                    bufferManager, initTransaction));
+                } catch (BPlusTreeException e) {
+                    throw new DatabaseException(e.getMessage());
+                }
                 if (!tableIndices.containsKey(tableName)) {
                     tableIndices.put(tableName, new ArrayList<>());
                 }
@@ -127,10 +194,27 @@ public class Database {
         this.tableLookup.clear();
     }
 
+    /**
+     * Writes the metadata of every table back to its header page (see
+     * Table.flushMetadata), so that tables loaded after a crash need not be
+     * rebuilt by scanning their data pages. Forces the data pages of every
+     * table modified since the last checkpoint to disk.
+     */
+    public void checkpoint() {
+        for (Table table : this.tableLookup.values()) {
+            table.flushMetadata();
+        }
+        this.bufferManager.flushMetadata();
+    }
+
     public Table getTable(String tableName) {
         return tableLookup.get(tableName);
     }
 
+    public BufferManager getBufferManager() {
+        return bufferManager;
+    }
+
     private LockContext getTableContext(String table) {
         return lockManager.databaseContext().childContext("table-" + table);
     }
@@ -158,6 +242,7 @@ public class Database {
         HashMap<String, Table> tempTables;
         HashMap<String, String> aliasMaps;
         long tempTableCounter;
+        IOStats ioStats;
 
         protected Transaction(long tNum) {
             this.transNum = tNum;
@@ -166,6 +251,7 @@ public class Database {
             this.tempTables = new HashMap<String, Table>();
             this.aliasMaps = new HashMap<String, String>();
             this.tempTableCounter = 0;
+            this.ioStats = new IOStats();
         }
 
         public long getTransNum() {
@@ -176,9 +262,17 @@ public class Database {
             return this.active;
         }
 
+        public IOStats getIOStats() {
+            return this.ioStats;
+        }
+
         public void end() {
             assert(this.active);
 
+            // Make the allocations and frees of this transaction durable
+            // before anyone else can see them.
+            bufferManager.flushMetadata();
+
             // TODO(hw5): release all locks
             List<Pair<ResourceName, LockType>> lockList = lockManager.getLocks(this);
             for (Pair<ResourceName, LockType> lockPair : lockList) {
@@ -199,6 +293,20 @@ public class Database {
          * @throws DatabaseException
          */
         public void createTable(Schema s, String tableName) throws DatabaseException {
+            createTable(s, tableName, Table.Layout.FIXED);
+        }
+
+        /**
+         * Create a new table in this database whose records are stored in the
+         * format layout.
+         *
+         * @param s the table schema
+         * @param tableName the name of the table
+         * @param layout the format of the table's data pages
+         * @throws DatabaseException
+         */
+        public void createTable(Schema s, String tableName,
+                                Table.Layout layout) throws DatabaseException {
             // TODO(hw5): add locking
 
             LockContext tableContext = getTableContext(tableName);
@@ -213,7 +321,7 @@ public class Database {
 
             Path path = Paths.get(fileDir, tableName + Table.FILENAME_EXTENSION);
             Database.this.tableLookup.put(tableName, new Table(tableName, s, path.toString(), tableContext,
-                                          this));
+                                          bufferManager, layout, this));
             Database.this.tableIndices.put(tableName, new ArrayList<>());
         }
 
@@ -257,7 +365,7 @@ public class Database {
 
             Path path = Paths.get(fileDir, tableName + Table.FILENAME_EXTENSION);
             Database.this.tableLookup.put(tableName, new Table(tableName, s, path.toString(), tableContext,
-                                          this));
+                                          bufferManager, this));
             Database.this.tableIndices.put(tableName, new ArrayList<>());
             for (int i : schemaColIndex) {
                 String colName = schemaColNames.get(i);
@@ -267,7 +375,8 @@ public class Database {
                 LockContext indexContext = getIndexContext(indexName);
                 try {
                     Database.this.indexLookup.put(indexName, new BPlusTree(p.toString(), colType,
-                                                  BPlusTree.maxOrder(Page.pageSize, colType), indexContext, this));
+                                                  BPlusTree.maxOrder(Page.pageSize, colType), indexContext, bufferManager,
+                                                  this));
                     Database.this.tableIndices.get(tableName).add(indexName);
                 } catch (BPlusTreeException e) {
                     throw new DatabaseException(e.getMessage());
@@ -375,7 +484,7 @@ public class Database {
             lockContext.acquire(this, LockType.X);
             //end
             this.tempTables.put(tempTableName, new Table(tempTableName, schema, path.toString(), lockContext,
-                                this));
+                                bufferManager, this));
         }
 
         public boolean indexExists(String tableName, String columnName) {
@@ -406,7 +515,7 @@ public class Database {
                 try {
                     // TODO(hw5): scan locking
                     return new SortOperator(this, tableName,
-                                            Comparator.comparing((Record r) -> r.getValues().get(offset))).iterator();
+                                            (Record r1, Record r2) -> r1.compareField(offset, r2, offset)).iterator();
                 } catch (QueryPlanException e2) {
                     throw new DatabaseException(e2);
                 }
@@ -475,6 +584,120 @@ public class Database {
             return rid;
         }
 
+        /**
+         * Adds every row of values to table tableName, and returns the record
+         * ids of the new records in the same order. Unlike calling addRecord on
+         * every row, the table's pages are filled one at a time (see
+         * Table.addRecords), and every index on the table is updated once for
+         * all of the rows: the new (key, record id) pairs are sorted, and then
+         * bulk loaded into the index if it is empty, or put in key order if
+         * not. The rows are streamed into the table; only the keys of the
+         * indexed columns are kept.
+         *
+         * The rows are added as a whole or not at all: if a row is invalid or
+         * one of its keys is already in an index or repeated in the batch, the
+         * rows added so far are deleted again, leaving the table and its
+         * indices unchanged, and an exception is thrown.
+         */
+        public List<RecordId> addRecords(String tableName,
+                                         Iterator<List<DataBox>> values) throws DatabaseException {
+            assert(this.active);
+
+            // TODO(hw5): index locking
+
+            Table tab = getTable(tableName);
+            List<String> colNames = tab.getSchema().getFieldNames();
+            List<Integer> indexedCols = new ArrayList<>();
+            for (int i = 0; i < colNames.size(); i++) {
+                if (indexExists(tableName, colNames.get(i))) {
+                    indexedCols.add(i);
+                }
+            }
+            if (indexedCols.isEmpty()) {
+                return tab.addRecords(this, values);
+            }
+
+            // The keys of every index, picked out of the rows on their way into
+            // the table. Rows of the wrong size are rejected by the table.
+            List<List<DataBox>> keys = new ArrayList<>();
+            for (int i = 0; i < indexedCols.size(); i++) {
+                keys.add(new ArrayList<>());
+            }
+            List<RecordId> rids = tab.addRecords(this, new Iterator<List<DataBox>>() {
+                public boolean hasNext() {
+                    return values.hasNext();
+                }
+
+                public List<DataBox> next() {
+                    List<DataBox> row = values.next();
+                    if (row.size() == colNames.size()) {
+                        for (int i = 0; i < indexedCols.size(); i++) {
+                            keys.get(i).add(row.get(indexedCols.get(i)));
+                        }
+                    }
+                    return row;
+                }
+            });
+
+            // The rows of every index in key order, checked for duplicates
+            // before any index is written: against each other, and, if the
+            // index is not empty, against its keys in a single merge.
+            List<BPlusTree> trees = new ArrayList<>();
+            List<List<Integer>> orders = new ArrayList<>();
+            for (int i = 0; i < indexedCols.size(); i++) {
+                List<DataBox> colKeys = keys.get(i);
+                BPlusTree tree = resolveIndexFromName(tableName, colNames.get(indexedCols.get(i))).getSecond();
+                List<Integer> order = new ArrayList<>(rids.size());
+                for (int j = 0; j < rids.size(); j++) {
+                    order.add(j);
+                }
+                order.sort((a, b) -> colKeys.get(a).compareTo(colKeys.get(b)));
+                List<DataBox> sorted = new ArrayList<>(order.size());
+                for (int j : order) {
+                    sorted.add(colKeys.get(j));
+                }
+                Optional<DataBox> duplicate = Optional.empty();
+                for (int j = 1; j < sorted.size() && !duplicate.isPresent(); j++) {
+                    if (sorted.get(j).equals(sorted.get(j - 1))) {
+                        duplicate = Optional.of(sorted.get(j));
+                    }
+                }
+                if (!duplicate.isPresent() && !tree.isEmpty(this)) {
+                    duplicate = tree.findAny(this, sorted);
+                }
+                if (duplicate.isPresent()) {
+                    for (RecordId rid : rids) {
+                        tab.deleteRecord(this, rid);
+                    }
+                    String msg = String.format("Duplicate key %s inserted.", duplicate.get());
+                    throw new DatabaseException(msg);
+                }
+                trees.add(tree);
+                orders.add(order);
+            }
+
+            for (int i = 0; i < indexedCols.size(); i++) {
+                List<Pair<DataBox, RecordId>> entries = new ArrayList<>(rids.size());
+                for (int j : orders.get(i)) {
+                    entries.add(new Pair<>(keys.get(i).get(j), rids.get(j)));
+                }
+
+                BPlusTree tree = trees.get(i);
+                try {
+                    if (tree.isEmpty(this)) {
+                        tree.bulkLoad(this, entries.iterator(), BULK_LOAD_FILL_FACTOR);
+                    } else {
+                        for (Pair<DataBox, RecordId> entry : entries) {
+                            tree.put(this, entry.getFirst(), entry.getSecond());
+                        }
+                    }
+                } catch (BPlusTreeException e) {
+                    throw new DatabaseException(e.getMessage());
+                }
+            }
+            return rids;
+        }
+
         public int getNumMemoryPages() throws DatabaseException {
             assert(this.active);
             return Database.this.numMemoryPages;
@@ -501,16 +724,88 @@ public class Database {
             return rid;
         }
 
+        /**
+         * Compacts a table by moving the records of its sparsest pages onto its denser pages and
+         * freeing the pages emptied (see Table.vacuum), and points the table's indices at the
+         * moved records.
+         *
+         * @param tableName the name of the table
+         * @return the number of records moved
+         * @throws DatabaseException
+         */
+        public int vacuum(String tableName) throws DatabaseException {
+            assert(this.active);
+
+            //start
+            List<String> indexStringList = tableIndices.get(tableName);
+            if (indexStringList != null) {
+                for (String index : indexStringList) {
+                    LockUtil.requestLocks(this, getIndexContext(index), LockType.X);
+                }
+            }
+            //end
+
+            Table tab = getTable(tableName);
+            Map<RecordId, RecordId> moved = tab.vacuum(this);
+
+            List<String> colNames = tab.getSchema().getFieldNames();
+            for (int i = 0; i < colNames.size(); i++) {
+                String col = colNames.get(i);
+                if (!indexExists(tableName, col)) {
+                    continue;
+                }
+                BPlusTree tree = resolveIndexFromName(tableName, col).getSecond();
+                for (RecordId rid : moved.values()) {
+                    DataBox key = tab.getRecord(this, rid).getValues().get(i);
+                    tree.remove(this, key);
+                    try {
+                        tree.put(this, key, rid);
+                    } catch (BPlusTreeException e) {
+                        throw new DatabaseException(e.getMessage());
+                    }
+                }
+            }
+            return moved.size();
+        }
+
         public Record getRecord(String tableName, RecordId rid) throws DatabaseException {
             assert(this.active);
             return getTable(tableName).getRecord(this, rid);
         }
 
-        public RecordIterator getRecordIterator(String tableName) throws DatabaseException {
+        public BacktrackingIterator<Record> getRecordIterator(String tableName) throws DatabaseException {
             assert(this.active);
             return getTable(tableName).iterator(this);
         }
 
+        public BacktrackingIterator<Record> getRecordIterator(String tableName,
+                List<Integer> columns) throws DatabaseException {
+            assert(this.active);
+            return getTable(tableName).iterator(this, columns);
+        }
+
+        public BacktrackingIterator<Record> getRecordIterator(String tableName, List<Integer> columns,
+                Predicate<ZoneMap> pageFilter) throws DatabaseException {
+            assert(this.active);
+            return getTable(tableName).iterator(this, columns, pageFilter);
+        }
+
+        public BacktrackingIterator<Record> getRecordIterator(String tableName, List<Integer> columns,
+                Predicate<ZoneMap> pageFilter, List<Integer> equalityColumns,
+                List<DataBox> equalityValues) throws DatabaseException {
+            assert(this.active);
+            return getTable(tableName).iterator(this, columns, pageFilter, equalityColumns,
+                                                equalityValues);
+        }
+
+        public Iterator<RecordBatch> getRecordBatchIterator(String tableName, List<Integer> columns,
+                Predicate<ZoneMap> pageFilter, List<Integer> equalityColumns,
+                List<DataBox> equalityValues) throws DatabaseException {
+            assert(this.active);
+            return getTable(tableName).batchIterator(this, columns, pageFilter, equalityColumns,
+                                                     equalityValues);
+        }
+
         public RecordId updateRecord(String tableName, List<DataBox> values,
                                      RecordId rid)  throws DatabaseException {
             // TODO(hw5): index locking
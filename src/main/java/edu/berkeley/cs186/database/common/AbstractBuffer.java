@@ -2,26 +2,41 @@ package edu.berkeley.cs186.database.common;
 
 import java.nio.ByteBuffer;
 
+/**
+ * A Buffer built on top of bulk get and put. Subclasses only have to implement
+ * get(byte[], int, int) and put(byte[], int, int), where the int is an
+ * absolute index into the buffer; every other accessor is derived from those
+ * by copying through a small scratch array. Subclasses with direct access to
+ * their bytes should override the absolute typed accessors (getInt(int),
+ * putInt(int, int), ...) as well: the relative accessors are defined in terms
+ * of them, so the scratch array is then never allocated.
+ */
 public abstract class AbstractBuffer implements Buffer {
     private int pos;
     private byte[] bytes;
     private ByteBuffer buf;
 
     protected AbstractBuffer() {
-        this.pos = 0;
-        this.bytes = new byte[8];
-        this.buf = ByteBuffer.wrap(this.bytes);
+        this(0);
     }
 
     protected AbstractBuffer(int pos) {
         this.pos = pos;
-        this.bytes = new byte[8];
-        this.buf = ByteBuffer.wrap(this.bytes);
+    }
+
+    // The scratch array typed accessors copy through, allocated on first use.
+    private ByteBuffer scratch() {
+        if (this.buf == null) {
+            this.bytes = new byte[8];
+            this.buf = ByteBuffer.wrap(this.bytes);
+        }
+        return this.buf;
     }
 
     public abstract Buffer get(byte[] dst, int offset, int length);
 
-    public final byte get(int index) {
+    public byte get(int index) {
+        scratch();
         get(bytes, index, 1);
         return bytes[0];
     }
@@ -37,12 +52,13 @@ public abstract class AbstractBuffer implements Buffer {
     }
 
     public final char getChar() {
-        ++this.pos;
-        return getChar(this.pos - 1);
+        this.pos += 2;
+        return getChar(this.pos - 2);
     }
 
-    public final char getChar(int index) {
-        get(bytes, index, 1);
+    public char getChar(int index) {
+        ByteBuffer buf = scratch();
+        get(bytes, index, 2);
         return buf.getChar(0);
     }
 
@@ -51,7 +67,8 @@ public abstract class AbstractBuffer implements Buffer {
         return getDouble(this.pos - 8);
     }
 
-    public final double getDouble(int index) {
+    public double getDouble(int index) {
+        ByteBuffer buf = scratch();
         get(bytes, index, 8);
         return buf.getDouble(0);
     }
@@ -61,7 +78,8 @@ public abstract class AbstractBuffer implements Buffer {
         return getFloat(this.pos - 4);
     }
 
-    public final float getFloat(int index) {
+    public float getFloat(int index) {
+        ByteBuffer buf = scratch();
         get(bytes, index, 4);
         return buf.getFloat(0);
     }
@@ -71,7 +89,8 @@ public abstract class AbstractBuffer implements Buffer {
         return getInt(this.pos - 4);
     }
 
-    public final int getInt(int index) {
+    public int getInt(int index) {
+        ByteBuffer buf = scratch();
         get(bytes, index, 4);
         return buf.getInt(0);
     }
@@ -81,7 +100,8 @@ public abstract class AbstractBuffer implements Buffer {
         return getLong(this.pos - 8);
     }
 
-    public final long getLong(int index) {
+    public long getLong(int index) {
+        ByteBuffer buf = scratch();
         get(bytes, index, 8);
         return buf.getLong(0);
     }
@@ -91,7 +111,8 @@ public abstract class AbstractBuffer implements Buffer {
         return getShort(this.pos - 2);
     }
 
-    public final short getShort(int index) {
+    public short getShort(int index) {
+        ByteBuffer buf = scratch();
         get(bytes, index, 2);
         return buf.getShort(0);
     }
@@ -108,19 +129,21 @@ public abstract class AbstractBuffer implements Buffer {
         return put(pos - 1, b);
     }
 
-    public final Buffer put(int index, byte b) {
+    public Buffer put(int index, byte b) {
+        scratch();
         bytes[0] = b;
         return put(bytes, index, 1);
     }
 
     public final Buffer putChar(char value) {
-        ++pos;
-        return putChar(pos - 1, value);
+        pos += 2;
+        return putChar(pos - 2, value);
     }
 
-    public final Buffer putChar(int index, char value) {
+    public Buffer putChar(int index, char value) {
+        ByteBuffer buf = scratch();
         buf.putChar(0, value);
-        return put(bytes, index, 1);
+        return put(bytes, index, 2);
     }
 
     public final Buffer putDouble(double value) {
@@ -128,7 +151,8 @@ public abstract class AbstractBuffer implements Buffer {
         return putDouble(pos - 8, value);
     }
 
-    public final Buffer putDouble(int index, double value) {
+    public Buffer putDouble(int index, double value) {
+        ByteBuffer buf = scratch();
         buf.putDouble(0, value);
         return put(bytes, index, 8);
     }
@@ -138,7 +162,8 @@ public abstract class AbstractBuffer implements Buffer {
         return putFloat(pos - 4, value);
     }
 
-    public final Buffer putFloat(int index, float value) {
+    public Buffer putFloat(int index, float value) {
+        ByteBuffer buf = scratch();
         buf.putFloat(0, value);
         return put(bytes, index, 4);
     }
@@ -148,7 +173,8 @@ public abstract class AbstractBuffer implements Buffer {
         return putInt(pos - 4, value);
     }
 
-    public final Buffer putInt(int index, int value) {
+    public Buffer putInt(int index, int value) {
+        ByteBuffer buf = scratch();
         buf.putInt(0, value);
         return put(bytes, index, 4);
     }
@@ -158,7 +184,8 @@ public abstract class AbstractBuffer implements Buffer {
         return putLong(pos - 8, value);
     }
 
-    public final Buffer putLong(int index, long value) {
+    public Buffer putLong(int index, long value) {
+        ByteBuffer buf = scratch();
         buf.putLong(0, value);
         return put(bytes, index, 8);
     }
@@ -168,7 +195,8 @@ public abstract class AbstractBuffer implements Buffer {
         return putShort(pos - 2, value);
     }
 
-    public final Buffer putShort(int index, short value) {
+    public Buffer putShort(int index, short value) {
+        ByteBuffer buf = scratch();
         buf.putShort(0, value);
         return put(bytes, index, 2);
     }
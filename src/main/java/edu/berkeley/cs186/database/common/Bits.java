@@ -32,6 +32,80 @@ public class Bits {
         return getBit(bytes[i / 8], i % 8);
     }
 
+    /**
+     * Get the ith bit of a byte buffer where the 0th bit is the most
+     * significant bit of the first byte read using buf.get(). Like
+     * setBit(Buffer, int, Bit), getBit is relative to the current position of
+     * the buffer and leaves the position unchanged. Only the byte holding the
+     * bit is read.
+     */
+    public static Bit getBit(Buffer buf, int i) {
+        return getBit(buf.get(buf.position() + (i / 8)), i % 8);
+    }
+
+    /**
+     * Count the ONE bits among the first numBits bits of a byte array, using
+     * the same bit order as getBit(byte[], int). The bits are counted 64 at a
+     * time.
+     *
+     *   - countOnes(new byte[]{0b01101011, 0b01000000}, 16) == 6
+     *   - countOnes(new byte[]{0b01101011, 0b01000000}, 4) == 2
+     */
+    public static int countOnes(byte[] bytes, int numBits) {
+        assert (0 <= numBits && numBits <= bytes.length * 8);
+        int count = 0;
+        for (int i = 0; i < numBits; i += 64) {
+            long word = getWord(bytes, i / 8);
+            if (numBits - i < 64) {
+                word &= ~(-1L >>> (numBits - i));
+            }
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * Find the first bit equal to bit among bits fromIndex (inclusive) to
+     * numBits (exclusive) of a byte array, using the same bit order as
+     * getBit(byte[], int). The bits are searched 64 at a time. Some examples:
+     *
+     *   - indexOf(new byte[]{0b11101000}, ZERO, 0, 8) == 3
+     *   - indexOf(new byte[]{0b11101000}, ONE, 3, 8) == 4
+     *   - indexOf(new byte[]{0b11101000}, ONE, 5, 8) == -1
+     *
+     * @return the index of the bit, or -1 if there is none
+     */
+    public static int indexOf(byte[] bytes, Bit bit, int fromIndex, int numBits) {
+        assert (0 <= fromIndex && 0 <= numBits && numBits <= bytes.length * 8);
+        for (int i = fromIndex - fromIndex % 64; i < numBits; i += 64) {
+            long word = getWord(bytes, i / 8);
+            if (bit == Bit.ZERO) {
+                word = ~word;
+            }
+            if (i < fromIndex) {
+                word &= -1L >>> (fromIndex - i);
+            }
+            if (word != 0) {
+                int index = i + Long.numberOfLeadingZeros(word);
+                return index < numBits ? index : -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the 8 bytes of a byte array starting at byteIndex as a long, with
+     * the first byte most significant. Bytes past the end of the array are
+     * zero.
+     */
+    private static long getWord(byte[] bytes, int byteIndex) {
+        long word = 0;
+        for (int i = byteIndex; i < byteIndex + 8; ++i) {
+            word = (word << 8) | (i < bytes.length ? bytes[i] & 0xFF : 0);
+        }
+        return word;
+    }
+
     /**
      * Set the ith bit of a byte where the 0th bit is the most significant bit
      * and the 7th bit is the least significant bit. Some examples:
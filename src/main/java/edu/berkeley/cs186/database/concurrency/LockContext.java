@@ -314,6 +314,21 @@ public class LockContext {
         return null;
     }
 
+    /**
+     * Returns whether a transaction other than TRANSACTION holds a lock on this
+     * resource that is not compatible with LOCKTYPE, so that acquiring LOCKTYPE
+     * would block TRANSACTION. Only locks on this resource itself are checked.
+     */
+    public boolean wouldBlock(BaseTransaction transaction, LockType lockType) {
+        for (Pair<Long, LockType> lock : this.lockman.getLocks(name)) {
+            boolean other = transaction == null || lock.getFirst() != transaction.getTransNum();
+            if (other && !LockType.compatible(lock.getSecond(), lockType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Disables locking children. This causes all new child contexts of this context
      * to be readonly. This is used for indices and temporary tables (where
@@ -0,0 +1,111 @@
+package edu.berkeley.cs186.database.databox;
+
+import java.nio.charset.Charset;
+
+import edu.berkeley.cs186.database.common.Buffer;
+
+/**
+ * KeyEncoding serializes DataBoxes into normalized keys: byte strings which
+ * sort, byte by byte as unsigned numbers, in the same order as the DataBoxes
+ * do according to compareTo. Two encoded keys of the same type can therefore
+ * be compared with compare below, a memcmp-like loop, without decoding them.
+ * A key of type t is t.getSizeInBytes() bytes long, just like t.toBytes():
+ *
+ *   - a BoolDataBox is encoded as 0 (false) or 1 (true),
+ *   - an IntDataBox is encoded as its 4 big-endian bytes with the sign bit
+ *     flipped, so that negative numbers come first,
+ *   - a FloatDataBox is encoded as the 4 big-endian bytes of its bits (see
+ *     Float.floatToIntBits), with the sign bit flipped if it is positive and
+ *     every bit flipped if it is negative, so that the order is that of
+ *     Float.compare, except that -0.0 is encoded as 0.0: the two are equal
+ *     (see FloatDataBox.equals), so they must have the same key, and
+ *   - a StringDataBox is encoded as its bytes, since strings are made of
+ *     ASCII characters only (see StringDataBox).
+ *
+ * For example, the ints -1, 0, and 1 are encoded as 7f ff ff ff, 80 00 00 00,
+ * and 80 00 00 01.
+ */
+public class KeyEncoding {
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private KeyEncoding() {}
+
+    /**
+     * @return the normalized key of d
+     */
+    public static byte[] encode(DataBox d) {
+        byte[] bytes = new byte[d.type().getSizeInBytes()];
+        encode(d, bytes, 0);
+        return bytes;
+    }
+
+    /**
+     * Writes the normalized key of d to bytes[offset:].
+     */
+    public static void encode(DataBox d, byte[] bytes, int offset) {
+        switch (d.type().getTypeId()) {
+        case BOOL:
+            bytes[offset] = (byte) (d.getBool() ? 1 : 0);
+            break;
+        case INT:
+            putInt(d.getInt() ^ Integer.MIN_VALUE, bytes, offset);
+            break;
+        case FLOAT:
+            float f = d.getFloat();
+            int bits = Float.floatToIntBits(f == 0.0f ? 0.0f : f);
+            putInt(bits < 0 ? ~bits : bits ^ Integer.MIN_VALUE, bytes, offset);
+            break;
+        case STRING:
+            byte[] s = d.getString().getBytes(CHARSET);
+            System.arraycopy(s, 0, bytes, offset, s.length);
+            break;
+        default:
+            String err = String.format("Unhandled TypeId %s.", d.type().getTypeId().toString());
+            throw new IllegalArgumentException(err);
+        }
+    }
+
+    /**
+     * Reads the normalized key of type `type` at the position of buf.
+     */
+    public static DataBox decode(Buffer buf, Type type) {
+        switch (type.getTypeId()) {
+        case BOOL:
+            return new BoolDataBox(buf.get() == 1);
+        case INT:
+            return new IntDataBox(buf.getInt() ^ Integer.MIN_VALUE);
+        case FLOAT:
+            int bits = buf.getInt();
+            return new FloatDataBox(Float.intBitsToFloat(bits < 0 ? bits ^ Integer.MIN_VALUE : ~bits));
+        case STRING:
+            byte[] bytes = new byte[type.getSizeInBytes()];
+            buf.get(bytes);
+            return new StringDataBox(new String(bytes, CHARSET), type.getSizeInBytes());
+        default:
+            String err = String.format("Unhandled TypeId %s.", type.getTypeId().toString());
+            throw new IllegalArgumentException(err);
+        }
+    }
+
+    /**
+     * Compares the normalized keys a[aOffset:aOffset + length] and
+     * b[bOffset:bOffset + length], which have the same type, returning a
+     * negative number, zero, or a positive number like compareTo does.
+     */
+    public static int compare(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        for (int i = 0; i < length; ++i) {
+            int c = (a[aOffset + i] & 0xff) - (b[bOffset + i] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    private static void putInt(int v, byte[] bytes, int offset) {
+        bytes[offset] = (byte) (v >>> 24);
+        bytes[offset + 1] = (byte) (v >>> 16);
+        bytes[offset + 2] = (byte) (v >>> 8);
+        bytes[offset + 3] = (byte) v;
+    }
+}
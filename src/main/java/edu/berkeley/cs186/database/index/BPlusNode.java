@@ -47,6 +47,14 @@ abstract class BPlusNode {
      */
     public abstract LeafNode get(BaseTransaction transaction, DataBox key);
 
+    /**
+     * n.getRecordId(k) returns the record id stored under key k in the subtree
+     * rooted by n, or Optional.empty() if there is none. It is equivalent to
+     * n.get(k).getKey(k), except that the nodes below n are searched where
+     * they lie on their pages, without being loaded.
+     */
+    public abstract Optional<RecordId> getRecordId(BaseTransaction transaction, DataBox key);
+
     /**
      * n.getLeftmostLeaf() returns the leftmost leaf in the subtree rooted by n.
      * In the example above, inner.getLeftmostLeaf() would return leaf0, and
@@ -219,6 +227,15 @@ abstract class BPlusNode {
     /** Get the page on which this node is persisted. */
     abstract Page getPage();
 
+    /**
+     * Copies page pageNum of metadata.getAllocator() into node, which is
+     * Page.pageSize bytes long, with a single read of the page.
+     */
+    static void readNode(BaseTransaction transaction, BPlusTreeMetadata metadata, int pageNum,
+                         byte[] node) {
+        metadata.getAllocator().fetchPage(transaction, pageNum).getBuffer(transaction).get(node);
+    }
+
     // Pretty Printing ///////////////////////////////////////////////////////////
     /**
      * S-expressions (or sexps) are a compact way of encoding nested tree-like
@@ -17,7 +17,10 @@ import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.concurrency.DummyLockContext;
 import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.FloatDataBox;
 import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
+import edu.berkeley.cs186.database.io.BufferManager;
 import edu.berkeley.cs186.database.io.Page;
 import edu.berkeley.cs186.database.io.PageAllocator;
 import edu.berkeley.cs186.database.table.RecordId;
@@ -61,6 +64,12 @@ public class BPlusTree implements Closeable {
     public static final String FILENAME_PREFIX = "db";
     public static final String FILENAME_EXTENSION = ".index";
 
+    // The first int of the header page. Nodes have stored their keys as
+    // normalized keys (see KeyEncoding) since it was added; files written
+    // before then start with the key schema instead, whose type id is never
+    // FORMAT, and are rejected.
+    private static final int FORMAT = 0x42505432;
+
     private PageAllocator allocator;
     private BPlusTreeMetadata metadata;
     private Page headerPage;
@@ -83,6 +92,7 @@ public class BPlusTree implements Closeable {
      * We reserve the first page (i.e. page number 0) of the file for a header
      * page which contains:
      *
+     *   - FORMAT, the version of the file format,
      *   - the key schema of the tree,
      *   - the order of the tree, and
      *   - the page number of the root of the tree.
@@ -92,6 +102,15 @@ public class BPlusTree implements Closeable {
      */
     public BPlusTree(String filename, Type keySchema, int order, LockContext lockContext,
                      BaseTransaction transaction)
+    throws BPlusTreeException {
+        this(filename, keySchema, order, lockContext, BufferManager.getDefault(), transaction);
+    }
+
+    /**
+     * Construct a new B+ tree like above, caching its nodes in `bufferManager`.
+     */
+    public BPlusTree(String filename, Type keySchema, int order, LockContext lockContext,
+                     BufferManager bufferManager, BaseTransaction transaction)
     throws BPlusTreeException {
         // TODO(hw5): B+ tree locking
 
@@ -115,7 +134,8 @@ public class BPlusTree implements Closeable {
         this.lockContext = lockContext;
 
         // Initialize the page allocator.
-        this.allocator = new PageAllocator(this.lockContext, filename, true, transaction);
+        this.allocator = new PageAllocator(this.lockContext, filename, true, true, bufferManager,
+                                           transaction);
         this.metadata = new BPlusTreeMetadata(allocator, keySchema, order);
 
         // Allocate the header page.
@@ -138,18 +158,36 @@ public class BPlusTree implements Closeable {
     }
 
     /** Read a B+ tree that was previously serialized to filename. */
-    public BPlusTree(String filename, LockContext lockContext, BaseTransaction transaction) {
+    public BPlusTree(String filename, LockContext lockContext, BaseTransaction transaction)
+    throws BPlusTreeException {
+        this(filename, lockContext, BufferManager.getDefault(), transaction);
+    }
+
+    /**
+     * Read a B+ tree that was previously serialized to filename, caching its
+     * nodes in `bufferManager`. A BPlusTreeException is thrown if the file was
+     * written in an older format.
+     */
+    public BPlusTree(String filename, LockContext lockContext, BufferManager bufferManager,
+                     BaseTransaction transaction)
+    throws BPlusTreeException {
         // TODO(hw5): B+ tree locking
 
         this.lockContext = lockContext;
 
         // Initialize the page allocator and fetch the header page.
-        this.allocator = new PageAllocator(this.lockContext, filename, false, transaction);
+        this.allocator = new PageAllocator(this.lockContext, filename, false, true, bufferManager,
+                                           transaction);
         Page headerPage = allocator.fetchPage(transaction, 0);
         Buffer buf = headerPage.getBuffer(transaction);
 
         // Read the contents of the header page. See writeHeader for information
         // on exactly what is written to the header page.
+        if (buf.getInt() != FORMAT) {
+            this.allocator.close();
+            String msg = String.format("%s is a B+ tree of an older format.", filename);
+            throw new BPlusTreeException(msg);
+        }
         Type keySchema = Type.fromBytes(buf);
         int order = buf.getInt();
         int rootPageNum = buf.getInt();
@@ -183,9 +221,13 @@ public class BPlusTree implements Closeable {
      *   tree.get(new IntDataBox(100)); // Optional.empty()
      */
     public Optional<RecordId> get(BaseTransaction transaction, DataBox key) {
-        typecheck(key);
-        LeafNode leaf = root.get(transaction, key);
-        return leaf.getKey(key);
+        key = typecheck(key);
+        if (key.type().getTypeId() == TypeId.FLOAT && Float.isNaN(key.getFloat())) {
+            // NaN equals nothing, not even NaN (see FloatDataBox.equals), but
+            // its normalized key equals that of a NaN in the tree.
+            return Optional.empty();
+        }
+        return root.getRecordId(transaction, key);
     }
 
     /**
@@ -262,11 +304,38 @@ public class BPlusTree implements Closeable {
      * memory will receive 0 points.
      */
     public Iterator<RecordId> scanGreaterEqual(BaseTransaction transaction, DataBox key) {
-        typecheck(key);
+        key = typecheck(key);
         LeafNode leaf = root.get(transaction, key);
         return new BPlusTreeIterator(leaf, leaf.scanGreaterEqual(key), transaction);
     }
 
+    /**
+     * Returns one of keys, which must be sorted in ascending order, that is in
+     * the B+ tree, or Optional.empty() if none of them is. The keys are merged
+     * with the keys of the leaves they fall on: the tree is only searched from
+     * the root for a key past the last key of the leaf of the previous one, so
+     * a leaf is read once for all of the keys that fall on it.
+     */
+    public Optional<DataBox> findAny(BaseTransaction transaction, List<DataBox> keys) {
+        List<DataBox> leafKeys = null;
+        int i = 0;
+        for (DataBox key : keys) {
+            key = typecheck(key);
+            if (leafKeys == null || leafKeys.isEmpty() ||
+                    key.compareTo(leafKeys.get(leafKeys.size() - 1)) > 0) {
+                leafKeys = root.get(transaction, key).getKeys();
+                i = 0;
+            }
+            while (i < leafKeys.size() && leafKeys.get(i).compareTo(key) < 0) {
+                i++;
+            }
+            if (i < leafKeys.size() && leafKeys.get(i).equals(key)) {
+                return Optional.of(key);
+            }
+        }
+        return Optional.empty();
+    }
+
     /**
      * Inserts a (key, rid) pair into a B+ tree. If the key already exists in
      * the B+ tree, then the pair is not inserted and an exception is raised.
@@ -278,7 +347,7 @@ public class BPlusTree implements Closeable {
      *   tree.put(key, rid); // BPlusTreeException :(
      */
     public void put(BaseTransaction transaction, DataBox key, RecordId rid) throws BPlusTreeException {
-        typecheck(key);
+        key = typecheck(key);
         Optional<Pair<DataBox, Integer>> o = root.put(transaction, key, rid);
 
         // If our root did not split, then we're done.
@@ -338,12 +407,25 @@ public class BPlusTree implements Closeable {
      */
     public void bulkLoad(BaseTransaction transaction, Iterator<Pair<DataBox, RecordId>> data,
                          float fillFactor) throws BPlusTreeException {
-        LeafNode left = this.root.getLeftmostLeaf(transaction);
-        if (left != this.root || left.scanAll().hasNext()) {
+        if (!isEmpty(transaction)) {
             throw new BPlusTreeException("cannot bulk load into nonempty tree");
         }
-        while (data.hasNext()) {
-            Optional<Pair<DataBox, Integer>> o = this.root.bulkLoad(transaction, data, fillFactor);
+        // The keys are stored the way put stores them (see typecheck).
+        Iterator<Pair<DataBox, RecordId>> pairs = new Iterator<Pair<DataBox, RecordId>>() {
+            @Override
+            public boolean hasNext() {
+                return data.hasNext();
+            }
+
+            @Override
+            public Pair<DataBox, RecordId> next() {
+                Pair<DataBox, RecordId> p = data.next();
+                DataBox key = typecheck(p.getFirst());
+                return key == p.getFirst() ? p : new Pair<>(key, p.getSecond());
+            }
+        };
+        while (pairs.hasNext()) {
+            Optional<Pair<DataBox, Integer>> o = this.root.bulkLoad(transaction, pairs, fillFactor);
             if (o.isPresent()) {
                 Pair<DataBox, Integer> p = o.get();
 
@@ -361,6 +443,15 @@ public class BPlusTree implements Closeable {
         writeHeader(transaction, headerPage);
     }
 
+    /**
+     * Returns whether the tree is a single, empty leaf, as it is right after
+     * being created. Only empty trees can be bulk loaded.
+     */
+    public boolean isEmpty(BaseTransaction transaction) {
+        LeafNode left = this.root.getLeftmostLeaf(transaction);
+        return left == this.root && !left.scanAll().hasNext();
+    }
+
     /**
      * Deletes a (key, rid) pair from a B+ tree.
      *
@@ -374,7 +465,7 @@ public class BPlusTree implements Closeable {
      *   tree.get(key); // Optional.empty()
      */
     public void remove(BaseTransaction transaction, DataBox key) {
-        typecheck(key);
+        key = typecheck(key);
         root.remove(transaction, key);
     }
 
@@ -455,18 +546,33 @@ public class BPlusTree implements Closeable {
     /** Serializes the header page to page. */
     private void writeHeader(BaseTransaction transaction, Page page) {
         byte[] keySchema = metadata.getKeySchema().toBytes();
-        Buffer buf = page.getBuffer(transaction);
-        buf.put(keySchema);
-        buf.putInt(metadata.getOrder());
-        buf.putInt(root.getPage().getPageNum());
+        page.pin(transaction);
+        try {
+            Buffer buf = page.getBuffer(transaction);
+            buf.putInt(FORMAT);
+            buf.put(keySchema);
+            buf.putInt(metadata.getOrder());
+            buf.putInt(root.getPage().getPageNum());
+        } finally {
+            page.unpin();
+        }
     }
 
-    private void typecheck(DataBox key) {
+    /**
+     * Checks that key is of the key type of the tree, and returns it the way
+     * the tree stores it: -0.0 as 0.0, since they have the same normalized
+     * key (see KeyEncoding).
+     */
+    private DataBox typecheck(DataBox key) {
         Type t = metadata.getKeySchema();
         if (!key.type().equals(t)) {
             String msg = String.format("DataBox %s is not of type %s", key, t);
             throw new IllegalArgumentException(msg);
         }
+        if (t.getTypeId() == TypeId.FLOAT && key.getFloat() == 0.0f) {
+            return new FloatDataBox(0.0f);
+        }
+        return key;
     }
 
     // Iterator ////////////////////////////////////////////////////////////////
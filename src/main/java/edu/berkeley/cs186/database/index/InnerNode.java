@@ -7,6 +7,7 @@ import edu.berkeley.cs186.database.BaseTransaction;
 import edu.berkeley.cs186.database.common.Buffer;
 import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.KeyEncoding;
 import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.io.Page;
 import edu.berkeley.cs186.database.table.RecordId;
@@ -68,9 +69,37 @@ class InnerNode extends BPlusNode {
     // See BPlusNode.get.
     @Override
     public LeafNode get(BaseTransaction transaction, DataBox key) {
-        int index = numLessThanEqual(key, keys);
-        BPlusNode child = getChild(transaction, index);
-        return child.get(transaction, key);
+        // The inner nodes below this one are searched on their pages (see
+        // childOnPage) rather than loaded, so that only the leaf is.
+        byte[] node = new byte[Page.pageSize];
+        int pageNum = findLeaf(transaction, key, node);
+        return LeafNode.fromBytes(transaction, metadata, pageNum, node);
+    }
+
+    // See BPlusNode.getRecordId.
+    @Override
+    public Optional<RecordId> getRecordId(BaseTransaction transaction, DataBox key) {
+        byte[] node = new byte[Page.pageSize];
+        findLeaf(transaction, key, node);
+        return LeafNode.getRecordIdOnPage(metadata, node, KeyEncoding.encode(key));
+    }
+
+    /**
+     * Finds the leaf that key belongs in, like get, reading each node on the
+     * way down into node (which is Page.pageSize bytes long) with a single
+     * read and searching it there. The leaf is left in node.
+     *
+     * @return the page number of the leaf
+     */
+    private int findLeaf(BaseTransaction transaction, DataBox key, byte[] node) {
+        byte[] encodedKey = KeyEncoding.encode(key);
+        int pageNum = children.get(numLessThanEqual(key, keys));
+        readNode(transaction, metadata, pageNum, node);
+        while (node[0] != (byte) 1) {
+            pageNum = childOnPage(node, encodedKey);
+            readNode(transaction, metadata, pageNum, node);
+        }
+        return pageNum;
     }
 
     // See BPlusNode.getLeftmostLeaf.
@@ -210,6 +239,32 @@ class InnerNode extends BPlusNode {
         return page;
     }
 
+    /**
+     * Returns the page number of the child of the inner node serialized in node
+     * (see toBytes) that key, a normalized key (see KeyEncoding), belongs
+     * under. The keys of the node are compared to key byte by byte where they
+     * lie, without being decoded.
+     */
+    private int childOnPage(byte[] node, byte[] key) {
+        ByteBuffer buf = ByteBuffer.wrap(node);
+        int keySize = metadata.getKeySchema().getSizeInBytes();
+        int keysOffset = 1 + Integer.BYTES;
+        int n = buf.getInt(1);
+
+        // Binary search for the number of keys <= key, as in numLessThanEqual.
+        int lo = 0;
+        int hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (KeyEncoding.compare(node, keysOffset + mid * keySize, key, 0, keySize) <= 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return buf.getInt(keysOffset + n * keySize + lo * Integer.BYTES);
+    }
+
     private BPlusNode getChild(BaseTransaction transaction, int i) {
         int pageNum = children.get(i);
         return BPlusNode.fromBytes(transaction, metadata, pageNum);
@@ -384,7 +439,7 @@ class InnerNode extends BPlusNode {
         //      a leaf node,
         //   b. the number n (4 bytes) of keys this inner node contains (which is
         //      one fewer than the number of children pointers),
-        //   c. the n keys, and
+        //   c. the n keys, as normalized keys (see KeyEncoding), and
         //   d. the n+1 children pointers.
         //
         // For example, the following bytes:
@@ -409,7 +464,7 @@ class InnerNode extends BPlusNode {
         buf.put((byte) 0);
         buf.putInt(keys.size());
         for (DataBox key : keys) {
-            buf.put(key.toBytes());
+            buf.put(KeyEncoding.encode(key));
         }
         for (Integer child : children) {
             buf.putInt(child);
@@ -423,16 +478,18 @@ class InnerNode extends BPlusNode {
      */
     public static InnerNode fromBytes(BaseTransaction transaction, BPlusTreeMetadata metadata,
                                       int pageNum) {
-        Page page = metadata.getAllocator().fetchPage(transaction, pageNum);
-        Buffer buf = page.getBuffer(transaction);
+        byte[] node = new byte[Page.pageSize];
+        readNode(transaction, metadata, pageNum, node);
+        Buffer buf = edu.berkeley.cs186.database.common.ByteBuffer.wrap(node);
 
-        assert(buf.get() == (byte) 0);
+        byte isLeaf = buf.get();
+        assert(isLeaf == (byte) 0);
 
         List<DataBox> keys = new ArrayList<>();
         List<Integer> children = new ArrayList<>();
         int n = buf.getInt();
         for (int i = 0; i < n; ++i) {
-            keys.add(DataBox.fromBytes(buf, metadata.getKeySchema()));
+            keys.add(KeyEncoding.decode(buf, metadata.getKeySchema()));
         }
         for (int i = 0; i < n + 1; ++i) {
             children.add(buf.getInt());
@@ -7,6 +7,7 @@ import edu.berkeley.cs186.database.BaseTransaction;
 import edu.berkeley.cs186.database.common.Buffer;
 import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.KeyEncoding;
 import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.io.Page;
 import edu.berkeley.cs186.database.table.RecordId;
@@ -133,6 +134,12 @@ class LeafNode extends BPlusNode {
         return this;
     }
 
+    // See BPlusNode.getRecordId.
+    @Override
+    public Optional<RecordId> getRecordId(BaseTransaction transaction, DataBox key) {
+        return getKey(key);
+    }
+
     // See BPlusNode.getLeftmostLeaf.
     @Override
     public LeafNode getLeftmostLeaf(BaseTransaction transaction) {
@@ -342,7 +349,6 @@ class LeafNode extends BPlusNode {
         return n / 2;
     }
 
-    // For testing only.
     List<DataBox> getKeys() {
         return keys;
     }
@@ -398,7 +404,8 @@ class LeafNode extends BPlusNode {
         //      a right sibling),
         //   c. the number (4 bytes) of (key, rid) pairs this leaf node contains,
         //      and
-        //   d. the (key, rid) pairs themselves.
+        //   d. the (key, rid) pairs themselves, with keys written as normalized
+        //      keys (see KeyEncoding).
         //
         // For example, the following bytes:
         //
@@ -425,7 +432,7 @@ class LeafNode extends BPlusNode {
         buf.putInt(rightSibling.orElse(-1));
         buf.putInt(keys.size());
         for (int i = 0; i < keys.size(); ++i) {
-            buf.put(keys.get(i).toBytes());
+            buf.put(KeyEncoding.encode(keys.get(i)));
             buf.put(rids.get(i).toBytes());
         }
         return buf.array();
@@ -437,10 +444,21 @@ class LeafNode extends BPlusNode {
      */
     public static LeafNode fromBytes(BaseTransaction transaction, BPlusTreeMetadata metadata,
                                      int pageNum) {
-        Page page = metadata.getAllocator().fetchPage(transaction, pageNum);
-        Buffer buf = page.getBuffer(transaction);
+        byte[] node = new byte[Page.pageSize];
+        readNode(transaction, metadata, pageNum, node);
+        return fromBytes(transaction, metadata, pageNum, node);
+    }
+
+    /**
+     * Loads the LeafNode on page pageNum of metadata.getAllocator(), whose
+     * contents have already been read into node.
+     */
+    static LeafNode fromBytes(BaseTransaction transaction, BPlusTreeMetadata metadata,
+                              int pageNum, byte[] node) {
+        Buffer buf = edu.berkeley.cs186.database.common.ByteBuffer.wrap(node);
 
-        assert(buf.get() == (byte) 1);
+        byte isLeaf = buf.get();
+        assert(isLeaf == (byte) 1);
 
         int s = buf.getInt();
         Optional<Integer> rightSibling = s == -1 ? Optional.empty() : Optional.of(s);
@@ -449,13 +467,45 @@ class LeafNode extends BPlusNode {
         List<RecordId> rids = new ArrayList<>();
         int n = buf.getInt();
         for (int i = 0; i < n; ++i) {
-            keys.add(DataBox.fromBytes(buf, metadata.getKeySchema()));
+            keys.add(KeyEncoding.decode(buf, metadata.getKeySchema()));
             rids.add(RecordId.fromBytes(buf));
         }
 
         return new LeafNode(metadata, pageNum, keys, rids, rightSibling, transaction);
     }
 
+    /**
+     * Returns the record id stored under key, a normalized key (see
+     * KeyEncoding), in the leaf serialized in node (see toBytes), or
+     * Optional.empty() if there is none. The leaf is binary searched where it
+     * lies, and only the record id found is decoded.
+     */
+    static Optional<RecordId> getRecordIdOnPage(BPlusTreeMetadata metadata, byte[] node,
+                                                byte[] key) {
+        ByteBuffer buf = ByteBuffer.wrap(node);
+        int keySize = metadata.getKeySchema().getSizeInBytes();
+        int entrySize = keySize + RecordId.getSizeInBytes();
+        int entriesOffset = 1 + 2 * Integer.BYTES;
+        int n = buf.getInt(1 + Integer.BYTES);
+
+        int lo = 0;
+        int hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int offset = entriesOffset + mid * entrySize;
+            int c = KeyEncoding.compare(node, offset, key, 0, keySize);
+            if (c == 0) {
+                return Optional.of(new RecordId(buf.getInt(offset + keySize),
+                                                buf.getShort(offset + keySize + Integer.BYTES)));
+            } else if (c < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return Optional.empty();
+    }
+
     // Builtins //////////////////////////////////////////////////////////////////
     @Override
     public boolean equals(Object o) {
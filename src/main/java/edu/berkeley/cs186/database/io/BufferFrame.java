@@ -0,0 +1,400 @@
+package edu.berkeley.cs186.database.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A single frame of the buffer pool. A frame holds the bytes of at most one
+ * page at a time, along with the bookkeeping the BufferManager needs to decide
+ * whether the frame can be reused: how many callers have it pinned and whether
+ * its contents have been modified since they were last written back.
+ *
+ * The pin count doubles as the frame's latch against eviction: it is -1 while
+ * the frame is free, being loaded, or being evicted, and callers can only pin a
+ * frame whose count is non-negative. This lets the BufferManager pin resident
+ * pages without taking any lock. Reads and writes of the frame's bytes are
+ * serialized on the frame itself.
+ *
+ * A frame either maps its page into memory (BufferManager.IOMode.MMAP) or
+ * owns a fixed slice of a direct buffer that pages are read into and written
+ * back from with positional I/O (BufferManager.IOMode.POSITIONAL). Data pages
+ * of compressed files (see CompressedPageStore) are never mapped: they are
+ * decompressed into the frame's slice, or into a heap buffer of the frame if
+ * it has none, and compressed again when they are written back.
+ */
+public class BufferFrame {
+    static final long INVALID_KEY = -1L;
+
+    // The index of this frame among the frames of its shard of the buffer pool.
+    private final int index;
+
+    // The virtual page number of the page held in this frame, or INVALID_KEY if
+    // the frame is free.
+    volatile long key;
+
+    // The Page handle that currently owns this frame, if any. Handles for the
+    // same virtual page number share a single frame.
+    volatile Page page;
+
+    // Where the page lives on disk.
+    private FileChannel fc;
+    private int blockNum;
+    private boolean durable;
+
+    // The bytes of the page: a mapping of the page in MMAP mode, or arenaSlice
+    // in POSITIONAL mode.
+    private ByteBuffer data;
+
+    // The memory this frame reads pages into, or null if pages are mapped.
+    private final ByteBuffer arenaSlice;
+
+    // The store of the page if it is compressed, or null, and the memory the
+    // frame decompresses pages into if it has no arenaSlice.
+    private CompressedPageStore store;
+    private int pageNum;
+    private ByteBuffer heapPage;
+
+    // The number of outstanding pins, or -1 if the frame may not be pinned. A
+    // frame with a positive pin count is never chosen for eviction.
+    private final AtomicInteger pinCount;
+
+    // Whether the page has been written to since it was last flushed.
+    private boolean dirty;
+
+    // Whether the page has been pinned since the page cleaner last looked at
+    // this frame (see BufferManager#writeBackColdPages).
+    volatile boolean recentlyUsed;
+
+    BufferFrame(int index) {
+        this(index, null);
+    }
+
+    /**
+     * Creates a frame which reads pages into arenaSlice, which must hold
+     * exactly one page, or maps them if arenaSlice is null.
+     */
+    BufferFrame(int index, ByteBuffer arenaSlice) {
+        this.index = index;
+        this.key = INVALID_KEY;
+        this.pinCount = new AtomicInteger(-1);
+        this.arenaSlice = arenaSlice;
+    }
+
+    /**
+     * @return the index of this frame among the frames given to its eviction
+     * policy
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the virtual page number of the page held in this frame
+     */
+    public long getKey() {
+        return key;
+    }
+
+    /**
+     * @return whether this frame holds a page
+     */
+    public boolean isValid() {
+        return key != INVALID_KEY;
+    }
+
+    /**
+     * @return whether this frame is pinned and therefore may not be evicted
+     */
+    public boolean isPinned() {
+        return pinCount.get() > 0;
+    }
+
+    /**
+     * @return the number of outstanding pins of this frame
+     */
+    int getPinCount() {
+        return Math.max(pinCount.get(), 0);
+    }
+
+    /**
+     * @return whether this frame has been modified since it was last flushed
+     */
+    public synchronized boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * @return the IOStats of the allocator whose page this frame holds, if any
+     */
+    IOStats getOwnerStats() {
+        Page owner = this.page;
+        return owner == null ? null : owner.getIOStats();
+    }
+
+    /**
+     * Pins this frame if it holds the page with virtual page number key.
+     *
+     * @return whether the frame was pinned
+     */
+    boolean tryPin(long key) {
+        while (true) {
+            int pins = pinCount.get();
+            if (pins < 0) {
+                return false;
+            }
+            if (pinCount.compareAndSet(pins, pins + 1)) {
+                break;
+            }
+        }
+        // The frame may have been reused for another page between the caller's
+        // lookup and the pin above.
+        if (this.key != key) {
+            unpin();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Releases one pin on this frame.
+     */
+    void unpin() {
+        while (true) {
+            int pins = pinCount.get();
+            if (pins <= 0) {
+                throw new PageException("unpin of a page which is not pinned");
+            }
+            if (pinCount.compareAndSet(pins, pins - 1)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stops this frame from being pinned if it is currently unpinned.
+     *
+     * @return whether the frame can now be evicted
+     */
+    boolean tryEvict() {
+        return pinCount.compareAndSet(0, -1);
+    }
+
+    /**
+     * Loads block blockNum of fc into this frame under virtual page number key,
+     * on behalf of page. The frame must not be pinnable (see tryEvict), and it
+     * comes back pinned once on behalf of the caller.
+     *
+     * @return the number of bytes read from disk
+     */
+    int load(long key, Page page, FileChannel fc, int blockNum, boolean durable) {
+        int bytesRead = Page.pageSize;
+        synchronized (this) {
+            this.store = page.getStore();
+            this.pageNum = page.getPageNum();
+            if (this.store != null) {
+                this.data = uncompressedBuffer();
+                bytesRead = this.store.read(this.pageNum, this.data);
+            } else if (this.arenaSlice == null) {
+                try {
+                    this.data = fc.map(FileChannel.MapMode.READ_WRITE, (long) blockNum * Page.pageSize,
+                                       Page.pageSize);
+                } catch (IOException e) {
+                    throw new PageException("Can't mmap page at block: " + blockNum + " ; " +
+                                            e.getMessage());
+                }
+            } else {
+                readBlock(fc, blockNum);
+                this.data = this.arenaSlice;
+            }
+            this.fc = fc;
+            this.blockNum = blockNum;
+            this.durable = durable;
+            this.dirty = false;
+        }
+        this.page = page;
+        this.key = key;
+        this.pinCount.set(1);
+        return bytesRead;
+    }
+
+    /**
+     * Writes the contents of this frame back to disk if they have been modified.
+     *
+     * @return the number of bytes written, or 0 if nothing was written
+     */
+    synchronized int flush() {
+        if (!this.dirty) {
+            return 0;
+        }
+        int bytesWritten = 0;
+        if (this.store != null) {
+            bytesWritten = this.store.write(this.pageNum, this.data);
+        } else if (this.arenaSlice != null) {
+            // The file only sees the page once we write it back, durable or not.
+            writeBlock();
+            bytesWritten = Page.pageSize;
+        } else if (this.durable) {
+            ((MappedByteBuffer) this.data).force();
+            bytesWritten = Page.pageSize;
+        }
+        // The frame is only clean once the write has succeeded: if it throws,
+        // the page is written back again the next time it is flushed or
+        // evicted.
+        this.dirty = false;
+        return bytesWritten;
+    }
+
+    /**
+     * @return the memory to decompress pages into, with position 0
+     */
+    private ByteBuffer uncompressedBuffer() {
+        if (this.arenaSlice != null) {
+            this.arenaSlice.clear();
+            return this.arenaSlice;
+        }
+        if (this.heapPage == null) {
+            this.heapPage = ByteBuffer.allocate(Page.pageSize);
+        }
+        this.heapPage.clear();
+        return this.heapPage;
+    }
+
+    /**
+     * Reads block blockNum of fc into arenaSlice. Bytes past the end of the
+     * file read as zeroes, just like a fresh mapping.
+     */
+    private void readBlock(FileChannel fc, int blockNum) {
+        ByteBuffer buf = this.arenaSlice.duplicate();
+        buf.clear();
+        long position = (long) blockNum * Page.pageSize;
+        try {
+            while (buf.hasRemaining()) {
+                if (fc.read(buf, position + buf.position()) < 0) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            throw new PageException("Can't read page at block: " + blockNum + " ; " + e.getMessage());
+        }
+        while (buf.hasRemaining()) {
+            buf.put((byte) 0);
+        }
+    }
+
+    /**
+     * Writes arenaSlice back to the block it was read from.
+     */
+    private void writeBlock() {
+        ByteBuffer buf = this.arenaSlice.duplicate();
+        buf.clear();
+        long position = (long) this.blockNum * Page.pageSize;
+        try {
+            while (buf.hasRemaining()) {
+                this.fc.write(buf, position + buf.position());
+            }
+            if (this.durable) {
+                this.fc.force(false);
+            }
+        } catch (IOException e) {
+            throw new PageException("Can't write page at block: " + this.blockNum + " ; " +
+                                    e.getMessage());
+        }
+    }
+
+    /**
+     * Releases the bytes held by this frame and marks it free. The caller is
+     * responsible for flushing the frame first if its contents must be kept.
+     */
+    void invalidate() {
+        this.pinCount.set(-1);
+        this.key = INVALID_KEY;
+        this.page = null;
+        synchronized (this) {
+            this.fc = null;
+            this.store = null;
+            this.data = null;
+            this.dirty = false;
+        }
+    }
+
+    // Bulk reads and writes go through the position of data, which is only
+    // touched with the frame locked. Typed accessors use absolute indexes and
+    // leave it alone.
+
+    synchronized void read(int position, int num, byte[] buf) {
+        data.position(position);
+        data.get(buf, 0, num);
+    }
+
+    synchronized void write(int position, int num, byte[] buf) {
+        data.position(position);
+        data.put(buf, 0, num);
+        this.dirty = true;
+    }
+
+    synchronized byte get(int position) {
+        return data.get(position);
+    }
+
+    synchronized char getChar(int position) {
+        return data.getChar(position);
+    }
+
+    synchronized short getShort(int position) {
+        return data.getShort(position);
+    }
+
+    synchronized int getInt(int position) {
+        return data.getInt(position);
+    }
+
+    synchronized long getLong(int position) {
+        return data.getLong(position);
+    }
+
+    synchronized float getFloat(int position) {
+        return data.getFloat(position);
+    }
+
+    synchronized double getDouble(int position) {
+        return data.getDouble(position);
+    }
+
+    synchronized void put(int position, byte value) {
+        data.put(position, value);
+        this.dirty = true;
+    }
+
+    synchronized void putChar(int position, char value) {
+        data.putChar(position, value);
+        this.dirty = true;
+    }
+
+    synchronized void putShort(int position, short value) {
+        data.putShort(position, value);
+        this.dirty = true;
+    }
+
+    synchronized void putInt(int position, int value) {
+        data.putInt(position, value);
+        this.dirty = true;
+    }
+
+    synchronized void putLong(int position, long value) {
+        data.putLong(position, value);
+        this.dirty = true;
+    }
+
+    synchronized void putFloat(int position, float value) {
+        data.putFloat(position, value);
+        this.dirty = true;
+    }
+
+    synchronized void putDouble(int position, double value) {
+        data.putDouble(position, value);
+        this.dirty = true;
+    }
+}
@@ -0,0 +1,796 @@
+package edu.berkeley.cs186.database.io;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import edu.berkeley.cs186.database.BaseTransaction;
+
+/**
+ * A buffer pool with a fixed number of frames. Pages fetched through a
+ * PageAllocator are brought into a frame the first time they are accessed and
+ * stay there until the frame is needed for another page.
+ *
+ *   BufferManager bufferManager = new BufferManager(64);
+ *   PageAllocator allocator = new PageAllocator(lockContext, "t.table", true, true,
+ *                                               bufferManager, transaction);
+ *   Page page = allocator.fetchPage(transaction, allocator.allocPage(transaction));
+ *
+ *   // Keep the page resident while we work on it.
+ *   page.pin();
+ *   try {
+ *       page.getBuffer(transaction).putInt(0, 42);
+ *   } finally {
+ *       page.unpin();
+ *   }
+ *
+ * Every access to a page pins its frame for the duration of the access, so a
+ * caller that only touches a page once does not need to pin it explicitly.
+ * Callers that touch a page many times in a row (e.g. Table.addRecord) pin it
+ * up front so that it is not evicted between accesses. A pinned frame is never
+ * evicted; if every frame is pinned, fetching a new page throws a
+ * PageException.
+ *
+ * Hits and the eviction policy count references to pages rather than
+ * accesses to their fields: a page is referenced when it is pinned with
+ * Page.pin, or accessed for the first time through a Buffer from
+ * Page.getBuffer, while it is not pinned already. Reading a dozen fields of a
+ * pinned page, or through the same Buffer, is one reference.
+ *
+ * Frames whose contents have been modified are marked dirty and are written
+ * back when they are evicted, flushed, or when their allocator is closed. A
+ * PageCleaner can write them back ahead of eviction in the background.
+ * Conversely, PageAllocator.PageIterator reads pages into the buffer pool
+ * ahead of a sequential scan on a background thread (see setReadAhead).
+ * Victims are chosen among unpinned frames by an EvictionPolicy; the default
+ * is LRUEvictionPolicy, and ClockEvictionPolicy, TwoQueueEvictionPolicy, and
+ * LRUKEvictionPolicy can be selected when the buffer pool is constructed:
+ *
+ *   new BufferManager(1024, TwoQueueEvictionPolicy::new);
+ *
+ * The frames are split into shards by virtual page number. Each shard has its
+ * own lock, free list, and eviction policy, so misses on pages in different
+ * shards do not wait on each other. Hits do not take any lock at all: the page
+ * table is a concurrent map, and a resident frame is pinned with a single
+ * compare-and-set on its pin count (see BufferFrame).
+ *
+ * By default every page read into a frame is memory-mapped. A buffer pool
+ * created with IOMode.POSITIONAL instead preallocates one off-heap arena of
+ * direct buffers per shard and moves pages in and out of it with positional
+ * reads and writes, so the number of mappings does not grow with the number
+ * of pages accessed.
+ *
+ * IOMode.COMPRESSED goes one step further: the data pages of the files
+ * created with such a buffer pool are compressed with an LZ77 codec
+ * (PageCodec) into variable-size extents of a second file, found through an
+ * in-memory map from page number to extent (see CompressedPageStore). Frames
+ * hold pages decompressed, so only misses and write-backs pay for
+ * compression, and scans of cold tables, whose pages are full of padding and
+ * small numbers, read several times fewer bytes from disk. Whether a file is
+ * compressed is decided when it is created; buffer pools in any mode read
+ * both kinds of files.
+ */
+public class BufferManager {
+    public static final int DEFAULT_NUM_FRAMES = 1024;
+
+    /**
+     * How frames get at the bytes of pages on disk.
+     */
+    public enum IOMode {
+        // Map every page into memory when it is read into a frame.
+        MMAP,
+        // Read pages into preallocated direct buffers with FileChannel.read,
+        // and write them back with FileChannel.write.
+        POSITIONAL,
+        // Like POSITIONAL, but files created with this buffer pool store
+        // their data pages compressed (see CompressedPageStore).
+        COMPRESSED
+    }
+
+    // Shards are only created for every MIN_FRAMES_PER_SHARD frames, so that
+    // small buffer pools still evict globally, and there are never more than
+    // MAX_SHARDS of them.
+    static final int MIN_FRAMES_PER_SHARD = 64;
+    static final int MAX_SHARDS = 16;
+
+    // How many pages sequential scans read ahead by default. Read-ahead never
+    // takes up more than 1 / READ_AHEAD_FRACTION of the frames.
+    public static final int DEFAULT_READ_AHEAD = 16;
+    static final int READ_AHEAD_FRACTION = 16;
+
+    // The buffer pool used by allocators that are not given one explicitly.
+    private static final BufferManager defaultBufferManager = new BufferManager(DEFAULT_NUM_FRAMES);
+
+    private final int numFrames;
+    private final IOMode ioMode;
+
+    // Maps the virtual page number of every resident page to its frame. Only
+    // modified with the lock of the page's shard held.
+    private final Map<Long, BufferFrame> pageTable;
+
+    private final Shard[] shards;
+
+    // Every frame of every shard, and the position of the page cleaner's
+    // sweep over them (see writeBackColdPages), which is guarded by
+    // cleanerLock. cleanerLock is also held while the cleaner has frames
+    // pinned, so that discard and evictAll do not invalidate them under it.
+    private final BufferFrame[] allFrames;
+    private final Object cleanerLock = new Object();
+    private int cleanerHand;
+
+    // Group commit of allocator metadata; see setMetadataGroupCommit. By
+    // default every update is flushed right away.
+    private volatile int maxPendingMetadataUpdates = 1;
+    private long metadataFlushDelayMillis = 0;
+    // Allocators with metadata updates that have not been flushed yet.
+    private final Set<PageAllocator> pendingMetadata = ConcurrentHashMap.newKeySet();
+    private ScheduledExecutorService metadataFlusher;
+    private ScheduledFuture<?> scheduledMetadataFlush;
+
+    // The number of pages sequential scans read ahead, and the thread they are
+    // read on.
+    private volatile int readAhead;
+    private ExecutorService readAheadExecutor;
+
+    // The activity of the whole buffer pool, and whether it and the stats of
+    // every allocator using the buffer pool are exported over JMX.
+    private final IOStats ioStats = new IOStats();
+    private volatile boolean exportingMBeans;
+
+    /**
+     * Create a new buffer pool with numFrames frames.
+     *
+     * @param numFrames the number of pages the buffer pool can hold at once
+     */
+    public BufferManager(int numFrames) {
+        this(numFrames, LRUEvictionPolicy::new);
+    }
+
+    /**
+     * Create a new buffer pool with numFrames frames which accesses pages on
+     * disk according to ioMode.
+     *
+     * @param numFrames the number of pages the buffer pool can hold at once
+     * @param ioMode how pages are read and written
+     */
+    public BufferManager(int numFrames, IOMode ioMode) {
+        this(numFrames, LRUEvictionPolicy::new, defaultNumShards(numFrames), ioMode);
+    }
+
+    /**
+     * Create a new buffer pool with numFrames frames which evicts pages
+     * according to a policy created by evictionPolicyFactory.
+     *
+     * @param numFrames the number of pages the buffer pool can hold at once
+     * @param evictionPolicyFactory creates the eviction policy of this buffer pool
+     */
+    public BufferManager(int numFrames, Supplier<? extends EvictionPolicy> evictionPolicyFactory) {
+        this(numFrames, evictionPolicyFactory, defaultNumShards(numFrames));
+    }
+
+    /**
+     * Create a new buffer pool with numFrames frames split evenly into
+     * numShards shards, each of which evicts pages according to its own policy
+     * created by evictionPolicyFactory.
+     *
+     * @param numFrames the number of pages the buffer pool can hold at once
+     * @param evictionPolicyFactory creates the eviction policy of each shard
+     * @param numShards the number of independently locked shards
+     */
+    public BufferManager(int numFrames, Supplier<? extends EvictionPolicy> evictionPolicyFactory,
+                         int numShards) {
+        this(numFrames, evictionPolicyFactory, numShards, IOMode.MMAP);
+    }
+
+    /**
+     * Create a new buffer pool with numFrames frames split evenly into
+     * numShards shards, each of which evicts pages according to its own policy
+     * created by evictionPolicyFactory, and which accesses pages on disk
+     * according to ioMode.
+     *
+     * @param numFrames the number of pages the buffer pool can hold at once
+     * @param evictionPolicyFactory creates the eviction policy of each shard
+     * @param numShards the number of independently locked shards
+     * @param ioMode how pages are read and written
+     */
+    public BufferManager(int numFrames, Supplier<? extends EvictionPolicy> evictionPolicyFactory,
+                         int numShards, IOMode ioMode) {
+        if (numFrames <= 0) {
+            throw new IllegalArgumentException("a buffer pool needs at least one frame");
+        }
+        if (numShards <= 0 || numShards > numFrames) {
+            throw new IllegalArgumentException("a buffer pool needs between 1 and " + numFrames +
+                                               " shards");
+        }
+        this.numFrames = numFrames;
+        this.ioMode = ioMode;
+        this.pageTable = new ConcurrentHashMap<>(numFrames);
+        this.shards = new Shard[numShards];
+        for (int i = 0; i < numShards; ++i) {
+            // Spread the remainder over the first shards.
+            int shardFrames = numFrames / numShards + (i < numFrames % numShards ? 1 : 0);
+            this.shards[i] = new Shard(shardFrames, evictionPolicyFactory.get());
+        }
+        this.readAhead = Math.min(DEFAULT_READ_AHEAD, numFrames / READ_AHEAD_FRACTION);
+        this.allFrames = new BufferFrame[numFrames];
+        int next = 0;
+        for (Shard shard : this.shards) {
+            for (BufferFrame frame : shard.frames) {
+                this.allFrames[next++] = frame;
+            }
+        }
+    }
+
+    private static int defaultNumShards(int numFrames) {
+        return Math.max(1, Math.min(MAX_SHARDS, numFrames / MIN_FRAMES_PER_SHARD));
+    }
+
+    /**
+     * @return the buffer pool shared by allocators that are not given one
+     * explicitly
+     */
+    public static BufferManager getDefault() {
+        return defaultBufferManager;
+    }
+
+    /**
+     * @return the number of frames in the buffer pool
+     */
+    public int getNumFrames() {
+        return numFrames;
+    }
+
+    /**
+     * @return how this buffer pool reads and writes pages
+     */
+    public IOMode getIOMode() {
+        return ioMode;
+    }
+
+    /**
+     * @return the number of shards the frames are split into
+     */
+    public int getNumShards() {
+        return shards.length;
+    }
+
+    /**
+     * @return the number of frames currently holding a page
+     */
+    public int getNumResidentPages() {
+        return pageTable.size();
+    }
+
+    /**
+     * @return the number of frames currently pinned
+     */
+    public int getNumPinnedFrames() {
+        int numPinned = 0;
+        for (BufferFrame frame : allFrames) {
+            if (frame.isPinned()) {
+                numPinned++;
+            }
+        }
+        return numPinned;
+    }
+
+    /**
+     * @return the number of frames holding a page which has been modified
+     * since it was last flushed
+     */
+    public int getNumDirtyFrames() {
+        int numDirty = 0;
+        for (BufferFrame frame : allFrames) {
+            if (frame.isDirty()) {
+                numDirty++;
+            }
+        }
+        return numDirty;
+    }
+
+    /**
+     * Returns the handle of the resident page with virtual page number key, or
+     * null if the page is not in the buffer pool.
+     */
+    Page getResidentPage(long key) {
+        BufferFrame frame = pageTable.get(key);
+        if (frame == null) {
+            return null;
+        }
+        Page page = frame.page;
+        // The frame may have been reused since we looked it up.
+        return page != null && page.getKey() == key ? page : null;
+    }
+
+    /**
+     * Pins the frame holding page, loading the page into a frame first if it
+     * is not resident. Loading a page always counts as a miss. A pin of a
+     * resident page counts as a hit, and is reported to the eviction policy,
+     * only if reference is true and the page was not pinned already: pins
+     * nested in another pin of the page belong to the same reference.
+     *
+     * @return the pinned frame
+     */
+    BufferFrame pin(Page page, BaseTransaction transaction, boolean reference) {
+        long key = page.getKey();
+        Shard shard = getShard(key);
+        IOStats transactionStats = transaction == null ? null : transaction.getIOStats();
+        BufferFrame frame = pageTable.get(key);
+        if (frame != null && frame.tryPin(key)) {
+            if (reference && frame.getPinCount() == 1) {
+                shard.hit(frame);
+                IOStats.recordHit(ioStats, page.getIOStats(), transactionStats);
+            }
+        } else {
+            frame = shard.pin(page, transactionStats, reference);
+        }
+        frame.recentlyUsed = true;
+        return frame;
+    }
+
+    /**
+     * Releases one pin on frame.
+     */
+    void unpin(BufferFrame frame) {
+        frame.unpin();
+    }
+
+    /**
+     * Releases one pin on the resident page with virtual page number key.
+     */
+    void unpin(long key) {
+        BufferFrame frame = pageTable.get(key);
+        if (frame == null || frame.getKey() != key) {
+            throw new PageException("unpin of a page which is not resident");
+        }
+        frame.unpin();
+    }
+
+    /**
+     * Writes back the page with virtual page number key if it is resident and
+     * dirty.
+     */
+    void flush(long key) {
+        BufferFrame frame = pageTable.get(key);
+        if (frame != null && frame.tryPin(key)) {
+            try {
+                int bytesWritten = frame.flush();
+                if (bytesWritten > 0) {
+                    IOStats.recordFlush(bytesWritten, ioStats, frame.getOwnerStats());
+                }
+            } finally {
+                frame.unpin();
+            }
+        }
+    }
+
+    /**
+     * Writes back every resident dirty page that belongs to the allocator with
+     * id allocID, leaving the pages in the buffer pool.
+     */
+    void flushAll(int allocID) {
+        for (long key : new ArrayList<>(pageTable.keySet())) {
+            if (PageAllocator.translateAllocator(key) == allocID) {
+                flush(key);
+            }
+        }
+    }
+
+    /**
+     * Drops the page with virtual page number key from the buffer pool without
+     * writing it back. Used when a page is freed.
+     */
+    void discard(long key) {
+        synchronized (cleanerLock) {
+            getShard(key).discard(key);
+        }
+    }
+
+    /**
+     * Writes back and drops every page that belongs to the allocator with id
+     * allocID. Pages are dropped even if they are pinned, since the allocator's
+     * file is about to be closed.
+     */
+    void evictAll(int allocID) {
+        synchronized (cleanerLock) {
+            for (Shard shard : shards) {
+                shard.evictAll(allocID);
+            }
+        }
+    }
+
+    /**
+     * @return the activity of the whole buffer pool
+     */
+    public IOStats getIOStats() {
+        return ioStats;
+    }
+
+    /**
+     * Exports the IOStats of this buffer pool as a JMX MBean named name, and
+     * those of every PageAllocator opened with this buffer pool from now on
+     * under the name of its file.
+     *
+     * @param name the name of the MBean of the buffer pool
+     */
+    public void exportMBeans(String name) {
+        ioStats.registerMBean(name);
+        exportingMBeans = true;
+    }
+
+    /**
+     * @return whether new allocators should export their IOStats over JMX
+     */
+    boolean isExportingMBeans() {
+        return exportingMBeans;
+    }
+
+    /**
+     * Sets the number of pages sequential scans read ahead of the page they
+     * are on; 0 turns read-ahead off. The default is DEFAULT_READ_AHEAD, or
+     * less for small buffer pools.
+     *
+     * @param numPages the number of pages to read ahead
+     */
+    public void setReadAhead(int numPages) {
+        if (numPages < 0 || numPages > numFrames / READ_AHEAD_FRACTION) {
+            throw new IllegalArgumentException("can read ahead at most " +
+                                               numFrames / READ_AHEAD_FRACTION + " pages");
+        }
+        this.readAhead = numPages;
+    }
+
+    /**
+     * @return the number of pages sequential scans read ahead
+     */
+    public int getReadAhead() {
+        return readAhead;
+    }
+
+    /**
+     * Runs task on the read-ahead thread.
+     */
+    synchronized void readAhead(Runnable task) {
+        if (readAheadExecutor == null) {
+            readAheadExecutor = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "read-ahead");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        readAheadExecutor.execute(task);
+    }
+
+    /**
+     * Reads page into the buffer pool, unless it is already resident, without
+     * pinning it. Failures are ignored, since the page will simply be read
+     * when it is actually needed.
+     */
+    void prefetch(Page page) {
+        long key = page.getKey();
+        if (pageTable.containsKey(key)) {
+            return;
+        }
+        try {
+            getShard(key).pin(page, null, false).unpin();
+        } catch (PageException e) {
+            /* do nothing */
+        }
+    }
+
+    /**
+     * Writes back up to maxPages dirty pages which have not been used since
+     * the sweep last passed them, so that the threads which evict them later
+     * do not have to. Frames are swept in a circle, like the hand of CLOCK: a
+     * frame which has been used since the previous pass gets a second chance.
+     * Used by PageCleaner.
+     *
+     * If a page cannot be written back, the others still are, and the first
+     * failure is thrown once every frame has been unpinned.
+     *
+     * @return the number of pages written back
+     */
+    int writeBackColdPages(int maxPages) {
+        // The frames stay pinned until they are written back, so cleanerLock
+        // is held throughout: discard and evictAll invalidate frames whether
+        // or not they are pinned. Only the shard locks are left free, so that
+        // threads using the buffer pool do not wait for the cleaner.
+        List<BufferFrame> cold = new ArrayList<>();
+        synchronized (cleanerLock) {
+            for (int i = 0; i < allFrames.length && cold.size() < maxPages; ++i) {
+                BufferFrame frame = allFrames[cleanerHand];
+                cleanerHand = (cleanerHand + 1) % allFrames.length;
+                if (frame.recentlyUsed) {
+                    frame.recentlyUsed = false;
+                    continue;
+                }
+                long key = frame.getKey();
+                if (frame.isDirty() && frame.tryPin(key)) {
+                    cold.add(frame);
+                }
+            }
+
+            int numWritten = 0;
+            PageException failure = null;
+            for (BufferFrame frame : cold) {
+                try {
+                    int bytesWritten = frame.flush();
+                    if (bytesWritten > 0) {
+                        IOStats.recordFlush(bytesWritten, ioStats, frame.getOwnerStats());
+                        numWritten++;
+                    }
+                } catch (PageException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                } finally {
+                    frame.unpin();
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return numWritten;
+        }
+    }
+
+    /**
+     * Enables group commit of the allocation metadata (master and header
+     * pages) of the durable PageAllocators using this buffer pool. Instead of
+     * forcing the metadata to disk on every allocPage and freePage, an
+     * allocator flushes it once maxPendingUpdates updates are pending, once
+     * maxDelayMillis milliseconds have passed since the first pending update
+     * (if maxDelayMillis is positive), when flushMetadata is called (which
+     * Database.Transaction.end does), or when the allocator is closed.
+     *
+     * Durability contract: an allocation or free is only guaranteed to survive
+     * a crash once a flush following it has completed; a crash may lose up to
+     * maxPendingUpdates - 1 updates per allocator, or those of the last
+     * maxDelayMillis milliseconds. Passing 1 restores the default, where every
+     * update is durable when allocPage or freePage returns.
+     *
+     * @param maxPendingUpdates the number of updates after which an allocator
+     * flushes its metadata
+     * @param maxDelayMillis the longest time an update may stay unflushed, or 0
+     * for no limit
+     */
+    public synchronized void setMetadataGroupCommit(int maxPendingUpdates, long maxDelayMillis) {
+        if (maxPendingUpdates < 1 || maxDelayMillis < 0) {
+            throw new IllegalArgumentException("invalid group commit settings");
+        }
+        this.maxPendingMetadataUpdates = maxPendingUpdates;
+        this.metadataFlushDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * @return the number of metadata updates an allocator may leave unflushed
+     * plus one
+     */
+    int getMaxPendingMetadataUpdates() {
+        return maxPendingMetadataUpdates;
+    }
+
+    /**
+     * Flushes the pending metadata updates of every allocator using this
+     * buffer pool.
+     */
+    public void flushMetadata() {
+        synchronized (this) {
+            if (scheduledMetadataFlush != null) {
+                scheduledMetadataFlush.cancel(false);
+                scheduledMetadataFlush = null;
+            }
+        }
+        // The allocators are flushed without holding our lock, since they call
+        // back into metadataPending with their own lock held.
+        for (PageAllocator allocator : new ArrayList<>(pendingMetadata)) {
+            allocator.flushMetadata();
+        }
+    }
+
+    /**
+     * Called by allocator when it first leaves a metadata update unflushed.
+     */
+    synchronized void metadataPending(PageAllocator allocator) {
+        pendingMetadata.add(allocator);
+        if (metadataFlushDelayMillis > 0 && scheduledMetadataFlush == null) {
+            if (metadataFlusher == null) {
+                metadataFlusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread thread = new Thread(r, "metadata-flusher");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            scheduledMetadataFlush = metadataFlusher.schedule(this::flushMetadata,
+                                                              metadataFlushDelayMillis,
+                                                              TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Called by allocator once all of its metadata updates are flushed.
+     */
+    void metadataFlushed(PageAllocator allocator) {
+        pendingMetadata.remove(allocator);
+    }
+
+    private Shard getShard(long key) {
+        if (shards.length == 1) {
+            return shards[0];
+        }
+        // Mix the allocator id into the page number so that page i of every
+        // file does not land in the same shard.
+        long h = key * 0x9E3779B97F4A7C15L;
+        return shards[(int) ((h >>> 32) % shards.length)];
+    }
+
+    /**
+     * A subset of the frames of the buffer pool. A page always lives in the
+     * shard its virtual page number maps to, and everything but hits on
+     * resident pages happens with the shard's lock held.
+     */
+    private class Shard {
+        private final ReentrantLock lock;
+        private final BufferFrame[] frames;
+        private final EvictionPolicy evictionPolicy;
+        // Frames which do not hold any page.
+        private final Deque<BufferFrame> freeFrames;
+
+        Shard(int numFrames, EvictionPolicy evictionPolicy) {
+            this.lock = new ReentrantLock();
+            this.frames = new BufferFrame[numFrames];
+            this.freeFrames = new ArrayDeque<>();
+            ByteBuffer arena = null;
+            if (ioMode != IOMode.MMAP) {
+                arena = ByteBuffer.allocateDirect(numFrames * Page.pageSize);
+            }
+            for (int i = 0; i < numFrames; ++i) {
+                if (arena == null) {
+                    this.frames[i] = new BufferFrame(i);
+                } else {
+                    arena.limit((i + 1) * Page.pageSize);
+                    arena.position(i * Page.pageSize);
+                    this.frames[i] = new BufferFrame(i, arena.slice());
+                }
+                this.freeFrames.add(this.frames[i]);
+            }
+            this.evictionPolicy = evictionPolicy;
+            this.evictionPolicy.init(this.frames);
+        }
+
+        /**
+         * Tells the eviction policy about a hit, unless another thread is
+         * busy with this shard. Dropping the odd hit only makes the policy
+         * slightly less accurate, whereas waiting would serialize hits.
+         */
+        void hit(BufferFrame frame) {
+            if (lock.tryLock()) {
+                try {
+                    evictionPolicy.hit(frame);
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        BufferFrame pin(Page page, IOStats transactionStats, boolean reference) {
+            long key = page.getKey();
+            lock.lock();
+            try {
+                // Another thread may have loaded the page while we were
+                // waiting for the lock.
+                BufferFrame frame = pageTable.get(key);
+                if (frame != null && frame.tryPin(key)) {
+                    if (reference && frame.getPinCount() == 1) {
+                        evictionPolicy.hit(frame);
+                        IOStats.recordHit(ioStats, page.getIOStats(), transactionStats);
+                    }
+                    return frame;
+                }
+                frame = getVictim(transactionStats);
+                int bytesRead;
+                try {
+                    bytesRead = frame.load(key, page, page.getFileChannel(), page.getBlockNum(),
+                                           page.isDurable());
+                } catch (PageException e) {
+                    freeFrames.add(frame);
+                    throw e;
+                }
+                IOStats.recordMiss(bytesRead, ioStats, page.getIOStats(), transactionStats);
+                pageTable.put(key, frame);
+                evictionPolicy.load(frame);
+                return frame;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void discard(long key) {
+            lock.lock();
+            try {
+                BufferFrame frame = pageTable.remove(key);
+                if (frame != null) {
+                    evictionPolicy.remove(frame);
+                    frame.invalidate();
+                    freeFrames.add(frame);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void evictAll(int allocID) {
+            lock.lock();
+            try {
+                for (BufferFrame frame : frames) {
+                    if (!frame.isValid() || PageAllocator.translateAllocator(frame.getKey()) != allocID) {
+                        continue;
+                    }
+                    int bytesWritten = frame.flush();
+                    if (bytesWritten > 0) {
+                        IOStats.recordFlush(bytesWritten, ioStats, frame.getOwnerStats());
+                    }
+                    pageTable.remove(frame.getKey());
+                    evictionPolicy.remove(frame);
+                    frame.invalidate();
+                    freeFrames.add(frame);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Returns a frame that can hold a new page, evicting a page chosen by
+         * the eviction policy if there are no free frames.
+         */
+        private BufferFrame getVictim(IOStats transactionStats) {
+            if (!freeFrames.isEmpty()) {
+                return freeFrames.poll();
+            }
+            // A frame the policy picks can still be pinned by a concurrent hit
+            // before we claim it; such frames were just referenced, so they are
+            // handed back to the policy as freshly loaded.
+            List<BufferFrame> raced = new ArrayList<>();
+            BufferFrame frame;
+            try {
+                while (true) {
+                    frame = evictionPolicy.evict();
+                    if (frame == null) {
+                        throw new PageException("no frames available: all " + frames.length +
+                                                " frames of the shard are pinned");
+                    }
+                    if (frame.tryEvict()) {
+                        break;
+                    }
+                    raced.add(frame);
+                }
+            } finally {
+                for (BufferFrame r : raced) {
+                    evictionPolicy.load(r);
+                }
+            }
+            pageTable.remove(frame.getKey());
+            IOStats ownerStats = frame.getOwnerStats();
+            IOStats.recordEviction(ioStats, ownerStats, transactionStats);
+            int bytesWritten = frame.flush();
+            if (bytesWritten > 0) {
+                IOStats.recordFlush(bytesWritten, ioStats, ownerStats, transactionStats);
+            }
+            frame.invalidate();
+            return frame;
+        }
+    }
+}
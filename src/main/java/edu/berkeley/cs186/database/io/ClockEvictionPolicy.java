@@ -0,0 +1,58 @@
+package edu.berkeley.cs186.database.io;
+
+/**
+ * The CLOCK (second chance) approximation of LRU. Every frame has a reference
+ * bit which is set when the frame is loaded or hit. To find a victim, a clock
+ * hand sweeps over the frames: frames with their reference bit set get a second
+ * chance (the bit is cleared and the hand moves on), and the first unpinned
+ * frame with a clear bit is evicted.
+ *
+ * Unlike LRU, a hit only sets a bit, so it does not reorder any shared data
+ * structure.
+ */
+public class ClockEvictionPolicy implements EvictionPolicy {
+    private BufferFrame[] frames;
+    private boolean[] referenced;
+    private boolean[] tracked;
+    private int hand;
+
+    public void init(BufferFrame[] frames) {
+        this.frames = frames;
+        this.referenced = new boolean[frames.length];
+        this.tracked = new boolean[frames.length];
+        this.hand = 0;
+    }
+
+    public void load(BufferFrame frame) {
+        tracked[frame.getIndex()] = true;
+        referenced[frame.getIndex()] = true;
+    }
+
+    public void hit(BufferFrame frame) {
+        referenced[frame.getIndex()] = true;
+    }
+
+    public void remove(BufferFrame frame) {
+        tracked[frame.getIndex()] = false;
+        referenced[frame.getIndex()] = false;
+    }
+
+    public BufferFrame evict() {
+        // Two full sweeps are enough: the first clears every reference bit, so
+        // the second finds a victim unless every frame is pinned.
+        for (int i = 0; i < 2 * frames.length; ++i) {
+            int index = hand;
+            hand = (hand + 1) % frames.length;
+            if (!tracked[index] || frames[index].isPinned()) {
+                continue;
+            }
+            if (referenced[index]) {
+                referenced[index] = false;
+                continue;
+            }
+            tracked[index] = false;
+            return frames[index];
+        }
+        return null;
+    }
+}
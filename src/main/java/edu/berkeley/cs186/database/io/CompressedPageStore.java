@@ -0,0 +1,313 @@
+package edu.berkeley.cs186.database.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The data pages of a compressed file (see BufferManager.IOMode.COMPRESSED),
+ * which are kept next to the file in a file of the same name followed by
+ * FILENAME_SUFFIX. Every data page is compressed with PageCodec into an
+ * extent of that file, which is only as large as the compressed page
+ * (rounded up to a multiple of ALIGNMENT bytes):
+ *
+ *   +---------+----------+----------+--------+------------------+
+ *   | pageNum | sequence | capacity | length | compressed page  |
+ *   +---------+----------+----------+--------+------------------+
+ *      4 B        8 B        2 B       2 B      capacity bytes
+ *
+ * length is the length of the compressed page, Page.pageSize if the page did
+ * not compress and is stored as is, or FREED if the page has been freed. The
+ * extents are packed one after the
+ * other, and the extent of every page is kept in an in-memory map, which is
+ * rebuilt by reading the headers of the extents when the file is opened.
+ *
+ * A page is never rewritten in place, so that a write torn by a crash cannot
+ * destroy the only copy of a page: it is written to a free extent of the right
+ * size, or to a new extent at the end of the file, and its old extent is only
+ * freed once the write is done. The compressed page is written before the
+ * header, and (for durable stores) forced to disk first, so that a torn write
+ * leaves the extent with the header of whatever it held before. Every write is
+ * stamped with the next sequence number, so that if a page has several extents
+ * when the file is opened, the one written last is its extent and the others
+ * are free. That only holds for a page which still has an extent, so freeing
+ * a page stamps its extent with a FREED header, which makes the page have no
+ * extent when the file is opened. A header which names a page that was freed
+ * can still survive in an extent the page had given up earlier, and a torn
+ * write to that extent can leave it with the wrong bytes: reading such a page
+ * fails with a PageException, and the allocator frees whatever extent a page
+ * has before it hands the page out again.
+ *
+ * The master and header pages of the file are not compressed; they stay in
+ * the file itself.
+ */
+class CompressedPageStore {
+    static final String FILENAME_SUFFIX = ".pages";
+
+    private static final int HEADER_SIZE = 16;
+    private static final int ALIGNMENT = 64;
+    private static final int FREED = 0;
+
+    private final FileChannel fc;
+    private final boolean durable;
+
+    // The extent of every page that has been written, and the free extents by
+    // capacity.
+    private final Map<Integer, Extent> extents;
+    private final Map<Integer, Deque<Long>> freeExtents;
+
+    // The end of the last extent, and the sequence number of the next write.
+    private long end;
+    private long nextSequence;
+
+    // Scratch space for reading and writing extents, and for compressing
+    // pages into.
+    private final byte[] extentBytes;
+    private final byte[] compressedBytes;
+
+    private static class Extent {
+        final long offset;
+        final int capacity;
+        final long sequence;
+
+        Extent(long offset, int capacity, long sequence) {
+            this.offset = offset;
+            this.capacity = capacity;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * Opens the store in file, emptying it if wipe is true.
+     *
+     * @param durable whether writes are forced to disk
+     */
+    CompressedPageStore(File file, boolean wipe, boolean durable) {
+        this.durable = durable;
+        this.extents = new HashMap<>();
+        this.freeExtents = new HashMap<>();
+        this.extentBytes = new byte[HEADER_SIZE + Page.pageSize];
+        // Pages which do not shrink by at least a header's worth are stored as is.
+        this.compressedBytes = new byte[Page.pageSize - HEADER_SIZE];
+        try {
+            this.fc = new RandomAccessFile(file, "rw").getChannel();
+            if (wipe) {
+                this.fc.truncate(0);
+            }
+            readExtents();
+        } catch (IOException e) {
+            throw new PageException("Could not open File: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the headers of every extent into extents and freeExtents. An
+     * extent cut short by a crash while the file was growing is ignored, and
+     * will be overwritten.
+     */
+    private void readExtents() throws IOException {
+        long size = fc.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        // The pages whose last extent is FREED.
+        Set<Integer> freedPages = new HashSet<>();
+        this.end = 0;
+        this.nextSequence = 0;
+        while (end + HEADER_SIZE <= size) {
+            header.clear();
+            readFully(header, end);
+            int pageNum = header.getInt(0);
+            long sequence = header.getLong(4);
+            int capacity = header.getShort(12) & 0xffff;
+            int length = header.getShort(14) & 0xffff;
+            if (capacity == 0 || end + HEADER_SIZE + capacity > size) {
+                break;
+            }
+            Extent extent = new Extent(end, capacity, sequence);
+            Extent current = extents.get(pageNum);
+            if (current == null || current.sequence < sequence) {
+                extents.put(pageNum, extent);
+                if (current != null) {
+                    free(current);
+                }
+                if (length == FREED) {
+                    freedPages.add(pageNum);
+                } else {
+                    freedPages.remove(pageNum);
+                }
+            } else {
+                free(extent);
+            }
+            nextSequence = Math.max(nextSequence, sequence + 1);
+            end += HEADER_SIZE + capacity;
+        }
+        for (int pageNum : freedPages) {
+            free(extents.remove(pageNum));
+        }
+    }
+
+    /**
+     * Reads data page pageNum into page, a buffer of one page, which is all
+     * zeroes if the page has never been written.
+     *
+     * @return the number of bytes read from the file
+     */
+    synchronized int read(int pageNum, ByteBuffer page) {
+        Extent extent = extents.get(pageNum);
+        if (extent == null) {
+            for (int i = 0; i < Page.pageSize; ++i) {
+                page.put(i, (byte) 0);
+            }
+            return 0;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(extentBytes, 0, HEADER_SIZE + extent.capacity);
+        try {
+            readFully(buf, extent.offset);
+        } catch (IOException e) {
+            throw new PageException("Can't read page: " + pageNum + " ; " + e.getMessage());
+        }
+        int length = buf.getShort(14) & 0xffff;
+        if (length == Page.pageSize && extent.capacity >= Page.pageSize) {
+            ByteBuffer dst = page.duplicate();
+            dst.clear();
+            dst.put(extentBytes, HEADER_SIZE, Page.pageSize);
+            return HEADER_SIZE + extent.capacity;
+        }
+        if (length > extent.capacity) {
+            throw new PageException("Corrupt compressed page: " + pageNum);
+        }
+        // The compressed page is moved to the front of extentBytes, since the
+        // codec reads it from the start of the array.
+        System.arraycopy(extentBytes, HEADER_SIZE, extentBytes, 0, length);
+        int decompressed = PageCodec.decompress(extentBytes, length, page);
+        if (decompressed != Page.pageSize) {
+            throw new PageException("Corrupt compressed page: " + pageNum);
+        }
+        return HEADER_SIZE + extent.capacity;
+    }
+
+    /**
+     * Compresses page, a buffer holding the contents of data page pageNum,
+     * into a new extent, and frees its old one.
+     *
+     * @return the number of bytes written to the file
+     */
+    synchronized int write(int pageNum, ByteBuffer page) {
+        int length = PageCodec.compress(page, Page.pageSize, compressedBytes);
+        boolean compressed = length >= 0;
+        if (!compressed) {
+            length = Page.pageSize;
+        }
+        int capacity = (length + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+
+        // The old extent is never on the free list, so this is always another
+        // extent.
+        long offset;
+        Deque<Long> free = freeExtents.get(capacity);
+        if (free != null && !free.isEmpty()) {
+            offset = free.pop();
+        } else {
+            offset = end;
+            end += HEADER_SIZE + capacity;
+        }
+
+        ByteBuffer buf = ByteBuffer.wrap(extentBytes, 0, HEADER_SIZE + capacity);
+        long sequence = nextSequence++;
+        buf.putInt(pageNum).putLong(sequence).putShort((short) capacity).putShort((short) length);
+        if (compressed) {
+            buf.put(compressedBytes, 0, length);
+        } else {
+            ByteBuffer src = page.duplicate();
+            src.clear();
+            buf.put(src);
+        }
+        Arrays.fill(extentBytes, HEADER_SIZE + length, HEADER_SIZE + capacity, (byte) 0);
+        try {
+            buf.position(HEADER_SIZE);
+            writeFully(buf, offset + HEADER_SIZE);
+            buf.rewind().limit(HEADER_SIZE);
+            writeFully(buf, offset);
+        } catch (IOException e) {
+            // The extent may hold part of the page, so it is not reused.
+            throw new PageException("Can't write page: " + pageNum + " ; " + e.getMessage());
+        }
+
+        Extent current = extents.put(pageNum, new Extent(offset, capacity, sequence));
+        if (current != null) {
+            free(current);
+        }
+        return HEADER_SIZE + capacity;
+    }
+
+    /**
+     * Frees the extent of data page pageNum, which has been freed, and stamps
+     * it with a FREED header so that it stays free when the file is reopened.
+     */
+    synchronized void free(int pageNum) {
+        Extent extent = extents.remove(pageNum);
+        if (extent == null) {
+            return;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(extentBytes, 0, HEADER_SIZE);
+        buf.putInt(pageNum).putLong(nextSequence++).putShort((short) extent.capacity).putShort((short) FREED);
+        buf.flip();
+        try {
+            writeFully(buf, extent.offset);
+        } catch (IOException e) {
+            // The header may be torn, so the extent is not reused.
+            throw new PageException("Can't free page: " + pageNum + " ; " + e.getMessage());
+        }
+        free(extent);
+    }
+
+    /**
+     * @return the number of bytes taken up by the extents
+     */
+    synchronized long size() {
+        return end;
+    }
+
+    synchronized void close() {
+        try {
+            fc.close();
+        } catch (IOException e) {
+            throw new PageException("Could not close File: " + e.getMessage());
+        }
+    }
+
+    private void free(Extent extent) {
+        freeExtents.computeIfAbsent(extent.capacity, c -> new ArrayDeque<>()).push(extent.offset);
+    }
+
+    /**
+     * Writes the rest of buf at position, and forces it to disk if the store
+     * is durable.
+     */
+    private void writeFully(ByteBuffer buf, long position) throws IOException {
+        int start = buf.position();
+        while (buf.hasRemaining()) {
+            fc.write(buf, position + buf.position() - start);
+        }
+        if (durable) {
+            fc.force(false);
+        }
+    }
+
+    private void readFully(ByteBuffer buf, long position) throws IOException {
+        int start = buf.position();
+        while (buf.hasRemaining()) {
+            if (fc.read(buf, position + buf.position() - start) < 0) {
+                throw new IOException("unexpected end of file");
+            }
+        }
+        buf.position(start);
+    }
+}
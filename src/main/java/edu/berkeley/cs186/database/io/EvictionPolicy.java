@@ -0,0 +1,46 @@
+package edu.berkeley.cs186.database.io;
+
+/**
+ * An EvictionPolicy decides which page a BufferManager evicts when it needs a
+ * frame for a new page. The BufferManager tells the policy about every frame
+ * it loads, every hit on a resident frame, and every frame it drops for other
+ * reasons (freed pages, closed allocators); in return, the policy picks
+ * victims among the frames it knows about.
+ *
+ * A policy is stateful and belongs to a single shard of a BufferManager, so
+ * buffer pools are given a factory rather than an instance:
+ *
+ *   BufferManager bufferManager = new BufferManager(1024, ClockEvictionPolicy::new);
+ *
+ * All methods are called with the lock of the policy's shard held, so policies
+ * need not be thread-safe. Hits may go unreported when the shard is busy.
+ */
+public interface EvictionPolicy {
+    /**
+     * Called once, before any other method, with every frame of the shard.
+     */
+    void init(BufferFrame[] frames);
+
+    /**
+     * Called after a page has been read into frame.
+     */
+    void load(BufferFrame frame);
+
+    /**
+     * Called every time a resident page is referenced (see BufferManager.pin).
+     */
+    void hit(BufferFrame frame);
+
+    /**
+     * Called when the page in frame is dropped without being chosen by evict.
+     */
+    void remove(BufferFrame frame);
+
+    /**
+     * Chooses a frame to evict. The returned frame must be valid and unpinned,
+     * and the policy stops tracking it.
+     *
+     * @return the frame to evict, or null if every frame is pinned
+     */
+    BufferFrame evict();
+}
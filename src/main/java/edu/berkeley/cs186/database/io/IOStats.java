@@ -0,0 +1,224 @@
+package edu.berkeley.cs186.database.io;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters of the buffer pool activity caused by some part of the database.
+ * Every BufferManager and every PageAllocator keeps one, and so does every
+ * Database.Transaction and QueryOperator. An event is counted by the stats of
+ * the buffer pool, of the allocator owning the page, of the transaction the
+ * page was accessed for (if any), and of every QueryOperator whose iterator is
+ * running on the current thread (see enter).
+ *
+ *   - hits: references to pages that were already resident, where a page is
+ *     referenced by pinning it, or by the first access through a Buffer from
+ *     Page.getBuffer, if it was not pinned already (see BufferManager.pin)
+ *   - misses: accesses to pages that had to be read in (including read-ahead)
+ *   - evictions: pages dropped from the buffer pool to make room for others
+ *   - flushes: pages written back to disk
+ *   - bytesRead and bytesWritten: the bytes moved by misses and flushes,
+ *     which for the data pages of compressed files are the sizes of their
+ *     extents (see CompressedPageStore) rather than Page.pageSize
+ *
+ * Flushes of memory-mapped pages of non-durable allocators only hand the page
+ * to the operating system and are not counted.
+ *
+ * Stats can be exported as JMX MBeans with registerMBean.
+ */
+public class IOStats implements IOStatsMBean {
+    // The stats of the operators whose iterators are running on this thread,
+    // innermost last.
+    private static final ThreadLocal<Deque<IOStats>> current =
+        ThreadLocal.withInitial(ArrayDeque::new);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+
+    private ObjectName mbeanName;
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getFlushes() {
+        return flushes.sum();
+    }
+
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    /**
+     * @return the fraction of pins which were hits, or 0 if there were none
+     */
+    public double getHitRatio() {
+        long h = getHits();
+        long total = h + getMisses();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    /**
+     * @return the number of pages read or written
+     */
+    public long getNumIOs() {
+        return getMisses() + getFlushes();
+    }
+
+    /**
+     * Sets every counter back to zero.
+     */
+    public void reset() {
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+        flushes.reset();
+        bytesRead.reset();
+        bytesWritten.reset();
+    }
+
+    /**
+     * Makes every event on the current thread count towards these stats too,
+     * until the matching call to exit.
+     */
+    public void enter() {
+        current.get().addLast(this);
+    }
+
+    /**
+     * Undoes the matching call to enter.
+     */
+    public void exit() {
+        Deque<IOStats> stack = current.get();
+        if (stack.peekLast() != this) {
+            throw new IllegalStateException("IOStats.exit without matching enter");
+        }
+        stack.removeLast();
+    }
+
+    /**
+     * Registers these stats with the platform MBean server under
+     * edu.berkeley.cs186.database:type=IOStats,name=name. Stats can be
+     * registered under a single name at a time.
+     *
+     * @param name the name to register under
+     */
+    public synchronized void registerMBean(String name) {
+        unregisterMBean();
+        try {
+            ObjectName objectName = new ObjectName("edu.berkeley.cs186.database:type=IOStats,name=" +
+                                                   ObjectName.quote(name));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+            this.mbeanName = objectName;
+        } catch (JMException e) {
+            throw new IllegalArgumentException("could not register IOStats " + name + ": " +
+                                               e.getMessage());
+        }
+    }
+
+    /**
+     * Removes these stats from the platform MBean server, if registered.
+     */
+    public synchronized void unregisterMBean() {
+        if (mbeanName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+        } catch (JMException e) {
+            /* already gone */
+        }
+        mbeanName = null;
+    }
+
+    public String toString() {
+        return "hits=" + getHits() + ", misses=" + getMisses() + ", evictions=" + getEvictions() +
+               ", flushes=" + getFlushes() + ", bytesRead=" + getBytesRead() +
+               ", bytesWritten=" + getBytesWritten();
+    }
+
+    /**
+     * Counts a hit towards each of stats and the stats of the running
+     * operators. Any of stats may be null.
+     */
+    static void recordHit(IOStats... stats) {
+        record(Event.HIT, 0, stats);
+    }
+
+    /**
+     * Counts a miss which read bytesRead bytes from disk.
+     */
+    static void recordMiss(long bytesRead, IOStats... stats) {
+        record(Event.MISS, bytesRead, stats);
+    }
+
+    static void recordEviction(IOStats... stats) {
+        record(Event.EVICTION, 0, stats);
+    }
+
+    /**
+     * Counts a flush which wrote bytesWritten bytes to disk.
+     */
+    static void recordFlush(long bytesWritten, IOStats... stats) {
+        record(Event.FLUSH, bytesWritten, stats);
+    }
+
+    private enum Event {
+        HIT, MISS, EVICTION, FLUSH
+    }
+
+    private static void record(Event event, long bytes, IOStats[] stats) {
+        for (IOStats s : stats) {
+            if (s != null) {
+                s.record(event, bytes);
+            }
+        }
+        for (IOStats s : current.get()) {
+            s.record(event, bytes);
+        }
+    }
+
+    private void record(Event event, long bytes) {
+        switch (event) {
+        case HIT:
+            hits.increment();
+            break;
+        case MISS:
+            misses.increment();
+            bytesRead.add(bytes);
+            break;
+        case EVICTION:
+            evictions.increment();
+            break;
+        case FLUSH:
+            flushes.increment();
+            bytesWritten.add(bytes);
+            break;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package edu.berkeley.cs186.database.io;
+
+/**
+ * The JMX view of an IOStats. See IOStats for what each counter means.
+ */
+public interface IOStatsMBean {
+    long getHits();
+
+    long getMisses();
+
+    long getEvictions();
+
+    long getFlushes();
+
+    long getBytesRead();
+
+    long getBytesWritten();
+
+    double getHitRatio();
+
+    void reset();
+}
@@ -0,0 +1,42 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Evicts the least recently used unpinned page. This is the default policy of
+ * a BufferManager.
+ */
+public class LRUEvictionPolicy implements EvictionPolicy {
+    // Resident frames, from least to most recently used.
+    private LinkedHashSet<BufferFrame> order;
+
+    public void init(BufferFrame[] frames) {
+        this.order = new LinkedHashSet<>();
+    }
+
+    public void load(BufferFrame frame) {
+        order.add(frame);
+    }
+
+    public void hit(BufferFrame frame) {
+        order.remove(frame);
+        order.add(frame);
+    }
+
+    public void remove(BufferFrame frame) {
+        order.remove(frame);
+    }
+
+    public BufferFrame evict() {
+        Iterator<BufferFrame> iter = order.iterator();
+        while (iter.hasNext()) {
+            BufferFrame frame = iter.next();
+            if (!frame.isPinned()) {
+                iter.remove();
+                return frame;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,150 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The LRU-K policy of O'Neil et al. For every resident page we remember the
+ * times of its last K references. The victim is the unpinned page whose K-th
+ * most recent reference is furthest in the past. Pages referenced fewer than K
+ * times are treated as infinitely old and are evicted first (least recently
+ * used first among themselves), so pages touched once by a sequential scan do
+ * not push out pages which are referenced repeatedly.
+ *
+ * Also as in the paper, references to a page which follow its previous
+ * reference within the correlated reference period are correlated: they are
+ * part of the same access (a scan reading a page's bitmap and then its
+ * records, say) and count as a single reference. Times are measured in
+ * references to the pages of the shard, so a reference is correlated if fewer
+ * than correlatedReferencePeriod references to other pages came in between.
+ *
+ * The history of a page outlives its eviction for a while (we remember as many
+ * evicted pages as there are frames), so a page which is re-read shortly after
+ * being evicted is recognized as hot.
+ */
+public class LRUKEvictionPolicy implements EvictionPolicy {
+    public static final int DEFAULT_K = 2;
+    public static final int DEFAULT_CORRELATED_REFERENCE_PERIOD = 4;
+
+    private final int k;
+    private final int correlatedReferencePeriod;
+    private BufferFrame[] frames;
+
+    // history[i][j] is the time of the (j+1)-th most recent uncorrelated
+    // reference to frame i, or 0 if frame i has been referenced at most j
+    // times, and last[i] is the time of its most recent reference of all.
+    private long[][] history;
+    private long[] last;
+    private boolean[] tracked;
+    private long clock;
+
+    // The history of recently evicted pages, keyed by virtual page number, from
+    // least to most recently evicted. Every entry is the history of the page
+    // followed by the time of its last reference.
+    private Map<Long, long[]> retained;
+
+    public LRUKEvictionPolicy() {
+        this(DEFAULT_K);
+    }
+
+    public LRUKEvictionPolicy(int k) {
+        this(k, DEFAULT_CORRELATED_REFERENCE_PERIOD);
+    }
+
+    public LRUKEvictionPolicy(int k, int correlatedReferencePeriod) {
+        if (k < 1) {
+            throw new IllegalArgumentException("LRU-K requires K >= 1");
+        }
+        if (correlatedReferencePeriod < 0) {
+            throw new IllegalArgumentException("LRU-K requires a non-negative correlated reference period");
+        }
+        this.k = k;
+        this.correlatedReferencePeriod = correlatedReferencePeriod;
+    }
+
+    public void init(BufferFrame[] frames) {
+        this.frames = frames;
+        this.history = new long[frames.length][k];
+        this.last = new long[frames.length];
+        this.tracked = new boolean[frames.length];
+        this.clock = 0;
+        int maxRetained = frames.length;
+        this.retained = new LinkedHashMap<Long, long[]>() {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<Long, long[]> eldest) {
+                return size() > maxRetained;
+            }
+        };
+    }
+
+    public void load(BufferFrame frame) {
+        int index = frame.getIndex();
+        tracked[index] = true;
+        long[] previous = retained.remove(frame.getKey());
+        if (previous != null) {
+            System.arraycopy(previous, 0, history[index], 0, k);
+            last[index] = previous[k];
+            hit(frame);
+        } else {
+            Arrays.fill(history[index], 0);
+            history[index][0] = ++clock;
+            last[index] = clock;
+        }
+    }
+
+    public void hit(BufferFrame frame) {
+        int index = frame.getIndex();
+        long[] h = history[index];
+        long now = ++clock;
+        if (now - last[index] > correlatedReferencePeriod) {
+            // The correlated period of the previous reference is over. As in
+            // the paper, the older references are moved forward by its length,
+            // so that a long correlated period does not make the page look
+            // older than it is.
+            long correlation = last[index] - h[0];
+            for (int j = k - 1; j > 0; --j) {
+                h[j] = h[j - 1] == 0 ? 0 : h[j - 1] + correlation;
+            }
+            h[0] = now;
+        }
+        last[index] = now;
+    }
+
+    public void remove(BufferFrame frame) {
+        tracked[frame.getIndex()] = false;
+    }
+
+    public BufferFrame evict() {
+        int victim = -1;
+        for (int i = 0; i < frames.length; ++i) {
+            if (!tracked[i] || frames[i].isPinned()) {
+                continue;
+            }
+            if (victim == -1 || isOlder(i, victim)) {
+                victim = i;
+            }
+        }
+        if (victim == -1) {
+            return null;
+        }
+        tracked[victim] = false;
+        long[] h = Arrays.copyOf(history[victim], k + 1);
+        h[k] = last[victim];
+        retained.put(frames[victim].getKey(), h);
+        return frames[victim];
+    }
+
+    // Whether frame i should be evicted before frame j.
+    private boolean isOlder(int i, int j) {
+        long ki = history[i][k - 1];
+        long kj = history[j][k - 1];
+        if (ki != kj) {
+            return ki < kj;
+        }
+        // Both have the same K-th reference (typically both fewer than K
+        // references): fall back to plain LRU.
+        return last[i] < last[j];
+    }
+}
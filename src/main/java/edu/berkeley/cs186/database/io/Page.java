@@ -5,21 +5,45 @@ import edu.berkeley.cs186.database.common.AbstractBuffer;
 import edu.berkeley.cs186.database.common.Buffer;
 import edu.berkeley.cs186.database.concurrency.*;
 
-import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
-import java.io.IOException;
 
 /**
- * General-purpose wrapper for interacting with the memory-mapped bytes on a page.
+ * General-purpose wrapper for interacting with the bytes on a page.
+ *
+ * A Page is a handle: the bytes themselves live in a BufferFrame. Pages
+ * fetched through a PageAllocator share the frames of a BufferManager and may
+ * be evicted whenever they are not pinned; every access pins the frame for its
+ * duration, and callers can pin a page across several accesses with pin and
+ * unpin. Only pin and the first access through each Buffer count as references
+ * to the page (see BufferManager.pin). Pages constructed directly from a
+ * FileChannel own a private frame which is never evicted.
  */
 public class Page {
     public static final int pageSize = 4096;
 
     private LockContext lockContext;
-    private MappedByteBuffer pageData;
     private int pageNum;
     private boolean durable;
 
+    // Where this page lives on disk.
+    private FileChannel fc;
+    private int blockNum;
+
+    // The buffer pool holding this page, and the virtual page number it is
+    // stored under. bufferManager is null for pages with a private frame.
+    private BufferManager bufferManager;
+    private long key;
+
+    // The private frame of a page not managed by a BufferManager.
+    private BufferFrame frame;
+
+    // The stats of the allocator this page belongs to, or null.
+    private IOStats ioStats;
+
+    // Where this page lives instead of block blockNum of fc if it is a data
+    // page of a compressed file, or null.
+    private CompressedPageStore store;
+
     /**
      * Create a new page using fc with at offset blockNum with virtual page number pageNum
      *
@@ -45,15 +69,47 @@ public class Page {
         this.lockContext = lockContext;
         this.pageNum = pageNum;
         this.durable = durable;
-        PageAllocator.incrementCacheMisses();
+        this.fc = fc;
+        this.blockNum = blockNum;
+        this.bufferManager = null;
+        this.key = BufferFrame.INVALID_KEY;
+        this.frame = new BufferFrame(-1);
         try {
-            this.pageData = fc.map(FileChannel.MapMode.READ_WRITE, blockNum * Page.pageSize, Page.pageSize);
-        } catch (IOException e) {
+            this.frame.load(this.key, this, fc, blockNum, durable);
+        } catch (PageException e) {
             throw new PageException("Can't mmap page: " + pageNum + "at block: " + blockNum + " ; " +
                                     e.getMessage());
         }
     }
 
+    /**
+     * Create a handle to the page at offset blockNum of fc which is cached by
+     * bufferManager under virtual page number key, and whose I/O counts
+     * towards ioStats. The page is not read until it is first accessed.
+     */
+    Page(LockContext lockContext, BufferManager bufferManager, long key, IOStats ioStats,
+         FileChannel fc, int blockNum, int pageNum, boolean durable) {
+        this(lockContext, bufferManager, key, ioStats, fc, blockNum, pageNum, durable, null);
+    }
+
+    /**
+     * Like the constructor above, but if store is not null, the page is read
+     * from and written to store instead of block blockNum of fc.
+     */
+    Page(LockContext lockContext, BufferManager bufferManager, long key, IOStats ioStats,
+         FileChannel fc, int blockNum, int pageNum, boolean durable, CompressedPageStore store) {
+        this.lockContext = lockContext;
+        this.pageNum = pageNum;
+        this.durable = durable;
+        this.fc = fc;
+        this.blockNum = blockNum;
+        this.bufferManager = bufferManager;
+        this.key = key;
+        this.ioStats = ioStats;
+        this.store = store;
+        this.frame = null;
+    }
+
     public Buffer getBuffer(BaseTransaction transaction) {
         return new PageBuffer(transaction);
     }
@@ -65,18 +121,18 @@ public class Page {
      * @param num the number of bytes to read
      * @param buf the buffer to put the bytes into
      */
-    private void readBytes(int position, int num, byte[] buf) {
-        if (position < 0 || num < 0) {
-            throw new PageException("position or num can't be negative");
-        }
-        if (Page.pageSize < position + num) {
-            throw new PageException("readBytes is out of bounds");
-        }
+    private void readBytes(BaseTransaction transaction, int position, int num, byte[] buf,
+                           boolean reference) {
+        checkBounds(position, num, "readBytes is out of bounds");
         if (buf.length < num) {
             throw new PageException("num bytes to read is longer than buffer");
         }
-        pageData.position(position);
-        pageData.get(buf, 0, num);
+        BufferFrame f = pinFrame(transaction, reference);
+        try {
+            f.read(position, num, buf);
+        } finally {
+            unpinFrame(f);
+        }
     }
 
     /**
@@ -97,21 +153,19 @@ public class Page {
      * @param num the number of bytes to write
      * @param buf the source for the write
      */
-    private void writeBytes(int position, int num, byte[] buf) {
+    private void writeBytes(BaseTransaction transaction, int position, int num, byte[] buf,
+                            boolean reference) {
         if (buf.length < num) {
             throw new PageException("num bytes to write is longer than buffer");
         }
+        checkBounds(position, num, "writeBytes would go out of bounds");
 
-        if (position < 0 || num < 0) {
-            throw new PageException("position or num can't be negative");
-        }
-
-        if (Page.pageSize < num + position) {
-            throw new PageException("writeBytes would go out of bounds");
+        BufferFrame f = pinFrame(transaction, reference);
+        try {
+            f.write(position, num, buf);
+        } finally {
+            unpinFrame(f);
         }
-
-        pageData.position(position);
-        pageData.put(buf, 0, num);
     }
 
     /**
@@ -130,12 +184,44 @@ public class Page {
     }
 
     /**
-     * Force the page to disk.
+     * Force the page to disk if it has been modified since it was last flushed.
      */
     public void flush() {
-        if (this.durable) {
-            PageAllocator.incrementCacheMisses();
-            this.pageData.force();
+        if (this.bufferManager == null) {
+            this.frame.flush();
+        } else {
+            this.bufferManager.flush(this.key);
+        }
+    }
+
+    /**
+     * Pin this page in the buffer pool, reading it in if necessary. A pinned
+     * page is never evicted. Every call to pin must be matched by a call to
+     * unpin.
+     *
+     * @return this page
+     */
+    public Page pin() {
+        return pin(null);
+    }
+
+    /**
+     * Pin this page on behalf of transaction, so that reading the page in
+     * counts towards the transaction's IOStats.
+     *
+     * @return this page
+     */
+    public Page pin(BaseTransaction transaction) {
+        pinFrame(transaction, true);
+        return this;
+    }
+
+    /**
+     * Release a pin acquired with pin.
+     */
+    public void unpin() {
+        if (this.bufferManager != null) {
+            this.bufferManager.unpin(this.key);
         }
     }
 
@@ -146,21 +232,251 @@ public class Page {
         return this.pageNum;
     }
 
+    long getKey() {
+        return this.key;
+    }
+
+    IOStats getIOStats() {
+        return this.ioStats;
+    }
+
+    FileChannel getFileChannel() {
+        return this.fc;
+    }
+
+    int getBlockNum() {
+        return this.blockNum;
+    }
+
+    boolean isDurable() {
+        return this.durable;
+    }
+
+    CompressedPageStore getStore() {
+        return this.store;
+    }
+
+    private BufferFrame pinFrame(BaseTransaction transaction, boolean reference) {
+        if (this.bufferManager == null) {
+            return this.frame;
+        }
+        return this.bufferManager.pin(this, transaction, reference);
+    }
+
+    private static void checkBounds(int position, int num, String message) {
+        if (position < 0 || num < 0) {
+            throw new PageException("position or num can't be negative");
+        }
+        if (Page.pageSize < position + num) {
+            throw new PageException(message);
+        }
+    }
+
+    private void unpinFrame(BufferFrame f) {
+        if (this.bufferManager != null) {
+            this.bufferManager.unpin(f);
+        }
+    }
+
+    /**
+     * A view of the page starting at byte offset. Bulk gets and puts copy
+     * through readBytes and writeBytes; typed gets and puts at an absolute
+     * index read and write the frame directly, without copying through an
+     * intermediate array or moving any position shared with other views.
+     *
+     * Only the first access through a view (or the views sliced or duplicated
+     * from it) counts as a reference to the page.
+     */
     private class PageBuffer extends AbstractBuffer {
         private int offset;
         private BaseTransaction transaction;
+        private boolean referenced;
 
         public PageBuffer(BaseTransaction transaction) {
-            this(transaction, 0, 0);
+            this(transaction, 0, 0, false);
         }
 
-        public PageBuffer(BaseTransaction transaction, int offset, int position) {
+        public PageBuffer(BaseTransaction transaction, int offset, int position, boolean referenced) {
             super(position);
             this.offset = offset;
             this.transaction = transaction;
+            this.referenced = referenced;
         }
 
         public Buffer get(byte[] dst, int offset, int length) {
+            lockForRead();
+            Page.this.readBytes(this.transaction, this.offset + offset, length, dst, reference());
+            return this;
+        }
+
+        public Buffer put(byte[] src, int offset, int length) {
+            lockForWrite();
+            Page.this.writeBytes(this.transaction, this.offset + offset, length, src, reference());
+            return this;
+        }
+
+        public byte get(int index) {
+            BufferFrame f = pinForRead(index, 1);
+            try {
+                return f.get(this.offset + index);
+            } finally {
+                unpinFrame(f);
+            }
+        }
+
+        public char getChar(int index) {
+            BufferFrame f = pinForRead(index, 2);
+            try {
+                return f.getChar(this.offset + index);
+            } finally {
+                unpinFrame(f);
+            }
+        }
+
+        public short getShort(int index) {
+            BufferFrame f = pinForRead(index, 2);
+            try {
+                return f.getShort(this.offset + index);
+            } finally {
+                unpinFrame(f);
+            }
+        }
+
+        public int getInt(int index) {
+            BufferFrame f = pinForRead(index, 4);
+            try {
+                return f.getInt(this.offset + index);
+            } finally {
+                unpinFrame(f);
+            }
+        }
+
+        public long getLong(int index) {
+            BufferFrame f = pinForRead(index, 8);
+            try {
+                return f.getLong(this.offset + index);
+            } finally {
+                unpinFrame(f);
+            }
+        }
+
+        public float getFloat(int index) {
+            BufferFrame f = pinForRead(index, 4);
+            try {
+                return f.getFloat(this.offset + index);
+            } finally {
+                unpinFrame(f);
+            }
+        }
+
+        public double getDouble(int index) {
+            BufferFrame f = pinForRead(index, 8);
+            try {
+                return f.getDouble(this.offset + index);
+            } finally {
+                unpinFrame(f);
+            }
+        }
+
+        public Buffer put(int index, byte b) {
+            BufferFrame f = pinForWrite(index, 1);
+            try {
+                f.put(this.offset + index, b);
+            } finally {
+                unpinFrame(f);
+            }
+            return this;
+        }
+
+        public Buffer putChar(int index, char value) {
+            BufferFrame f = pinForWrite(index, 2);
+            try {
+                f.putChar(this.offset + index, value);
+            } finally {
+                unpinFrame(f);
+            }
+            return this;
+        }
+
+        public Buffer putShort(int index, short value) {
+            BufferFrame f = pinForWrite(index, 2);
+            try {
+                f.putShort(this.offset + index, value);
+            } finally {
+                unpinFrame(f);
+            }
+            return this;
+        }
+
+        public Buffer putInt(int index, int value) {
+            BufferFrame f = pinForWrite(index, 4);
+            try {
+                f.putInt(this.offset + index, value);
+            } finally {
+                unpinFrame(f);
+            }
+            return this;
+        }
+
+        public Buffer putLong(int index, long value) {
+            BufferFrame f = pinForWrite(index, 8);
+            try {
+                f.putLong(this.offset + index, value);
+            } finally {
+                unpinFrame(f);
+            }
+            return this;
+        }
+
+        public Buffer putFloat(int index, float value) {
+            BufferFrame f = pinForWrite(index, 4);
+            try {
+                f.putFloat(this.offset + index, value);
+            } finally {
+                unpinFrame(f);
+            }
+            return this;
+        }
+
+        public Buffer putDouble(int index, double value) {
+            BufferFrame f = pinForWrite(index, 8);
+            try {
+                f.putDouble(this.offset + index, value);
+            } finally {
+                unpinFrame(f);
+            }
+            return this;
+        }
+
+        public Buffer slice() {
+            return new PageBuffer(transaction, offset + position(), 0, referenced);
+        }
+
+        public Buffer duplicate() {
+            PageBuffer pb = new PageBuffer(transaction, offset, position(), referenced);
+            return pb;
+        }
+
+        private BufferFrame pinForRead(int index, int num) {
+            lockForRead();
+            checkBounds(this.offset + index, num, "readBytes is out of bounds");
+            return pinFrame(this.transaction, reference());
+        }
+
+        private BufferFrame pinForWrite(int index, int num) {
+            lockForWrite();
+            checkBounds(this.offset + index, num, "writeBytes would go out of bounds");
+            return pinFrame(this.transaction, reference());
+        }
+
+        // Whether the next access is the first through this view.
+        private boolean reference() {
+            boolean first = !this.referenced;
+            this.referenced = true;
+            return first;
+        }
+
+        private void lockForRead() {
             // TODO(hw5): locking code here
             //start
             //check if transaction holds lock on lockContext
@@ -171,11 +487,9 @@ public class Page {
                 //do nothing
             }
             //end
-            Page.this.readBytes(this.offset + offset, length, dst);
-            return this;
         }
 
-        public Buffer put(byte[] src, int offset, int length) {
+        private void lockForWrite() {
             // TODO(hw5): locking code here
             //start
             //check if transaction holds lock on lockContext
@@ -188,18 +502,6 @@ public class Page {
                 //do nothing
             }
             //end
-
-            Page.this.writeBytes(this.offset + offset, length, src);
-            return this;
-        }
-
-        public Buffer slice() {
-            return new PageBuffer(transaction, offset + position(), 0);
-        }
-
-        public Buffer duplicate() {
-            PageBuffer pb = new PageBuffer(transaction, offset, position());
-            return pb;
         }
     }
 }
@@ -8,45 +8,67 @@ import java.nio.ByteOrder;
 import java.util.LinkedHashMap;
 import java.lang.IllegalArgumentException;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.NoSuchElementException;
 import java.util.Iterator;
-import java.util.List;
-import java.util.ArrayList;
-import java.util.Set;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntPredicate;
 import java.io.Closeable;
+import java.io.File;
 
 import edu.berkeley.cs186.database.BaseTransaction;
 import edu.berkeley.cs186.database.common.BacktrackingIterator;
-import edu.berkeley.cs186.database.common.Buffer;
 import edu.berkeley.cs186.database.concurrency.DummyLockContext;
 import edu.berkeley.cs186.database.concurrency.LockContext;
 
 /**
  * A PageAllocation system for an OS paging system. Provides memory-mapped paging from the OS, an
- * interface to individual pages with the Page objects, an LRU cache for pages, 16GB worth of paging,
- * and virtual page translation.
+ * interface to individual pages with the Page objects, a buffer pool for pages (see BufferManager),
+ * 16GB worth of paging, and virtual page translation.
  *
  */
 public class PageAllocator implements Closeable {
     private static final int numHeaderPages = 1024;
-    private static final int cacheSize = 1024;
+
+    // The master page and the header pages are cached in the buffer pool under
+    // negative page numbers, so that they never collide with data pages.
+    private static final int masterPageNum = -1;
 
     private static AtomicInteger pACounter = new AtomicInteger(0);
-    private static LRUCache<Long, Page> pageLRU = new LRUCache<>(cacheSize);
-    private static AtomicLong numIOs = new AtomicLong(0);
-    private static AtomicLong cacheMisses = new AtomicLong(0);
 
     private LockContext lockContext;
+    private BufferManager bufferManager;
+    private IOStats ioStats;
     private Page masterPage;
     private FileChannel fc;
+
+    // The data pages of the file if it is compressed (see
+    // BufferManager.IOMode.COMPRESSED), or null.
+    private CompressedPageStore store;
+
     private int numPages;
     private int numUsedHeaderPages;
     private int allocID;
     private boolean durable;
+
+    // An in-memory copy of the allocation metadata, kept in sync with the
+    // master and header pages on every allocation and free. headerCounts[i] is
+    // the number of pages allocated under header page i, nonFullHeaders has
+    // bit i set if header page i has room for another page, and bit j of
+    // headerBitmaps[i] is set if page j of header page i is allocated. Header
+    // bitmaps are read from disk the first time they are needed.
+    private int[] headerCounts;
+    private BitSet nonFullHeaders;
+    private BitSet[] headerBitmaps;
+
+    // Metadata updates not yet forced to disk (see
+    // BufferManager#setMetadataGroupCommit), the header pages they touched,
+    // and the pages to force along with them (see flushWithMetadata).
+    private int pendingMetadataUpdates;
+    private BitSet dirtyHeaders;
+    private BitSet pagesWithMetadata;
     /**
      * Create a new PageAllocator that writes its bytes into a file named fName. If wipe is true, the
      * data in the page is completely removed.
@@ -70,16 +92,46 @@ public class PageAllocator implements Closeable {
 
     public PageAllocator(LockContext lockContext, String fName, boolean wipe, boolean durable,
                          BaseTransaction transaction) {
+        this(lockContext, fName, wipe, durable, BufferManager.getDefault(), transaction);
+    }
+
+    /**
+     * Create a new PageAllocator that writes its bytes into a file named fName and caches its pages
+     * in bufferManager. A new (or wiped) file is compressed if bufferManager is in
+     * IOMode.COMPRESSED, and an existing file is compressed if it was created compressed, in which
+     * case its data pages are kept in a second file, fName followed by
+     * CompressedPageStore.FILENAME_SUFFIX.
+     *
+     * @param lockContext the lock context
+     * @param fName the name of the file for this PageAllocator
+     * @param wipe a boolean specifying whether to wipe the file
+     * @param durable a boolean specifying whether writes are forced to disk
+     * @param bufferManager the buffer pool to cache pages in
+     */
+    public PageAllocator(LockContext lockContext, String fName, boolean wipe, boolean durable,
+                         BufferManager bufferManager, BaseTransaction transaction) {
         this.lockContext = lockContext;
         this.durable = durable;
+        this.bufferManager = bufferManager;
+        this.ioStats = new IOStats();
         try {
             this.fc = new RandomAccessFile(fName, "rw").getChannel();
         } catch (IOException e) {
             throw new PageException("Could not open File: " + e.getMessage());
         }
 
-        this.masterPage = new Page(this.lockContext.childContext(-1), this.fc, 0, -1);
+        File storeFile = new File(fName + CompressedPageStore.FILENAME_SUFFIX);
+        if (wipe ? bufferManager.getIOMode() == BufferManager.IOMode.COMPRESSED : storeFile.exists()) {
+            this.store = new CompressedPageStore(storeFile, wipe, durable);
+        } else if (wipe) {
+            storeFile.delete();
+        }
+
         this.allocID = pACounter.getAndIncrement();
+        this.masterPage = getMetaPage(masterPageNum, 0);
+        if (bufferManager.isExportingMBeans()) {
+            this.ioStats.registerMBean(fName);
+        }
 
         if (wipe) {
             // Nukes masterPage and headerPages
@@ -102,15 +154,26 @@ public class PageAllocator implements Closeable {
 
         byte[] masterBytes = masterPage.readBytes(transaction);
         IntBuffer ib = ByteBuffer.wrap(masterBytes).asIntBuffer();
-        int[] pageCounts = new int[ib.capacity()];
-        ib.get(pageCounts);
+        this.headerCounts = new int[numHeaderPages];
+        ib.get(this.headerCounts);
+        this.nonFullHeaders = new BitSet(numHeaderPages);
+        this.headerBitmaps = new BitSet[numHeaderPages];
+        this.dirtyHeaders = new BitSet(numHeaderPages);
+        this.pagesWithMetadata = new BitSet();
 
         this.numPages = 0;
         this.numUsedHeaderPages = 0;
         for (int i = 0; i < numHeaderPages; i++) {
-            this.numPages += pageCounts[i];
-            if (pageCounts[i] != 0) {
+            this.numPages += this.headerCounts[i];
+            if (this.headerCounts[i] != 0) {
                 this.numUsedHeaderPages += 1;
+            } else {
+                // Nothing has ever been allocated under this header page (or
+                // everything has been freed), so there is nothing to read.
+                this.headerBitmaps[i] = new BitSet(Page.pageSize);
+            }
+            if (this.headerCounts[i] < Page.pageSize) {
+                this.nonFullHeaders.set(i);
             }
         }
 
@@ -126,53 +189,41 @@ public class PageAllocator implements Closeable {
      * @return the virtual page number of the page
      */
     public synchronized int allocPage(BaseTransaction transaction) {
-        byte[] masterBytes = this.masterPage.readBytes(transaction);
-        IntBuffer ib = ByteBuffer.wrap(masterBytes).asIntBuffer();
-        int[] pageCounts = new int[ib.capacity()];
-        ib.get(pageCounts);
-
-        Page headerPage = null;
-        int headerIndex = -1;
-        for (int i = 0; i < numHeaderPages; i++) {
-            if (pageCounts[i] < Page.pageSize) {
-                // Found header page with space
-                headerPage = getHeadPage(i);
-                headerIndex = i;
-                break;
-            }
-        }
-
-        if (headerPage == null) {
+        int headerIndex = this.nonFullHeaders.nextSetBit(0);
+        if (headerIndex < 0 || headerIndex >= numHeaderPages) {
             throw new PageException("No free Pages Available");
         }
 
-        byte[] headerBytes = headerPage.readBytes(transaction);
-        int pageIndex = -1;
-
-        for (int i = 0; i < Page.pageSize; i++) {
-            if (headerBytes[i] == 0) {
-                pageIndex = i;
-                break;
-            }
-        }
+        BitSet headerBitmap = getHeaderBitmap(transaction, headerIndex);
+        int pageIndex = headerBitmap.nextClearBit(0);
 
-        if (pageIndex == -1) {
+        if (pageIndex >= Page.pageSize) {
             throw new PageException("Header page should have free page but doesnt");
         }
 
-        int newCount = pageCounts[headerIndex] + 1;
+        Page headerPage = getHeadPage(headerIndex);
+        int oldCount = this.headerCounts[headerIndex];
+        int newCount = oldCount + 1;
         this.masterPage.getBuffer(transaction).putInt(headerIndex * 4, newCount);
         headerPage.getBuffer(transaction).put(pageIndex, (byte) 1);
-
-        if (this.durable) {
-            this.masterPage.flush();
-            headerPage.flush();
+        this.headerCounts[headerIndex] = newCount;
+        headerBitmap.set(pageIndex);
+        if (newCount == Page.pageSize) {
+            this.nonFullHeaders.clear(headerIndex);
         }
 
+        metadataUpdated(headerIndex);
+
         int pageNum = headerIndex * Page.pageSize + pageIndex;
+        if (this.store != null) {
+            // A stale extent of a page freed before the store was reopened
+            // may still name the page (see CompressedPageStore); the new page
+            // is wiped anyway, so it starts out with no extent.
+            this.store.free(pageNum);
+        }
         fetchPage(transaction, pageNum).wipe(transaction);
         this.numPages += 1;
-        if (pageCounts[headerIndex] == 0) {
+        if (oldCount == 0) {
             this.numUsedHeaderPages += 1;
         }
 
@@ -193,12 +244,9 @@ public class PageAllocator implements Closeable {
             throw new PageException("invalid page number -- out of bounds");
         }
 
-        numIOs.getAndIncrement();
-
-        synchronized(PageAllocator.class) {
-            if (pageLRU.containsKey(translatePageNum(pageNum))) {
-                return pageLRU.get(translatePageNum(pageNum));
-            }
+        Page residentPage = bufferManager.getResidentPage(translatePageNum(pageNum));
+        if (residentPage != null) {
+            return residentPage;
         }
 
         int headPageIndex = pageNum / Page.pageSize;
@@ -207,31 +255,84 @@ public class PageAllocator implements Closeable {
             throw new PageException("invalid page number -- out of bounds");
         }
 
-        int headCount = this.masterPage.getBuffer(transaction).getInt(headPageIndex * 4);
-
-        if (headCount < 1) {
+        if (this.headerCounts[headPageIndex] < 1) {
             throw new PageException("invalid page number -- page not allocated");
         }
 
-        Page headPage = getHeadPage(headPageIndex);
-
         int dataPageIndex = pageNum % Page.pageSize;
 
-        byte validByte = headPage.getBuffer(transaction).get(dataPageIndex);
-
-        if (validByte == 0) {
+        if (!getHeaderBitmap(transaction, headPageIndex).get(dataPageIndex)) {
             throw new PageException("invalid page number -- page not allocated");
         }
 
+        return getDataPage(pageNum);
+    }
+
+    /**
+     * Returns a new handle to data page pageNum, which must be allocated.
+     */
+    private Page getDataPage(int pageNum) {
+        int headPageIndex = pageNum / Page.pageSize;
+        int dataPageIndex = pageNum % Page.pageSize;
         int dataBlockID = 2 + headPageIndex * (Page.pageSize + 1) + dataPageIndex;
-        Page dataPage = new Page(this.lockContext.childContext(pageNum), this.fc, dataBlockID, pageNum,
-                                 this.durable);
+        return new Page(this.lockContext.childContext(pageNum), this.bufferManager,
+                        translatePageNum(pageNum), this.ioStats, this.fc, dataBlockID, pageNum,
+                        this.durable, this.store);
+    }
 
-        synchronized(PageAllocator.class) {
-            pageLRU.put(translatePageNum(pageNum), dataPage);
+    /**
+     * Finds the first allocated page at or after pageNum, skipping unused
+     * header pages as a whole.
+     *
+     * @return the virtual page number of the page, or -1 if there is none
+     */
+    synchronized int nextAllocatedPage(BaseTransaction transaction, int pageNum) {
+        for (int headIndex = pageNum / Page.pageSize; headIndex < numHeaderPages; headIndex++) {
+            if (this.headerCounts[headIndex] > 0) {
+                int start = headIndex == pageNum / Page.pageSize ? pageNum % Page.pageSize : 0;
+                int dataPageIndex = getHeaderBitmap(transaction, headIndex).nextSetBit(start);
+                if (dataPageIndex >= 0 && dataPageIndex < Page.pageSize) {
+                    return headIndex * Page.pageSize + dataPageIndex;
+                }
+            }
         }
+        return -1;
+    }
+
+    /**
+     * Reads page pageNum into the buffer pool if it is still allocated. Runs
+     * on the buffer pool's read-ahead thread. Only the allocation check holds
+     * our lock, so that fetchPage and friends do not wait behind the read; the
+     * frame being loaded is latched by the buffer pool in the meantime. A page
+     * freed (or an allocator closed) while it was being read is dropped from
+     * the buffer pool again afterwards.
+     */
+    private void prefetchPage(int pageNum) {
+        Page page;
+        synchronized (this) {
+            if (!isAllocated(pageNum)) {
+                return;
+            }
+            page = getDataPage(pageNum);
+        }
+        bufferManager.prefetch(page);
+        synchronized (this) {
+            if (!isAllocated(pageNum)) {
+                bufferManager.discard(page.getKey());
+            }
+        }
+    }
 
-        return dataPage;
+    /**
+     * @return whether data page pageNum is allocated, according to the header
+     * bitmaps read so far
+     */
+    private synchronized boolean isAllocated(int pageNum) {
+        if (this.masterPage == null) {
+            return false;
+        }
+        BitSet headerBitmap = this.headerBitmaps[pageNum / Page.pageSize];
+        return headerBitmap != null && headerBitmap.get(pageNum % Page.pageSize);
     }
 
     /**
@@ -249,29 +350,24 @@ public class PageAllocator implements Closeable {
         int headPageIndex = pageNum / Page.pageSize;
         int dataPageIndex = pageNum % Page.pageSize;
 
-        Page headPage = getHeadPage(headPageIndex);
-        Buffer headPageBuffer = headPage.getBuffer(transaction);
-
-        if (headPageBuffer.get(dataPageIndex) == 0) {
+        BitSet headerBitmap = getHeaderBitmap(transaction, headPageIndex);
+        if (!headerBitmap.get(dataPageIndex)) {
             return false;
         }
 
-        headPageBuffer.put(dataPageIndex, (byte) 0);
-        if (this.durable) {
-            headPage.flush();
-        }
+        Page headPage = getHeadPage(headPageIndex);
+        headPage.getBuffer(transaction).put(dataPageIndex, (byte) 0);
+        headerBitmap.clear(dataPageIndex);
 
-        Buffer masterPageBuffer = masterPage.getBuffer(transaction);
-        int count = masterPageBuffer.getInt(4 * headPageIndex);
-        masterPageBuffer.putInt(4 * headPageIndex, count - 1);
-        if (this.durable) {
-            masterPage.flush();
-        }
+        int count = this.headerCounts[headPageIndex];
+        masterPage.getBuffer(transaction).putInt(4 * headPageIndex, count - 1);
+        this.headerCounts[headPageIndex] = count - 1;
+        this.nonFullHeaders.set(headPageIndex);
+        metadataUpdated(headPageIndex);
 
-        synchronized(PageAllocator.class) {
-            if (pageLRU.containsKey(translatePageNum(pageNum))) {
-                pageLRU.remove(translatePageNum(pageNum));
-            }
+        bufferManager.discard(translatePageNum(pageNum));
+        if (this.store != null) {
+            this.store.free(pageNum);
         }
 
         this.numPages -= 1;
@@ -309,74 +405,168 @@ public class PageAllocator implements Closeable {
         if (this.masterPage == null) {
             return;
         }
-        if (this.durable) {
-            this.masterPage.flush();
+        flushMetadata();
+        bufferManager.evictAll(this.allocID);
+        this.ioStats.unregisterMBean();
+        this.masterPage = null;
+        if (this.store != null) {
+            this.store.close();
         }
-        List<Long> toRemove = new ArrayList<Long>();
-        Set<Long> vPageNums = null;
-        List<Page> toFlush = new ArrayList<Page>();
-
-        synchronized(PageAllocator.class) {
-            vPageNums = pageLRU.keySet();
+        try {
+            this.fc.close();
+        } catch (IOException e) {
+            throw new PageException("Could not close Page Alloc " + e.getMessage());
         }
+    }
 
-        for (Long l : vPageNums) {
-            if (translateAllocator(l) == this.allocID) {
-                toRemove.add(l);
-            }
+    /**
+     * Forces any allocations and frees that have not been flushed yet to disk.
+     * Only has an effect for durable allocators whose buffer pool uses group
+     * commit (see BufferManager#setMetadataGroupCommit).
+     */
+    public synchronized void flushMetadata() {
+        if (this.pendingMetadataUpdates == 0 || this.masterPage == null) {
+            return;
+        }
+        if (!this.dirtyHeaders.isEmpty()) {
+            this.masterPage.flush();
+        }
+        BitSet dirty = this.dirtyHeaders;
+        for (int i = dirty.nextSetBit(0); i >= 0; i = dirty.nextSetBit(i + 1)) {
+            getHeadPage(i).flush();
         }
+        BitSet pages = this.pagesWithMetadata;
+        for (int i = pages.nextSetBit(0); i >= 0; i = pages.nextSetBit(i + 1)) {
+            fetchPage(null, i).flush();
+        }
+        this.dirtyHeaders.clear();
+        this.pagesWithMetadata.clear();
+        this.pendingMetadataUpdates = 0;
+        bufferManager.metadataFlushed(this);
+    }
 
-        synchronized(PageAllocator.class) {
-            for (Long vPageNum : toRemove) {
-                if (pageLRU.containsKey(vPageNum)) {
-                    toFlush.add(pageLRU.get(vPageNum));
-                    pageLRU.remove(vPageNum);
-                }
-            }
+    /**
+     * Forces page pageNum, which must stay allocated, to disk with the next
+     * flush of the allocation metadata, as if it were one more update of the
+     * metadata: right away, unless the buffer pool uses group commit (see
+     * BufferManager#setMetadataGroupCommit). Does nothing if the allocator is
+     * not durable.
+     */
+    public synchronized void flushWithMetadata(int pageNum) {
+        if (!this.durable) {
+            return;
         }
-        if (this.durable) {
-            for (Page p : toFlush) {
-                p.flush();
-            }
+        this.pagesWithMetadata.set(pageNum);
+        addPendingMetadataUpdate();
+    }
+
+    /**
+     * Forces every page of this allocator that has been modified since it was
+     * last flushed to disk.
+     */
+    public void flushPages() {
+        bufferManager.flushAll(this.allocID);
+    }
+
+    /**
+     * @return the number of allocations and frees not yet flushed to disk
+     */
+    synchronized int getNumPendingMetadataUpdates() {
+        return this.pendingMetadataUpdates;
+    }
+
+    /**
+     * Records an update of the master page and header page headIndex, and
+     * flushes the metadata if enough updates are pending.
+     */
+    private void metadataUpdated(int headIndex) {
+        if (!this.durable) {
+            return;
         }
-        this.masterPage = null;
-        try {
-            this.fc.close();
-        } catch (IOException e) {
-            throw new PageException("Could not close Page Alloc " + e.getMessage());
+        this.dirtyHeaders.set(headIndex);
+        addPendingMetadataUpdate();
+    }
+
+    private void addPendingMetadataUpdate() {
+        this.pendingMetadataUpdates++;
+        if (this.pendingMetadataUpdates >= bufferManager.getMaxPendingMetadataUpdates()) {
+            flushMetadata();
+        } else if (this.pendingMetadataUpdates == 1) {
+            bufferManager.metadataPending(this);
         }
     }
 
     private synchronized Page getHeadPage(int headIndex) {
         int headBlockID = 1 + headIndex * (Page.pageSize + 1);
-        return new Page(this.lockContext.childContext(-1), this.fc, headBlockID, -1);
+        return getMetaPage(-2 - headIndex, headBlockID);
     }
 
-    public synchronized int getNumPages() {
-        return this.numPages;
+    /**
+     * Returns the bitmap of allocated pages under header page headIndex,
+     * reading it from the header page if it is not cached yet.
+     */
+    private BitSet getHeaderBitmap(BaseTransaction transaction, int headIndex) {
+        BitSet bitmap = this.headerBitmaps[headIndex];
+        if (bitmap == null) {
+            byte[] headerBytes = getHeadPage(headIndex).readBytes(transaction);
+            bitmap = new BitSet(Page.pageSize);
+            for (int i = 0; i < Page.pageSize; i++) {
+                if (headerBytes[i] != 0) {
+                    bitmap.set(i);
+                }
+            }
+            this.headerBitmaps[headIndex] = bitmap;
+        }
+        return bitmap;
     }
 
-    public synchronized static long getNumIOs() {
-        return PageAllocator.numIOs.get();
+    /**
+     * Returns a handle to the master page or a header page, which is cached in
+     * the buffer pool like any other page.
+     */
+    private Page getMetaPage(int metaPageNum, int blockNum) {
+        long key = translatePageNum(metaPageNum);
+        Page page = bufferManager.getResidentPage(key);
+        if (page != null) {
+            return page;
+        }
+        return new Page(this.lockContext.childContext(-1), this.bufferManager, key, this.ioStats,
+                        this.fc, blockNum, -1, this.durable);
     }
 
-    static synchronized void incrementNumIOs() {
-        PageAllocator.numIOs.getAndIncrement();
+    public synchronized int getNumPages() {
+        return this.numPages;
     }
 
-    static synchronized void incrementCacheMisses() {
-        PageAllocator.cacheMisses.getAndIncrement();
+    /**
+     * @return whether the data pages of the file are compressed
+     */
+    public boolean isCompressed() {
+        return this.store != null;
     }
 
-    public synchronized static long getNumCacheMisses() {
-        return PageAllocator.cacheMisses.get();
+    /**
+     * @return the number of bytes the data pages take up on disk
+     */
+    public synchronized long getDataSizeOnDisk() {
+        if (this.store != null) {
+            return this.store.size();
+        }
+        return (long) this.numPages * Page.pageSize;
+    }
+
+    /**
+     * @return the buffer pool activity caused by the pages of this allocator
+     */
+    public IOStats getIOStats() {
+        return this.ioStats;
     }
 
-    private synchronized long translatePageNum(int pageNum) {
+    private long translatePageNum(int pageNum) {
         return (((long) this.allocID) << 32) | (((long) pageNum) & 0xFFFFFFFFL);
     }
 
-    static synchronized private int translateAllocator(long vPageNum) {
+    static int translateAllocator(long vPageNum) {
         return (int) ((vPageNum & 0xFFFFFFFF00000000L) >> 32);
     }
 
@@ -388,18 +578,44 @@ public class PageAllocator implements Closeable {
     }
 
     public class PageIterator implements BacktrackingIterator<Page> {
+        // The number of consecutive calls to next after which the iterator
+        // starts reading ahead.
+        private static final int sequentialThreshold = 2;
+
         private int pageNum;
         private int cursor;
         private int markedPageNum;
         private int markedCursor;
         private BaseTransaction transaction;
 
+        // The number of calls to next since the iterator was created or
+        // reset, the last page considered for read-ahead, and the pages
+        // worth reading ahead, or null for all of them.
+        private int sequentialRun;
+        private int prefetchedUpTo;
+        private IntPredicate readAheadFilter;
+
         PageIterator(BaseTransaction transaction) {
             this.pageNum = 0;
             this.cursor = 0;
             this.markedPageNum = 0;
             this.markedCursor = 0;
             this.transaction = transaction;
+            this.sequentialRun = 0;
+            this.prefetchedUpTo = -1;
+            this.readAheadFilter = null;
+        }
+
+        /**
+         * Only reads ahead the pages whose page number passes filter. Callers
+         * which will skip some pages without reading them (a scan which prunes
+         * pages by their zone maps, say) use this to keep read-ahead from
+         * reading them anyway. The pages returned by next are not affected.
+         *
+         * @param filter the pages worth reading ahead, or null for all of them
+         */
+        public void setReadAheadFilter(IntPredicate filter) {
+            this.readAheadFilter = filter;
         }
 
         public boolean hasNext() {
@@ -408,21 +624,58 @@ public class PageAllocator implements Closeable {
 
         public Page next() {
             if (this.hasNext()) {
-                while (true) {
-                    Page p;
-                    try {
-                        p = PageAllocator.this.fetchPage(transaction, cursor);
-                        cursor++;
-                        pageNum++;
-                        return p;
-                    } catch (PageException e) {
-                        cursor++;
-                    }
+                int next = PageAllocator.this.nextAllocatedPage(transaction, cursor);
+                if (next >= 0) {
+                    Page p = PageAllocator.this.fetchPage(transaction, next);
+                    cursor = next + 1;
+                    pageNum++;
+                    readAhead(next);
+                    return p;
                 }
             }
             throw new NoSuchElementException();
         }
 
+        /**
+         * Once the iterator has been used sequentially for a while, hands the
+         * next pages to the buffer pool's read-ahead thread, so that they are
+         * read in while the caller is busy with the current one. A new batch is
+         * handed over when the iterator is halfway through the previous one.
+         * Pages which fail the read-ahead filter count towards the batch but
+         * are not read.
+         */
+        private void readAhead(int current) {
+            int window = bufferManager.getReadAhead();
+            if (++sequentialRun < sequentialThreshold || window <= 0) {
+                return;
+            }
+            if (prefetchedUpTo - current > window / 2) {
+                return;
+            }
+            int[] pages = new int[window];
+            int numPages = 0;
+            int next = Math.max(prefetchedUpTo, current) + 1;
+            for (int i = 0; i < window; i++) {
+                next = PageAllocator.this.nextAllocatedPage(transaction, next);
+                if (next < 0) {
+                    break;
+                }
+                if (readAheadFilter == null || readAheadFilter.test(next)) {
+                    pages[numPages++] = next;
+                }
+                prefetchedUpTo = next++;
+            }
+            if (numPages == 0) {
+                return;
+            }
+            int numToPrefetch = numPages;
+            bufferManager.readAhead(() -> {
+                for (int i = 0; i < numToPrefetch; i++) {
+                    prefetchPage(pages[i]);
+                }
+            });
+        }
+
         public void remove() {
             throw new UnsupportedOperationException();
         }
@@ -456,6 +709,8 @@ public class PageAllocator implements Closeable {
         public void reset() {
             this.pageNum = this.markedPageNum - 1;
             this.cursor = this.markedCursor - 1;
+            this.sequentialRun = 0;
+            this.prefetchedUpTo = -1;
         }
     }
 }
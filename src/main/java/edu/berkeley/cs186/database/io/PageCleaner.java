@@ -0,0 +1,131 @@
+package edu.berkeley.cs186.database.io;
+
+import java.io.Closeable;
+
+/**
+ * A background thread which writes dirty pages of a BufferManager back to
+ * disk before they are evicted. Without it, a thread which needs a frame for a
+ * new page has to write back whatever dirty page it evicts first.
+ *
+ *   PageCleaner cleaner = new PageCleaner(bufferManager, 10, 32, 0.5);
+ *   cleaner.start();
+ *   ...
+ *   cleaner.close();
+ *
+ * Every intervalMillis milliseconds, the cleaner writes back up to
+ * pagesPerRound dirty pages which have not been used recently. If more than
+ * dirtyHighWaterMark of the frames are dirty, it ignores that limit and writes
+ * back as many cold pages as it takes to get back under the mark. A page which
+ * cannot be written back is left dirty and the cleaner keeps going; failures
+ * are counted (see getNumFailures and getLastFailure).
+ */
+public class PageCleaner implements Closeable {
+    private final BufferManager bufferManager;
+    private final long intervalMillis;
+    private final int pagesPerRound;
+    private final int maxDirtyFrames;
+    private final Thread thread;
+    private volatile boolean running;
+    private volatile long numPagesWritten;
+    private volatile long numFailures;
+    private volatile PageException lastFailure;
+
+    /**
+     * Create a new page cleaner for bufferManager. The cleaner does not run
+     * until start is called.
+     *
+     * @param bufferManager the buffer pool to clean
+     * @param intervalMillis how long to sleep between rounds
+     * @param pagesPerRound the number of pages to write back per round while
+     * the buffer pool is under the high-water mark
+     * @param dirtyHighWaterMark the fraction of frames, between 0 and 1, which
+     * may be dirty before the cleaner stops limiting its rate
+     */
+    public PageCleaner(BufferManager bufferManager, long intervalMillis, int pagesPerRound,
+                       double dirtyHighWaterMark) {
+        if (intervalMillis <= 0 || pagesPerRound < 0 || dirtyHighWaterMark < 0 ||
+                dirtyHighWaterMark > 1) {
+            throw new IllegalArgumentException("invalid page cleaner settings");
+        }
+        this.bufferManager = bufferManager;
+        this.intervalMillis = intervalMillis;
+        this.pagesPerRound = pagesPerRound;
+        this.maxDirtyFrames = (int) (dirtyHighWaterMark * bufferManager.getNumFrames());
+        this.thread = new Thread(this::run, "page-cleaner");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Starts the cleaner thread.
+     */
+    public void start() {
+        this.running = true;
+        this.thread.start();
+    }
+
+    /**
+     * Stops the cleaner thread and waits for it to finish its current round.
+     */
+    public void close() {
+        this.running = false;
+        this.thread.interrupt();
+        try {
+            this.thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the number of pages this cleaner has written back
+     */
+    public long getNumPagesWritten() {
+        return this.numPagesWritten;
+    }
+
+    /**
+     * @return the number of rounds in which a page could not be written back
+     */
+    public long getNumFailures() {
+        return this.numFailures;
+    }
+
+    /**
+     * @return the exception the last page which could not be written back
+     * failed with, or null if every page was written back
+     */
+    public PageException getLastFailure() {
+        return this.lastFailure;
+    }
+
+    /**
+     * Runs a single round of cleaning.
+     *
+     * @return the number of pages written back
+     */
+    int clean() {
+        int numDirty = bufferManager.getNumDirtyFrames();
+        int numToWrite = Math.max(pagesPerRound, numDirty - maxDirtyFrames);
+        int numWritten = numToWrite > 0 ? bufferManager.writeBackColdPages(numToWrite) : 0;
+        this.numPagesWritten += numWritten;
+        return numWritten;
+    }
+
+    private void run() {
+        while (this.running) {
+            try {
+                Thread.sleep(this.intervalMillis);
+            } catch (InterruptedException e) {
+                break;
+            }
+            try {
+                clean();
+            } catch (PageException e) {
+                // The pages stay dirty, and are written back by whoever evicts
+                // them, so there is nothing more to do than to report it.
+                this.lastFailure = e;
+                this.numFailures++;
+            }
+        }
+    }
+}
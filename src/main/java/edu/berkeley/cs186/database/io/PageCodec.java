@@ -0,0 +1,187 @@
+package edu.berkeley.cs186.database.io;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An LZ77 compressor for pages, in the style of LZ4. Pages are full of runs
+ * of the same bytes (zeroed free space, strings padded with spaces, small
+ * integers), which LZ77 turns into back-references to the previous copy.
+ *
+ * The compressed form is a series of sequences, each of which is a run of
+ * literal bytes to copy as is followed by a match: a run of bytes to copy from
+ * `offset` bytes back in the output, which may overlap the bytes being copied
+ * (an offset of 1 repeats the last byte). Every sequence is encoded as
+ *
+ *   +-------+----------------+----------+--------+----------------+
+ *   | token | literal length | literals | offset | match length   |
+ *   |       | (extra bytes)  |          | (2 B)  | (extra bytes)  |
+ *   +-------+----------------+----------+--------+----------------+
+ *
+ * where the high 4 bits of token are the number of literals and the low 4
+ * bits the length of the match minus MIN_MATCH. A 4-bit length of 15 is
+ * followed by extra bytes which are added to it, the last of which is less
+ * than 255. The last sequence of the input has no match: it stops right after
+ * its literals.
+ *
+ * Pages are compressed from and decompressed into the buffer of the frame
+ * that holds them, which is indexed from 0 whatever its position.
+ */
+class PageCodec {
+    static final int MIN_MATCH = 4;
+
+    private static final int HASH_BITS = 12;
+    private static final int MAX_OFFSET = 0xffff;
+
+    private PageCodec() {}
+
+    /**
+     * Compresses src[0:length] into dst.
+     *
+     * @return the length of the compressed bytes, or -1 if they do not fit in dst
+     */
+    static int compress(ByteBuffer src, int length, byte[] dst) {
+        // table[h] is one more than the last position whose 4 bytes hash to h.
+        int[] table = new int[1 << HASH_BITS];
+        int out = 0;
+        int anchor = 0;
+        int i = 0;
+        while (i + MIN_MATCH <= length) {
+            int word = readInt(src, i);
+            int h = (word * 0x9E3779B1) >>> (32 - HASH_BITS);
+            int ref = table[h] - 1;
+            table[h] = i + 1;
+            if (ref < 0 || i - ref > MAX_OFFSET || readInt(src, ref) != word) {
+                i++;
+                continue;
+            }
+            int matchLength = MIN_MATCH;
+            while (i + matchLength < length && src.get(ref + matchLength) == src.get(i + matchLength)) {
+                matchLength++;
+            }
+            // The token of the sequence is its first byte.
+            int token = out;
+            out = writeSequence(src, anchor, i - anchor, dst, out);
+            if (out < 0 || out + 2 > dst.length) {
+                return -1;
+            }
+            dst[out++] = (byte) ((i - ref) >>> 8);
+            dst[out++] = (byte) (i - ref);
+            int rest = matchLength - MIN_MATCH;
+            dst[token] |= (byte) Math.min(rest, 15);
+            if (rest >= 15) {
+                out = writeLength(rest - 15, dst, out);
+                if (out < 0) {
+                    return -1;
+                }
+            }
+            i += matchLength;
+            anchor = i;
+        }
+        return writeSequence(src, anchor, length - anchor, dst, out);
+    }
+
+    /**
+     * Decompresses src[0:length], which compress produced, into dst. Input
+     * which compress could not have produced (because the file was torn or
+     * corrupted) is rejected rather than read or written out of bounds.
+     *
+     * @return the length of the decompressed bytes, or -1 if src[0:length] is
+     * not a valid compressed page or does not fit in dst
+     */
+    static int decompress(byte[] src, int length, ByteBuffer dst) {
+        int capacity = dst.capacity();
+        int in = 0;
+        int out = 0;
+        while (in < length) {
+            int token = src[in++] & 0xff;
+            int literalLength = token >>> 4;
+            if (literalLength == 15) {
+                int b;
+                do {
+                    if (in >= length) {
+                        return -1;
+                    }
+                    b = src[in++] & 0xff;
+                    literalLength += b;
+                } while (b == 255);
+            }
+            if (literalLength > length - in || literalLength > capacity - out) {
+                return -1;
+            }
+            for (int k = 0; k < literalLength; ++k) {
+                dst.put(out++, src[in++]);
+            }
+            if (in == length) {
+                break;
+            }
+
+            if (in + 2 > length) {
+                return -1;
+            }
+            int offset = ((src[in] & 0xff) << 8) | (src[in + 1] & 0xff);
+            in += 2;
+            int matchLength = token & 0xf;
+            if (matchLength == 15) {
+                int b;
+                do {
+                    if (in >= length) {
+                        return -1;
+                    }
+                    b = src[in++] & 0xff;
+                    matchLength += b;
+                } while (b == 255);
+            }
+            matchLength += MIN_MATCH;
+            if (offset == 0 || offset > out || matchLength > capacity - out) {
+                return -1;
+            }
+            // Byte by byte, since the match may overlap what it copies.
+            for (int k = 0; k < matchLength; ++k) {
+                dst.put(out, dst.get(out - offset));
+                out++;
+            }
+        }
+        return out;
+    }
+
+    // Writes the token (with a match length of 0) and literals of a sequence,
+    // returning the new output position, or -1 if they do not fit.
+    private static int writeSequence(ByteBuffer src, int from, int literalLength, byte[] dst, int out) {
+        if (out >= dst.length) {
+            return -1;
+        }
+        dst[out++] = (byte) (Math.min(literalLength, 15) << 4);
+        if (literalLength >= 15) {
+            out = writeLength(literalLength - 15, dst, out);
+        }
+        if (out < 0 || out + literalLength > dst.length) {
+            return -1;
+        }
+        for (int k = 0; k < literalLength; ++k) {
+            dst[out++] = src.get(from + k);
+        }
+        return out;
+    }
+
+    // Writes the extra bytes of a length, returning the new output position,
+    // or -1 if they do not fit.
+    private static int writeLength(int length, byte[] dst, int out) {
+        while (length >= 255) {
+            if (out >= dst.length) {
+                return -1;
+            }
+            dst[out++] = (byte) 255;
+            length -= 255;
+        }
+        if (out >= dst.length) {
+            return -1;
+        }
+        dst[out++] = (byte) length;
+        return out;
+    }
+
+    private static int readInt(ByteBuffer bytes, int i) {
+        return ((bytes.get(i) & 0xff) << 24) | ((bytes.get(i + 1) & 0xff) << 16) |
+               ((bytes.get(i + 2) & 0xff) << 8) | (bytes.get(i + 3) & 0xff);
+    }
+}
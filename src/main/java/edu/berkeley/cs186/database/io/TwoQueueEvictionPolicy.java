@@ -0,0 +1,94 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * The full version of the 2Q policy of Johnson and Shasha. Pages start out in
+ * a FIFO queue, A1in. A page evicted from A1in leaves its virtual page number
+ * behind in a ghost queue, A1out. Only pages which are referenced again while
+ * they are remembered in A1out are promoted to Am, an LRU queue of hot pages.
+ *
+ * Pages read once by a large scan flow through A1in without disturbing Am, so
+ * frequently used pages (such as B+ tree inner nodes) stay resident.
+ */
+public class TwoQueueEvictionPolicy implements EvictionPolicy {
+    // The fraction of frames reserved for A1in, and the size of A1out relative
+    // to the number of frames. These are the values recommended in the paper.
+    private static final double A1IN_FRACTION = 0.25;
+    private static final double A1OUT_FRACTION = 0.5;
+
+    private int maxA1in;
+    private int maxA1out;
+
+    // Frames which have been referenced once, in FIFO order.
+    private LinkedHashSet<BufferFrame> a1in;
+    // Virtual page numbers of pages recently evicted from a1in, in FIFO order.
+    private LinkedHashSet<Long> a1out;
+    // Frames which have been referenced again, from least to most recently used.
+    private LinkedHashSet<BufferFrame> am;
+
+    public void init(BufferFrame[] frames) {
+        this.maxA1in = Math.max(1, (int) (frames.length * A1IN_FRACTION));
+        this.maxA1out = Math.max(1, (int) (frames.length * A1OUT_FRACTION));
+        this.a1in = new LinkedHashSet<>();
+        this.a1out = new LinkedHashSet<>();
+        this.am = new LinkedHashSet<>();
+    }
+
+    public void load(BufferFrame frame) {
+        if (a1out.remove(frame.getKey())) {
+            am.add(frame);
+        } else {
+            a1in.add(frame);
+        }
+    }
+
+    public void hit(BufferFrame frame) {
+        // Hits in A1in are deliberately ignored: a page is only considered hot
+        // once it is referenced again after leaving A1in.
+        if (am.remove(frame)) {
+            am.add(frame);
+        }
+    }
+
+    public void remove(BufferFrame frame) {
+        a1in.remove(frame);
+        am.remove(frame);
+    }
+
+    public BufferFrame evict() {
+        BufferFrame victim = null;
+        if (a1in.size() > maxA1in || am.isEmpty()) {
+            victim = evictFrom(a1in, true);
+        }
+        if (victim == null) {
+            victim = evictFrom(am, false);
+        }
+        if (victim == null) {
+            victim = evictFrom(a1in, true);
+        }
+        return victim;
+    }
+
+    private BufferFrame evictFrom(LinkedHashSet<BufferFrame> queue, boolean remember) {
+        Iterator<BufferFrame> iter = queue.iterator();
+        while (iter.hasNext()) {
+            BufferFrame frame = iter.next();
+            if (frame.isPinned()) {
+                continue;
+            }
+            iter.remove();
+            if (remember) {
+                a1out.add(frame.getKey());
+                if (a1out.size() > maxA1out) {
+                    Iterator<Long> oldest = a1out.iterator();
+                    oldest.next();
+                    oldest.remove();
+                }
+            }
+            return frame;
+        }
+        return null;
+    }
+}
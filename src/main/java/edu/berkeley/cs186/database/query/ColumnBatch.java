@@ -0,0 +1,307 @@
+package edu.berkeley.cs186.database.query;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import edu.berkeley.cs186.database.databox.DataBoxException;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+
+/**
+ * A batch of up to CAPACITY rows with the same schema, stored column by
+ * column, which is what operators exchange when executed a batch at a time
+ * (see QueryOperator.batchIterator). Every column is an array of primitives:
+ * a boolean[], int[], or float[] for columns of type BOOL, INT, or FLOAT, and
+ * a byte[] for columns of type STRING, in which the string of row r takes up
+ * bytes r * w, ..., (r + 1) * w - 1 for strings of w bytes, exactly as the
+ * string is serialized in a record.
+ *
+ * Rows are appended to the arrays in order, but only the rows listed by the
+ * selection vector belong to the batch: rows getSelection()[0], ...,
+ * getSelection()[size() - 1]. A filter narrows the selection vector in place
+ * (with setSize) instead of copying the rows it keeps:
+ *
+ *   int[] selection = batch.getSelection();
+ *   int[] xs = batch.getInts(0);
+ *   int n = 0;
+ *   for (int i = 0; i < batch.size(); ++i) {
+ *       if (xs[selection[i]] > 10) {
+ *           selection[n++] = selection[i];
+ *       }
+ *   }
+ *   batch.setSize(n);
+ *
+ * An operator owns the batches it gets from its source, and may narrow them
+ * or hand them on, but only until it asks its source for the next batch:
+ * sources refill the same batch (see clear) rather than allocate one per call
+ * to next.
+ */
+public class ColumnBatch {
+    public static final int CAPACITY = 1024;
+
+    private final Schema schema;
+    private final Object[] columns;
+    private final int[] selection;
+    private int numRows;
+    private int size;
+
+    public ColumnBatch(Schema schema) {
+        List<Type> types = schema.getFieldTypes();
+        this.schema = schema;
+        this.columns = new Object[types.size()];
+        for (int i = 0; i < types.size(); ++i) {
+            switch (types.get(i).getTypeId()) {
+            case BOOL:
+                columns[i] = new boolean[CAPACITY];
+                break;
+            case INT:
+                columns[i] = new int[CAPACITY];
+                break;
+            case FLOAT:
+                columns[i] = new float[CAPACITY];
+                break;
+            case STRING:
+                columns[i] = new byte[CAPACITY * types.get(i).getSizeInBytes()];
+                break;
+            default:
+                String err = String.format("Unhandled TypeId %s.", types.get(i).getTypeId().toString());
+                throw new IllegalArgumentException(err);
+            }
+        }
+        this.selection = new int[CAPACITY];
+        this.numRows = 0;
+        this.size = 0;
+    }
+
+    private ColumnBatch(Schema schema, Object[] columns, int[] selection, int numRows, int size) {
+        this.schema = schema;
+        this.columns = columns;
+        this.selection = selection;
+        this.numRows = numRows;
+        this.size = size;
+    }
+
+    public Schema getSchema() {
+        return schema;
+    }
+
+    /**
+     * @return the number of rows in the batch, i.e. in its selection vector
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Shrinks the batch to rows getSelection()[0], ...,
+     * getSelection()[size - 1].
+     */
+    public void setSize(int size) {
+        if (size < 0 || size > this.size) {
+            throw new IndexOutOfBoundsException(String.format("Cannot grow a batch of %d rows to %d.",
+                                                this.size, size));
+        }
+        this.size = size;
+    }
+
+    /**
+     * @return the selection vector, of which only the first size() entries
+     * are used
+     */
+    public int[] getSelection() {
+        return selection;
+    }
+
+    /**
+     * @return whether no more rows can be appended
+     */
+    public boolean isFull() {
+        return numRows == CAPACITY;
+    }
+
+    public boolean[] getBools(int column) {
+        return (boolean[]) getColumn(column, TypeId.BOOL);
+    }
+
+    public int[] getInts(int column) {
+        return (int[]) getColumn(column, TypeId.INT);
+    }
+
+    public float[] getFloats(int column) {
+        return (float[]) getColumn(column, TypeId.FLOAT);
+    }
+
+    /**
+     * @return the bytes of the strings of a STRING column, each
+     * schema.getFieldTypes().get(column).getSizeInBytes() bytes long
+     */
+    public byte[] getStringBytes(int column) {
+        return (byte[]) getColumn(column, TypeId.STRING);
+    }
+
+    /**
+     * Empties the batch, so that it can be refilled.
+     */
+    public void clear() {
+        numRows = 0;
+        size = 0;
+    }
+
+    /**
+     * Appends record, which must have the schema of the batch, and selects
+     * it. Fields are read with Record's primitive getters, and strings are
+     * copied from the serialized record, so records backed by bytes are
+     * appended without decoding them into DataBoxes or Strings.
+     */
+    public void append(Record record) {
+        if (isFull()) {
+            throw new IllegalStateException("Cannot append to a full batch.");
+        }
+        List<Type> types = schema.getFieldTypes();
+        byte[] bytes = null;
+        for (int i = 0; i < columns.length; ++i) {
+            Type t = types.get(i);
+            switch (t.getTypeId()) {
+            case BOOL:
+                ((boolean[]) columns[i])[numRows] = record.getBool(i);
+                break;
+            case INT:
+                ((int[]) columns[i])[numRows] = record.getInt(i);
+                break;
+            case FLOAT:
+                ((float[]) columns[i])[numRows] = record.getFloat(i);
+                break;
+            default:
+                if (bytes == null) {
+                    bytes = record.toBytes(schema);
+                }
+                int width = t.getSizeInBytes();
+                System.arraycopy(bytes, schema.getFieldOffset(i), columns[i], numRows * width, width);
+                break;
+            }
+        }
+        selection[size++] = numRows++;
+    }
+
+    /**
+     * Returns row selection[i] of the batch as a record backed by bytes (see
+     * Record.fromBytes), which stays valid after the batch is refilled.
+     */
+    public Record getRecord(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException(String.format("Row %d of a batch of %d.", i, size));
+        }
+        int row = selection[i];
+        List<Type> types = schema.getFieldTypes();
+        byte[] bytes = new byte[schema.getSizeInBytes()];
+        int offset = 0;
+        for (int j = 0; j < columns.length; ++j) {
+            Type t = types.get(j);
+            switch (t.getTypeId()) {
+            case BOOL:
+                bytes[offset] = ((boolean[]) columns[j])[row] ? (byte) 1 : (byte) 0;
+                break;
+            case INT:
+                writeInt(bytes, offset, ((int[]) columns[j])[row]);
+                break;
+            case FLOAT:
+                writeInt(bytes, offset, Float.floatToIntBits(((float[]) columns[j])[row]));
+                break;
+            default:
+                int width = t.getSizeInBytes();
+                System.arraycopy(columns[j], row * width, bytes, offset, width);
+                break;
+            }
+            offset += t.getSizeInBytes();
+        }
+        return Record.fromBytes(bytes, schema);
+    }
+
+    /**
+     * Returns the batch of columns columns[0], columns[1], ... of this batch.
+     * The two batches share their columns and selection vector, so this batch
+     * should not be used anymore.
+     *
+     * @param schema the schema of the result
+     */
+    public ColumnBatch project(int[] columns, Schema schema) {
+        Object[] projected = new Object[columns.length];
+        for (int i = 0; i < columns.length; ++i) {
+            projected[i] = this.columns[columns[i]];
+        }
+        return new ColumnBatch(schema, projected, selection, numRows, size);
+    }
+
+    /**
+     * Packs records, which have schema `schema`, into batches of up to
+     * CAPACITY rows. Every call to next refills the same batch.
+     */
+    public static Iterator<ColumnBatch> fromRecords(Iterator<Record> records, Schema schema) {
+        return new Iterator<ColumnBatch>() {
+            private final ColumnBatch batch = new ColumnBatch(schema);
+
+            public boolean hasNext() {
+                return records.hasNext();
+            }
+
+            public ColumnBatch next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                batch.clear();
+                while (!batch.isFull() && records.hasNext()) {
+                    batch.append(records.next());
+                }
+                return batch;
+            }
+        };
+    }
+
+    /**
+     * Unpacks batches into the records of their rows, in order. This is how
+     * operators which execute a batch at a time implement
+     * QueryOperator.iterator.
+     */
+    public static Iterator<Record> toRecords(Iterator<ColumnBatch> batches) {
+        return new Iterator<Record>() {
+            private ColumnBatch batch = null;
+            private int i = 0;
+
+            public boolean hasNext() {
+                while (batch == null || i == batch.size()) {
+                    if (!batches.hasNext()) {
+                        return false;
+                    }
+                    batch = batches.next();
+                    i = 0;
+                }
+                return true;
+            }
+
+            public Record next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return batch.getRecord(i++);
+            }
+        };
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private Object getColumn(int column, TypeId expected) {
+        TypeId actual = schema.getFieldTypes().get(column).getTypeId();
+        if (actual != expected) {
+            throw new DataBoxException("not " + expected.toString().toLowerCase() + " type");
+        }
+        return columns[column];
+    }
+}
@@ -80,14 +80,14 @@ public class GroupByOperator extends QueryOperator {
         private Iterator<Record> rIter;
 
         public GroupByIterator() throws QueryPlanException, DatabaseException {
-            this.sourceIterator = GroupByOperator.this.getSource().iterator();
+            this.sourceIterator = GroupByOperator.this.getSource().execute();
             this.markerRecord = MarkerRecord.getMarker();
             this.hashGroupTempTables = new HashMap<String, String>();
             this.currCount = 0;
             this.rIter = null;
             while (this.sourceIterator.hasNext()) {
                 Record record = this.sourceIterator.next();
-                DataBox groupByColumn = record.getValues().get(GroupByOperator.this.groupByColumnIndex);
+                DataBox groupByColumn = record.getValue(GroupByOperator.this.groupByColumnIndex);
                 String tableName;
                 if (!this.hashGroupTempTables.containsKey(groupByColumn.toString())) {
                     tableName = "Temp" + GroupByOperator.this.groupByColumn + "GroupBy" +
@@ -164,8 +164,8 @@ public class IndexScanOperator extends QueryOperator {
                 while (this.sourceIterator.hasNext()) {
                     Record r = this.sourceIterator.next();
 
-                    if (r.getValues().get(IndexScanOperator.this.columnIndex)
-                            .compareTo(IndexScanOperator.this.value) > 0) {
+                    if (r.compareField(IndexScanOperator.this.columnIndex,
+                                   IndexScanOperator.this.value) > 0) {
                         this.nextRecord = r;
                         break;
                     }
@@ -190,8 +190,8 @@ public class IndexScanOperator extends QueryOperator {
             if (IndexScanOperator.this.predicate == QueryPlan.PredicateOperator.LESS_THAN) {
                 if (this.sourceIterator.hasNext()) {
                     Record r = this.sourceIterator.next();
-                    if (r.getValues().get(IndexScanOperator.this.columnIndex)
-                            .compareTo(IndexScanOperator.this.value) >= 0) {
+                    if (r.compareField(IndexScanOperator.this.columnIndex,
+                                   IndexScanOperator.this.value) >= 0) {
                         return false;
                     }
                     this.nextRecord = r;
@@ -201,8 +201,8 @@ public class IndexScanOperator extends QueryOperator {
             } else if (IndexScanOperator.this.predicate == QueryPlan.PredicateOperator.LESS_THAN_EQUALS) {
                 if (this.sourceIterator.hasNext()) {
                     Record r = this.sourceIterator.next();
-                    if (r.getValues().get(IndexScanOperator.this.columnIndex)
-                            .compareTo(IndexScanOperator.this.value) > 0) {
+                    if (r.compareField(IndexScanOperator.this.columnIndex,
+                                   IndexScanOperator.this.value) > 0) {
                         return false;
                     }
                     this.nextRecord = r;
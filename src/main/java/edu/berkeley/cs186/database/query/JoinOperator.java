@@ -12,7 +12,6 @@ import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.io.Page;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.RecordId;
-import edu.berkeley.cs186.database.table.RecordIterator;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
@@ -190,7 +189,7 @@ public abstract class JoinOperator extends QueryOperator {
         return this.transaction.getRecord(tableName, rid);
     }
 
-    public RecordIterator getRecordIterator(String tableName) throws DatabaseException {
+    public BacktrackingIterator<Record> getRecordIterator(String tableName) throws DatabaseException {
         return this.transaction.getRecordIterator(tableName);
     }
 
@@ -209,7 +208,7 @@ public abstract class JoinOperator extends QueryOperator {
         return this.transaction.getBlockIterator(tableName, block, maxPages);
     }
 
-    public RecordIterator getTableIterator(String tableName) throws DatabaseException {
+    public BacktrackingIterator<Record> getTableIterator(String tableName) throws DatabaseException {
         return this.transaction.getRecordIterator(tableName);
     }
 
@@ -244,7 +243,7 @@ public abstract class JoinOperator extends QueryOperator {
             } else {
                 this.leftTableName = JoinOperator.this.createTempTable(
                                          JoinOperator.this.getLeftSource().getOutputSchema());
-                Iterator<Record> leftIter = JoinOperator.this.getLeftSource().iterator();
+                Iterator<Record> leftIter = JoinOperator.this.getLeftSource().execute();
                 while (leftIter.hasNext()) {
                     JoinOperator.this.addRecord(this.leftTableName, leftIter.next().getValues());
                 }
@@ -254,7 +253,7 @@ public abstract class JoinOperator extends QueryOperator {
             } else {
                 this.rightTableName = JoinOperator.this.createTempTable(
                                           JoinOperator.this.getRightSource().getOutputSchema());
-                Iterator<Record> rightIter = JoinOperator.this.getRightSource().iterator();
+                Iterator<Record> rightIter = JoinOperator.this.getRightSource().execute();
                 while (rightIter.hasNext()) {
                     JoinOperator.this.addRecord(this.rightTableName, rightIter.next().getValues());
                 }
@@ -127,7 +127,125 @@ public class ProjectOperator extends QueryOperator {
         return new Schema(this.columns, columnTypes);
     }
 
-    public Iterator<Record> iterator() throws QueryPlanException, DatabaseException { return new ProjectIterator(); }
+    public Iterator<Record> iterator() throws QueryPlanException, DatabaseException {
+        // The marker records of a group by, which delimit the groups to
+        // aggregate, cannot be put into batches.
+        if (this.getSource().isGroupBy()) {
+            return new ProjectIterator();
+        }
+        return ColumnBatch.toRecords(this.batchIterator());
+    }
+
+    @Override
+    public Iterator<ColumnBatch> batchIterator() throws QueryPlanException, DatabaseException {
+        if (this.getSource().isGroupBy()) {
+            return super.batchIterator();
+        }
+        int[] indices = new int[this.indices.size()];
+        for (int i = 0; i < indices.length; ++i) {
+            indices[i] = this.indices.get(i);
+        }
+        Iterator<ColumnBatch> sourceBatches = this.getSource().executeBatches();
+        if (!this.hasAggregate) {
+            // Projecting a batch only picks its columns.
+            return new Iterator<ColumnBatch>() {
+                public boolean hasNext() {
+                    return sourceBatches.hasNext();
+                }
+
+                public ColumnBatch next() {
+                    return sourceBatches.next().project(indices, ProjectOperator.this.getOutputSchema());
+                }
+            };
+        }
+        return new Iterator<ColumnBatch>() {
+            private boolean done = false;
+            private ColumnBatch result = null;
+
+            public boolean hasNext() {
+                if (!this.done) {
+                    this.result = ProjectOperator.this.aggregate(sourceBatches, indices);
+                    this.done = true;
+                }
+                return this.result != null;
+            }
+
+            public ColumnBatch next() {
+                if (!this.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                ColumnBatch result = this.result;
+                this.result = null;
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Computes the aggregates over every row of sourceBatches, a batch at a
+     * time, and returns the single row of the result in a batch (or null if
+     * there are no rows). Its projected columns are those of the first row.
+     */
+    private ColumnBatch aggregate(Iterator<ColumnBatch> sourceBatches, int[] indices) {
+        List<DataBox> values = null;
+        int count = 0;
+        double sum = 0;
+        double averageSum = 0;
+        while (sourceBatches.hasNext()) {
+            ColumnBatch batch = sourceBatches.next();
+            if (batch.size() == 0) {
+                continue;
+            }
+            if (values == null) {
+                values = new ArrayList<>();
+                Record first = batch.getRecord(0);
+                for (int index : indices) {
+                    values.add(first.getValue(index));
+                }
+            }
+            int[] selection = batch.getSelection();
+            count += batch.size();
+            if (this.sumColumnIndex != -1) {
+                if (this.sumIsFloat) {
+                    float[] column = batch.getFloats(this.sumColumnIndex);
+                    for (int i = 0; i < batch.size(); ++i) {
+                        sum += column[selection[i]];
+                    }
+                } else {
+                    int[] column = batch.getInts(this.sumColumnIndex);
+                    for (int i = 0; i < batch.size(); ++i) {
+                        sum += column[selection[i]];
+                    }
+                }
+            }
+            if (this.averageColumnIndex != -1) {
+                int[] column = batch.getInts(this.averageColumnIndex);
+                for (int i = 0; i < batch.size(); ++i) {
+                    averageSum += column[selection[i]];
+                }
+            }
+        }
+        if (values == null) {
+            return null;
+        }
+
+        if (this.hasCount) {
+            values.add(new IntDataBox(count));
+        }
+        if (this.sumColumnIndex != -1) {
+            if (this.sumIsFloat) {
+                values.add(new FloatDataBox((float) sum));
+            } else {
+                values.add(new IntDataBox((int) sum));
+            }
+        }
+        if (this.averageColumnIndex != -1) {
+            values.add(new FloatDataBox((float) (averageSum / count)));
+        }
+        ColumnBatch result = new ColumnBatch(this.getOutputSchema());
+        result.append(new Record(values));
+        return result;
+    }
 
     private void addToCount() {
         this.countValue++;
@@ -141,9 +259,9 @@ public class ProjectOperator extends QueryOperator {
 
     private void addToSum(Record record) {
         if (this.sumIsFloat) {
-            this.sumValue += record.getValues().get(this.sumColumnIndex).getFloat();
+            this.sumValue += record.getFloat(this.sumColumnIndex);
         } else {
-            this.sumValue += record.getValues().get(this.sumColumnIndex).getInt();
+            this.sumValue += record.getInt(this.sumColumnIndex);
         }
     }
 
@@ -155,7 +273,7 @@ public class ProjectOperator extends QueryOperator {
 
     private void addToAverage(Record record) {
         this.averageCountValue++;
-        this.averageSumValue += record.getValues().get(this.averageColumnIndex).getInt();
+        this.averageSumValue += record.getInt(this.averageColumnIndex);
     }
 
     private double getAndResetAverage() {
@@ -196,13 +314,18 @@ public class ProjectOperator extends QueryOperator {
         private Record nextRecord;
         private boolean prevWasMarker;
         private List<DataBox> baseValues;
+        private int[] indices;
 
         public ProjectIterator() throws QueryPlanException, DatabaseException {
-            this.sourceIterator = ProjectOperator.this.getSource().iterator();
+            this.sourceIterator = ProjectOperator.this.getSource().execute();
             this.markerRecord = MarkerRecord.getMarker();
             this.nextRecord = null;
             this.prevWasMarker = true;
             this.baseValues = new ArrayList<DataBox>();
+            this.indices = new int[ProjectOperator.this.indices.size()];
+            for (int i = 0; i < this.indices.length; ++i) {
+                this.indices[i] = ProjectOperator.this.indices.get(i);
+            }
         }
 
         /**
@@ -225,7 +348,6 @@ public class ProjectOperator extends QueryOperator {
                 if (ProjectOperator.this.hasAggregate) {
                     while (this.sourceIterator.hasNext()) {
                         Record r = this.sourceIterator.next();
-                        List<DataBox> recordValues = r.getValues();
 
                         // if the record is a MarkerRecord, that means we reached the end of a group... we reset
                         // the aggregates and add the appropriate new record to the new Records
@@ -255,8 +377,8 @@ public class ProjectOperator extends QueryOperator {
                             // fields out of the record
                             if (this.prevWasMarker) {
                                 this.baseValues = new ArrayList<DataBox>();
-                                for (int index : ProjectOperator.this.indices) {
-                                    this.baseValues.add(recordValues.get(index));
+                                for (int index : this.indices) {
+                                    this.baseValues.add(r.getValue(index));
                                 }
                                 this.prevWasMarker = false;
                             }
@@ -294,18 +416,14 @@ public class ProjectOperator extends QueryOperator {
                     return new Record(this.baseValues);
                 } else {
                     Record r = this.sourceIterator.next();
-                    List<DataBox> recordValues = r.getValues();
-                    List<DataBox> newValues = new ArrayList<DataBox>();
 
                     // if there is a marker record (in the case we're projecting from a group by), we simply
                     // leave the marker records in
                     if (r == this.markerRecord) {
                         return markerRecord;
                     } else {
-                        for (int index : ProjectOperator.this.indices) {
-                            newValues.add(recordValues.get(index));
-                        }
-                        return new Record(newValues);
+                        // the projected fields are copied without being decoded (see Record.project)
+                        return r.project(this.indices, ProjectOperator.this.getOutputSchema());
                     }
                 }
             }
@@ -4,6 +4,7 @@ import java.util.Iterator;
 import java.util.List;
 
 import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.io.IOStats;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.stats.TableStats;
@@ -14,6 +15,7 @@ public abstract class QueryOperator {
     private Schema operatorSchema;
     protected TableStats stats;
     protected int cost;
+    private final IOStats ioStats = new IOStats();
 
     public enum OperatorType {
         JOIN,
@@ -95,12 +97,59 @@ public abstract class QueryOperator {
 
     protected abstract Schema computeSchema() throws QueryPlanException;
 
+    /**
+     * Returns an iterator over the output of this operator which counts the
+     * buffer pool activity of producing each record towards getIOStats().
+     * Operators pull records from their sources with execute rather than
+     * iterator, so the stats of an operator include those of its sources.
+     */
     public Iterator<Record> execute() throws QueryPlanException, DatabaseException {
-        return iterator();
+        Iterator<Record> iter;
+        this.ioStats.enter();
+        try {
+            iter = iterator();
+        } finally {
+            this.ioStats.exit();
+        }
+        return new IOStatsIterator<>(iter);
+    }
+
+    /**
+     * Like execute, but returns the output of this operator a batch at a time
+     * (see batchIterator).
+     */
+    public Iterator<ColumnBatch> executeBatches() throws QueryPlanException, DatabaseException {
+        Iterator<ColumnBatch> iter;
+        this.ioStats.enter();
+        try {
+            iter = batchIterator();
+        } finally {
+            this.ioStats.exit();
+        }
+        return new IOStatsIterator<>(iter);
+    }
+
+    /**
+     * @return the buffer pool activity of executing this operator, which can be
+     * compared against estimateIOCost
+     */
+    public IOStats getIOStats() {
+        return this.ioStats;
     }
 
     public abstract Iterator<Record> iterator() throws QueryPlanException, DatabaseException;
 
+    /**
+     * Returns an iterator over the output of this operator in batches of
+     * rows (see ColumnBatch). By default, the records returned by iterator
+     * are packed into batches; operators which process whole batches at a
+     * time, pulling batches from their sources with executeBatches, override
+     * this and implement iterator with ColumnBatch.toRecords instead.
+     */
+    public Iterator<ColumnBatch> batchIterator() throws QueryPlanException, DatabaseException {
+        return ColumnBatch.fromRecords(this.iterator(), this.getOutputSchema());
+    }
+
     /**
      * Utility method that checks to see if a column is found in a schema using dot notation.
      *
@@ -184,4 +233,33 @@ public abstract class QueryOperator {
     public int getIOCost() {
         return this.cost;
     }
+
+    /**
+     * Wraps an iterator so that everything it does counts towards ioStats.
+     */
+    private class IOStatsIterator<T> implements Iterator<T> {
+        private Iterator<T> iter;
+
+        IOStatsIterator(Iterator<T> iter) {
+            this.iter = iter;
+        }
+
+        public boolean hasNext() {
+            QueryOperator.this.ioStats.enter();
+            try {
+                return this.iter.hasNext();
+            } finally {
+                QueryOperator.this.ioStats.exit();
+            }
+        }
+
+        public T next() {
+            QueryOperator.this.ioStats.enter();
+            try {
+                return this.iter.next();
+            } finally {
+                QueryOperator.this.ioStats.exit();
+            }
+        }
+    }
 }
@@ -1,6 +1,7 @@
 package edu.berkeley.cs186.database.query;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -189,8 +190,17 @@ public class QueryPlan {
         if (indexColumn != null) {
             this.generateIndexPlan(indexColumn);
         } else {
-            // start off with the start table scan as the source
-            this.finalOperator = new SequentialScanOperator(this.transaction, this.startTableName);
+            // start off with the start table scan as the source, reading only the columns the
+            // rest of the plan needs, and only the pages which may match the selections
+            SequentialScanOperator scanOperator = new SequentialScanOperator(this.transaction,
+                    this.startTableName, this.getScanColumns());
+            if (this.joinTableNames.isEmpty()) {
+                for (int i = 0; i < this.selectColumnNames.size(); ++i) {
+                    scanOperator.addPageFilter(this.selectColumnNames.get(i), this.selectOperators.get(i),
+                                               this.selectDataBoxes.get(i));
+                }
+            }
+            this.finalOperator = scanOperator;
 
             this.addJoins();
             this.addSelects();
@@ -481,6 +491,32 @@ public class QueryPlan {
         this.addProjects();
     }
 
+    /**
+     * Gets the columns of the start table which the operators above its scan refer to, so that
+     * projections can be pushed down into the scan. Plans with joins, and plans without a project
+     * operator (which output every column), read every column.
+     *
+     * @return the column names, or null if every column is needed
+     */
+    private List<String> getScanColumns() {
+        if (!this.joinTableNames.isEmpty()) {
+            return null;
+        }
+        if (this.projectColumns.isEmpty() && !this.hasCount && this.sumColumnName == null
+                && this.averageColumnName == null) {
+            return null;
+        }
+        List<String> columns = new ArrayList<String>(this.projectColumns);
+        columns.addAll(this.selectColumnNames);
+        for (String column : Arrays.asList(this.groupByColumn, this.sumColumnName,
+                                           this.averageColumnName)) {
+            if (column != null) {
+                columns.add(column);
+            }
+        }
+        return columns;
+    }
+
     private void addJoins() throws QueryPlanException, DatabaseException {
         int index = 0;
 
@@ -4,9 +4,8 @@ import java.util.*;
 
 import edu.berkeley.cs186.database.Database;
 import edu.berkeley.cs186.database.DatabaseException;
-import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.common.BacktrackingIterator;
 import edu.berkeley.cs186.database.table.Record;
-import edu.berkeley.cs186.database.table.RecordIterator;
 
 public class SNLJOperator extends JoinOperator {
     private QueryOperator leftSource;
@@ -56,8 +55,8 @@ public class SNLJOperator extends JoinOperator {
      * Note that the left table is the "outer" loop and the right table is the "inner" loop.
      */
     private class SNLJIterator extends JoinIterator {
-        private RecordIterator leftIterator;
-        private RecordIterator rightIterator;
+        private BacktrackingIterator<Record> leftIterator;
+        private BacktrackingIterator<Record> rightIterator;
         private Record leftRecord;
         private Record rightRecord;
         private Record nextRecord;
@@ -119,13 +118,10 @@ public class SNLJOperator extends JoinOperator {
             this.nextRecord = null;
             do {
                 if (this.rightRecord != null) {
-                    DataBox leftJoinValue = this.leftRecord.getValues().get(SNLJOperator.this.getLeftColumnIndex());
-                    DataBox rightJoinValue = rightRecord.getValues().get(SNLJOperator.this.getRightColumnIndex());
-                    if (leftJoinValue.equals(rightJoinValue)) {
-                        List<DataBox> leftValues = new ArrayList<>(this.leftRecord.getValues());
-                        List<DataBox> rightValues = new ArrayList<>(rightRecord.getValues());
-                        leftValues.addAll(rightValues);
-                        this.nextRecord = new Record(leftValues);
+                    if (this.leftRecord.fieldEquals(SNLJOperator.this.getLeftColumnIndex(),
+                                                    rightRecord, SNLJOperator.this.getRightColumnIndex())) {
+                        this.nextRecord = this.leftRecord.concat(rightRecord,
+                                          SNLJOperator.this.getOutputSchema());
                     }
                     this.rightRecord = rightIterator.hasNext() ? rightIterator.next() : null;
                 } else {
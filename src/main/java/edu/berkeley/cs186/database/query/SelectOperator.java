@@ -5,6 +5,8 @@ import java.util.NoSuchElementException;
 
 import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.DataBoxException;
+import edu.berkeley.cs186.database.databox.TypeId;
 import edu.berkeley.cs186.database.table.MarkerRecord;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
@@ -70,7 +72,181 @@ public class SelectOperator extends QueryOperator {
         return this.getSource().getIOCost();
     }
 
-    public Iterator<Record> iterator() throws QueryPlanException, DatabaseException { return new SelectIterator(); }
+    public Iterator<Record> iterator() throws QueryPlanException, DatabaseException {
+        // The marker records of a group by cannot be put into batches.
+        if (this.getSource().isGroupBy()) {
+            return new SelectIterator();
+        }
+        return ColumnBatch.toRecords(this.batchIterator());
+    }
+
+    @Override
+    public Iterator<ColumnBatch> batchIterator() throws QueryPlanException, DatabaseException {
+        if (this.getSource().isGroupBy()) {
+            return super.batchIterator();
+        }
+        Iterator<ColumnBatch> sourceBatches = this.getSource().executeBatches();
+        return new Iterator<ColumnBatch>() {
+            private ColumnBatch nextBatch = null;
+
+            public boolean hasNext() {
+                while (this.nextBatch == null && sourceBatches.hasNext()) {
+                    ColumnBatch batch = sourceBatches.next();
+                    SelectOperator.this.filter(batch);
+                    if (batch.size() > 0) {
+                        this.nextBatch = batch;
+                    }
+                }
+                return this.nextBatch != null;
+            }
+
+            public ColumnBatch next() {
+                if (!this.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                ColumnBatch batch = this.nextBatch;
+                this.nextBatch = null;
+                return batch;
+            }
+        };
+    }
+
+    /**
+     * Narrows the selection vector of batch to the rows which satisfy the
+     * predicate. The type of the column is dispatched on once per batch, and
+     * the loops below compare primitives.
+     */
+    private void filter(ColumnBatch batch) {
+        int[] selection = batch.getSelection();
+        int size = batch.size();
+        TypeId typeId = this.getOutputSchema().getFieldTypes().get(this.columnIndex).getTypeId();
+        if (typeId != this.value.type().getTypeId()) {
+            // Like DataBox.equals, values of different types are unequal, and
+            // like DataBox.compareTo, they cannot be ordered.
+            switch (this.operator) {
+            case EQUALS:
+                batch.setSize(0);
+                return;
+            case NOT_EQUALS:
+                return;
+            default:
+                String err = String.format("Invalid comparison between %s and %s.",
+                                           typeId, this.value.toString());
+                throw new DataBoxException(err);
+            }
+        }
+
+        int n = 0;
+        switch (typeId) {
+        case BOOL: {
+            boolean[] column = batch.getBools(this.columnIndex);
+            boolean v = this.value.getBool();
+            for (int i = 0; i < size; ++i) {
+                if (satisfies(Boolean.compare(column[selection[i]], v))) {
+                    selection[n++] = selection[i];
+                }
+            }
+            break;
+        }
+        case INT: {
+            int[] column = batch.getInts(this.columnIndex);
+            int v = this.value.getInt();
+            for (int i = 0; i < size; ++i) {
+                if (satisfies(Integer.compare(column[selection[i]], v))) {
+                    selection[n++] = selection[i];
+                }
+            }
+            break;
+        }
+        case FLOAT: {
+            // Floats are equal as in FloatDataBox.equals, and ordered as in
+            // FloatDataBox.compareTo.
+            float[] column = batch.getFloats(this.columnIndex);
+            float v = this.value.getFloat();
+            for (int i = 0; i < size; ++i) {
+                float f = column[selection[i]];
+                if (satisfies(f == v ? 0 : Float.compare(f, v))) {
+                    selection[n++] = selection[i];
+                }
+            }
+            break;
+        }
+        default: {
+            byte[] column = batch.getStringBytes(this.columnIndex);
+            int width = this.getOutputSchema().getFieldTypes().get(this.columnIndex).getSizeInBytes();
+            String v = this.value.getString();
+            for (int i = 0; i < size; ++i) {
+                if (satisfies(compareString(column, selection[i] * width, width, v))) {
+                    selection[n++] = selection[i];
+                }
+            }
+            break;
+        }
+        }
+        batch.setSize(n);
+    }
+
+    /**
+     * Compares the string of length bytes at offset of bytes to s, like
+     * String.compareTo does. Strings are made of ASCII characters only (see
+     * StringDataBox), so their bytes are their characters.
+     */
+    private static int compareString(byte[] bytes, int offset, int length, String s) {
+        int n = Math.min(length, s.length());
+        for (int k = 0; k < n; ++k) {
+            int c = bytes[offset + k] - s.charAt(k);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return length - s.length();
+    }
+
+    /**
+     * Returns whether a field which compares to the value as cmp does (see
+     * Comparable.compareTo) satisfies the predicate.
+     */
+    private boolean satisfies(int cmp) {
+        switch (this.operator) {
+        case EQUALS:
+            return cmp == 0;
+        case NOT_EQUALS:
+            return cmp != 0;
+        case LESS_THAN:
+            return cmp < 0;
+        case LESS_THAN_EQUALS:
+            return cmp <= 0;
+        case GREATER_THAN:
+            return cmp > 0;
+        case GREATER_THAN_EQUALS:
+            return cmp >= 0;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Returns whether record r satisfies the predicate. The field is compared
+     * in place (see Record.compareField), without being decoded.
+     */
+    private boolean matches(Record r) {
+        switch (this.operator) {
+        case EQUALS:
+            return r.fieldEquals(this.columnIndex, this.value);
+        case NOT_EQUALS:
+            return !r.fieldEquals(this.columnIndex, this.value);
+        case LESS_THAN:
+            return r.compareField(this.columnIndex, this.value) < 0;
+        case LESS_THAN_EQUALS:
+            return r.compareField(this.columnIndex, this.value) <= 0;
+        case GREATER_THAN:
+            return r.compareField(this.columnIndex, this.value) > 0;
+        case GREATER_THAN_EQUALS:
+            return r.compareField(this.columnIndex, this.value) >= 0;
+        default:
+            return false;
+        }
+    }
 
     /**
      * An implementation of Iterator that provides an iterator interface for this operator.
@@ -81,7 +257,7 @@ public class SelectOperator extends QueryOperator {
         private Record nextRecord;
 
         public SelectIterator() throws QueryPlanException, DatabaseException {
-            this.sourceIterator = SelectOperator.this.getSource().iterator();
+            this.sourceIterator = SelectOperator.this.getSource().execute();
             this.markerRecord = MarkerRecord.getMarker();
             this.nextRecord = null;
         }
@@ -101,51 +277,9 @@ public class SelectOperator extends QueryOperator {
                     this.nextRecord = r;
                     return true;
                 }
-                switch (SelectOperator.this.operator) {
-                case EQUALS:
-                    if (r.getValues().get(SelectOperator.this.columnIndex).equals(value)) {
-                        this.nextRecord = r;
-                        return true;
-                    }
-                    break;
-                case NOT_EQUALS:
-                    if (!r.getValues().get(SelectOperator.this.columnIndex).equals(value)) {
-                        this.nextRecord = r;
-                        return true;
-                    }
-                    break;
-                case LESS_THAN:
-                    if (r.getValues().get(SelectOperator.this.columnIndex).compareTo(value) == -1) {
-                        this.nextRecord = r;
-                        return true;
-                    }
-                    break;
-                case LESS_THAN_EQUALS:
-                    if (r.getValues().get(SelectOperator.this.columnIndex).compareTo(value) == -1) {
-                        this.nextRecord = r;
-                        return true;
-                    } else if (r.getValues().get(SelectOperator.this.columnIndex).compareTo(value) == 0) {
-                        this.nextRecord = r;
-                        return true;
-                    }
-                    break;
-                case GREATER_THAN:
-                    if (r.getValues().get(SelectOperator.this.columnIndex).compareTo(value) == 1) {
-                        this.nextRecord = r;
-                        return true;
-                    }
-                    break;
-                case GREATER_THAN_EQUALS:
-                    if (r.getValues().get(SelectOperator.this.columnIndex).compareTo(value) == 1) {
-                        this.nextRecord = r;
-                        return true;
-                    } else if (r.getValues().get(SelectOperator.this.columnIndex).compareTo(value) == 0) {
-                        this.nextRecord = r;
-                        return true;
-                    }
-                    break;
-                default:
-                    break;
+                if (SelectOperator.this.matches(r)) {
+                    this.nextRecord = r;
+                    return true;
                 }
             }
             return false;
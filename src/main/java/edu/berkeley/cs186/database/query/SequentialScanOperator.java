@@ -1,17 +1,35 @@
 package edu.berkeley.cs186.database.query;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
 
 import edu.berkeley.cs186.database.Database;
 import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordBatch;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.stats.TableStats;
+import edu.berkeley.cs186.database.table.stats.ZoneMap;
 
 public class SequentialScanOperator extends QueryOperator {
     private Database.Transaction transaction;
     private String tableName;
 
+    // The numbers of the columns the scan reads, in table order, or null if
+    // it reads every column.
+    private List<Integer> columns;
+
+    // The predicates pages are skipped for, given by the number of the column they are on, the
+    // comparator, and the value to compare against (see addPageFilter).
+    private List<Integer> filterColumns;
+    private List<QueryPlan.PredicateOperator> filterOperators;
+    private List<DataBox> filterValues;
+
     /**
      * Creates a new SequentialScanOperator that provides an iterator on all tuples in a table.
      *
@@ -25,9 +43,37 @@ public class SequentialScanOperator extends QueryOperator {
      */
     public SequentialScanOperator(Database.Transaction transaction,
                                   String tableName) throws QueryPlanException, DatabaseException {
+        this(transaction, tableName, null);
+    }
+
+    /**
+     * Creates a new SequentialScanOperator that provides an iterator on the given columns of all
+     * tuples in a table. The other columns are not read at all, and are left out of the output
+     * schema. Columns are output in the order of the table's schema, each only once.
+     *
+     * @param transaction
+     * @param tableName
+     * @param columnNames the columns to read, or null to read every column
+     * @throws QueryPlanException
+     * @throws DatabaseException
+     */
+    public SequentialScanOperator(Database.Transaction transaction, String tableName,
+                                  List<String> columnNames) throws QueryPlanException, DatabaseException {
         super(OperatorType.SEQSCAN);
         this.transaction = transaction;
         this.tableName = tableName;
+        this.filterColumns = new ArrayList<>();
+        this.filterOperators = new ArrayList<>();
+        this.filterValues = new ArrayList<>();
+        if (columnNames != null) {
+            Schema schema = this.transaction.getFullyQualifiedSchema(tableName);
+            TreeSet<Integer> indices = new TreeSet<>();
+            for (String columnName : columnNames) {
+                String name = this.checkSchemaForColumn(schema, columnName);
+                indices.add(schema.getFieldNames().indexOf(name));
+            }
+            this.columns = new ArrayList<>(indices);
+        }
         this.setOutputSchema(this.computeSchema());
         /*
         this.stats = this.estimateStats();
@@ -39,31 +85,165 @@ public class SequentialScanOperator extends QueryOperator {
         return this.tableName;
     }
 
+    /**
+     * @return the numbers of the columns the scan reads, or null if it reads every column
+     */
+    public List<Integer> getColumns() {
+        return this.columns;
+    }
+
+    /**
+     * Makes the scan skip the pages of the table whose zone maps show that none of their records
+     * satisfy the predicate. Equalities also make the scan skip the records of the pages it reads
+     * that the table can tell fail them without reading them (see Table.iterator), such as those
+     * of a DICTIONARY table whose string codes differ from that of the value. The scan may still
+     * return records which do not satisfy the predicate, so it must also be applied by a
+     * SelectOperator above it.
+     *
+     * @param columnName the name of the column to evaluate the predicate on
+     * @param operator the actual comparator
+     * @param value the value to compare against
+     * @throws QueryPlanException
+     */
+    public void addPageFilter(String columnName, QueryPlan.PredicateOperator operator,
+                              DataBox value) throws QueryPlanException {
+        try {
+            Schema schema = this.transaction.getFullyQualifiedSchema(this.tableName);
+            String name = this.checkSchemaForColumn(schema, columnName);
+            this.filterColumns.add(schema.getFieldNames().indexOf(name));
+            this.filterOperators.add(operator);
+            this.filterValues.add(value);
+        } catch (DatabaseException de) {
+            throw new QueryPlanException(de);
+        }
+    }
+
     public Iterator<Record> iterator() throws DatabaseException {
+        if (!this.filterColumns.isEmpty()) {
+            return this.transaction.getRecordIterator(tableName, this.columns, this::mayMatch,
+                    this.getEqualityColumns(), this.getEqualityValues());
+        }
+        if (this.columns != null) {
+            return this.transaction.getRecordIterator(tableName, this.columns);
+        }
         return this.transaction.getRecordIterator(tableName);
     }
 
+    /**
+     * Fills a single ColumnBatch straight from the records of the pages of the table, as the
+     * table reads them a page at a time (see Table.batchIterator), instead of packing the
+     * records of iterator. Every call to next refills the same batch.
+     */
+    @Override
+    public Iterator<ColumnBatch> batchIterator() throws DatabaseException {
+        Iterator<RecordBatch> pages = this.transaction.getRecordBatchIterator(tableName,
+                this.columns, this.filterColumns.isEmpty() ? null : this::mayMatch,
+                this.getEqualityColumns(), this.getEqualityValues());
+        ColumnBatch batch = new ColumnBatch(this.getOutputSchema());
+        return new Iterator<ColumnBatch>() {
+            // The page being appended to the batch, and the index of its next record.
+            private RecordBatch page = null;
+            private int index = 0;
+
+            public boolean hasNext() {
+                return (this.page != null && this.index < this.page.size()) || pages.hasNext();
+            }
+
+            public ColumnBatch next() {
+                if (!this.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                batch.clear();
+                while (!batch.isFull()) {
+                    if (this.page == null || this.index == this.page.size()) {
+                        if (!pages.hasNext()) {
+                            break;
+                        }
+                        this.page = pages.next();
+                        this.index = 0;
+                    }
+                    batch.append(this.page.getRecord(this.index++));
+                }
+                return batch;
+            }
+        };
+    }
+
+    private List<Integer> getEqualityColumns() {
+        List<Integer> equalityColumns = new ArrayList<>();
+        for (int i = 0; i < this.filterColumns.size(); ++i) {
+            if (this.filterOperators.get(i) == QueryPlan.PredicateOperator.EQUALS) {
+                equalityColumns.add(this.filterColumns.get(i));
+            }
+        }
+        return equalityColumns;
+    }
+
+    private List<DataBox> getEqualityValues() {
+        List<DataBox> equalityValues = new ArrayList<>();
+        for (int i = 0; i < this.filterColumns.size(); ++i) {
+            if (this.filterOperators.get(i) == QueryPlan.PredicateOperator.EQUALS) {
+                equalityValues.add(this.filterValues.get(i));
+            }
+        }
+        return equalityValues;
+    }
+
+    private boolean mayMatch(ZoneMap zoneMap) {
+        for (int i = 0; i < this.filterColumns.size(); ++i) {
+            if (!zoneMap.mayMatch(this.filterColumns.get(i), this.filterOperators.get(i),
+                                  this.filterValues.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public Schema computeSchema() throws QueryPlanException {
         try {
-            return this.transaction.getFullyQualifiedSchema(this.tableName);
+            Schema schema = this.transaction.getFullyQualifiedSchema(this.tableName);
+            if (this.columns == null) {
+                return schema;
+            }
+            List<String> names = new ArrayList<>();
+            List<Type> types = new ArrayList<>();
+            for (int i : this.columns) {
+                names.add(schema.getFieldNames().get(i));
+                types.add(schema.getFieldTypes().get(i));
+            }
+            return new Schema(names, types);
         } catch (DatabaseException de) {
             throw new QueryPlanException(de);
         }
     }
 
     public String str() {
-        return "type: " + this.getType() +
-               "\ntable: " + this.tableName;
+        String r = "type: " + this.getType() +
+                   "\ntable: " + this.tableName;
+        if (this.columns != null) {
+            r += "\ncolumns: " + this.getOutputSchema().getFieldNames();
+        }
+        for (int i = 0; i < this.filterColumns.size(); ++i) {
+            r += "\npage filter: column " + this.filterColumns.get(i) + " " +
+                 this.filterOperators.get(i) + " " + this.filterValues.get(i);
+        }
+        return r;
     }
 
     /**
-     * Estimates the table statistics for the result of executing this query operator.
+     * Estimates the table statistics for the result of executing this query operator. The
+     * statistics of a scan of only some columns keep only the histograms of those columns, so
+     * that they line up with the output schema.
      *
      * @return estimated TableStats
      */
     public TableStats estimateStats() throws QueryPlanException {
         try {
-            return this.transaction.getStats(this.tableName);
+            TableStats stats = this.transaction.getStats(this.tableName);
+            if (this.columns == null) {
+                return stats;
+            }
+            return stats.copyWithProjection(this.columns, this.getOutputSchema());
         } catch (DatabaseException de) {
             throw new QueryPlanException(de);
         }
@@ -0,0 +1,104 @@
+package edu.berkeley.cs186.database.table;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.Type;
+
+/**
+ * The layout of Table.Layout.DICTIONARY: data pages are FIXED pages of the
+ * table's schema with every encoded string column (see StringDictionary)
+ * replaced by a 4-byte int column, which holds the code of the string in the
+ * table's dictionary. A table of a few distinct 20-byte strings thus stores
+ * 4 bytes per string instead of 20.
+ *
+ * Records are read with their strings copied back from the dictionary, so
+ * they look like the records of any other table. Equality filters on encoded
+ * columns (see equalityFilter) look their value up in the dictionary once,
+ * and then only compare codes.
+ */
+class DictionaryPageLayout extends FixedPageLayout {
+    // The schema of the table, as opposed to that of the data pages.
+    private final Schema tableSchema;
+    private final StringDictionary dictionary;
+
+    DictionaryPageLayout(Schema schema, StringDictionary dictionary) {
+        super(encodedSchema(schema, dictionary));
+        this.tableSchema = schema;
+        this.dictionary = dictionary;
+    }
+
+    @Override
+    public Record readRecord(Buffer page, int entryNum) {
+        byte[] bytes = new byte[tableSchema.getSizeInBytes()];
+        for (int i = 0; i < fieldOffsets.length; ++i) {
+            readField(page, entryNum, i, bytes, tableSchema.getFieldOffset(i));
+        }
+        return Record.fromBytes(bytes, tableSchema);
+    }
+
+    @Override
+    public Record readRecord(Buffer page, int entryNum, int[] columns, Schema projected) {
+        byte[] bytes = new byte[projected.getSizeInBytes()];
+        for (int i = 0; i < columns.length; ++i) {
+            readField(page, entryNum, columns[i], bytes, projected.getFieldOffset(i));
+        }
+        return Record.fromBytes(bytes, projected);
+    }
+
+    @Override
+    public EntryFilter equalityFilter(int column, DataBox value) {
+        if (!dictionary.isEncoded(column)) {
+            return super.equalityFilter(column, value);
+        }
+        if (!tableSchema.getFieldTypes().get(column).equals(value.type())) {
+            return (page, entryNum) -> false;
+        }
+        int code = dictionary.getCode(column, value.getString());
+        if (code == -1) {
+            return (page, entryNum) -> false;
+        }
+        return (page, entryNum) -> page.getInt(fieldPosition(entryNum, column)) == code;
+    }
+
+    /**
+     * Writes record, whose strings must already be in the dictionary (see
+     * StringDictionary.add).
+     */
+    @Override
+    void writeRecord(Buffer page, int entryNum, Record record) {
+        page.position(fieldPosition(entryNum, 0));
+        for (int i = 0; i < fieldOffsets.length; ++i) {
+            if (dictionary.isEncoded(i)) {
+                int code = dictionary.getCode(i, record.getString(i));
+                assert(code != -1);
+                page.putInt(code);
+            } else {
+                page.put(record.getValue(i).toBytes());
+            }
+        }
+    }
+
+    // Copies field `column` of entry entryNum, decoded, to bytes[offset:].
+    private void readField(Buffer page, int entryNum, int column, byte[] bytes, int offset) {
+        if (dictionary.isEncoded(column)) {
+            byte[] value = dictionary.getValue(column, page.getInt(fieldPosition(entryNum, column)));
+            System.arraycopy(value, 0, bytes, offset, value.length);
+        } else {
+            page.position(fieldPosition(entryNum, column));
+            copyField(page, schema.getFieldTypes().get(column), bytes, offset);
+        }
+    }
+
+    private static Schema encodedSchema(Schema schema, StringDictionary dictionary) {
+        List<Type> types = new ArrayList<>(schema.getFieldTypes());
+        for (int i = 0; i < types.size(); ++i) {
+            if (dictionary.isEncoded(i)) {
+                types.set(i, Type.intType());
+            }
+        }
+        return new Schema(schema.getFieldNames(), types);
+    }
+}
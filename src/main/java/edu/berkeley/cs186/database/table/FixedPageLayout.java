@@ -0,0 +1,159 @@
+package edu.berkeley.cs186.database.table;
+
+import java.util.List;
+
+import edu.berkeley.cs186.database.common.Bits;
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
+import edu.berkeley.cs186.database.io.Page;
+
+/**
+ * The layout of Table.Layout.FIXED: every data page begins with a bitmap of
+ * its entries, followed by the entries themselves, each of which is
+ * schema.getSizeInBytes() bytes long (see the comment on Table).
+ */
+class FixedPageLayout implements PageLayout {
+    final Schema schema;
+    final int recordSize;
+    final int bitmapSizeInBytes;
+    final int numRecordsPerPage;
+
+    // fieldOffsets[i] is the sum of the sizes of the fields before field i.
+    final int[] fieldOffsets;
+
+    FixedPageLayout(Schema schema) {
+        this.schema = schema;
+        this.recordSize = schema.getSizeInBytes();
+        this.bitmapSizeInBytes = Table.computeBitmapSizeInBytes(Page.pageSize, schema);
+        this.numRecordsPerPage = Table.computeNumRecordsPerPage(Page.pageSize, schema);
+        List<Type> types = schema.getFieldTypes();
+        this.fieldOffsets = new int[types.size()];
+        for (int i = 1; i < types.size(); ++i) {
+            fieldOffsets[i] = fieldOffsets[i - 1] + types.get(i - 1).getSizeInBytes();
+        }
+    }
+
+    public int getNumRecordsPerPage() {
+        return numRecordsPerPage;
+    }
+
+    public int getBitmapSizeInBytes() {
+        return bitmapSizeInBytes;
+    }
+
+    public byte[] readBitMap(Buffer page) {
+        byte[] bytes = new byte[bitmapSizeInBytes];
+        page.position(0).get(bytes);
+        return bytes;
+    }
+
+    public boolean isLive(Buffer page, int entryNum) {
+        return Bits.getBit(page.position(0), entryNum) == Bits.Bit.ONE;
+    }
+
+    public Record readRecord(Buffer page, int entryNum) {
+        page.position(offset(entryNum));
+        return Record.fromBytes(page, schema);
+    }
+
+    public Record readRecord(Buffer page, int entryNum, int[] columns, Schema projected) {
+        byte[] bytes = new byte[projected.getSizeInBytes()];
+        for (int i = 0; i < columns.length; ++i) {
+            page.position(offset(entryNum) + fieldOffsets[columns[i]]);
+            copyField(page, projected.getFieldTypes().get(i), bytes, projected.getFieldOffset(i));
+        }
+        return Record.fromBytes(bytes, projected);
+    }
+
+    public EntryFilter equalityFilter(int column, DataBox value) {
+        Type t = schema.getFieldTypes().get(column);
+        if (!t.equals(value.type())) {
+            return (page, entryNum) -> false;
+        }
+        if (t.getTypeId() == TypeId.FLOAT) {
+            // 0.0 equals -0.0, but their bytes differ.
+            return null;
+        }
+        byte[] expected = value.toBytes();
+        return (page, entryNum) -> {
+            page.position(fieldPosition(entryNum, column));
+            for (byte b : expected) {
+                if (page.get() != b) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+
+    public int insertRecords(Buffer page, int pageNum, List<Record> records, int from,
+                             List<RecordId> rids) {
+        // The bitmap is updated in memory, and written back once.
+        byte[] bitmap = readBitMap(page);
+        int numInserted = 0;
+        int entryNum = Bits.indexOf(bitmap, Bits.Bit.ZERO, 0, numRecordsPerPage);
+        while (entryNum != -1 && from + numInserted < records.size()) {
+            writeRecord(page, entryNum, records.get(from + numInserted));
+            bitmap[entryNum / 8] = Bits.setBit(bitmap[entryNum / 8], entryNum % 8, Bits.Bit.ONE);
+            rids.add(new RecordId(pageNum, (short) entryNum));
+            numInserted++;
+            entryNum = Bits.indexOf(bitmap, Bits.Bit.ZERO, entryNum + 1, numRecordsPerPage);
+        }
+        page.position(0).put(bitmap);
+        return numInserted;
+    }
+
+    public void updateRecord(Buffer page, int entryNum, Record record) {
+        writeRecord(page, entryNum, record);
+    }
+
+    public void deleteRecord(Buffer page, int entryNum) {
+        Bits.setBit(page.position(0), entryNum, Bits.Bit.ZERO);
+    }
+
+    public boolean hasRoom(Buffer page, int numRecords) {
+        return numRecords < numRecordsPerPage;
+    }
+
+    void writeRecord(Buffer page, int entryNum, Record record) {
+        page.position(offset(entryNum)).put(record.toBytes(schema));
+    }
+
+    /**
+     * Copies the serialized field of type t at the position of page to
+     * bytes[offset:], advancing the position of page past it.
+     */
+    static void copyField(Buffer page, Type t, byte[] bytes, int offset) {
+        switch (t.getTypeId()) {
+        case BOOL:
+            bytes[offset] = page.get();
+            break;
+        case INT:
+        case FLOAT:
+            int v = page.getInt();
+            bytes[offset] = (byte) (v >>> 24);
+            bytes[offset + 1] = (byte) (v >>> 16);
+            bytes[offset + 2] = (byte) (v >>> 8);
+            bytes[offset + 3] = (byte) v;
+            break;
+        default:
+            byte[] field = new byte[t.getSizeInBytes()];
+            page.get(field);
+            System.arraycopy(field, 0, bytes, offset, field.length);
+            break;
+        }
+    }
+
+    /**
+     * @return the offset on the page of field `column` of entry entryNum
+     */
+    int fieldPosition(int entryNum, int column) {
+        return offset(entryNum) + fieldOffsets[column];
+    }
+
+    private int offset(int entryNum) {
+        return bitmapSizeInBytes + entryNum * recordSize;
+    }
+}
@@ -0,0 +1,98 @@
+package edu.berkeley.cs186.database.table;
+
+import java.util.List;
+
+import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.databox.DataBox;
+
+/**
+ * A PageLayout decides how a table stores records on its data pages (see
+ * Table.Layout). Every data page has up to getNumRecordsPerPage() entries,
+ * numbered from 0, each of which is either empty or holds a record; a record
+ * is identified by the page number and entry number of its entry.
+ *
+ * Every method takes a buffer over a whole data page, whose position it may
+ * change. Callers hold the latch of the page, so layouts need not be
+ * thread-safe.
+ */
+interface PageLayout {
+    /**
+     * @return the most records a data page can hold
+     */
+    int getNumRecordsPerPage();
+
+    /**
+     * @return the size of the bitmaps returned by readBitMap
+     */
+    int getBitmapSizeInBytes();
+
+    /**
+     * Returns a bitmap of the entries of a page, in which bit i (see
+     * Bits.getBit(byte[], int)) is set if entry i holds a record.
+     */
+    byte[] readBitMap(Buffer page);
+
+    /**
+     * @return whether entry entryNum holds a record
+     */
+    boolean isLive(Buffer page, int entryNum);
+
+    /**
+     * Reads the record in entry entryNum, which must hold one. The record is
+     * backed by bytes (see Record), so reading it decodes none of its fields.
+     */
+    Record readRecord(Buffer page, int entryNum);
+
+    /**
+     * Reads fields columns[0], columns[1], ... of the record in entry
+     * entryNum, which must hold one, without reading its other fields.
+     *
+     * @param projected the schema of the result, i.e. the table's schema
+     * projected onto columns (see Schema.project)
+     */
+    Record readRecord(Buffer page, int entryNum, int[] columns, Schema projected);
+
+    /**
+     * Returns a test of whether field `column` of the record in an entry
+     * equals value (see Record.fieldEquals), which reads the field straight
+     * off the page instead of reading the record, or null if the layout cannot
+     * test the field this way.
+     */
+    EntryFilter equalityFilter(int column, DataBox value);
+
+    /**
+     * Inserts records from, from + 1, ... into the empty entries of a page, in
+     * order, until either the records run out or the next one does not fit.
+     * The record ids of the inserted records are appended to rids.
+     *
+     * @return the number of records inserted
+     */
+    int insertRecords(Buffer page, int pageNum, List<Record> records, int from,
+                      List<RecordId> rids);
+
+    /**
+     * Replaces the record in entry entryNum, which must hold one.
+     *
+     * @throws DatabaseException if the new record does not fit on the page
+     */
+    void updateRecord(Buffer page, int entryNum, Record record) throws DatabaseException;
+
+    /**
+     * Empties entry entryNum, which must hold a record.
+     */
+    void deleteRecord(Buffer page, int entryNum);
+
+    /**
+     * @param numRecords the number of records on the page
+     * @return whether any record of the table would fit on the page
+     */
+    boolean hasRoom(Buffer page, int numRecords);
+
+    /**
+     * A test of the record in entry entryNum of a page, which must hold one.
+     */
+    interface EntryFilter {
+        boolean test(Buffer page, int entryNum);
+    }
+}
@@ -0,0 +1,72 @@
+package edu.berkeley.cs186.database.table;
+
+import java.util.List;
+
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.databox.DataBox;
+
+/**
+ * The layout of Table.Layout.COLUMNAR (PAX): every data page begins with the
+ * same bitmap as a FIXED page and holds as many records, but the rest of the
+ * page is split into one minipage per column, which holds that column's value
+ * for every entry of the page:
+ *
+ *   +--------+---------------------+---------------------+-----+
+ *   | bitmap | column 0 of entries | column 1 of entries | ... |
+ *   |        | 0, 1, ..., n - 1    | 0, 1, ..., n - 1    |     |
+ *   +--------+---------------------+---------------------+-----+
+ *
+ * Reading a few columns of every record of a page only touches their
+ * minipages, and the values a scan reads one after the other are next to each
+ * other on the page.
+ */
+class PaxPageLayout extends FixedPageLayout {
+    // minipageOffsets[i] is the offset of the minipage of column i.
+    private final int[] minipageOffsets;
+
+    PaxPageLayout(Schema schema) {
+        super(schema);
+        this.minipageOffsets = new int[fieldOffsets.length];
+        for (int i = 0; i < fieldOffsets.length; ++i) {
+            minipageOffsets[i] = bitmapSizeInBytes + numRecordsPerPage * fieldOffsets[i];
+        }
+    }
+
+    @Override
+    public Record readRecord(Buffer page, int entryNum) {
+        byte[] bytes = new byte[recordSize];
+        for (int i = 0; i < minipageOffsets.length; ++i) {
+            readField(page, entryNum, i, bytes, fieldOffsets[i]);
+        }
+        return Record.fromBytes(bytes, schema);
+    }
+
+    @Override
+    public Record readRecord(Buffer page, int entryNum, int[] columns, Schema projected) {
+        byte[] bytes = new byte[projected.getSizeInBytes()];
+        for (int i = 0; i < columns.length; ++i) {
+            readField(page, entryNum, columns[i], bytes, projected.getFieldOffset(i));
+        }
+        return Record.fromBytes(bytes, projected);
+    }
+
+    @Override
+    void writeRecord(Buffer page, int entryNum, Record record) {
+        List<DataBox> values = record.getValues();
+        for (int i = 0; i < minipageOffsets.length; ++i) {
+            page.position(fieldPosition(entryNum, i)).put(values.get(i).toBytes());
+        }
+    }
+
+    // Copies field `column` of entry entryNum to bytes[offset:].
+    private void readField(Buffer page, int entryNum, int column, byte[] bytes, int offset) {
+        page.position(fieldPosition(entryNum, column));
+        copyField(page, schema.getFieldTypes().get(column), bytes, offset);
+    }
+
+    @Override
+    int fieldPosition(int entryNum, int column) {
+        return minipageOffsets[column] +
+               entryNum * schema.getFieldTypes().get(column).getSizeInBytes();
+    }
+}
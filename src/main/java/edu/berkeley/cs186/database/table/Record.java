@@ -1,26 +1,291 @@
 package edu.berkeley.cs186.database.table;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
 
 import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.databox.BoolDataBox;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.DataBoxException;
+import edu.berkeley.cs186.database.databox.FloatDataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
 import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
 
-/** A Record is just list of DataBoxes. */
+/**
+ * A Record is just list of DataBoxes.
+ *
+ * A record read from a table is instead backed by its serialized bytes (see
+ * toBytes and fromBytes), and its fields are only decoded into DataBoxes the
+ * first time getValues is called. The getters below that take a field number
+ * (getInt(i), compareField(i, value), project, concat, ...) read fields
+ * straight from the bytes, so operators that only use them filter, project,
+ * and join records without allocating a DataBox per field. Either way, a
+ * record is immutable.
+ */
 public class Record {
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    // The values of the record, or null if the record is backed by bytes and
+    // they have not been decoded yet.
     private List<DataBox> values;
 
+    // The serialized record and its schema, or null if the record is not
+    // backed by bytes.
+    private final byte[] bytes;
+    private final Schema schema;
+
     public Record(List<DataBox> values) {
         this.values = values;
+        this.bytes = null;
+        this.schema = null;
+    }
+
+    private Record(byte[] bytes, Schema schema) {
+        this.values = null;
+        this.bytes = bytes;
+        this.schema = schema;
     }
 
     public List<DataBox> getValues() {
+        if (this.values == null) {
+            List<DataBox> decoded = new ArrayList<>(schema.getFieldTypes().size());
+            for (int i = 0; i < schema.getFieldTypes().size(); ++i) {
+                decoded.add(getValue(i));
+            }
+            this.values = decoded;
+        }
         return this.values;
     }
 
+    /**
+     * @return the number of fields of the record
+     */
+    public int size() {
+        return bytes == null ? values.size() : schema.getFieldTypes().size();
+    }
+
+    /**
+     * Returns field i, decoding only that field if the record is backed by
+     * bytes.
+     */
+    public DataBox getValue(int i) {
+        if (values != null) {
+            return values.get(i);
+        }
+        Type t = schema.getFieldTypes().get(i);
+        switch (t.getTypeId()) {
+        case BOOL:
+            return new BoolDataBox(getBool(i));
+        case INT:
+            return new IntDataBox(getInt(i));
+        case FLOAT:
+            return new FloatDataBox(getFloat(i));
+        case STRING:
+            return new StringDataBox(getString(i), t.getSizeInBytes());
+        default:
+            String err = String.format("Unhandled TypeId %s.", t.getTypeId().toString());
+            throw new IllegalArgumentException(err);
+        }
+    }
+
+    public boolean getBool(int i) {
+        if (bytes == null) {
+            return values.get(i).getBool();
+        }
+        checkType(i, TypeId.BOOL);
+        return bytes[schema.getFieldOffset(i)] == 1;
+    }
+
+    public int getInt(int i) {
+        if (bytes == null) {
+            return values.get(i).getInt();
+        }
+        checkType(i, TypeId.INT);
+        return readInt(schema.getFieldOffset(i));
+    }
+
+    public float getFloat(int i) {
+        if (bytes == null) {
+            return values.get(i).getFloat();
+        }
+        checkType(i, TypeId.FLOAT);
+        return Float.intBitsToFloat(readInt(schema.getFieldOffset(i)));
+    }
+
+    public String getString(int i) {
+        if (bytes == null) {
+            return values.get(i).getString();
+        }
+        checkType(i, TypeId.STRING);
+        return new String(bytes, schema.getFieldOffset(i),
+                          schema.getFieldTypes().get(i).getSizeInBytes(), CHARSET);
+    }
+
+    /**
+     * Compares field i to value, like getValue(i).compareTo(value) does.
+     *
+     * @throws DataBoxException if field i and value have different types
+     */
+    public int compareField(int i, DataBox value) {
+        if (bytes == null) {
+            return values.get(i).compareTo(value);
+        }
+        Type t = schema.getFieldTypes().get(i);
+        if (t.getTypeId() != value.type().getTypeId()) {
+            String err = String.format("Invalid comparison between %s and %s.",
+                                       getValue(i).toString(), value.toString());
+            throw new DataBoxException(err);
+        }
+        switch (t.getTypeId()) {
+        case BOOL:
+            return Boolean.compare(getBool(i), value.getBool());
+        case INT:
+            return Integer.compare(getInt(i), value.getInt());
+        case FLOAT:
+            return Float.compare(getFloat(i), value.getFloat());
+        case STRING:
+            return compareString(schema.getFieldOffset(i), t.getSizeInBytes(), value.getString());
+        default:
+            String err = String.format("Unhandled TypeId %s.", t.getTypeId().toString());
+            throw new IllegalArgumentException(err);
+        }
+    }
+
+    /**
+     * Compares field i of this record to field j of other, like
+     * getValue(i).compareTo(other.getValue(j)) does.
+     *
+     * @throws DataBoxException if the two fields have different types
+     */
+    public int compareField(int i, Record other, int j) {
+        if (bytes == null || other.bytes == null) {
+            return compareField(i, other.getValue(j));
+        }
+        Type t = schema.getFieldTypes().get(i);
+        Type u = other.schema.getFieldTypes().get(j);
+        if (t.getTypeId() != u.getTypeId()) {
+            String err = String.format("Invalid comparison between %s and %s.",
+                                       getValue(i).toString(), other.getValue(j).toString());
+            throw new DataBoxException(err);
+        }
+        switch (t.getTypeId()) {
+        case BOOL:
+            return Boolean.compare(getBool(i), other.getBool(j));
+        case INT:
+            return Integer.compare(getInt(i), other.getInt(j));
+        case FLOAT:
+            return Float.compare(getFloat(i), other.getFloat(j));
+        case STRING:
+            // Strings are made of ASCII characters only (see StringDataBox),
+            // so comparing their bytes compares them.
+            int offset = schema.getFieldOffset(i);
+            int otherOffset = other.schema.getFieldOffset(j);
+            int n = Math.min(t.getSizeInBytes(), u.getSizeInBytes());
+            for (int k = 0; k < n; ++k) {
+                int c = bytes[offset + k] - other.bytes[otherOffset + k];
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return t.getSizeInBytes() - u.getSizeInBytes();
+        default:
+            String err = String.format("Unhandled TypeId %s.", t.getTypeId().toString());
+            throw new IllegalArgumentException(err);
+        }
+    }
+
+    /**
+     * Returns whether field i equals value, like getValue(i).equals(value)
+     * does. Unlike compareField, fields and values of different types are
+     * simply unequal.
+     */
+    public boolean fieldEquals(int i, DataBox value) {
+        if (bytes == null) {
+            return values.get(i).equals(value);
+        }
+        Type t = schema.getFieldTypes().get(i);
+        if (t.getTypeId() != value.type().getTypeId()) {
+            return false;
+        }
+        if (t.getTypeId() == TypeId.FLOAT) {
+            return getFloat(i) == value.getFloat();
+        }
+        return compareField(i, value) == 0;
+    }
+
+    /**
+     * Returns whether field i of this record equals field j of other, like
+     * getValue(i).equals(other.getValue(j)) does.
+     */
+    public boolean fieldEquals(int i, Record other, int j) {
+        if (bytes == null || other.bytes == null) {
+            return getValue(i).equals(other.getValue(j));
+        }
+        Type t = schema.getFieldTypes().get(i);
+        Type u = other.schema.getFieldTypes().get(j);
+        if (t.getTypeId() != u.getTypeId()) {
+            return false;
+        }
+        if (t.getTypeId() == TypeId.FLOAT) {
+            return getFloat(i) == other.getFloat(j);
+        }
+        return compareField(i, other, j) == 0;
+    }
+
+    /**
+     * Returns the record of fields columns[0], columns[1], ... of this record.
+     * If this record is backed by bytes, so is the result, and its fields are
+     * copied without being decoded.
+     *
+     * @param schema the schema of the result
+     */
+    public Record project(int[] columns, Schema schema) {
+        if (bytes == null) {
+            List<DataBox> projected = new ArrayList<>(columns.length);
+            for (int column : columns) {
+                projected.add(values.get(column));
+            }
+            return new Record(projected);
+        }
+        byte[] projected = new byte[schema.getSizeInBytes()];
+        for (int i = 0; i < columns.length; ++i) {
+            System.arraycopy(bytes, this.schema.getFieldOffset(columns[i]), projected,
+                             schema.getFieldOffset(i),
+                             this.schema.getFieldTypes().get(columns[i]).getSizeInBytes());
+        }
+        return new Record(projected, schema);
+    }
+
+    /**
+     * Returns the record of the fields of this record followed by the fields
+     * of other. If both records are backed by bytes, so is the result.
+     *
+     * @param schema the schema of the result
+     */
+    public Record concat(Record other, Schema schema) {
+        if (bytes == null || other.bytes == null) {
+            List<DataBox> concatenated = new ArrayList<>(getValues());
+            concatenated.addAll(other.getValues());
+            return new Record(concatenated);
+        }
+        byte[] concatenated = new byte[bytes.length + other.bytes.length];
+        System.arraycopy(bytes, 0, concatenated, 0, bytes.length);
+        System.arraycopy(other.bytes, 0, concatenated, bytes.length, other.bytes.length);
+        return new Record(concatenated, schema);
+    }
+
+    /**
+     * Serializes the record. If the record is backed by bytes, they are
+     * returned as is, and must not be modified.
+     */
     public byte[] toBytes(Schema schema) {
+        if (bytes != null) {
+            return bytes;
+        }
         ByteBuffer byteBuffer = ByteBuffer.allocate(schema.getSizeInBytes());
         for (DataBox value : values) {
             byteBuffer.put(value.toBytes());
@@ -34,19 +299,51 @@ public class Record {
      *
      * @param buf the byte array to decode
      * @param schema the schema used for this record
-     * @return the decoded Record
+     * @return the decoded Record, which is backed by bytes
      */
     public static Record fromBytes(Buffer buf, Schema schema) {
-        List<DataBox> values = new ArrayList<DataBox>();
-        for (Type t : schema.getFieldTypes()) {
-            values.add(DataBox.fromBytes(buf, t));
+        byte[] bytes = new byte[schema.getSizeInBytes()];
+        buf.get(bytes);
+        return new Record(bytes, schema);
+    }
+
+    /**
+     * Returns the record serialized as bytes (see toBytes), which the record
+     * takes ownership of.
+     */
+    public static Record fromBytes(byte[] bytes, Schema schema) {
+        assert(bytes.length == schema.getSizeInBytes());
+        return new Record(bytes, schema);
+    }
+
+    private void checkType(int i, TypeId expected) {
+        TypeId actual = schema.getFieldTypes().get(i).getTypeId();
+        if (actual != expected) {
+            throw new DataBoxException("not " + expected.toString().toLowerCase() + " type");
+        }
+    }
+
+    private int readInt(int offset) {
+        return ((bytes[offset] & 0xff) << 24) | ((bytes[offset + 1] & 0xff) << 16) |
+               ((bytes[offset + 2] & 0xff) << 8) | (bytes[offset + 3] & 0xff);
+    }
+
+    private int compareString(int offset, int length, String s) {
+        // Strings are made of ASCII characters only (see StringDataBox), so
+        // their bytes are their characters.
+        int n = Math.min(length, s.length());
+        for (int k = 0; k < n; ++k) {
+            int c = bytes[offset + k] - s.charAt(k);
+            if (c != 0) {
+                return c;
+            }
         }
-        return new Record(values);
+        return length - s.length();
     }
 
     @Override
     public String toString() {
-        return values.toString();
+        return getValues().toString();
     }
 
     @Override
@@ -58,11 +355,11 @@ public class Record {
             return false;
         }
         Record r = (Record) o;
-        return values.equals(r.values);
+        return getValues().equals(r.getValues());
     }
 
     @Override
     public int hashCode() {
-        return values.hashCode();
+        return getValues().hashCode();
     }
 }
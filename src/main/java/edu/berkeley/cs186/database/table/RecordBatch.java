@@ -0,0 +1,77 @@
+package edu.berkeley.cs186.database.table;
+
+/**
+ * The live records of a single data page of a table, as decoded by
+ * Table.readBatch. A batch is meant to be reused from one page to the next:
+ *
+ *   RecordBatch batch = table.newBatch();
+ *   for (Page page : dataPages) {
+ *       table.readBatch(transaction, page, batch);
+ *       for (int i = 0; i < batch.size(); ++i) {
+ *           process(batch.getRecordId(i), batch.getRecord(i));
+ *       }
+ *   }
+ *
+ * Records are stored in the order of their entry numbers on the page.
+ */
+public class RecordBatch {
+    private int pageNum;
+    private int size;
+    private final Record[] records;
+    private final short[] entryNums;
+
+    RecordBatch(int capacity) {
+        this.pageNum = -1;
+        this.size = 0;
+        this.records = new Record[capacity];
+        this.entryNums = new short[capacity];
+    }
+
+    /**
+     * @return the page number of the page the records were read from
+     */
+    public int getPageNum() {
+        return pageNum;
+    }
+
+    /**
+     * @return the number of records in the batch
+     */
+    public int size() {
+        return size;
+    }
+
+    public Record getRecord(int i) {
+        checkIndex(i);
+        return records[i];
+    }
+
+    public short getEntryNum(int i) {
+        checkIndex(i);
+        return entryNums[i];
+    }
+
+    public RecordId getRecordId(int i) {
+        return new RecordId(pageNum, getEntryNum(i));
+    }
+
+    void clear(int pageNum) {
+        for (int i = 0; i < size; ++i) {
+            records[i] = null;
+        }
+        this.pageNum = pageNum;
+        this.size = 0;
+    }
+
+    void add(short entryNum, Record record) {
+        entryNums[size] = entryNum;
+        records[size] = record;
+        size++;
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException(String.format("Record %d of a batch of %d.", i, size));
+        }
+    }
+}
@@ -27,14 +27,20 @@ public class Schema {
     private List<Type> fieldTypes;
     private int sizeInBytes;
 
+    // fieldOffsets[i] is the offset of field i in a serialized record (see
+    // Record.toBytes).
+    private int[] fieldOffsets;
+
     public Schema(List<String> fieldNames, List<Type> fieldTypes) {
         assert(fieldNames.size() == fieldTypes.size());
         this.fieldNames = fieldNames;
         this.fieldTypes = fieldTypes;
 
         sizeInBytes = 0;
-        for (Type t : fieldTypes) {
-            sizeInBytes += t.getSizeInBytes();
+        fieldOffsets = new int[fieldTypes.size()];
+        for (int i = 0; i < fieldTypes.size(); ++i) {
+            fieldOffsets[i] = sizeInBytes;
+            sizeInBytes += fieldTypes.get(i).getSizeInBytes();
         }
     }
 
@@ -50,6 +56,26 @@ public class Schema {
         return sizeInBytes;
     }
 
+    /**
+     * @return the offset of field i in a serialized record
+     */
+    public int getFieldOffset(int i) {
+        return fieldOffsets[i];
+    }
+
+    /**
+     * Returns the schema of fields columns[0], columns[1], ... of this schema.
+     */
+    public Schema project(int[] columns) {
+        List<String> names = new ArrayList<>(columns.length);
+        List<Type> types = new ArrayList<>(columns.length);
+        for (int column : columns) {
+            names.add(fieldNames.get(column));
+            types.add(fieldTypes.get(column));
+        }
+        return new Schema(names, types);
+    }
+
     // TODO(mwhittaker): Rename to something more descriptive.
     public Record verify(List<DataBox> values) throws DatabaseException {
         if (values.size() != fieldNames.size()) {
@@ -0,0 +1,333 @@
+package edu.berkeley.cs186.database.table;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.common.Bits;
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
+import edu.berkeley.cs186.database.io.Page;
+
+/**
+ * The layout of Table.Layout.SLOTTED: every data page begins with a small
+ * header and a slot directory, and records of varying length are packed at
+ * the end of the page, growing towards the directory:
+ *
+ *   +-----------+----------+-----------+--------+-----+------+-----------+
+ *   | numSlots  | dataSize | usedBytes | slot 0 | ... | free | records   |
+ *   +-----------+----------+-----------+--------+-----+------+-----------+
+ *       2 B         2 B        2 B        4 B                  dataSize B
+ *
+ * Slot i holds the offset and length of the record with entry number i, or an
+ * offset of 0 if the entry is empty. dataSize is the number of bytes from the
+ * start of the records to the end of the page, including the holes left by
+ * deleted records, and usedBytes is the total length of the records on the
+ * page. A zeroed page is a valid, empty page.
+ *
+ * Strings are stored as a 2-byte length followed by the string without its
+ * trailing spaces (which every string of the table is padded with anyway);
+ * every other field is stored as usual. When a record does not fit between
+ * the slot directory and the records although the page has enough free space
+ * in total, the page is compacted: its records are moved to the end of the
+ * page to close the holes between them. Entry numbers never change, so record
+ * ids stay valid.
+ */
+class SlottedPageLayout implements PageLayout {
+    private static final int HEADER_SIZE = 3 * Short.BYTES;
+    private static final int SLOT_SIZE = 2 * Short.BYTES;
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private final Schema schema;
+
+    // The longest a record can be once encoded.
+    private final int maxRecordSize;
+
+    // The most slots a page can have: enough for a page full of the shortest
+    // possible records.
+    private final int numRecordsPerPage;
+
+    SlottedPageLayout(Schema schema) {
+        this.schema = schema;
+        int maxSize = 0;
+        int minSize = 0;
+        for (Type t : schema.getFieldTypes()) {
+            if (t.getTypeId() == TypeId.STRING) {
+                maxSize += Short.BYTES + t.getSizeInBytes();
+                minSize += Short.BYTES;
+            } else {
+                maxSize += t.getSizeInBytes();
+                minSize += t.getSizeInBytes();
+            }
+        }
+        this.maxRecordSize = maxSize;
+        this.numRecordsPerPage = (Page.pageSize - HEADER_SIZE) / (SLOT_SIZE + minSize);
+    }
+
+    public int getNumRecordsPerPage() {
+        return numRecordsPerPage;
+    }
+
+    public int getBitmapSizeInBytes() {
+        return (numRecordsPerPage + 7) / 8;
+    }
+
+    public byte[] readBitMap(Buffer page) {
+        byte[] bitmap = new byte[getBitmapSizeInBytes()];
+        int numSlots = page.getShort(0);
+        for (int i = 0; i < numSlots; ++i) {
+            if (slotOffset(page, i) != 0) {
+                bitmap[i / 8] = Bits.setBit(bitmap[i / 8], i % 8, Bits.Bit.ONE);
+            }
+        }
+        return bitmap;
+    }
+
+    public boolean isLive(Buffer page, int entryNum) {
+        return entryNum < page.getShort(0) && slotOffset(page, entryNum) != 0;
+    }
+
+    public Record readRecord(Buffer page, int entryNum) {
+        // The record is read back into the usual fixed-length format.
+        byte[] bytes = new byte[schema.getSizeInBytes()];
+        page.position(slotOffset(page, entryNum));
+        List<Type> types = schema.getFieldTypes();
+        for (int i = 0; i < types.size(); ++i) {
+            readField(page, types.get(i), bytes, schema.getFieldOffset(i));
+        }
+        return Record.fromBytes(bytes, schema);
+    }
+
+    public Record readRecord(Buffer page, int entryNum, int[] columns, Schema projected) {
+        // Fields are found by walking the record, skipping over every field.
+        List<Type> types = schema.getFieldTypes();
+        int[] positions = new int[types.size()];
+        page.position(slotOffset(page, entryNum));
+        for (int i = 0; i < types.size(); ++i) {
+            Type t = types.get(i);
+            positions[i] = page.position();
+            if (t.getTypeId() == TypeId.STRING) {
+                page.position(page.position() + Short.BYTES + page.getShort(page.position()));
+            } else {
+                page.position(page.position() + t.getSizeInBytes());
+            }
+        }
+
+        byte[] bytes = new byte[projected.getSizeInBytes()];
+        for (int i = 0; i < columns.length; ++i) {
+            page.position(positions[columns[i]]);
+            readField(page, types.get(columns[i]), bytes, projected.getFieldOffset(i));
+        }
+        return Record.fromBytes(bytes, projected);
+    }
+
+    public EntryFilter equalityFilter(int column, DataBox value) {
+        // Fields move around with the lengths of the strings before them.
+        return null;
+    }
+
+    public int insertRecords(Buffer page, int pageNum, List<Record> records, int from,
+                             List<RecordId> rids) {
+        int numInserted = 0;
+        while (from + numInserted < records.size()) {
+            byte[] bytes = encode(records.get(from + numInserted));
+            int numSlots = page.getShort(0);
+            int entryNum = 0;
+            while (entryNum < numSlots && slotOffset(page, entryNum) != 0) {
+                entryNum++;
+            }
+            if (entryNum == numRecordsPerPage) {
+                break;
+            }
+            int needed = bytes.length + (entryNum == numSlots ? SLOT_SIZE : 0);
+            if (freeBytes(page) < needed) {
+                break;
+            }
+            if (entryNum == numSlots) {
+                page.putShort(0, (short) (numSlots + 1));
+                setSlot(page, entryNum, 0, 0);
+            }
+            write(page, entryNum, bytes);
+            rids.add(new RecordId(pageNum, (short) entryNum));
+            numInserted++;
+        }
+        return numInserted;
+    }
+
+    public void updateRecord(Buffer page, int entryNum, Record record) throws DatabaseException {
+        byte[] bytes = encode(record);
+        int offset = slotOffset(page, entryNum);
+        int length = slotLength(page, entryNum);
+        if (bytes.length <= length) {
+            // The record is rewritten in place, leaving a hole after it.
+            page.position(offset).put(bytes);
+            setSlot(page, entryNum, offset, bytes.length);
+            setUsedBytes(page, usedBytes(page) - length + bytes.length);
+            return;
+        }
+        if (freeBytes(page) + length < bytes.length) {
+            String msg = String.format("The updated record (%d bytes) does not fit on its page.",
+                                       bytes.length);
+            throw new DatabaseException(msg);
+        }
+        free(page, entryNum);
+        write(page, entryNum, bytes);
+    }
+
+    public void deleteRecord(Buffer page, int entryNum) {
+        free(page, entryNum);
+
+        // Trailing empty slots are dropped from the directory.
+        int numSlots = page.getShort(0);
+        while (numSlots > 0 && slotOffset(page, numSlots - 1) == 0) {
+            numSlots--;
+        }
+        page.putShort(0, (short) numSlots);
+        if (numSlots == 0) {
+            page.putShort(Short.BYTES, (short) 0);
+        }
+    }
+
+    public boolean hasRoom(Buffer page, int numRecords) {
+        int numSlots = page.getShort(0);
+        if (numRecords < numSlots) {
+            return freeBytes(page) >= maxRecordSize;
+        }
+        return numSlots < numRecordsPerPage && freeBytes(page) >= maxRecordSize + SLOT_SIZE;
+    }
+
+    /**
+     * Writes bytes as the record of empty slot entryNum, compacting the page
+     * first if the space between the slot directory and the records is too
+     * small. The caller has checked that the page has enough free space.
+     */
+    private void write(Buffer page, int entryNum, byte[] bytes) {
+        if (dataStart(page) - directoryEnd(page) < bytes.length) {
+            compact(page);
+        }
+        int offset = dataStart(page) - bytes.length;
+        page.position(offset).put(bytes);
+        setSlot(page, entryNum, offset, bytes.length);
+        page.putShort(Short.BYTES, (short) (Page.pageSize - offset));
+        setUsedBytes(page, usedBytes(page) + bytes.length);
+    }
+
+    /**
+     * Empties slot entryNum. The space of its record is reclaimed right away
+     * only if it is the first record of the data area.
+     */
+    private void free(Buffer page, int entryNum) {
+        int offset = slotOffset(page, entryNum);
+        int length = slotLength(page, entryNum);
+        if (offset == dataStart(page)) {
+            page.putShort(Short.BYTES, (short) (Page.pageSize - offset - length));
+        }
+        setSlot(page, entryNum, 0, 0);
+        setUsedBytes(page, usedBytes(page) - length);
+    }
+
+    /**
+     * Moves every record of the page to the end of the page, in slot order,
+     * closing the holes between them.
+     */
+    private void compact(Buffer page) {
+        int numSlots = page.getShort(0);
+        byte[][] contents = new byte[numSlots][];
+        for (int i = 0; i < numSlots; ++i) {
+            if (slotOffset(page, i) != 0) {
+                contents[i] = new byte[slotLength(page, i)];
+                page.position(slotOffset(page, i)).get(contents[i]);
+            }
+        }
+        int offset = Page.pageSize;
+        for (int i = 0; i < numSlots; ++i) {
+            if (contents[i] != null) {
+                offset -= contents[i].length;
+                page.position(offset).put(contents[i]);
+                setSlot(page, i, offset, contents[i].length);
+            }
+        }
+        page.putShort(Short.BYTES, (short) (Page.pageSize - offset));
+    }
+
+    // Copies the field of type t at the position of page to bytes[offset:],
+    // padding strings with spaces again.
+    private void readField(Buffer page, Type t, byte[] bytes, int offset) {
+        if (t.getTypeId() == TypeId.STRING) {
+            byte[] s = new byte[page.getShort()];
+            page.get(s);
+            System.arraycopy(s, 0, bytes, offset, s.length);
+            Arrays.fill(bytes, offset + s.length, offset + t.getSizeInBytes(), (byte) ' ');
+        } else {
+            FixedPageLayout.copyField(page, t, bytes, offset);
+        }
+    }
+
+    private byte[] encode(Record record) {
+        List<DataBox> values = record.getValues();
+        List<Type> types = schema.getFieldTypes();
+        byte[][] fields = new byte[values.size()][];
+        int size = 0;
+        for (int i = 0; i < values.size(); ++i) {
+            if (types.get(i).getTypeId() == TypeId.STRING) {
+                String s = values.get(i).getString();
+                int end = s.length();
+                while (end > 0 && s.charAt(end - 1) == ' ') {
+                    end--;
+                }
+                fields[i] = s.substring(0, end).getBytes(CHARSET);
+                size += Short.BYTES;
+            } else {
+                fields[i] = values.get(i).toBytes();
+            }
+            size += fields[i].length;
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        for (int i = 0; i < fields.length; ++i) {
+            if (types.get(i).getTypeId() == TypeId.STRING) {
+                buf.putShort((short) fields[i].length);
+            }
+            buf.put(fields[i]);
+        }
+        return buf.array();
+    }
+
+    // The total free space of the page, whether contiguous or not.
+    private int freeBytes(Buffer page) {
+        return Page.pageSize - directoryEnd(page) - usedBytes(page);
+    }
+
+    private int directoryEnd(Buffer page) {
+        return HEADER_SIZE + page.getShort(0) * SLOT_SIZE;
+    }
+
+    private int dataStart(Buffer page) {
+        return Page.pageSize - page.getShort(Short.BYTES);
+    }
+
+    private int usedBytes(Buffer page) {
+        return page.getShort(2 * Short.BYTES);
+    }
+
+    private void setUsedBytes(Buffer page, int usedBytes) {
+        page.putShort(2 * Short.BYTES, (short) usedBytes);
+    }
+
+    private int slotOffset(Buffer page, int entryNum) {
+        return page.getShort(HEADER_SIZE + entryNum * SLOT_SIZE);
+    }
+
+    private int slotLength(Buffer page, int entryNum) {
+        return page.getShort(HEADER_SIZE + entryNum * SLOT_SIZE + Short.BYTES);
+    }
+
+    private void setSlot(Buffer page, int entryNum, int offset, int length) {
+        page.putShort(HEADER_SIZE + entryNum * SLOT_SIZE, (short) offset);
+        page.putShort(HEADER_SIZE + entryNum * SLOT_SIZE + Short.BYTES, (short) length);
+    }
+}
@@ -0,0 +1,256 @@
+package edu.berkeley.cs186.database.table;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
+import edu.berkeley.cs186.database.io.BufferManager;
+import edu.berkeley.cs186.database.io.Page;
+import edu.berkeley.cs186.database.io.PageAllocator;
+
+/**
+ * The dictionary of a DICTIONARY table (see DictionaryPageLayout), which maps
+ * every distinct value of each encoded column to a code: the values of a
+ * column are numbered 0, 1, 2, ... in the order they are first added. A
+ * column is encoded if it is a string longer than a code, i.e. longer than 4
+ * bytes.
+ *
+ * The dictionary is stored at the end of the header page of the table, and
+ * grows towards its beginning. The last 4 bytes of the page hold the number
+ * of entries, and every entry, from the end of the page backwards, is the
+ * value followed by the 2-byte number of its column:
+ *
+ *   +-----+-------------+--------+-------------+--------+------------+
+ *   | ... | value (n B) | column | value (n B) | column | numEntries |
+ *   +-----+-------------+--------+-------------+--------+------------+
+ *            entry 1       2 B      entry 0       2 B        4 B
+ *
+ * The dictionary may not grow past minOffset (the end of the space the table
+ * reserves for its metadata). The entries which do not fit on the header page
+ * go to overflow pages, in the same format, which are allocated as needed in
+ * a second file, the table's file name followed by FILENAME_SUFFIX. The
+ * entries of the header page come first, followed by those of the overflow
+ * pages in page order. Entries are written, and their pages forced to disk, as
+ * soon as they are added, before any record using them is written.
+ */
+class StringDictionary {
+    static final String FILENAME_SUFFIX = ".dict";
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private final Schema schema;
+    private final PageAllocator allocator;
+    private final int minOffset;
+
+    // The file of the overflow pages, the buffer pool they are cached in, and
+    // their allocator, or null if there are none yet.
+    private final String overflowFilename;
+    private final BufferManager bufferManager;
+    private PageAllocator overflowAllocator;
+
+    // encoded[i] is whether column i is encoded.
+    private final boolean[] encoded;
+
+    // values[i][c] is the serialized value of code c of column i, and codes[i]
+    // the inverse map, keyed by the value as a string. Codes are read without
+    // synchronization, so values[i] is replaced, never modified, as it grows.
+    private volatile byte[][][] values;
+    private final List<Map<String, Integer>> codes;
+
+    // The offset of the first byte of the last entry on the header page.
+    private int headerOffset;
+
+    // The page new entries are added to (the header page or the last overflow
+    // page), whether it is the header page, its number of entries, and the
+    // offset of its last entry.
+    private Page lastPage;
+    private boolean lastIsHeader;
+    private int numEntries;
+    private int offset;
+
+    /**
+     * Loads the dictionary of the table with schema `schema` stored in file
+     * `filename`, from its header page and overflow pages. If wipe is set, the
+     * table is new: its header page holds an empty dictionary, and any old
+     * overflow pages are deleted.
+     */
+    StringDictionary(Schema schema, PageAllocator allocator, int minOffset, String filename,
+                     BufferManager bufferManager, boolean wipe) {
+        List<Type> types = schema.getFieldTypes();
+        this.schema = schema;
+        this.allocator = allocator;
+        this.minOffset = minOffset;
+        this.overflowFilename = filename + FILENAME_SUFFIX;
+        this.bufferManager = bufferManager;
+        this.encoded = new boolean[types.size()];
+        this.codes = new ArrayList<>(types.size());
+        List<List<byte[]>> loaded = new ArrayList<>(types.size());
+        for (int i = 0; i < types.size(); ++i) {
+            encoded[i] = types.get(i).getTypeId() == TypeId.STRING &&
+                         types.get(i).getSizeInBytes() > Integer.BYTES;
+            codes.add(new HashMap<>());
+            loaded.add(new ArrayList<>());
+        }
+
+        loadPage(allocator.fetchPage(null, 0), loaded);
+        this.lastIsHeader = true;
+        this.headerOffset = offset;
+        File overflowFile = new File(overflowFilename);
+        if (wipe) {
+            overflowFile.delete();
+        } else if (overflowFile.exists()) {
+            this.overflowAllocator = new PageAllocator(new DummyLockContext(), overflowFilename,
+                                                       false, true, bufferManager, null);
+            for (int i = 0; i < overflowAllocator.getNumPages(); ++i) {
+                loadPage(overflowAllocator.fetchPage(null, i), loaded);
+                this.lastIsHeader = false;
+            }
+        }
+
+        byte[][][] values = new byte[types.size()][][];
+        for (int i = 0; i < types.size(); ++i) {
+            values[i] = loaded.get(i).toArray(new byte[0][]);
+        }
+        this.values = values;
+    }
+
+    /**
+     * Reads the entries of page, the header page or an overflow page, into
+     * loaded and codes, and makes it the last page.
+     */
+    private void loadPage(Page page, List<List<byte[]>> loaded) {
+        List<Type> types = schema.getFieldTypes();
+        Buffer buf = page.getBuffer(null);
+        this.lastPage = page;
+        this.numEntries = buf.getInt(Page.pageSize - Integer.BYTES);
+        this.offset = Page.pageSize - Integer.BYTES;
+        for (int i = 0; i < numEntries; ++i) {
+            int column = buf.getShort(offset - Short.BYTES);
+            byte[] value = new byte[types.get(column).getSizeInBytes()];
+            offset -= Short.BYTES + value.length;
+            buf.position(offset).get(value);
+            codes.get(column).put(new String(value, CHARSET), loaded.get(column).size());
+            loaded.get(column).add(value);
+        }
+    }
+
+    /**
+     * @return whether column `column` is stored as codes
+     */
+    boolean isEncoded(int column) {
+        return encoded[column];
+    }
+
+    /**
+     * @return the offset of the dictionary on the header page, past which
+     * nothing else may be written
+     */
+    synchronized int getOffset() {
+        return headerOffset;
+    }
+
+    /**
+     * @return the code of value s of encoded column `column`, or -1 if s
+     * is not in the dictionary
+     */
+    synchronized int getCode(int column, String s) {
+        Integer code = codes.get(column).get(s);
+        return code == null ? -1 : code;
+    }
+
+    /**
+     * @return the serialized value of code `code` of encoded column `column`,
+     * which must not be modified
+     */
+    byte[] getValue(int column, int code) {
+        return values[column][code];
+    }
+
+    /**
+     * Adds every value of the encoded columns of records that is not in the
+     * dictionary yet, so that the records can then be written (see getCode).
+     */
+    synchronized void add(List<Record> records) {
+        // The new values of each column, in the order they are first seen.
+        List<Set<String>> newValues = new ArrayList<>(encoded.length);
+        int numNew = 0;
+        for (int i = 0; i < encoded.length; ++i) {
+            newValues.add(new LinkedHashSet<>());
+        }
+        for (Record record : records) {
+            for (int i = 0; i < encoded.length; ++i) {
+                if (encoded[i] && !codes.get(i).containsKey(record.getString(i)) &&
+                        newValues.get(i).add(record.getString(i))) {
+                    numNew++;
+                }
+            }
+        }
+        if (numNew == 0) {
+            return;
+        }
+
+        // The pages written to, which are forced to disk once all of the new
+        // values are.
+        List<Page> written = new ArrayList<>();
+        written.add(lastPage);
+        byte[][][] values = this.values.clone();
+        for (int column = 0; column < encoded.length; ++column) {
+            List<byte[]> columnValues = new ArrayList<>(Arrays.asList(values[column]));
+            for (String s : newValues.get(column)) {
+                byte[] value = s.getBytes(CHARSET);
+                int entrySize = Short.BYTES + value.length;
+                if (offset - entrySize < (lastIsHeader ? minOffset : 0)) {
+                    addOverflowPage();
+                    written.add(lastPage);
+                }
+                offset -= entrySize;
+                lastPage.getBuffer(null).position(offset).put(value).putShort((short) column);
+                lastPage.getBuffer(null).putInt(Page.pageSize - Integer.BYTES, ++numEntries);
+                if (lastIsHeader) {
+                    headerOffset = offset;
+                }
+                codes.get(column).put(s, columnValues.size());
+                columnValues.add(value);
+            }
+            values[column] = columnValues.toArray(new byte[0][]);
+        }
+        for (Page page : written) {
+            page.flush();
+        }
+        this.values = values;
+    }
+
+    /**
+     * Allocates a new overflow page, creating the file of the overflow pages
+     * if needed, and makes it the last page.
+     */
+    private void addOverflowPage() {
+        if (overflowAllocator == null) {
+            overflowAllocator = new PageAllocator(new DummyLockContext(), overflowFilename, true,
+                                                  true, bufferManager, null);
+        }
+        lastPage = overflowAllocator.fetchPage(null, overflowAllocator.allocPage(null));
+        lastIsHeader = false;
+        numEntries = 0;
+        offset = Page.pageSize - Integer.BYTES;
+    }
+
+    /**
+     * Closes the file of the overflow pages, if there is one.
+     */
+    synchronized void close() {
+        if (overflowAllocator != null) {
+            overflowAllocator.close();
+        }
+    }
+}
@@ -1,8 +1,16 @@
 package edu.berkeley.cs186.database.table;
 
 import java.io.Closeable;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
 
 import edu.berkeley.cs186.database.BaseTransaction;
 import edu.berkeley.cs186.database.DatabaseException;
@@ -14,9 +22,11 @@ import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.concurrency.LockType;
 import edu.berkeley.cs186.database.concurrency.LockUtil;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.io.BufferManager;
 import edu.berkeley.cs186.database.io.Page;
 import edu.berkeley.cs186.database.io.PageAllocator;
 import edu.berkeley.cs186.database.table.stats.TableStats;
+import edu.berkeley.cs186.database.table.stats.ZoneMap;
 
 /**
  * # Overview
@@ -57,7 +67,7 @@ import edu.berkeley.cs186.database.table.stats.TableStats;
  * Now, we discuss how tables serialize their data into files.
  *
  *   1. Each file begins with a header page into which tables serialize their
- *      schema.
+ *      schema, followed by the table's metadata (see below).
  *   2. All remaining pages are data pages. Every data page begins with an
  *      n-byte bitmap followed by m records. The bitmap indicates which records
  *      in the page are valid. The values of n and m are set to maximize the
@@ -94,6 +104,85 @@ import edu.berkeley.cs186.database.table.stats.TableStats;
  *
  *  When we add a record to a table, we add it to the very first free slot in
  *  the table. See addRecord for more information.
+ *
+ * The format above is the FIXED layout, which every table uses unless another
+ * Layout is passed when the table is created. A SLOTTED table instead stores
+ * each record in as few bytes as it needs, with its strings' trailing spaces
+ * left out, behind a directory of the offset and length of every record on the
+ * page (see SlottedPageLayout for details). Tables whose strings are usually
+ * much shorter than their declared length fit many more records per page this
+ * way, at the cost of decoding each record field by field. A COLUMNAR table
+ * stores the same records per page as a FIXED one, but groups the values of
+ * each column together on the page (see PaxPageLayout), so scans which only
+ * read some of the columns (see iterator(transaction, columns)) skip the
+ * others entirely. A DICTIONARY table is a FIXED table which stores each of
+ * its strings longer than 4 bytes as a 4-byte code, looked up in a dictionary
+ * of the distinct values of its column that is kept at the end of the header
+ * page, and on overflow pages in a second file once the header page is full
+ * (see DictionaryPageLayout and StringDictionary). Tables whose string
+ * columns only take a few values are much smaller this way. The layout of a
+ * table is stored in a single byte right after its schema on the header page.
+ *
+ * # Metadata
+ * Right after the schema and layout, the header page holds the number of records in the
+ * table, its statistics, the page numbers of the data pages which have
+ * room for more records (as a list of ranges), and the zone maps of the data
+ * pages (see below). Loading a table reads these instead of scanning every
+ * record of the file:
+ *
+ *   +-------+------------+-------+-----------+-------+--------+-----+
+ *   | state | numRecords | stats | numRanges | start | length | ... |
+ *   +-------+------------+-------+-----------+-------+--------+-----+
+ *     4 B        8 B                  4 B       4 B     4 B
+ *   +-------------+---------+---------+-----+
+ *   | numZoneMaps | pageNum | zoneMap | ... |
+ *   +-------------+---------+---------+-----+
+ *        4 B         4 B
+ *
+ * The metadata is written when the table is closed, and by checkpoints (see
+ * flushMetadata and Database.checkpoint), after the data pages have been
+ * forced to disk. Before the table is first modified since, state is
+ * overwritten with METADATA_STALE, and the header page is forced to disk with
+ * the next flush of the allocation metadata (see
+ * PageAllocator.flushWithMetadata), so a table which crashed after it was
+ * modified is rebuilt by scanning its data pages the next time it is loaded.
+ * Like allocations under group commit, a modification made just before a
+ * crash may be missed by the metadata of a table loaded afterwards. If the
+ * ranges do not fit on the header page, numRanges is -1 and only the data page
+ * bitmaps are scanned on load; the zone maps of the pages with the highest
+ * numbers are left out if they do not all fit; if even the statistics do not
+ * fit, the metadata is left stale.
+ *
+ * # Zone Maps
+ * The table keeps a ZoneMap, the smallest and largest value of every column,
+ * for each data page it has allocated or read in full.
+ * addRecord and updateRecord widen the zone map of the page they write to;
+ * deleteRecord leaves it as it is (it is still correct, if loose) unless the
+ * page becomes empty. Zone maps are saved with the metadata; a page whose zone
+ * map was not saved gets one the first time it is scanned. Scans given a
+ * page filter (see iterator(transaction, columns, pageFilter)) skip the pages
+ * whose zone maps show they cannot hold a matching record.
+ *
+ * # Concurrency
+ * Tables are safe to use from several threads at once. Instead of a single
+ * monitor, every data page is protected by a read-write latch, held in read
+ * mode while the page's bitmap or records are read and in write mode while
+ * they are changed. freePageNums, the per-page record counts, numRecords and
+ * stats are safe to update without a latch, so operations on different pages
+ * proceed in parallel. cleanup and close, and vacuum while it frees the pages
+ * it has emptied, exclude every other operation.
+ *
+ * Latches are only held for the duration of a single operation, and always
+ * after the transaction's locks on the page have been acquired, so that no
+ * thread ever waits for a lock while holding a latch. Since the free page a
+ * record was going to be added to may fill up in the meantime, addRecord
+ * checks again once the page is latched, and moves on to another page if
+ * needed.
+ *
+ * Concurrent inserts are spread over the free pages: each thread starts
+ * looking for room at the page it last added to, and passes over the pages
+ * that other transactions have locked or other threads have latched,
+ * allocating a new page if there are no others.
  */
 public class Table implements Closeable {
     public static final String FILENAME_PREFIX = "db";
@@ -111,24 +200,89 @@ public class Table implements Closeable {
     // The allocator used to persist the database.
     private PageAllocator allocator;
 
-    // The size (in bytes) of the bitmap found at the beginning of each data page.
+    // The format of the data pages, and the PageLayout implementing it.
+    private Layout layout;
+    private PageLayout pageLayout;
+
+    // The dictionary of the strings of a DICTIONARY table, or null.
+    private StringDictionary dictionary;
+
+    // The size (in bytes) of the bitmaps returned by getBitMap. For FIXED
+    // tables, this is the bitmap found at the beginning of each data page.
     private int bitmapSizeInBytes;
 
-    // The number of records on each data page.
+    // The most records a data page can hold.
     private int numRecordsPerPage;
 
     // Statistics about the contents of the database.
     private TableStats stats;
 
     // The page numbers of all allocated pages which have room for more records.
-    private TreeSet<Integer> freePageNums;
+    private ConcurrentSkipListSet<Integer> freePageNums;
+
+    // The number of records on each data page that has been counted since the
+    // table was opened. Kept up to date by addRecord and deleteRecord.
+    private Map<Integer, Integer> numRecordsOnPage;
 
     // The number of records in the table.
-    private long numRecords;
+    private AtomicLong numRecords;
+
+    // The zone maps of the data pages that were saved with the metadata, or
+    // have been read in full or allocated since (see "Zone Maps" above).
+    private Map<Integer, ZoneMap> zoneMaps;
+
+    // The latches of the data pages (see "Concurrency" above). Page p is
+    // latched with pageLatches[p % NUM_PAGE_LATCHES].
+    private ReadWriteLock[] pageLatches;
+
+    // The data page each thread last added records to, or the lowest one it
+    // has since deleted a record from, where it looks for a free page first
+    // (see insertIntoFreePage).
+    private final ThreadLocal<Integer> insertHint = new ThreadLocal<>();
+
+    // Held in read mode while a data page is latched, and in write mode by
+    // cleanup and close.
+    private ReadWriteLock tableLatch;
 
     // The lock context.
     private LockContext lockContext;
 
+    // The offset of the metadata on the header page, right after the schema.
+    private int metadataOffset;
+
+    // Whether the metadata on the header page is up to date (and marked
+    // METADATA_VALID). Cleared before the first modification of the table.
+    private volatile boolean metadataOnDisk;
+
+    // The number of modifications of the table begun so far, and the number
+    // of those still running (see beginWrite and flushMetadata).
+    private final AtomicLong numWritesBegun = new AtomicLong();
+    private final AtomicInteger numActiveWrites = new AtomicInteger();
+
+    // The possible values of the first four bytes of the metadata. Files
+    // written before the metadata existed have zeroes there, which reads as
+    // METADATA_STALE, and those written before it held zone maps have
+    // 0x54424c4d, which is not METADATA_VALID either.
+    private static final int METADATA_STALE = 0;
+    private static final int METADATA_VALID = 0x54424c32;
+
+    private static final int NUM_PAGE_LATCHES = 64;
+
+    /**
+     * The formats a table can store its data pages in (see "Storage Format"
+     * above), chosen when the table is created.
+     */
+    public enum Layout {
+        // Fixed-width records after a bitmap.
+        FIXED,
+        // Variable-width records behind a slot directory.
+        SLOTTED,
+        // Fixed-width values grouped by column (PAX).
+        COLUMNAR,
+        // Fixed-width records with strings stored as dictionary codes.
+        DICTIONARY
+    }
+
     // Constructors //////////////////////////////////////////////////////////////
     /**
      * Construct a brand new table named `name` with schema `schema` persisted in
@@ -136,20 +290,45 @@ public class Table implements Closeable {
      */
     public Table(String name, Schema schema, String filename, LockContext lockContext,
                  BaseTransaction transaction) {
+        this(name, schema, filename, lockContext, BufferManager.getDefault(), transaction);
+    }
+
+    /**
+     * Construct a brand new table named `name` with schema `schema` persisted in
+     * file `filename`, whose pages are cached in `bufferManager`.
+     */
+    public Table(String name, Schema schema, String filename, LockContext lockContext,
+                 BufferManager bufferManager, BaseTransaction transaction) {
+        this(name, schema, filename, lockContext, bufferManager, Layout.FIXED, transaction);
+    }
+
+    /**
+     * Construct a brand new table named `name` with schema `schema` persisted in
+     * file `filename`, whose pages are cached in `bufferManager` and whose
+     * records are stored in the format `layout`.
+     */
+    public Table(String name, Schema schema, String filename, LockContext lockContext,
+                 BufferManager bufferManager, Layout layout, BaseTransaction transaction) {
         this.name = name;
         this.filename = filename;
         this.schema = schema;
-        this.allocator = new PageAllocator(lockContext, filename, true, transaction);
-        this.bitmapSizeInBytes = computeBitmapSizeInBytes(Page.pageSize, schema);
-        numRecordsPerPage = computeNumRecordsPerPage(Page.pageSize, schema);
+        this.allocator = new PageAllocator(lockContext, filename, true, true, bufferManager,
+                                           transaction);
+        this.layout = layout;
         this.stats = new TableStats(this.schema);
-        this.freePageNums = new TreeSet<Integer>();
-        this.numRecords = 0;
+        this.freePageNums = new ConcurrentSkipListSet<Integer>();
+        this.numRecordsOnPage = new ConcurrentHashMap<>();
+        this.numRecords = new AtomicLong();
+        this.zoneMaps = new ConcurrentHashMap<>();
         this.lockContext = lockContext;
+        initLatches();
 
         // TODO(hw5): any initialization of lock context (or none)
 
-        writeSchemaToHeaderPage(transaction, allocator, schema);
+        writeSchemaToHeaderPage(transaction, allocator, schema, layout);
+        this.metadataOffset = schema.toBytes().length + 1;
+        this.metadataOnDisk = false;
+        createPageLayout(bufferManager, true);
     }
 
     /**
@@ -158,37 +337,30 @@ public class Table implements Closeable {
      */
     public Table(String name, String filename, LockContext lockContext,
                  BaseTransaction transaction) throws DatabaseException {
+        this(name, filename, lockContext, BufferManager.getDefault(), transaction);
+    }
+
+    /**
+     * Load a table named `name` from the file `filename`, caching its pages in
+     * `bufferManager`.
+     */
+    public Table(String name, String filename, LockContext lockContext, BufferManager bufferManager,
+                 BaseTransaction transaction) throws DatabaseException {
         this.name = name;
         this.filename = filename;
-        this.allocator = new PageAllocator(lockContext, filename, false, transaction);
+        this.allocator = new PageAllocator(lockContext, filename, false, true, bufferManager,
+                                           transaction);
         this.schema = readSchemaFromHeaderPage(transaction, this.allocator);
-        this.bitmapSizeInBytes = computeBitmapSizeInBytes(Page.pageSize, this.schema);
-        this.numRecordsPerPage = computeNumRecordsPerPage(Page.pageSize, this.schema);
-
-        // We compute the stats, free pages, and number of records naively. We
-        // iterate through every single data page of the file, and for each data
-        // data page, we use the bitmap to read every single record.
-        this.stats = new TableStats(this.schema);
-        this.freePageNums = new TreeSet<Integer>();
-        this.numRecords = 0;
-
-        Iterator<Page> iter = this.allocator.iterator(transaction);
-        iter.next(); // Skip the header page.
-        while(iter.hasNext()) {
-            Page page = iter.next();
-            byte[] bitmap = getBitMap(transaction, page);
-
-            for (short i = 0; i < numRecordsPerPage; ++i) {
-                if (Bits.getBit(bitmap, i) == Bits.Bit.ONE) {
-                    Record r = getRecord(transaction, new RecordId(page.getPageNum(), i));
-                    stats.addRecord(r);
-                    numRecords++;
-                }
-            }
-
-            if (numRecordsOnPage(transaction, page) != numRecordsPerPage) {
-                freePageNums.add(page.getPageNum());
-            }
+        this.layout = readLayoutFromHeaderPage(transaction, this.allocator, this.schema);
+        this.metadataOffset = this.schema.toBytes().length + 1;
+        createPageLayout(bufferManager, false);
+        this.numRecordsOnPage = new ConcurrentHashMap<>();
+        this.numRecords = new AtomicLong();
+        this.zoneMaps = new ConcurrentHashMap<>();
+        initLatches();
+
+        if (!readMetadata(transaction)) {
+            rebuildMetadata(transaction);
         }
 
         this.lockContext = lockContext;
@@ -213,6 +385,10 @@ public class Table implements Closeable {
         return allocator;
     }
 
+    public Layout getLayout() {
+        return layout;
+    }
+
     public int getBitmapSizeInBytes() {
         return bitmapSizeInBytes;
     }
@@ -225,8 +401,15 @@ public class Table implements Closeable {
         return stats;
     }
 
+    /**
+     * @return the zone map of data page pageNum, or null if it is not known
+     */
+    public ZoneMap getZoneMap(int pageNum) {
+        return zoneMaps.get(pageNum);
+    }
+
     public long getNumRecords() {
-        return numRecords;
+        return numRecords.get();
     }
 
     public int getNumDataPages() {
@@ -238,9 +421,21 @@ public class Table implements Closeable {
     // elsewhere reads the bitmap of tables, so we're forced to make it public.
     // We should refactor to avoid this.
     public byte[] getBitMap(BaseTransaction transaction, Page page) {
-        byte[] bytes = new byte[bitmapSizeInBytes];
-        page.getBuffer(transaction).get(bytes);
-        return bytes;
+        //start
+        if (lockContext != null) {
+            LockUtil.requestLocks(transaction, lockContext.childContext(page.getPageNum()), LockType.S);
+        }
+        //end
+        Lock latch = latchPage(page.getPageNum(), false);
+        try {
+            return readBitMap(transaction, page);
+        } finally {
+            unlatchPage(latch);
+        }
+    }
+
+    private byte[] readBitMap(BaseTransaction transaction, Page page) {
+        return pageLayout.readBitMap(page.getBuffer(transaction));
     }
 
     public static int computeBitmapSizeInBytes(int pageSize, Schema schema) {
@@ -261,131 +456,402 @@ public class Table implements Closeable {
      * it multiple times refreshes the statistics
      */
     public TableStats buildStatistics(BaseTransaction transaction, int buckets) {
-        this.stats.refreshHistograms(transaction, buckets, this);
-        return this.stats;
-    }
-
-    // Modifiers /////////////////////////////////////////////////////////////////
-    private synchronized void insertRecord(BaseTransaction transaction, Page page, int entryNum,
-                                           Record record) {
-        int offset = bitmapSizeInBytes + (entryNum * schema.getSizeInBytes());
-        page.getBuffer(transaction).position(offset).put(record.toBytes(schema));
+        beginWrite();
+        try {
+            this.stats.refreshHistograms(transaction, buckets, this);
+            return this.stats;
+        } finally {
+            endWrite();
+        }
     }
 
     /**
      * addRecord adds a record to this table and returns the record id of the
      * newly added record. stats, freePageNums, and numRecords are updated
-     * accordingly. The record is added to the first free slot of the first free
-     * page (if one exists, otherwise one is allocated). For example, if the
-     * first free page has bitmap 0b11101000, then the record is inserted into
-     * the page with index 3 and the bitmap is updated to 0b11111000.
+     * accordingly. The record is added to the first free slot of a free page
+     * (see insertIntoFreePage; a page is allocated if needed). For example, if
+     * the page has bitmap 0b11101000, then the record is inserted into the
+     * page with index 3 and the bitmap is updated to 0b11111000.
      */
-    public synchronized RecordId addRecord(BaseTransaction transaction,
-                                           List<DataBox> values) throws DatabaseException {
+    public RecordId addRecord(BaseTransaction transaction,
+                              List<DataBox> values) throws DatabaseException {
         // TODO(hw5): modify for smarter locking
         Record record = schema.verify(values);
+        beginWrite();
+        try {
+            if (dictionary != null) {
+                dictionary.add(Collections.singletonList(record));
+            }
+
+            //start
+            if (lockContext != null) {
+                if (lockContext.saturation(transaction) >= 0.2 && lockContext.capacity() >= 10) {
+                    lockContext.escalate(transaction);
+                }
+            }
+            //end
+
+            List<RecordId> rids = new ArrayList<>(1);
+            while (rids.isEmpty()) {
+                insertIntoFreePage(transaction, Collections.singletonList(record), 0, rids);
+            }
 
-        // Get a free page, allocating a new one if necessary.
-        if (freePageNums.isEmpty()) {
-            freePageNums.add(allocator.allocPage(transaction));
+            // Update the metadata.
+            stats.addRecord(record);
+            numRecords.incrementAndGet();
+            return rids.get(0);
+        } finally {
+            endWrite();
         }
-        Page page = allocator.fetchPage(transaction, freePageNums.first());
+    }
 
-        //start
-        if (lockContext != null) {
-            if (lockContext.saturation(transaction) >= 0.2 && lockContext.capacity() >= 10) {
-                lockContext.escalate(transaction);
+    /**
+     * addRecords adds every row of values to this table, and returns the record
+     * ids of the new records in the same order. It is equivalent to calling
+     * addRecord on every row, but rows are added a page at a time: each page is
+     * locked, latched and has its bitmap written once for all of the rows that
+     * go on it.
+     *
+     * If a row does not match the schema, the rows before it are deleted
+     * again, so that the table is left as it was, and an exception is thrown.
+     */
+    public List<RecordId> addRecords(BaseTransaction transaction,
+                                     Iterator<List<DataBox>> values) throws DatabaseException {
+        beginWrite();
+        try {
+            //start
+            if (lockContext != null) {
+                if (lockContext.saturation(transaction) >= 0.2 && lockContext.capacity() >= 10) {
+                    lockContext.escalate(transaction);
+                }
             }
+            //end
+
+            // Rows are read (and verified) a page worth at a time, without holding
+            // any latch.
+            List<RecordId> rids = new ArrayList<>();
+            List<Record> records = new ArrayList<>(numRecordsPerPage);
+            while (values.hasNext()) {
+                records.clear();
+                try {
+                    while (records.size() < numRecordsPerPage && values.hasNext()) {
+                        records.add(schema.verify(values.next()));
+                    }
+                } catch (DatabaseException e) {
+                    for (RecordId rid : rids) {
+                        deleteRecord(transaction, rid);
+                    }
+                    throw e;
+                }
+                if (dictionary != null) {
+                    dictionary.add(records);
+                }
+
+                int numAdded = 0;
+                while (numAdded < records.size()) {
+                    numAdded += insertIntoFreePage(transaction, records, numAdded, rids);
+                }
+
+                for (Record record : records) {
+                    stats.addRecord(record);
+                }
+                numRecords.addAndGet(records.size());
+            }
+            return rids;
+        } finally {
+            endWrite();
         }
-        //end
+    }
 
-        // Find the first empty slot in the bitmap.
-        // entry number of the first free slot and store it in entryNum; and (2) we
-        // count the total number of entries on this page.
-        //start
-        LockUtil.requestLocks(transaction, lockContext.childContext(page.getPageNum()), LockType.X);
-        byte[] bitmap = getBitMap(transaction, page);
-        int entryNum = 0;
-        for (; entryNum < numRecordsPerPage; ++entryNum) {
-            if (Bits.getBit(bitmap, entryNum) == Bits.Bit.ZERO) {
-                break;
+    /**
+     * Inserts records from, from+1, ... into a free page, like insertIntoPage,
+     * after acquiring an X lock on it. So that concurrent inserts do not all
+     * queue up on the same page, the search starts at this thread's insertHint,
+     * and skips the pages that another thread has latched or that another
+     * transaction holds a conflicting lock on, without locking them. A new
+     * page is allocated if every free page is skipped.
+     *
+     * @return the number of records inserted
+     */
+    private int insertIntoFreePage(BaseTransaction transaction, List<Record> records, int from,
+                                   List<RecordId> rids) {
+        Integer hint = insertHint.get();
+        int start = hint == null ? 0 : hint;
+        for (int pass = 0; pass < 2; ++pass) {
+            Set<Integer> pageNums = pass == 0 ? freePageNums.tailSet(start) : freePageNums.headSet(start);
+            for (int pageNum : pageNums) {
+                if (!isFreeAndUnlocked(transaction, pageNum)) {
+                    continue;
+                }
+                // Locks are taken before latches everywhere, so the page is
+                // unlatched while we wait for its lock, and insertIntoPage
+                // checks that it is still free.
+                if (lockContext != null) {
+                    LockUtil.requestLocks(transaction, lockContext.childContext(pageNum), LockType.X);
+                }
+                insertHint.set(pageNum);
+                int numInserted = insertIntoPage(transaction, pageNum, records, from, rids);
+                if (numInserted > 0) {
+                    return numInserted;
+                }
             }
         }
-        assert(entryNum < numRecordsPerPage);
 
-        // Insert the record and update the bitmap.
-        insertRecord(transaction, page, entryNum, record);
-        Bits.setBit(page.getBuffer(transaction), entryNum, Bits.Bit.ONE);
+        // The page is only made free once it is locked, so that other
+        // transactions skip it.
+        int pageNum = allocator.allocPage(transaction);
+        zoneMaps.put(pageNum, new ZoneMap(schema.getFieldTypes().size()));
+        if (lockContext != null) {
+            LockUtil.requestLocks(transaction, lockContext.childContext(pageNum), LockType.X);
+        }
+        freePageNums.add(pageNum);
+        insertHint.set(pageNum);
+        return insertIntoPage(transaction, pageNum, records, from, rids);
+    }
 
-        // Update the metadata.
-        stats.addRecord(record);
-        if (numRecordsOnPage(transaction, page) == numRecordsPerPage) {
-            freePageNums.pollFirst();
+    /**
+     * Returns whether data page pageNum is free, not latched by another
+     * thread, and not locked by another transaction in a mode conflicting with
+     * X, without waiting for either.
+     */
+    private boolean isFreeAndUnlocked(BaseTransaction transaction, int pageNum) {
+        Lock latch = tryLatchPage(pageNum);
+        if (latch == null) {
+            return false;
+        }
+        try {
+            return freePageNums.contains(pageNum) && (lockContext == null ||
+                    !lockContext.childContext(pageNum).wouldBlock(transaction, LockType.X));
+        } finally {
+            unlatchPage(latch);
         }
-        numRecords++;
+    }
 
-        return new RecordId(page.getPageNum(), (short) entryNum);
+    /**
+     * Inserts records from, from+1, ... into the free slots of data page pageNum,
+     * in order, until either the records or the room on the page run out (see
+     * PageLayout.insertRecords). The record ids of the inserted records are
+     * appended to rids. If another thread has filled the page up (or freed it)
+     * since it was chosen, nothing is inserted.
+     *
+     * @return the number of records inserted
+     */
+    private int insertIntoPage(BaseTransaction transaction, int pageNum, List<Record> records,
+                               int from, List<RecordId> rids) {
+        Lock latch = latchPage(pageNum, true);
+        try {
+            if (!freePageNums.contains(pageNum)) {
+                return 0;
+            }
+            Page page = allocator.fetchPage(transaction, pageNum).pin(transaction);
+            try {
+                int numOnPage = numRecordsOnPage(transaction, page);
+                Buffer buf = page.getBuffer(transaction);
+                int numInserted = pageLayout.insertRecords(buf, pageNum, records, from, rids);
+                assert(numInserted > 0 || from == records.size());
+                ZoneMap zoneMap = zoneMaps.get(pageNum);
+                if (zoneMap != null) {
+                    for (int i = from; i < from + numInserted; ++i) {
+                        zoneMap.add(records.get(i));
+                    }
+                }
+
+                numOnPage += numInserted;
+                numRecordsOnPage.put(pageNum, numOnPage);
+                if (!pageLayout.hasRoom(buf, numOnPage)) {
+                    freePageNums.remove(pageNum);
+                }
+                return numInserted;
+            } finally {
+                page.unpin();
+            }
+        } finally {
+            unlatchPage(latch);
+        }
     }
 
     /**
      * Retrieves a record from the table, throwing an exception if no such record
      * exists.
      */
-    public synchronized Record getRecord(BaseTransaction transaction,
-                                         RecordId rid) throws DatabaseException {
+    public Record getRecord(BaseTransaction transaction, RecordId rid) throws DatabaseException {
         validateRecordId(rid);
-        Page page = allocator.fetchPage(transaction, rid.getPageNum());
 
         //start
         if (lockContext != null) {
             if (lockContext.saturation(transaction) >= 0.2 && lockContext.capacity() >= 10) {
                 lockContext.escalate(transaction);
             }
+            LockUtil.requestLocks(transaction, lockContext.childContext(rid.getPageNum()), LockType.S);
         }
         //end
 
-        byte[] bitmap = getBitMap(transaction, page);
-        if (Bits.getBit(bitmap, rid.getEntryNum()) == Bits.Bit.ZERO) {
-            String msg = String.format("Record %s does not exist.", rid);
-            throw new DatabaseException(msg);
+        Lock latch = latchPage(rid.getPageNum(), false);
+        try {
+            Page page = allocator.fetchPage(transaction, rid.getPageNum()).pin(transaction);
+            try {
+                return readRecord(transaction, page, rid);
+            } finally {
+                page.unpin();
+            }
+        } finally {
+            unlatchPage(latch);
         }
+    }
 
-        int offset = bitmapSizeInBytes + (rid.getEntryNum() * schema.getSizeInBytes());
+    private Record readRecord(BaseTransaction transaction, Page page,
+                              RecordId rid) throws DatabaseException {
         Buffer buf = page.getBuffer(transaction);
-        buf.position(offset);
-        return Record.fromBytes(buf, schema);
+        if (!pageLayout.isLive(buf, rid.getEntryNum())) {
+            String msg = String.format("Record %s does not exist.", rid);
+            throw new DatabaseException(msg);
+        }
+        return pageLayout.readRecord(buf, rid.getEntryNum());
     }
 
     /**
-     * Overwrites an existing record with new values and returns the existing
-     * record. stats is updated accordingly. An exception is thrown if rid does
-     * not correspond to an existing record in the table.
+     * @return an empty RecordBatch large enough to hold a page of records
      */
-    public synchronized Record updateRecord(BaseTransaction transaction, List<DataBox> values,
-                                            RecordId rid) throws DatabaseException {
-        // TODO(hw5): modify for smarter locking
-        validateRecordId(rid);
+    public RecordBatch newBatch() {
+        return new RecordBatch(numRecordsPerPage);
+    }
 
+    /**
+     * Reads every record of the data page `page` into `batch`, replacing its
+     * previous contents. This is equivalent to calling getRecord on every
+     * record on the page, but the page is pinned, its bitmap read, and lock
+     * escalation considered only once for the whole page.
+     */
+    public void readBatch(BaseTransaction transaction, Page page,
+                          RecordBatch batch) throws DatabaseException {
+        readBatch(transaction, page, batch, null, null);
+    }
 
-        Page page = allocator.fetchPage(transaction, rid.getPageNum());
+    /**
+     * Like readBatch above, but only reads fields columns[0], columns[1], ...
+     * of every record, or every field if columns is null, and only the
+     * records which pass filter, or every record if filter is null.
+     */
+    private void readBatch(BaseTransaction transaction, Page page, RecordBatch batch,
+                           int[] columns, PageLayout.EntryFilter filter) throws DatabaseException {
+        if (page.getPageNum() == 0) {
+            throw new DatabaseException("Page 0 is a header page, not a data page.");
+        }
 
         //start
         if (lockContext != null) {
             if (lockContext.saturation(transaction) >= 0.2 && lockContext.capacity() >= 10) {
                 lockContext.escalate(transaction);
             }
+            LockUtil.requestLocks(transaction, lockContext.childContext(page.getPageNum()), LockType.S);
         }
         //end
 
-        //start
-        LockUtil.requestLocks(transaction, lockContext.childContext(page.getPageNum()), LockType.X);
-        //end
+        Lock latch = latchPage(page.getPageNum(), false);
+        page.pin(transaction);
+        try {
+            batch.clear(page.getPageNum());
+            byte[] bitmap = readBitMap(transaction, page);
+            Buffer buf = page.getBuffer(transaction);
+
+            // The first time a page is read, every column is decoded to build
+            // its zone map.
+            ZoneMap zoneMap = null;
+            if (!zoneMaps.containsKey(page.getPageNum())) {
+                zoneMap = new ZoneMap(schema.getFieldTypes().size());
+            }
+            Schema projected = columns == null ? null : schema.project(columns);
+            for (int i = Bits.indexOf(bitmap, Bits.Bit.ONE, 0, numRecordsPerPage); i != -1;
+                    i = Bits.indexOf(bitmap, Bits.Bit.ONE, i + 1, numRecordsPerPage)) {
+                Record record;
+                if (zoneMap != null) {
+                    record = pageLayout.readRecord(buf, i);
+                    zoneMap.add(record);
+                    if (filter != null && !filter.test(buf, i)) {
+                        continue;
+                    }
+                    if (columns != null) {
+                        record = record.project(columns, projected);
+                    }
+                } else if (filter != null && !filter.test(buf, i)) {
+                    continue;
+                } else if (columns == null) {
+                    record = pageLayout.readRecord(buf, i);
+                } else {
+                    record = pageLayout.readRecord(buf, i, columns, projected);
+                }
+                batch.add((short) i, record);
+            }
+            if (zoneMap != null) {
+                zoneMaps.putIfAbsent(page.getPageNum(), zoneMap);
+            }
+        } finally {
+            page.unpin();
+            unlatchPage(latch);
+        }
+    }
+
+    /**
+     * Overwrites an existing record with new values and returns the existing
+     * record. stats is updated accordingly. An exception is thrown if rid does
+     * not correspond to an existing record in the table, or if the table is
+     * SLOTTED and the new record is longer than the old one and no longer
+     * fits on its page (records are never moved to another page, since that
+     * would change their record ids).
+     */
+    public Record updateRecord(BaseTransaction transaction, List<DataBox> values,
+                               RecordId rid) throws DatabaseException {
+        // TODO(hw5): modify for smarter locking
+        validateRecordId(rid);
         Record newRecord = schema.verify(values);
-        Record oldRecord = getRecord(transaction, rid);
-        insertRecord(transaction, page, rid.getEntryNum(), newRecord);
-        this.stats.removeRecord(oldRecord);
-        this.stats.addRecord(newRecord);
-        return oldRecord;
+        beginWrite();
+        try {
+            if (dictionary != null) {
+                dictionary.add(Collections.singletonList(newRecord));
+            }
+
+            //start
+            if (lockContext != null) {
+                if (lockContext.saturation(transaction) >= 0.2 && lockContext.capacity() >= 10) {
+                    lockContext.escalate(transaction);
+                }
+            }
+            //end
+
+            //start
+            LockUtil.requestLocks(transaction, lockContext.childContext(rid.getPageNum()), LockType.X);
+            //end
+
+            Record oldRecord;
+            Lock latch = latchPage(rid.getPageNum(), true);
+            try {
+                Page page = allocator.fetchPage(transaction, rid.getPageNum()).pin(transaction);
+                try {
+                    oldRecord = readRecord(transaction, page, rid);
+                    pageLayout.updateRecord(page.getBuffer(transaction), rid.getEntryNum(), newRecord);
+                    ZoneMap zoneMap = zoneMaps.get(page.getPageNum());
+                    if (zoneMap != null) {
+                        zoneMap.add(newRecord);
+                    }
+                    if (pageLayout.hasRoom(page.getBuffer(transaction),
+                                           numRecordsOnPage(transaction, page))) {
+                        freePageNums.add(page.getPageNum());
+                    } else {
+                        freePageNums.remove(page.getPageNum());
+                    }
+                } finally {
+                    page.unpin();
+                }
+            } finally {
+                unlatchPage(latch);
+            }
+
+            this.stats.removeRecord(oldRecord);
+            this.stats.addRecord(newRecord);
+            return oldRecord;
+        } finally {
+            endWrite();
+        }
     }
 
     /**
@@ -393,11 +859,68 @@ public class Table implements Closeable {
      * stats, freePageNums, and numRecords as necessary. An exception is thrown
      * if rid does not correspond to an existing record in the table.
      */
-    public synchronized Record deleteRecord(BaseTransaction transaction,
-                                            RecordId rid) throws DatabaseException {
+    public Record deleteRecord(BaseTransaction transaction,
+                               RecordId rid) throws DatabaseException {
         // TODO(hw5): modify for smarter locking
         validateRecordId(rid);
-        Page page = allocator.fetchPage(transaction, rid.getPageNum());
+        beginWrite();
+        try {
+            //start
+            if (lockContext != null) {
+                if (lockContext.saturation(transaction) >= 0.2 && lockContext.capacity() >= 10) {
+                    lockContext.escalate(transaction);
+                }
+            }
+            //end
+
+            //start
+            LockUtil.requestLocks(transaction, lockContext.childContext(rid.getPageNum()), LockType.X);
+            //end
+
+            Record record;
+            Lock latch = latchPage(rid.getPageNum(), true);
+            try {
+                Page page = allocator.fetchPage(transaction, rid.getPageNum()).pin(transaction);
+                try {
+                    record = readRecord(transaction, page, rid);
+                    int numOnPage = numRecordsOnPage(transaction, page) - 1;
+                    Buffer buf = page.getBuffer(transaction);
+                    pageLayout.deleteRecord(buf, rid.getEntryNum());
+
+                    numRecordsOnPage.put(page.getPageNum(), numOnPage);
+                    if (numOnPage == 0) {
+                        zoneMaps.put(page.getPageNum(), new ZoneMap(schema.getFieldTypes().size()));
+                    }
+                    if (pageLayout.hasRoom(buf, numOnPage)) {
+                        freePageNums.add(page.getPageNum());
+                        // This transaction already holds the page's lock, so
+                        // this thread refills the room it frees first.
+                        Integer hint = insertHint.get();
+                        if (hint == null || page.getPageNum() < hint) {
+                            insertHint.set(page.getPageNum());
+                        }
+                    }
+                } finally {
+                    page.unpin();
+                }
+            } finally {
+                unlatchPage(latch);
+            }
+
+            stats.removeRecord(record);
+            numRecords.decrementAndGet();
+            return record;
+        } finally {
+            endWrite();
+        }
+    }
+
+    /**
+     * Frees all empty pages used by the table. Pages which still hold records
+     * are kept; see vacuum for emptying sparse pages first.
+     */
+    public void cleanup(BaseTransaction transaction) throws DatabaseException {
+        // TODO(hw5): modify for smarter locking
 
         //start
         if (lockContext != null) {
@@ -408,46 +931,198 @@ public class Table implements Closeable {
         //end
 
         //start
-        LockUtil.requestLocks(transaction, lockContext.childContext(page.getPageNum()), LockType.X);
+        LockUtil.requestLocks(transaction, lockContext, LockType.X);
         //end
+        beginWrite();
+        try {
+            List<Integer> emptyPageNums = new ArrayList<>();
+            for (int pageNum : freePageNums) {
+                if (numRecordsOnPage(transaction, allocator.fetchPage(transaction, pageNum)) == 0) {
+                    emptyPageNums.add(pageNum);
+                }
+            }
+            freePages(transaction, emptyPageNums);
+        } finally {
+            endWrite();
+        }
+    }
 
-        Record record = getRecord(transaction, rid);
-        Bits.setBit(page.getBuffer(transaction), rid.getEntryNum(), Bits.Bit.ZERO);
+    /**
+     * vacuum moves the records of the sparsest data pages of the table onto
+     * the densest data pages which still have room, and frees the pages it
+     * empties, so that scans of the table only read about as many pages as its
+     * records need. Every moved record gets a new record id: the returned map
+     * takes the old record id of every moved record to its new one, in the
+     * order the records were moved, so that the caller can update indices.
+     *
+     * Unlike cleanup, vacuum does not lock the whole table: it acquires an X
+     * lock on each page it moves records off or onto, so other transactions
+     * may keep using the rest of the table. A page is only emptied if its
+     * records fit in the free slots of the pages denser than it; for SLOTTED
+     * tables, where records vary in size, a page may end up only partially
+     * emptied.
+     */
+    public Map<RecordId, RecordId> vacuum(BaseTransaction transaction) throws DatabaseException {
+        beginWrite();
+        try {
+            //start
+            if (lockContext != null) {
+                if (lockContext.saturation(transaction) >= 0.2 && lockContext.capacity() >= 10) {
+                    lockContext.escalate(transaction);
+                }
+            }
+            //end
+
+            // The pages with room for more records, from sparsest to densest.
+            // Counts read without locks are only used to order the pages; they are
+            // checked again once the pages are locked.
+            List<Integer> pageNums = new ArrayList<>(freePageNums);
+            Map<Integer, Integer> counts = new HashMap<>();
+            for (int pageNum : pageNums) {
+                counts.put(pageNum, numRecordsOnPage(transaction, allocator.fetchPage(transaction, pageNum)));
+            }
+            pageNums.sort(Comparator.comparing(counts::get));
+
+            Map<RecordId, RecordId> moved = new LinkedHashMap<>();
+            List<Integer> emptiedPageNums = new ArrayList<>();
+            int target = pageNums.size() - 1;
+            for (int source = 0; source < target; ++source) {
+                int room = 0;
+                for (int i = source + 1; i <= target; ++i) {
+                    room += numRecordsPerPage - counts.get(pageNums.get(i));
+                }
+                int sourcePageNum = pageNums.get(source);
+                if (counts.get(sourcePageNum) > room) {
+                    break;
+                }
 
-        stats.removeRecord(record);
-        if(numRecordsOnPage(transaction, page) == numRecordsPerPage - 1) {
-            freePageNums.add(page.getPageNum());
-        }
-        numRecords--;
+                LockUtil.requestLocks(transaction, lockContext.childContext(sourcePageNum), LockType.X);
+                RecordBatch batch = newBatch();
+                readBatch(transaction, allocator.fetchPage(transaction, sourcePageNum), batch);
+                int numMoved = 0;
+                while (numMoved < batch.size() && source < target) {
+                    int targetPageNum = pageNums.get(target);
+                    LockUtil.requestLocks(transaction, lockContext.childContext(targetPageNum), LockType.X);
+                    List<RecordId> rids = new ArrayList<>(1);
+                    if (insertIntoPage(transaction, targetPageNum,
+                                       Collections.singletonList(batch.getRecord(numMoved)), 0, rids) == 0) {
+                        // The target page is full.
+                        target--;
+                        continue;
+                    }
+                    counts.put(targetPageNum, counts.get(targetPageNum) + 1);
+                    removeFromPage(transaction, sourcePageNum, batch.getEntryNum(numMoved));
+                    moved.put(batch.getRecordId(numMoved), rids.get(0));
+                    numMoved++;
+                }
+                if (numMoved < batch.size()) {
+                    break;
+                }
+                emptiedPageNums.add(sourcePageNum);
+            }
 
-        return record;
+            freePages(transaction, emptiedPageNums);
+            return moved;
+        } finally {
+            endWrite();
+        }
     }
 
     /**
-     * Frees all empty pages used by the table.
+     * Empties entry entryNum of data page pageNum, which the caller has locked.
      */
-    public synchronized void cleanup(BaseTransaction transaction) throws DatabaseException {
-        // TODO(hw5): modify for smarter locking
+    private void removeFromPage(BaseTransaction transaction, int pageNum, int entryNum) {
+        Lock latch = latchPage(pageNum, true);
+        try {
+            Page page = allocator.fetchPage(transaction, pageNum).pin(transaction);
+            try {
+                int numOnPage = numRecordsOnPage(transaction, page) - 1;
+                Buffer buf = page.getBuffer(transaction);
+                pageLayout.deleteRecord(buf, entryNum);
+                numRecordsOnPage.put(pageNum, numOnPage);
+                if (numOnPage == 0) {
+                    zoneMaps.put(pageNum, new ZoneMap(schema.getFieldTypes().size()));
+                }
+                if (pageLayout.hasRoom(buf, numOnPage)) {
+                    freePageNums.add(pageNum);
+                }
+            } finally {
+                page.unpin();
+            }
+        } finally {
+            unlatchPage(latch);
+        }
+    }
 
-        //start
-        if (lockContext != null) {
-            if (lockContext.saturation(transaction) >= 0.2 && lockContext.capacity() >= 10) {
-                lockContext.escalate(transaction);
+    /**
+     * Frees the given data pages, which must be empty, excluding every other
+     * operation on the table while doing so.
+     */
+    private void freePages(BaseTransaction transaction, List<Integer> pageNums) {
+        tableLatch.writeLock().lock();
+        try {
+            for (int pageNum : pageNums) {
+                allocator.freePage(transaction, pageNum);
+                freePageNums.remove(pageNum);
+                numRecordsOnPage.remove(pageNum);
+                zoneMaps.remove(pageNum);
             }
+        } finally {
+            tableLatch.writeLock().unlock();
         }
-        //end
+    }
 
-        //start
-        LockUtil.requestLocks(transaction, lockContext, LockType.X);
-        //end
-        for (Integer pageNum : freePageNums) {
-            allocator.freePage(transaction, pageNum);
+    /**
+     * Writes the metadata of the table back to the header page, if the table
+     * has been modified since it was last written and no modification is
+     * running, and forces it to disk. The data pages and the allocations of
+     * the table are forced to disk first, so that the metadata never counts
+     * records a crash could lose. Called by Database.checkpoint; if a
+     * modification is running, the metadata is written by the next call after
+     * it is done.
+     */
+    public void flushMetadata() {
+        if (metadataOnDisk || numActiveWrites.get() > 0) {
+            return;
+        }
+        synchronized (this) {
+            long numWrites = numWritesBegun.get();
+            if (metadataOnDisk || numActiveWrites.get() > 0) {
+                return;
+            }
+            allocator.flushPages();
+            allocator.flushMetadata();
+            byte[] metadata = encodeMetadata();
+            if (metadata == null) {
+                return;
+            }
+
+            // A modification which began after numWrites was read may have
+            // seen metadataOnDisk unset and skipped invalidateMetadata, in
+            // which case we give up; otherwise any later one waits for us in
+            // invalidateMetadata.
+            metadataOnDisk = true;
+            if (numWritesBegun.get() != numWrites) {
+                metadataOnDisk = false;
+                return;
+            }
+            Page headerPage = allocator.fetchPage(null, 0);
+            headerPage.getBuffer(null).position(metadataOffset).put(metadata);
+            headerPage.flush();
         }
-        freePageNums.clear();
     }
 
-    public void close() {
-        allocator.close();
+    public synchronized void close() {
+        tableLatch.writeLock().lock();
+        try {
+            writeMetadata();
+            if (dictionary != null) {
+                dictionary.close();
+            }
+            allocator.close();
+        } finally {
+            tableLatch.writeLock().unlock();
+        }
     }
 
     // Helpers ///////////////////////////////////////////////////////////////////
@@ -459,10 +1134,308 @@ public class Table implements Closeable {
     }
 
     private static void writeSchemaToHeaderPage(BaseTransaction transaction, PageAllocator allocator,
-            Schema schema) {
+            Schema schema, Layout layout) {
         Page headerPage = allocator.fetchPage(transaction, allocator.allocPage(transaction));
         assert(0 == headerPage.getPageNum());
-        headerPage.getBuffer(transaction).put(schema.toBytes());
+        headerPage.getBuffer(transaction).put(schema.toBytes()).put((byte) layout.ordinal());
+    }
+
+    private static Layout readLayoutFromHeaderPage(BaseTransaction transaction,
+            PageAllocator allocator, Schema schema) throws DatabaseException {
+        Buffer buf = allocator.fetchPage(transaction, 0).getBuffer(transaction);
+        int ordinal = buf.get(schema.toBytes().length);
+        if (ordinal < 0 || ordinal >= Layout.values().length) {
+            throw new DatabaseException(String.format("Unknown table layout %d.", ordinal));
+        }
+        return Layout.values()[ordinal];
+    }
+
+    /**
+     * Sets up pageLayout, and dictionary if the table is a DICTIONARY table,
+     * once the header page holds the schema and layout of the table. created
+     * is whether the table is new.
+     */
+    private void createPageLayout(BufferManager bufferManager, boolean created) {
+        switch (layout) {
+        case SLOTTED:
+            this.pageLayout = new SlottedPageLayout(schema);
+            break;
+        case COLUMNAR:
+            this.pageLayout = new PaxPageLayout(schema);
+            break;
+        case DICTIONARY:
+            // The dictionary leaves half of the header page to the metadata,
+            // and at least room for its state (see invalidateMetadata); the
+            // rest of its entries go to overflow pages.
+            int minOffset = Math.max(metadataOffset + Integer.BYTES, Page.pageSize / 2);
+            this.dictionary = new StringDictionary(schema, allocator, minOffset, filename,
+                                                   bufferManager, created);
+            this.pageLayout = new DictionaryPageLayout(schema, dictionary);
+            break;
+        default:
+            this.pageLayout = new FixedPageLayout(schema);
+            break;
+        }
+        this.bitmapSizeInBytes = pageLayout.getBitmapSizeInBytes();
+        this.numRecordsPerPage = pageLayout.getNumRecordsPerPage();
+    }
+
+    /**
+     * Loads the number of records, the statistics and the free pages of the
+     * table from the header page.
+     *
+     * @return false if the metadata on the header page is stale
+     */
+    private boolean readMetadata(BaseTransaction transaction) {
+        Buffer buf = allocator.fetchPage(transaction, 0).getBuffer(transaction);
+        buf.position(metadataOffset);
+        if (buf.getInt() != METADATA_VALID) {
+            return false;
+        }
+        this.numRecords.set(buf.getLong());
+        this.stats = TableStats.fromBytes(buf, this.schema);
+        this.freePageNums = new ConcurrentSkipListSet<Integer>();
+        int numRanges = buf.getInt();
+        if (numRanges < 0) {
+            rebuildFreePageNums(transaction);
+        } else {
+            for (int i = 0; i < numRanges; ++i) {
+                int start = buf.getInt();
+                int length = buf.getInt();
+                for (int j = 0; j < length; ++j) {
+                    freePageNums.add(start + j);
+                }
+            }
+        }
+        int numZoneMaps = buf.getInt();
+        for (int i = 0; i < numZoneMaps; ++i) {
+            int pageNum = buf.getInt();
+            zoneMaps.put(pageNum, ZoneMap.fromBytes(buf, schema));
+        }
+        this.metadataOnDisk = true;
+        return true;
+    }
+
+    /**
+     * Computes the number of records, the statistics and the free pages of the
+     * table naively: we iterate through every single data page of the file,
+     * and for each data page, we use the bitmap to read every single record.
+     */
+    private void rebuildMetadata(BaseTransaction transaction) throws DatabaseException {
+        this.stats = new TableStats(this.schema);
+        this.freePageNums = new ConcurrentSkipListSet<Integer>();
+        this.numRecordsOnPage.clear();
+        this.zoneMaps.clear();
+        this.numRecords.set(0);
+        this.metadataOnDisk = false;
+
+        Iterator<Page> iter = this.allocator.iterator(transaction);
+        iter.next(); // Skip the header page.
+        while(iter.hasNext()) {
+            Page page = iter.next().pin(transaction);
+            try {
+                byte[] bitmap = readBitMap(transaction, page);
+                ZoneMap zoneMap = new ZoneMap(schema.getFieldTypes().size());
+
+                for (int i = Bits.indexOf(bitmap, Bits.Bit.ONE, 0, numRecordsPerPage); i != -1;
+                        i = Bits.indexOf(bitmap, Bits.Bit.ONE, i + 1, numRecordsPerPage)) {
+                    Record r = readRecord(transaction, page, new RecordId(page.getPageNum(), (short) i));
+                    stats.addRecord(r);
+                    zoneMap.add(r);
+                    numRecords.incrementAndGet();
+                }
+                zoneMaps.put(page.getPageNum(), zoneMap);
+
+                if (pageLayout.hasRoom(page.getBuffer(transaction),
+                                       numRecordsOnPage(transaction, page))) {
+                    freePageNums.add(page.getPageNum());
+                }
+            } finally {
+                page.unpin();
+            }
+        }
+    }
+
+    /**
+     * Finds the data pages with room for more records by reading the bitmap of
+     * every data page.
+     */
+    private void rebuildFreePageNums(BaseTransaction transaction) {
+        Iterator<Page> iter = this.allocator.iterator(transaction);
+        iter.next(); // Skip the header page.
+        while(iter.hasNext()) {
+            Page page = iter.next();
+            if (pageLayout.hasRoom(page.getBuffer(transaction), numRecordsOnPage(transaction, page))) {
+                freePageNums.add(page.getPageNum());
+            }
+        }
+    }
+
+    /**
+     * Writes the metadata of the table to the header page, if it fits and is
+     * not there already.
+     */
+    private void writeMetadata() {
+        if (metadataOnDisk) {
+            return;
+        }
+        byte[] metadata = encodeMetadata();
+        if (metadata == null) {
+            return;
+        }
+
+        // The metadata is internal to the table, so we write it without taking
+        // any locks, as the allocator does with its own metadata.
+        allocator.fetchPage(null, 0).getBuffer(null).position(metadataOffset).put(metadata);
+        metadataOnDisk = true;
+    }
+
+    /**
+     * Serializes the metadata of the table (see "Metadata" above).
+     *
+     * @return the metadata, or null if it does not fit on the header page
+     */
+    private byte[] encodeMetadata() {
+        // The free pages as (start, length) ranges.
+        List<Integer> ranges = new ArrayList<>();
+        int start = -1;
+        int length = 0;
+        for (int pageNum : freePageNums) {
+            if (start + length != pageNum) {
+                if (length > 0) {
+                    ranges.add(start);
+                    ranges.add(length);
+                }
+                start = pageNum;
+                length = 0;
+            }
+            length++;
+        }
+        if (length > 0) {
+            ranges.add(start);
+            ranges.add(length);
+        }
+
+        byte[] statsBytes = stats.toBytes();
+        int size = Integer.BYTES + Long.BYTES + statsBytes.length + 2 * Integer.BYTES;
+        int end = dictionary == null ? Page.pageSize : dictionary.getOffset();
+        if (metadataOffset + size > end) {
+            return null;
+        }
+        boolean saveRanges = metadataOffset + size + ranges.size() * Integer.BYTES <= end;
+        if (saveRanges) {
+            size += ranges.size() * Integer.BYTES;
+        }
+
+        // As many zone maps as fit, in page order.
+        List<Integer> zoneMapPageNums = new ArrayList<>();
+        List<byte[]> zoneMapBytes = new ArrayList<>();
+        for (Map.Entry<Integer, ZoneMap> entry : new TreeMap<>(zoneMaps).entrySet()) {
+            byte[] bytes = entry.getValue().toBytes();
+            if (metadataOffset + size + Integer.BYTES + bytes.length > end) {
+                break;
+            }
+            zoneMapPageNums.add(entry.getKey());
+            zoneMapBytes.add(bytes);
+            size += Integer.BYTES + bytes.length;
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        buf.putInt(METADATA_VALID);
+        buf.putLong(numRecords.get());
+        buf.put(statsBytes);
+        if (saveRanges) {
+            buf.putInt(ranges.size() / 2);
+            for (int i : ranges) {
+                buf.putInt(i);
+            }
+        } else {
+            buf.putInt(-1);
+        }
+        buf.putInt(zoneMapPageNums.size());
+        for (int i = 0; i < zoneMapPageNums.size(); ++i) {
+            buf.putInt(zoneMapPageNums.get(i));
+            buf.put(zoneMapBytes.get(i));
+        }
+        return buf.array();
+    }
+
+    /**
+     * Called before every modification of the table, which must call endWrite
+     * once it is done.
+     */
+    private void beginWrite() {
+        numWritesBegun.incrementAndGet();
+        numActiveWrites.incrementAndGet();
+        invalidateMetadata();
+    }
+
+    private void endWrite() {
+        numActiveWrites.decrementAndGet();
+    }
+
+    /**
+     * Marks the metadata on the header page stale before the first
+     * modification of the table since the metadata was written. The header
+     * page is forced to disk with the next flush of the allocation metadata.
+     */
+    private void invalidateMetadata() {
+        if (!metadataOnDisk) {
+            return;
+        }
+        synchronized (this) {
+            if (!metadataOnDisk) {
+                return;
+            }
+            Page headerPage = allocator.fetchPage(null, 0);
+            headerPage.getBuffer(null).putInt(metadataOffset, METADATA_STALE);
+            allocator.flushWithMetadata(0);
+            metadataOnDisk = false;
+        }
+    }
+
+    private void initLatches() {
+        this.pageLatches = new ReadWriteLock[NUM_PAGE_LATCHES];
+        for (int i = 0; i < NUM_PAGE_LATCHES; ++i) {
+            this.pageLatches[i] = new ReentrantReadWriteLock();
+        }
+        this.tableLatch = new ReentrantReadWriteLock();
+    }
+
+    /**
+     * Latches data page pageNum, in write mode if write and in read mode
+     * otherwise. The caller must already hold the locks it needs on the page;
+     * see "Concurrency" above.
+     *
+     * @return the latch, to be passed to unlatchPage
+     */
+    private Lock latchPage(int pageNum, boolean write) {
+        ReadWriteLock pageLatch = pageLatches[pageNum % NUM_PAGE_LATCHES];
+        Lock latch = write ? pageLatch.writeLock() : pageLatch.readLock();
+        tableLatch.readLock().lock();
+        latch.lock();
+        return latch;
+    }
+
+    /**
+     * Latches data page pageNum in write mode, unless another thread holds its
+     * latch.
+     *
+     * @return the latch, to be passed to unlatchPage, or null if it was held
+     */
+    private Lock tryLatchPage(int pageNum) {
+        Lock latch = pageLatches[pageNum % NUM_PAGE_LATCHES].writeLock();
+        tableLatch.readLock().lock();
+        if (!latch.tryLock()) {
+            tableLatch.readLock().unlock();
+            return null;
+        }
+        return latch;
+    }
+
+    private void unlatchPage(Lock latch) {
+        latch.unlock();
+        tableLatch.readLock().unlock();
     }
 
     /**
@@ -491,15 +1464,17 @@ public class Table implements Closeable {
         return pageSizeInBits / recordOverheadInBits;
     }
 
+    /**
+     * Returns the number of records on a data page, counting the bits of its
+     * bitmap only the first time the page is asked about.
+     */
     private int numRecordsOnPage(BaseTransaction transaction, Page page) {
-        byte[] bitmap = getBitMap(transaction, page);
-        int numRecords = 0;
-        for (int i = 0; i < numRecordsPerPage; ++i) {
-            if (Bits.getBit(bitmap, i) == Bits.Bit.ONE) {
-                numRecords++;
-            }
+        Integer numOnPage = numRecordsOnPage.get(page.getPageNum());
+        if (numOnPage == null) {
+            numOnPage = Bits.countOnes(readBitMap(transaction, page), numRecordsPerPage);
+            numRecordsOnPage.put(page.getPageNum(), numOnPage);
         }
-        return numRecords;
+        return numOnPage;
     }
 
     private void validateRecordId(RecordId rid) throws DatabaseException {
@@ -525,6 +1500,130 @@ public class Table implements Closeable {
 
     // Iterators /////////////////////////////////////////////////////////////////
     public TableIterator ridIterator(BaseTransaction transaction) {
+        lockForScan(transaction);
+        return new TableIterator(transaction);
+    }
+
+    /**
+     * Returns an iterator over every record of the table. Records are decoded
+     * a page at a time (see readBatch).
+     */
+    public BacktrackingIterator<Record> iterator(BaseTransaction transaction) {
+        lockForScan(transaction);
+        return new BatchRecordIterator(transaction, (BacktrackingIterator<Page>)
+                                       Table.iteratorSkipPage(allocator.iterator(transaction)), null,
+                                       null, null);
+    }
+
+    /**
+     * Returns an iterator over every record of the table, projected onto the
+     * fields numbered columns (in that order). The other fields are never
+     * decoded, and on COLUMNAR tables never even read.
+     */
+    public BacktrackingIterator<Record> iterator(BaseTransaction transaction,
+            List<Integer> columns) throws DatabaseException {
+        return iterator(transaction, columns, null);
+    }
+
+    /**
+     * Like iterator(transaction, columns), but skips every data page whose
+     * zone map is known and does not pass pageFilter, without reading it. The
+     * records of the pages read are all returned, whether they pass the filter
+     * or not. columns may be null to return every field, and pageFilter may be
+     * null to read every page.
+     */
+    public BacktrackingIterator<Record> iterator(BaseTransaction transaction, List<Integer> columns,
+            Predicate<ZoneMap> pageFilter) throws DatabaseException {
+        return iterator(transaction, columns, pageFilter, Collections.emptyList(),
+                        Collections.emptyList());
+    }
+
+    /**
+     * Like iterator(transaction, columns, pageFilter), but also skips the
+     * records whose field equalityColumns.get(i) does not equal
+     * equalityValues.get(i), for some i, without reading them: fields are
+     * compared on the page (see PageLayout.equalityFilter), and on DICTIONARY
+     * tables, strings are compared by their codes. Like pageFilter, the
+     * equalities only let the scan skip records: equalities the layout cannot
+     * test on the page (such as those on SLOTTED tables) are ignored, so the
+     * records returned may still fail them.
+     */
+    public BacktrackingIterator<Record> iterator(BaseTransaction transaction, List<Integer> columns,
+            Predicate<ZoneMap> pageFilter, List<Integer> equalityColumns,
+            List<DataBox> equalityValues) throws DatabaseException {
+        return batchRecordIterator(transaction, columns, pageFilter, equalityColumns, equalityValues);
+    }
+
+    /**
+     * Like iterator(transaction, columns, pageFilter, equalityColumns,
+     * equalityValues), but returns the records a page at a time, as read by
+     * readBatch. Every call to next() returns the same RecordBatch, refilled
+     * with the records of the next page which has any, so a batch must be used
+     * up before the next one is read.
+     */
+    public Iterator<RecordBatch> batchIterator(BaseTransaction transaction, List<Integer> columns,
+            Predicate<ZoneMap> pageFilter, List<Integer> equalityColumns,
+            List<DataBox> equalityValues) throws DatabaseException {
+        BatchRecordIterator records = batchRecordIterator(transaction, columns, pageFilter,
+                                                          equalityColumns, equalityValues);
+        return new Iterator<RecordBatch>() {
+            public boolean hasNext() {
+                return records.hasNext();
+            }
+
+            public RecordBatch next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return records.nextBatch();
+            }
+        };
+    }
+
+    private BatchRecordIterator batchRecordIterator(BaseTransaction transaction,
+            List<Integer> columns, Predicate<ZoneMap> pageFilter, List<Integer> equalityColumns,
+            List<DataBox> equalityValues) throws DatabaseException {
+        PageLayout.EntryFilter filter = null;
+        for (int i = 0; i < equalityColumns.size(); ++i) {
+            int column = equalityColumns.get(i);
+            if (column < 0 || column >= schema.getFieldTypes().size()) {
+                String msg = String.format("Table %s has no column %d.", name, column);
+                throw new DatabaseException(msg);
+            }
+            PageLayout.EntryFilter f = pageLayout.equalityFilter(column, equalityValues.get(i));
+            if (f != null) {
+                PageLayout.EntryFilter g = filter;
+                filter = g == null ? f : (page, entryNum) -> g.test(page, entryNum) &&
+                         f.test(page, entryNum);
+            }
+        }
+
+        int[] cols = null;
+        if (columns != null) {
+            cols = new int[columns.size()];
+            for (int i = 0; i < cols.length; ++i) {
+                cols[i] = columns.get(i);
+                if (cols[i] < 0 || cols[i] >= schema.getFieldTypes().size()) {
+                    String msg = String.format("Table %s has no column %d.", name, cols[i]);
+                    throw new DatabaseException(msg);
+                }
+            }
+        }
+        lockForScan(transaction);
+        PageAllocator.PageIterator pages = allocator.iterator(transaction);
+        if (pageFilter != null) {
+            // Pages the zone maps rule out are skipped without being read, so
+            // they must not be read ahead either.
+            pages.setReadAheadFilter(pageNum -> {
+                ZoneMap zoneMap = zoneMaps.get(pageNum);
+                return zoneMap == null || pageFilter.test(zoneMap);
+            });
+        }
+        return new BatchRecordIterator(transaction, (BacktrackingIterator<Page>)
+                                       Table.iteratorSkipPage(pages), cols, pageFilter, filter);
+    }
+
+    private void lockForScan(BaseTransaction transaction) {
         // TODO(hw5): reduce locking overhead for table scans
 
         //start
@@ -538,21 +1637,6 @@ public class Table implements Closeable {
         //start
         LockUtil.requestLocks(transaction, lockContext, LockType.S);
         //end
-        return new TableIterator(transaction);
-    }
-
-    public RecordIterator iterator(BaseTransaction transaction) {
-        List<RecordId> rids = getAllRecordIds(transaction);
-        BacktrackingIterator<RecordId> iter = new ArrayBacktrackingIterator<RecordId>(rids.toArray(
-                    new RecordId[rids.size()]));
-        // Placeholder to call ridIterator anyways (since the normal version includes a call to ridIterator)
-        try {
-            ridIterator(transaction);
-        } catch (UnsupportedOperationException e) {}
-        return new RecordIterator(transaction, this, iter);
-        /*
-        return new RecordIterator(transaction, this, ridIterator(transaction));
-        */
     }
 
     public BacktrackingIterator<Record> blockIterator(BaseTransaction transaction, Page[] block) {
@@ -571,37 +1655,62 @@ public class Table implements Closeable {
 
     /**
      * RIDPageIterator is a BacktrackingIterator over the RecordIds of a single
-     * page of the table.
+     * page of the table. The page's bitmap is read once, when the iterator is
+     * created.
      *
      * See comments on the BacktrackingIterator interface for how mark and reset
      * should function.
      */
     public class RIDPageIterator implements BacktrackingIterator<RecordId> {
-        //member variables go here
+        private int pageNum;
+        private byte[] bitmap;
 
-        /**
-        * The following method signature is provided for guidance, but not necessary. Feel free to
-        * implement your own solution using whatever helper methods you would like.
-        */
+        // The entry number of the record next() returns next (numRecordsPerPage
+        // once the page is exhausted), of the last record next() returned, and
+        // of the marked record. The last two are -1 if there is no such record.
+        private int nextEntry;
+        private int prevEntry;
+        private int markedEntry;
 
         public RIDPageIterator(BaseTransaction transaction, Page page) {
-            throw new UnsupportedOperationException("TODO(hw3): implement");
+            this.pageNum = page.getPageNum();
+            this.bitmap = getBitMap(transaction, page);
+            this.nextEntry = nextSetEntry(0);
+            this.prevEntry = -1;
+            this.markedEntry = -1;
         }
 
         public boolean hasNext() {
-            throw new UnsupportedOperationException("TODO(hw3): implement");
+            return nextEntry < numRecordsPerPage;
         }
 
         public RecordId next() {
-            throw new UnsupportedOperationException("TODO(hw3): implement");
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            prevEntry = nextEntry;
+            nextEntry = nextSetEntry(nextEntry + 1);
+            return new RecordId(pageNum, (short) prevEntry);
         }
 
         public void mark() {
-            throw new UnsupportedOperationException("TODO(hw3): implement");
+            if (prevEntry == -1) {
+                return;
+            }
+            markedEntry = prevEntry;
         }
 
         public void reset() {
-            throw new UnsupportedOperationException("TODO(hw3): implement");
+            if (markedEntry == -1) {
+                return;
+            }
+            nextEntry = markedEntry;
+            prevEntry = -1;
+        }
+
+        private int nextSetEntry(int entry) {
+            int next = Bits.indexOf(bitmap, Bits.Bit.ONE, entry, numRecordsPerPage);
+            return next == -1 ? numRecordsPerPage : next;
         }
     }
 
@@ -632,42 +1741,40 @@ public class Table implements Closeable {
      * of pages.
      *
      * A "block" is specified by a BacktrackingIterator of Pages: every single
-     * Page returned by the iterator is part of the block. Your code should only
-     * utilize this iterator's functionality for fetching pages, i.e. you should
-     * *not* fetch every Page from the block iterator into an array or collection.
-     *
-     * The mark and reset methods have been provided for you already, and work by
-     * saving a BacktrackingIterator of RecordIds over the appropriate page.
+     * Page returned by the iterator is part of the block. Pages are fetched from
+     * it one at a time as the iterator moves along, and only the bitmap of the
+     * current page (and of the marked page) is held, so the iterator uses
+     * constant memory however large the block is.
      *
      * The iterator maintains a few pieces of state:
      * - block is simply the BacktrackingIterator<Page> specifying the pages in
      *   the block.
-     * - blockIter is a BacktrackingIterator over RecordIds of the current page we
-     *   are iterating over.
-     * - prevRecordId is the last RecordId that next() returned.
-     * - nextRecordId is the next RecordId that next() will return.
+     * - blockIter is a RIDPageIterator over the page we are iterating over.
+     * - prevBlockIter is the RIDPageIterator which returned the last RecordId
+     *   that next() returned, or null if next() has not been called since
+     *   creation or the last reset().
      *
-     * In addition to these, we maintain some state to help with the
-     * implementation of mark() and reset(); you should not need to use these
-     * for implementing next() and hasNext().
+     * Since hasNext() may move blockIter on to a later page before mark() is
+     * called, the mark of block is either on the marked page itself or, if
+     * markedAhead, on the page to continue with after it.
      */
     public class RIDBlockIterator implements BacktrackingIterator<RecordId> {
         private BacktrackingIterator<Page> block = null;
-        private BacktrackingIterator<RecordId> blockIter = null;
+        private RIDPageIterator blockIter = null;
+        private RIDPageIterator prevBlockIter = null;
 
-        private BacktrackingIterator<RecordId> markedBlockIter = null;
-        private RecordId markedPrevRecordId = null;
+        private RIDPageIterator markedBlockIter = null;
+        private boolean markedAhead = false;
 
-        private RecordId prevRecordId = null;
-        private RecordId nextRecordId = null;
+        // Whether block has been reset to the page after markedBlockIter's and
+        // has not been advanced since.
+        private boolean blockAhead = false;
 
         private BaseTransaction transaction = null;
 
         RIDBlockIterator(BaseTransaction transaction, BacktrackingIterator<Page> block) {
             this.transaction = transaction;
             this.block = block;
-            throw new UnsupportedOperationException("TODO(hw3): implement");
-            //if you want to add anything to this constructor, feel free to
         }
 
         /**
@@ -704,56 +1811,58 @@ public class Table implements Closeable {
         }
 
         public boolean hasNext() {
-            throw new UnsupportedOperationException("TODO(hw3): implement");
+            while (blockIter == null || !blockIter.hasNext()) {
+                if (!block.hasNext()) {
+                    return false;
+                }
+                blockIter = new RIDPageIterator(transaction, block.next());
+                blockAhead = false;
+            }
+            return true;
         }
 
         public RecordId next() {
-            throw new UnsupportedOperationException("TODO(hw3): implement");
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            prevBlockIter = blockIter;
+            return blockIter.next();
         }
 
         /**
          * Marks the last recordId returned by next().
-         *
-         * This implementation of mark simply marks and saves the current page's
-         * iterator of RecordIds.
          */
         public void mark() {
-            if (this.prevRecordId == null) {
+            if (prevBlockIter == null) {
                 return;
             }
-
-            this.block.mark();
-            this.blockIter.mark();
-            this.markedBlockIter = this.blockIter;
-            this.markedPrevRecordId = this.prevRecordId;
+            prevBlockIter.mark();
+            markedBlockIter = prevBlockIter;
+            if (blockAhead) {
+                // block is still marked on the page after this one.
+                markedAhead = true;
+                return;
+            }
+            block.mark();
+            markedAhead = blockIter != prevBlockIter;
         }
 
         /**
          * Resets to the marked recordId.
-         *
-         * This implementation of reset restores the marked page's iterator,
-         * and calls reset() on it to move it to the correct record. Some extra
-         * care is taken to ensure that we properly reset the block page iterator.
          */
         public void reset() {
-            if (this.markedPrevRecordId == null) {
+            if (markedBlockIter == null) {
                 return;
             }
-            this.block.reset();
-            // We don't want to get the current page again
-            this.block.next();
-            this.blockIter = this.markedBlockIter;
-            this.blockIter.reset();
-            // If we're at the end of the block, we don't want to repeat the record
-            if (!this.block.hasNext()) {
-                this.blockIter.next();
-                if (this.blockIter.hasNext()) {
-                    this.blockIter.reset();
-                }
+            block.reset();
+            if (!markedAhead) {
+                // We don't want to get the marked page again.
+                block.next();
             }
-
-            this.prevRecordId = null;
-            this.nextRecordId = this.markedPrevRecordId;
+            blockAhead = markedAhead;
+            blockIter = markedBlockIter;
+            blockIter.reset();
+            prevBlockIter = null;
         }
     }
 
@@ -782,22 +1891,139 @@ public class Table implements Closeable {
     }
 
     /**
-     * A helper method that returns every record id (and assumes no deletes have happened).
+     * BatchRecordIterator is a BacktrackingIterator over the records of a
+     * sequence of data pages. It reads one page at a time into a single
+     * RecordBatch, which it reuses for every page.
+     *
+     * mark() remembers the page and batch index of the last returned record
+     * and marks the page iterator; reset() reads the marked page again. Since
+     * hasNext() may already have moved on to later pages when mark() is
+     * called, the page iterator's mark is either on the marked page itself or
+     * on the page to continue with after it.
      */
-    private List<RecordId> getAllRecordIds(BaseTransaction transaction) {
-        Iterator<Page> pageIterator = Table.this.allocator.iterator(transaction);
-        List<RecordId> res = new ArrayList<>();
+    private class BatchRecordIterator implements BacktrackingIterator<Record> {
+        private BaseTransaction transaction;
+        private BacktrackingIterator<Page> pages;
+        private RecordBatch batch;
+
+        // The fields to read from every record, or null for all of them, the
+        // filter pages' zone maps must pass to be read, or null, and the
+        // filter records must pass to be read, or null.
+        private int[] columns;
+        private Predicate<ZoneMap> pageFilter;
+        private PageLayout.EntryFilter filter;
+
+        // The page batch was read from, and the index in batch of the record
+        // that next() returns next.
+        private Page page;
+        private int index;
+
+        // The page and batch index of the last record returned by next(), or
+        // null if next() has not been called since creation or the last
+        // reset().
+        private Page lastPage;
+        private int lastIndex;
+
+        // The page and batch index of the marked record, or null, and whether
+        // the page iterator was already past markedPage when it was marked.
+        private Page markedPage;
+        private int markedIndex;
+        private boolean markedAhead;
+
+        // Whether the page iterator has been reset to the page after
+        // markedPage and has not been advanced since.
+        private boolean pagesAhead;
+
+        BatchRecordIterator(BaseTransaction transaction, BacktrackingIterator<Page> pages,
+                            int[] columns, Predicate<ZoneMap> pageFilter,
+                            PageLayout.EntryFilter filter) {
+            this.transaction = transaction;
+            this.pages = pages;
+            this.columns = columns;
+            this.pageFilter = pageFilter;
+            this.filter = filter;
+            this.batch = newBatch();
+            this.page = null;
+            this.index = 0;
+            this.lastPage = null;
+            this.markedPage = null;
+        }
 
-        pageIterator.next();
-        while (pageIterator.hasNext()) {
-            Page page = pageIterator.next();
-            for (short entryNum = 0; entryNum < Table.this.numRecordsPerPage &&
-                    res.size() < numRecords; ++entryNum) {
-                res.add(new RecordId(page.getPageNum(), entryNum));
+        public boolean hasNext() {
+            while (index >= batch.size()) {
+                if (!pages.hasNext()) {
+                    return false;
+                }
+                read(pages.next());
+                index = 0;
+                pagesAhead = false;
+            }
+            return true;
+        }
+
+        public Record next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            lastPage = page;
+            lastIndex = index;
+            return batch.getRecord(index++);
+        }
+
+        /**
+         * Returns the records of the page hasNext read, which next must not
+         * have been called on, as a batch, and moves past them. Cannot be
+         * mixed with mark and reset.
+         */
+        RecordBatch nextBatch() {
+            index = batch.size();
+            return batch;
+        }
+
+        public void mark() {
+            if (lastPage == null) {
+                return;
             }
+            markedPage = lastPage;
+            markedIndex = lastIndex;
+            if (pagesAhead) {
+                // The page iterator is still marked on the page after this one.
+                markedAhead = true;
+                return;
+            }
+            pages.mark();
+            markedAhead = page != lastPage;
         }
 
-        return res;
+        public void reset() {
+            if (markedPage == null) {
+                return;
+            }
+            pages.reset();
+            if (!markedAhead) {
+                pages.next();
+            }
+            pagesAhead = markedAhead;
+            read(markedPage);
+            index = markedIndex;
+            lastPage = null;
+        }
+
+        private void read(Page page) {
+            if (pageFilter != null) {
+                ZoneMap zoneMap = zoneMaps.get(page.getPageNum());
+                if (zoneMap != null && !pageFilter.test(zoneMap)) {
+                    batch.clear(page.getPageNum());
+                    this.page = page;
+                    return;
+                }
+            }
+            try {
+                readBatch(transaction, page, batch, columns, filter);
+            } catch (DatabaseException e) {
+                throw new IllegalStateException(e);
+            }
+            this.page = page;
+        }
     }
 }
-
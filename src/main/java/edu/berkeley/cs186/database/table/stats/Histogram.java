@@ -1,8 +1,10 @@
 package edu.berkeley.cs186.database.table.stats;
 
+import java.nio.ByteBuffer;
 import java.util.Iterator;
 
 import edu.berkeley.cs186.database.BaseTransaction;
+import edu.berkeley.cs186.database.common.Buffer;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.query.QueryPlan.PredicateOperator;
 import edu.berkeley.cs186.database.table.Table;
@@ -62,17 +64,23 @@ public class Histogram {
 
     /*This constructor initialize an empty histogram object*/
     public Histogram() {
-        buckets = new Bucket[1];
+        buckets = newBuckets(1);
         numBuckets = 1;
         buckets[0] = new Bucket<>(Float.MIN_VALUE, Float.MAX_VALUE);
     }
 
     /*This constructor initialize a histogram object with a set number of buckets*/
     public Histogram(int numBuckets) {
-        buckets = new Bucket[numBuckets];
+        buckets = newBuckets(numBuckets);
         this.numBuckets = numBuckets;
     }
 
+    /*Java cannot create arrays of a generic type, so this creates one of Bucket<?> instead*/
+    @SuppressWarnings("unchecked")
+    private static Bucket<Float> [] newBuckets(int numBuckets) {
+        return (Bucket<Float> []) new Bucket<?>[numBuckets];
+    }
+
     /*This is a copy constructor that generates a new histogram from a bucket list*/
     private Histogram(Bucket<Float> buckets []) {
         this.buckets = buckets;
@@ -82,6 +90,14 @@ public class Histogram {
         this.maxValue = buckets[this.numBuckets - 1].getEnd();
     }
 
+    private Histogram(Bucket<Float> buckets [], float minValue, float maxValue, float width) {
+        this.buckets = buckets;
+        this.numBuckets = buckets.length;
+        this.minValue = minValue;
+        this.maxValue = maxValue;
+        this.width = width;
+    }
+
     /** We only consider float histograms, and these two methods turn every data type into a float.
      *  We call this mapping quantization. That means given any DataBox, we turn it into a float number.
      *  For Booleans, Integers, Floats, order is preserved in the mapping. But for strings, only equalities
@@ -395,4 +411,46 @@ public class Histogram {
         return new Histogram(newBuckets);
 
     }
+
+    //Serialization//////////////////////////////////////////////////////////////
+    /** The number of bytes toBytes produces for a histogram with numBuckets buckets. */
+    public static int getSizeInBytes(int numBuckets) {
+        return Integer.BYTES + 3 * Float.BYTES + numBuckets * (2 * Float.BYTES + 2 * Integer.BYTES);
+    }
+
+    public byte[] toBytes() {
+        // A histogram is serialized as the number of buckets (4 bytes), the
+        // min, max and width (4 bytes each), and then for every bucket its
+        // start, end, count and distinct count (4 bytes each). Buckets without
+        // an end are written with an end of NaN.
+        ByteBuffer buf = ByteBuffer.allocate(getSizeInBytes(numBuckets));
+        buf.putInt(numBuckets);
+        buf.putFloat(minValue);
+        buf.putFloat(maxValue);
+        buf.putFloat(width);
+        for (int i = 0; i < numBuckets; i++) {
+            Bucket<Float> b = buckets[i];
+            buf.putFloat(b.getStart());
+            buf.putFloat(b.getEnd() == null ? Float.NaN : b.getEnd());
+            buf.putInt(b.getCount());
+            buf.putInt(b.getDistinctCount());
+        }
+        return buf.array();
+    }
+
+    public static Histogram fromBytes(Buffer buf) {
+        int numBuckets = buf.getInt();
+        float minValue = buf.getFloat();
+        float maxValue = buf.getFloat();
+        float width = buf.getFloat();
+        Bucket<Float> [] buckets = newBuckets(numBuckets);
+        for (int i = 0; i < numBuckets; i++) {
+            float start = buf.getFloat();
+            float end = buf.getFloat();
+            buckets[i] = Float.isNaN(end) ? new Bucket<>(start) : new Bucket<>(start, end);
+            buckets[i].setCount(buf.getInt());
+            buckets[i].setDistinctCount(buf.getInt());
+        }
+        return new Histogram(buckets, minValue, maxValue, width);
+    }
 }
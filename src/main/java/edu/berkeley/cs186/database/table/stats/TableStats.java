@@ -1,9 +1,11 @@
 package edu.berkeley.cs186.database.table.stats;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
 import edu.berkeley.cs186.database.BaseTransaction;
+import edu.berkeley.cs186.database.common.Buffer;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.io.Page;
@@ -45,11 +47,15 @@ import edu.berkeley.cs186.database.table.Table;
  *   stats.getNumRecords(); // Estimated number of records.
  *   stats.getNumPages();   // Estimated number of pages.
  *   stats.getHistograms(); // Histograms on each column.
+ *
+ * The number of records can be updated from several threads at once.
+ * refreshHistograms replaces the list of histograms rather than changing it,
+ * so a list returned by getHistograms never changes.
  */
 public class TableStats {
     private Schema tableSchema;
     private int numRecords;
-    private List<Histogram> histograms;
+    private volatile List<Histogram> histograms;
 
     /** Construct a TableStats for an empty table with schema `tableSchema`. */
     public TableStats(Schema tableSchema) {
@@ -69,26 +75,29 @@ public class TableStats {
     }
 
     // Modifiers /////////////////////////////////////////////////////////////////
-    public void addRecord(Record record) {
+    public synchronized void addRecord(Record record) {
         numRecords++;
     }
 
     public void refreshHistograms(BaseTransaction transaction, int buckets, Table tab) {
-        this.histograms.clear();
+        List<Histogram> histograms = new ArrayList<Histogram>();
         int count = 0;
         int totalRecords = 0;
         for (Type t : tableSchema.getFieldTypes()) {
             Histogram h = new Histogram(buckets);
             h.buildHistogram(transaction, tab, count);
-            this.histograms.add(h);
+            histograms.add(h);
             totalRecords += h.getCount();
             count++;
         }
 
-        this.numRecords = (int) Math.round(((float)totalRecords) / count);
+        synchronized (this) {
+            this.histograms = histograms;
+            this.numRecords = (int) Math.round(((float)totalRecords) / count);
+        }
     }
 
-    public void removeRecord(Record record) {
+    public synchronized void removeRecord(Record record) {
         numRecords = Math.max(numRecords - 1, 0);
     }
 
@@ -97,7 +106,7 @@ public class TableStats {
         return tableSchema;
     }
 
-    public int getNumRecords() {
+    public synchronized int getNumRecords() {
         return numRecords;
     }
 
@@ -105,7 +114,7 @@ public class TableStats {
      * Calculates the number of data pages required to store `numRecords` records
      * assuming that all records are stored as densely as possible in the pages.
      */
-    public int getNumPages() {
+    public synchronized int getNumPages() {
         int numRecordsPerPage = Table.computeNumRecordsPerPage(Page.pageSize, tableSchema);
         if (numRecords % numRecordsPerPage == 0) {
             return numRecords / numRecordsPerPage;
@@ -118,6 +127,38 @@ public class TableStats {
         return histograms;
     }
 
+    // Serialization /////////////////////////////////////////////////////////////
+    public synchronized byte[] toBytes() {
+        // Table statistics are serialized as the number of records (4 bytes)
+        // and the number of histograms (4 bytes), followed by the histograms
+        // of the columns, in order. The schema is not serialized.
+        List<byte[]> serializedHistograms = new ArrayList<>();
+        int size = 2 * Integer.BYTES;
+        for (Histogram h : histograms) {
+            byte[] bytes = h.toBytes();
+            serializedHistograms.add(bytes);
+            size += bytes.length;
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        buf.putInt(numRecords);
+        buf.putInt(serializedHistograms.size());
+        for (byte[] bytes : serializedHistograms) {
+            buf.put(bytes);
+        }
+        return buf.array();
+    }
+
+    public static TableStats fromBytes(Buffer buf, Schema tableSchema) {
+        int numRecords = buf.getInt();
+        int numHistograms = buf.getInt();
+        List<Histogram> histograms = new ArrayList<>();
+        for (int i = 0; i < numHistograms; ++i) {
+            histograms.add(Histogram.fromBytes(buf));
+        }
+        return new TableStats(tableSchema, numRecords, histograms);
+    }
+
     // Copiers ///////////////////////////////////////////////////////////////////
     /**
      * Estimates the table statistics for the table that would be produced after
@@ -176,6 +217,26 @@ public class TableStats {
         return new TableStats(this.tableSchema, numRecords, copyHistograms);
     }
 
+    /**
+     * Creates a new TableStats which is the statistics for the table that
+     * results from keeping only the columns numbered `columns` of this one,
+     * in that order. `projectedSchema` is the schema of that table.
+     *
+     * @param columns the numbers of the columns to keep
+     * @param projectedSchema the schema of the projected table
+     * @return new TableStats with the histograms of the kept columns
+     */
+    public synchronized TableStats copyWithProjection(List<Integer> columns,
+                                                      Schema projectedSchema) {
+        List<Histogram> copyHistograms = new ArrayList<>();
+        if (histograms.size() > 0) {
+            for (int i : columns) {
+                copyHistograms.add(histograms.get(i));
+            }
+        }
+        return new TableStats(projectedSchema, this.numRecords, copyHistograms);
+    }
+
     /**
      * Creates a new TableStats which is the statistics for the table
      * that results from this TableStats joined with the given TableStats.
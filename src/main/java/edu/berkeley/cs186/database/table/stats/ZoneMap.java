@@ -0,0 +1,163 @@
+package edu.berkeley.cs186.database.table.stats;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
+import edu.berkeley.cs186.database.query.QueryPlan.PredicateOperator;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+
+/**
+ * A zone map summarizes the records of a single data page by the smallest
+ * and largest value of each of their columns. For example, a page holding
+ *
+ *   (1, "b"), (7, "a"), (3, "c")
+ *
+ * has the zone map min = (1, "a"), max = (7, "c"). A scan with the predicate
+ * x > 9 can then skip the page without reading it.
+ *
+ * Zone maps only ever grow: records can be added to them, but not removed.
+ * Since a zone map may therefore cover more than the records on its page,
+ * mayMatch can be wrong only by answering true.
+ */
+public class ZoneMap {
+    private final DataBox[] mins;
+    private final DataBox[] maxes;
+    private boolean empty;
+
+    /**
+     * Creates the zone map of an empty page of a table with numColumns columns.
+     */
+    public ZoneMap(int numColumns) {
+        this.mins = new DataBox[numColumns];
+        this.maxes = new DataBox[numColumns];
+        this.empty = true;
+    }
+
+    /**
+     * Widens the zone map to cover record. The fields of record are compared
+     * in place (see Record.compareField), and only decoded into DataBoxes when
+     * they become a new smallest or largest value.
+     */
+    public synchronized void add(Record record) {
+        for (int i = 0; i < mins.length; ++i) {
+            if (empty) {
+                mins[i] = maxes[i] = record.getValue(i);
+            } else if (record.compareField(i, mins[i]) < 0) {
+                mins[i] = record.getValue(i);
+            } else if (record.compareField(i, maxes[i]) > 0) {
+                maxes[i] = record.getValue(i);
+            }
+        }
+        empty = false;
+    }
+
+    public synchronized byte[] toBytes() {
+        // A zone map is serialized as whether it is empty (1 byte), followed,
+        // if it is not, by the smallest and then the largest value of every
+        // column, in order. The schema is not serialized.
+        if (empty) {
+            return new byte[] {(byte) 1};
+        }
+        List<byte[]> serializedValues = new ArrayList<>();
+        int size = 1;
+        for (DataBox[] values : new DataBox[][] {mins, maxes}) {
+            for (DataBox value : values) {
+                byte[] bytes = value.toBytes();
+                serializedValues.add(bytes);
+                size += bytes.length;
+            }
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        buf.put((byte) 0);
+        for (byte[] bytes : serializedValues) {
+            buf.put(bytes);
+        }
+        return buf.array();
+    }
+
+    public static ZoneMap fromBytes(Buffer buf, Schema schema) {
+        List<Type> types = schema.getFieldTypes();
+        ZoneMap zoneMap = new ZoneMap(types.size());
+        if (buf.get() == 1) {
+            return zoneMap;
+        }
+        for (int i = 0; i < types.size(); ++i) {
+            zoneMap.mins[i] = DataBox.fromBytes(buf, types.get(i));
+        }
+        for (int i = 0; i < types.size(); ++i) {
+            zoneMap.maxes[i] = DataBox.fromBytes(buf, types.get(i));
+        }
+        zoneMap.empty = false;
+        return zoneMap;
+    }
+
+    public synchronized boolean isEmpty() {
+        return empty;
+    }
+
+    /**
+     * @return the smallest value of column `column`, or null if the zone map is empty
+     */
+    public synchronized DataBox getMin(int column) {
+        return mins[column];
+    }
+
+    /**
+     * @return the largest value of column `column`, or null if the zone map is empty
+     */
+    public synchronized DataBox getMax(int column) {
+        return maxes[column];
+    }
+
+    /**
+     * Returns whether the page may hold a record whose value v in column
+     * `column` satisfies `v predicate value`. Values are compared as
+     * SelectOperator compares them: a value of another type than the column
+     * is left for the select to handle, so any page may match it, and 0.0
+     * equals -0.0.
+     */
+    public synchronized boolean mayMatch(int column, PredicateOperator predicate, DataBox value) {
+        if (empty) {
+            return false;
+        }
+        TypeId typeId = mins[column].type().getTypeId();
+        if (typeId != value.type().getTypeId()) {
+            return true;
+        }
+        int minCmp = compare(typeId, mins[column], value);
+        int maxCmp = compare(typeId, maxes[column], value);
+        switch (predicate) {
+        case EQUALS:
+            return minCmp <= 0 && maxCmp >= 0;
+        case NOT_EQUALS:
+            return minCmp != 0 || maxCmp != 0;
+        case LESS_THAN:
+            return minCmp < 0;
+        case LESS_THAN_EQUALS:
+            return minCmp <= 0;
+        case GREATER_THAN:
+            return maxCmp > 0;
+        case GREATER_THAN_EQUALS:
+            return maxCmp >= 0;
+        default:
+            return true;
+        }
+    }
+
+    private static int compare(TypeId typeId, DataBox bound, DataBox value) {
+        if (typeId == TypeId.FLOAT) {
+            // Like FloatDataBox.equals, unlike Float.compare.
+            float f = bound.getFloat();
+            float v = value.getFloat();
+            return f == v ? 0 : Float.compare(f, v);
+        }
+        return bound.compareTo(value);
+    }
+}
@@ -1,6 +1,26 @@
 package edu.berkeley.cs186.database;
 
+import edu.berkeley.cs186.database.common.BacktrackingIterator;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.concurrency.DummyLockManager;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.FloatDataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.io.BufferManager;
+import edu.berkeley.cs186.database.io.IOStats;
+import edu.berkeley.cs186.database.io.Page;
+import edu.berkeley.cs186.database.query.ColumnBatch;
+import edu.berkeley.cs186.database.query.ProjectOperator;
+import edu.berkeley.cs186.database.query.QueryOperator;
+import edu.berkeley.cs186.database.query.QueryPlan;
+import edu.berkeley.cs186.database.query.QueryPlanException;
+import edu.berkeley.cs186.database.query.SelectOperator;
+import edu.berkeley.cs186.database.query.SequentialScanOperator;
 import edu.berkeley.cs186.database.table.*;
+import edu.berkeley.cs186.database.table.stats.TableStats;
+import edu.berkeley.cs186.database.table.stats.ZoneMap;
 
 import org.junit.After;
 import org.junit.Before;
@@ -11,6 +31,11 @@ import org.junit.rules.TemporaryFolder;
 import static org.junit.Assert.*;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 
 public class TestDatabase {
     public static final String TestDir = "testDatabase";
@@ -131,4 +156,891 @@ public class TestDatabase {
         t1.end();
     }
 
+    @Test
+    public void testDatabaseDurablityPositionalIO() throws DatabaseException {
+        db.close();
+        db = new Database(this.filename, 5, new DummyLockManager(), BufferManager.IOMode.POSITIONAL);
+
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        Record input = TestUtils.createRecordWithAllTypes();
+
+        String tableName = "testTable1";
+
+        Database.Transaction t1 = db.beginTransaction();
+        t1.createTable(s, tableName);
+        RecordId rid = t1.addRecord(tableName, input.getValues());
+        t1.end();
+
+        db.close();
+
+        db = new Database(this.filename, 5, new DummyLockManager(), BufferManager.IOMode.POSITIONAL);
+        t1 = db.beginTransaction();
+        Record rec = t1.getRecord(tableName, rid);
+        assertEquals(input, rec);
+        t1.end();
+    }
+
+    @Test
+    public void testDatabaseDurablityCompressedIO() throws DatabaseException {
+        db.close();
+        db = new Database(this.filename, 5, new DummyLockManager(), BufferManager.IOMode.COMPRESSED);
+
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        Record input = TestUtils.createRecordWithAllTypes();
+
+        String tableName = "testTable1";
+
+        Database.Transaction t1 = db.beginTransaction();
+        t1.createTable(s, tableName);
+        List<RecordId> rids = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            rids.add(t1.addRecord(tableName, input.getValues()));
+        }
+        t1.end();
+
+        db.close();
+
+        db = new Database(this.filename);
+        assertTrue(db.getTable(tableName).getAllocator().isCompressed());
+        t1 = db.beginTransaction();
+        for (RecordId rid : rids) {
+            assertEquals(input, t1.getRecord(tableName, rid));
+        }
+        t1.end();
+    }
+
+    @Test
+    public void testDatabaseTableMetadata() throws DatabaseException {
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        Record input = TestUtils.createRecordWithAllTypes();
+        String tableName = "testTable1";
+
+        Database.Transaction t1 = db.beginTransaction();
+        t1.createTable(s, tableName);
+        int numRecords = db.getTable(tableName).getNumRecordsPerPage() * 2 + 42;
+        RecordId first = null;
+        for (int i = 0; i < numRecords; ++i) {
+            RecordId rid = t1.addRecord(tableName, input.getValues());
+            if (first == null) {
+                first = rid;
+            }
+        }
+        t1.deleteRecord(tableName, first);
+        t1.end();
+        db.close();
+
+        // The record count and free pages are read back from the header page,
+        // without reading every record.
+        db = new Database(this.filename);
+        Table table = db.getTable(tableName);
+        IOStats loadStats = table.getAllocator().getIOStats();
+        assertTrue(loadStats.getHits() + loadStats.getMisses() < numRecords);
+        assertEquals(numRecords - 1, table.getNumRecords());
+        assertEquals(numRecords - 1, table.getStats().getNumRecords());
+        t1 = db.beginTransaction();
+        assertEquals(first, t1.addRecord(tableName, input.getValues()));
+        t1.end();
+
+        // Ending a transaction leaves the metadata stale on disk, and the
+        // table has to be rebuilt from its data pages.
+        Table reloaded = new Table(tableName, table.getFilename(), new DummyLockContext(),
+                                   new BufferManager(16), null);
+        loadStats = reloaded.getAllocator().getIOStats();
+        long staleLoadMisses = loadStats.getMisses();
+        reloaded.close();
+
+        // The table has been modified and not closed since, but its metadata
+        // was written back by the checkpoint, so a crash now loses nothing.
+        db.checkpoint();
+        reloaded = new Table(tableName, table.getFilename(), new DummyLockContext(),
+                                   new BufferManager(16), null);
+        loadStats = reloaded.getAllocator().getIOStats();
+        assertTrue(loadStats.getHits() + loadStats.getMisses() < numRecords);
+        long validLoadMisses = loadStats.getMisses();
+        assertTrue(staleLoadMisses >= validLoadMisses + table.getNumDataPages());
+        assertEquals(numRecords, reloaded.getNumRecords());
+        assertEquals(numRecords, reloaded.getStats().getNumRecords());
+        reloaded.close();
+
+        // Once the table is modified again, its metadata is stale on disk
+        // until the next checkpoint.
+        Database.Transaction t2 = db.beginTransaction();
+        t2.deleteRecord(tableName, first);
+        reloaded = new Table(tableName, table.getFilename(), new DummyLockContext(),
+                             new BufferManager(16), null);
+        loadStats = reloaded.getAllocator().getIOStats();
+        assertTrue(loadStats.getMisses() >= validLoadMisses + table.getNumDataPages());
+        reloaded.close();
+        t2.end();
+    }
+
+    @Test
+    public void testRecordIteratorReadsPagesInBatches() throws DatabaseException {
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        String tableName = "testTable1";
+
+        Database.Transaction t1 = db.beginTransaction();
+        t1.createTable(s, tableName);
+        Table table = db.getTable(tableName);
+        int numRecords = table.getNumRecordsPerPage() * 2 + 42;
+        List<RecordId> rids = new ArrayList<>();
+        for (int i = 0; i < numRecords; ++i) {
+            Record r = TestUtils.createRecordWithAllTypes();
+            r.getValues().set(1, new IntDataBox(i));
+            rids.add(t1.addRecord(tableName, r.getValues()));
+        }
+
+        // Delete every odd record, and every record of the second page.
+        int numPerPage = table.getNumRecordsPerPage();
+        for (int i = 0; i < numRecords; ++i) {
+            if (i % 2 == 1 || (i >= numPerPage && i < 2 * numPerPage)) {
+                t1.deleteRecord(tableName, rids.get(i));
+            }
+        }
+
+        RecordBatch batch = table.newBatch();
+        table.readBatch(t1, table.getAllocator().fetchPage(t1, rids.get(0).getPageNum()), batch);
+        assertEquals(numPerPage / 2, batch.size());
+        assertEquals(rids.get(2), batch.getRecordId(1));
+        assertEquals(2, batch.getRecord(1).getValues().get(1).getInt());
+
+        // The iterator skips the deleted records and the empty page, and can
+        // be reset across pages.
+        BacktrackingIterator<Record> iter = t1.getRecordIterator(tableName);
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < numRecords; i += 2) {
+            if (i < numPerPage || i >= 2 * numPerPage) {
+                expected.add(i);
+            }
+        }
+        int markAt = numPerPage / 2 - 1;
+        for (int i = 0; i < expected.size(); ++i) {
+            assertTrue(iter.hasNext());
+            assertEquals((int) expected.get(i), iter.next().getValues().get(1).getInt());
+            if (i == markAt) {
+                assertTrue(iter.hasNext());
+                iter.mark();
+            }
+        }
+        assertFalse(iter.hasNext());
+        iter.reset();
+        for (int i = markAt; i < expected.size(); ++i) {
+            assertEquals((int) expected.get(i), iter.next().getValues().get(1).getInt());
+        }
+        assertFalse(iter.hasNext());
+        t1.end();
+    }
+
+    @Test
+    public void testRidIteratorSkipsFreeSlotsAndResets() throws DatabaseException {
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        String tableName = "testTable1";
+
+        Database.Transaction t1 = db.beginTransaction();
+        t1.createTable(s, tableName);
+        Table table = db.getTable(tableName);
+        int numPerPage = table.getNumRecordsPerPage();
+        int numRecords = numPerPage * 3;
+        List<RecordId> rids = new ArrayList<>();
+        for (int i = 0; i < numRecords; ++i) {
+            rids.add(t1.addRecord(tableName, TestUtils.createRecordWithAllTypes().getValues()));
+        }
+
+        // Keep every third record of the first page, none of the second page,
+        // and all of the third.
+        List<RecordId> expected = new ArrayList<>();
+        for (int i = 0; i < numRecords; ++i) {
+            if (i >= 2 * numPerPage || (i < numPerPage && i % 3 == 0)) {
+                expected.add(rids.get(i));
+            } else {
+                t1.deleteRecord(tableName, rids.get(i));
+            }
+        }
+
+        // Mark the last record of the first page after hasNext() has moved on
+        // to the third page, then mark the same record again after a reset.
+        Table.TableIterator iter = table.ridIterator(t1);
+        int markAt = (numPerPage + 2) / 3 - 1;
+        for (int i = 0; i < expected.size(); ++i) {
+            assertEquals(expected.get(i), iter.next());
+            if (i == markAt) {
+                assertTrue(iter.hasNext());
+                iter.mark();
+            }
+        }
+        assertFalse(iter.hasNext());
+        for (int round = 0; round < 2; ++round) {
+            iter.reset();
+            assertEquals(expected.get(markAt), iter.next());
+            iter.mark();
+            for (int i = markAt + 1; i < expected.size(); ++i) {
+                assertEquals(expected.get(i), iter.next());
+            }
+            assertFalse(iter.hasNext());
+        }
+        t1.end();
+    }
+
+    @Test
+    public void testTableConcurrentAddAndDelete() throws Exception {
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        File file = tempFolder.newFile("concurrentTable" + Table.FILENAME_EXTENSION);
+        Table table = new Table("concurrentTable", s, file.getAbsolutePath(),
+                                new DummyLockContext(), null);
+        int numThreads = 4;
+        int numPerThread = table.getNumRecordsPerPage() * 3 + 7;
+
+        // Every thread adds its own records, then deletes every other one.
+        List<List<RecordId>> rids = new ArrayList<>();
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; ++t) {
+            List<RecordId> added = new ArrayList<>();
+            rids.add(added);
+            int first = t * numPerThread;
+            threads[t] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < numPerThread; ++i) {
+                        Record r = TestUtils.createRecordWithAllTypes();
+                        r.getValues().set(1, new IntDataBox(first + i));
+                        added.add(table.addRecord(null, r.getValues()));
+                    }
+                    for (int i = 0; i < numPerThread; i += 2) {
+                        table.deleteRecord(null, added.get(i));
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+
+        // No two records were given the same slot.
+        int numLeft = numThreads * (numPerThread / 2);
+        assertEquals(numLeft, table.getNumRecords());
+        assertEquals(numLeft, table.getStats().getNumRecords());
+        for (int t = 0; t < numThreads; ++t) {
+            for (int i = 1; i < numPerThread; i += 2) {
+                Record r = table.getRecord(null, rids.get(t).get(i));
+                assertEquals(t * numPerThread + i, r.getValues().get(1).getInt());
+            }
+        }
+        int numScanned = 0;
+        for (Iterator<Record> iter = table.iterator(null); iter.hasNext(); iter.next()) {
+            numScanned++;
+        }
+        assertEquals(numLeft, numScanned);
+        table.close();
+    }
+
+    @Test
+    public void testAddRecordsMaintainsIndexes() throws DatabaseException {
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        String tableName = "testTable1";
+
+        Database.Transaction t1 = db.beginTransaction();
+        t1.createTableWithIndices(s, tableName, Collections.singletonList("int"));
+        Table table = db.getTable(tableName);
+        int numRecords = table.getNumRecordsPerPage() * 2 + 42;
+
+        // Add the even keys in descending order, then the odd ones: the first
+        // batch is bulk loaded into the empty index, the second one is put.
+        List<List<DataBox>> rows = new ArrayList<>();
+        for (int i = numRecords - 1; i >= 0; --i) {
+            Record r = TestUtils.createRecordWithAllTypes();
+            r.getValues().set(1, new IntDataBox(i));
+            rows.add(r.getValues());
+        }
+        List<List<DataBox>> evens = new ArrayList<>();
+        List<List<DataBox>> odds = new ArrayList<>();
+        for (List<DataBox> row : rows) {
+            (row.get(1).getInt() % 2 == 0 ? evens : odds).add(row);
+        }
+        List<RecordId> rids = new ArrayList<>(t1.addRecords(tableName, evens.iterator()));
+        rids.addAll(t1.addRecords(tableName, odds.iterator()));
+        List<List<DataBox>> added = new ArrayList<>(evens);
+        added.addAll(odds);
+
+        assertEquals(numRecords, rids.size());
+        assertEquals(numRecords, table.getNumRecords());
+        assertEquals(numRecords, table.getStats().getNumRecords());
+        assertEquals(3, table.getNumDataPages());
+        for (int i = 0; i < numRecords; ++i) {
+            assertEquals(added.get(i), t1.getRecord(tableName, rids.get(i)).getValues());
+        }
+        Iterator<Record> sorted = t1.sortedScan(tableName, "int");
+        for (int i = 0; i < numRecords; ++i) {
+            assertEquals(i, sorted.next().getValues().get(1).getInt());
+        }
+        assertFalse(sorted.hasNext());
+
+        // Batches with a key already in the index, repeated in the batch, or an
+        // invalid row are rejected as a whole.
+        Record fresh = TestUtils.createRecordWithAllTypes();
+        fresh.getValues().set(1, new IntDataBox(numRecords));
+        List<DataBox> invalid = Collections.singletonList(new IntDataBox(numRecords + 1));
+        List<List<List<DataBox>>> rejected = Arrays.asList(
+            Arrays.asList(fresh.getValues(), rows.get(0)),
+            Arrays.asList(fresh.getValues(), fresh.getValues()),
+            Arrays.asList(fresh.getValues(), invalid));
+        for (List<List<DataBox>> batch : rejected) {
+            try {
+                t1.addRecords(tableName, batch.iterator());
+                fail();
+            } catch (DatabaseException e) {
+                /* do nothing */
+            }
+            assertEquals(numRecords, table.getNumRecords());
+            int numScanned = 0;
+            for (Iterator<Record> iter = t1.getRecordIterator(tableName); iter.hasNext(); iter.next()) {
+                numScanned++;
+            }
+            assertEquals(numRecords, numScanned);
+            assertFalse(t1.contains(tableName, "int", new IntDataBox(numRecords)));
+        }
+        t1.end();
+    }
+
+    @Test
+    public void testAddRecordsIsAtomicWithoutIndexes() throws DatabaseException {
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        String tableName = "testTable1";
+
+        Database.Transaction t1 = db.beginTransaction();
+        t1.createTable(s, tableName);
+        Table table = db.getTable(tableName);
+
+        // A bad row rejects the rows before it too, even pages worth of them.
+        List<List<DataBox>> rows = new ArrayList<>();
+        for (int i = 0; i < table.getNumRecordsPerPage() * 2 + 1; ++i) {
+            rows.add(TestUtils.createRecordWithAllTypes().getValues());
+        }
+        rows.add(Collections.singletonList(new IntDataBox(0)));
+        try {
+            t1.addRecords(tableName, rows.iterator());
+            fail();
+        } catch (DatabaseException e) {
+            /* do nothing */
+        }
+        assertEquals(0, table.getNumRecords());
+        assertEquals(0, table.getStats().getNumRecords());
+        assertFalse(t1.getRecordIterator(tableName).hasNext());
+        t1.end();
+    }
+
+    @Test
+    public void testSlottedTable() throws DatabaseException {
+        Schema s = new Schema(Arrays.asList("id", "name"),
+                              Arrays.asList(Type.intType(), Type.stringType(256)));
+        String tableName = "testTable1";
+        String longName = String.format("%0200d", 0);
+
+        Database.Transaction t1 = db.beginTransaction();
+        t1.createTable(s, tableName, Table.Layout.SLOTTED);
+        Table table = db.getTable(tableName);
+        assertEquals(Table.Layout.SLOTTED, table.getLayout());
+
+        // Short strings take far less room than their declared length.
+        int numRecords = 500;
+        List<List<DataBox>> rows = new ArrayList<>();
+        List<RecordId> rids = new ArrayList<>();
+        for (int i = 0; i < numRecords; ++i) {
+            rows.add(Arrays.asList(new IntDataBox(i), new StringDataBox("name" + i, 256)));
+            rids.add(t1.addRecord(tableName, rows.get(i)));
+        }
+        int numFixedPages = numRecords / Table.computeNumRecordsPerPage(4096, s);
+        assertTrue(table.getNumDataPages() * 10 < numFixedPages);
+        for (int i = 0; i < numRecords; ++i) {
+            assertEquals(rows.get(i), t1.getRecord(tableName, rids.get(i)).getValues());
+        }
+
+        // Deleting short records and adding long ones reuses their slots,
+        // compacting the page to make room.
+        for (int i = 0; i < 100; ++i) {
+            t1.deleteRecord(tableName, rids.get(2 * i));
+            rows.set(2 * i, null);
+        }
+        for (int i = 0; i < 5; ++i) {
+            List<DataBox> row = Arrays.asList(new IntDataBox(-i), new StringDataBox(longName, 256));
+            RecordId rid = t1.addRecord(tableName, row);
+            assertEquals(rids.get(2 * i), rid);
+            rows.set(2 * i, row);
+        }
+
+        // Records can grow in place of others.
+        List<DataBox> grown = Arrays.asList(new IntDataBox(1), new StringDataBox(longName, 256));
+        t1.updateRecord(tableName, grown, rids.get(1));
+        rows.set(1, grown);
+
+        for (int i = 0; i < numRecords; ++i) {
+            if (rows.get(i) != null) {
+                assertEquals(rows.get(i), t1.getRecord(tableName, rids.get(i)).getValues());
+            }
+        }
+        t1.end();
+        db.close();
+
+        db = new Database(this.filename);
+        assertEquals(Table.Layout.SLOTTED, db.getTable(tableName).getLayout());
+        t1 = db.beginTransaction();
+        int numRead = 0;
+        Iterator<Record> records = t1.getRecordIterator(tableName);
+        while (records.hasNext()) {
+            records.next();
+            numRead++;
+        }
+        assertEquals(numRecords - 95, numRead);
+        for (int i = 0; i < numRecords; ++i) {
+            if (rows.get(i) != null) {
+                assertEquals(rows.get(i), t1.getRecord(tableName, rids.get(i)).getValues());
+            }
+        }
+        t1.end();
+    }
+
+    @Test
+    public void testProjectedScans() throws Exception {
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        Database.Transaction t1 = db.beginTransaction();
+        for (Table.Layout layout : Table.Layout.values()) {
+            String tableName = "testTable" + layout;
+            t1.createTable(s, tableName, layout);
+            Table table = db.getTable(tableName);
+            assertEquals(layout, table.getLayout());
+            int numRecords = table.getNumRecordsPerPage() * 2 + 5;
+            List<RecordId> rids = new ArrayList<>();
+            for (int i = 0; i < numRecords; ++i) {
+                Record r = TestUtils.createRecordWithAllTypes();
+                r.getValues().set(1, new IntDataBox(i));
+                r.getValues().set(3, new FloatDataBox(i));
+                rids.add(t1.addRecord(tableName, r.getValues()));
+            }
+            Record updated = TestUtils.createRecordWithAllTypes();
+            updated.getValues().set(1, new IntDataBox(-1));
+            updated.getValues().set(3, new FloatDataBox(-1));
+            t1.updateRecord(tableName, updated.getValues(), rids.get(1));
+            assertEquals(updated, t1.getRecord(tableName, rids.get(1)));
+            t1.deleteRecord(tableName, rids.get(0));
+
+            // Only the requested columns are returned, in the requested order.
+            Iterator<Record> records = t1.getRecordIterator(tableName, Arrays.asList(3, 1));
+            for (int i = 1; i < numRecords; ++i) {
+                float f = i == 1 ? -1 : i;
+                List<DataBox> expected = Arrays.asList(new FloatDataBox(f), new IntDataBox((int) f));
+                assertEquals(expected, records.next().getValues());
+            }
+            assertFalse(records.hasNext());
+
+            try {
+                t1.getRecordIterator(tableName, Arrays.asList(4));
+                fail();
+            } catch (DatabaseException e) {
+                /* do nothing */
+            }
+        }
+
+        // The columns the query needs are pushed down into the table scan.
+        String tableName = "testTable" + Table.Layout.COLUMNAR;
+        QueryPlan query = t1.query(tableName);
+        query.select("float", QueryPlan.PredicateOperator.LESS_THAN, new FloatDataBox(10));
+        query.project(Arrays.asList("int"));
+        Iterator<Record> results = query.execute();
+        assertEquals(Arrays.asList(new IntDataBox(-1)), results.next().getValues());
+        for (int i = 2; i < 10; ++i) {
+            assertEquals(Arrays.asList(new IntDataBox(i)), results.next().getValues());
+        }
+        assertFalse(results.hasNext());
+        QueryOperator scan = query.getFinalOperator();
+        while (scan.getSource() != null) {
+            scan = scan.getSource();
+        }
+        assertEquals(Arrays.asList(1, 3), ((SequentialScanOperator) scan).getColumns());
+
+        // The statistics of the scan are projected to the same columns.
+        TableStats stats = ((SequentialScanOperator) scan).estimateStats();
+        assertEquals(scan.getOutputSchema(), stats.getSchema());
+        assertEquals(2, stats.getHistograms().size());
+        assertEquals(t1.getStats(tableName).getHistograms().get(3), stats.getHistograms().get(1));
+
+        // A count does not need any column at all.
+        query = t1.query(tableName);
+        query.count();
+        results = query.execute();
+        int numRecords = db.getTable(tableName).getNumRecordsPerPage() * 2 + 4;
+        assertEquals(Arrays.asList(new IntDataBox(numRecords)), results.next().getValues());
+        t1.end();
+    }
+
+    @Test
+    public void testVacuum() throws DatabaseException {
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        String tableName = "testTable1";
+
+        Database.Transaction t1 = db.beginTransaction();
+        t1.createTableWithIndices(s, tableName, Collections.singletonList("int"));
+        Table table = db.getTable(tableName);
+        int numRecords = table.getNumRecordsPerPage() * 4;
+        List<RecordId> rids = new ArrayList<>();
+        for (int i = 0; i < numRecords; ++i) {
+            Record r = TestUtils.createRecordWithAllTypes();
+            r.getValues().set(1, new IntDataBox(i));
+            rids.add(t1.addRecord(tableName, r.getValues()));
+        }
+        // Leave every page a quarter full.
+        for (int i = 0; i < numRecords; ++i) {
+            if (i % 4 != 0) {
+                t1.deleteRecord(tableName, rids.get(i));
+            }
+        }
+        t1.end();
+
+        // cleanup only frees empty pages.
+        t1 = db.beginTransaction();
+        table.cleanup(t1);
+        assertEquals(4, table.getNumDataPages());
+        assertEquals(numRecords / 4, table.getNumRecords());
+        t1.end();
+
+        t1 = db.beginTransaction();
+        assertEquals(numRecords / 4 / 4 * 3, t1.vacuum(tableName));
+        assertEquals(1, table.getNumDataPages());
+        assertEquals(numRecords / 4, table.getNumRecords());
+
+        // The index points at the records' new locations.
+        Iterator<Record> sorted = t1.sortedScan(tableName, "int");
+        for (int i = 0; i < numRecords; i += 4) {
+            assertEquals(i, sorted.next().getValues().get(1).getInt());
+        }
+        assertFalse(sorted.hasNext());
+        for (int i = 0; i < numRecords; ++i) {
+            Iterator<Record> found = t1.lookupKey(tableName, "int", new IntDataBox(i));
+            assertEquals(i % 4 == 0, found.hasNext());
+            if (i % 4 == 0) {
+                assertEquals(i, found.next().getValues().get(1).getInt());
+            }
+        }
+        int numScanned = 0;
+        Iterator<Record> records = t1.getRecordIterator(tableName);
+        while (records.hasNext()) {
+            assertEquals(0, records.next().getValues().get(1).getInt() % 4);
+            numScanned++;
+        }
+        assertEquals(numRecords / 4, numScanned);
+
+        // Vacuuming a dense table moves nothing.
+        assertEquals(0, t1.vacuum(tableName));
+        t1.end();
+    }
+
+    @Test
+    public void testDictionaryTable() throws DatabaseException, QueryPlanException {
+        Schema s = new Schema(Arrays.asList("id", "region", "tag"),
+                              Arrays.asList(Type.intType(), Type.stringType(20), Type.stringType(3)));
+        String tableName = "testTable1";
+
+        Database.Transaction t1 = db.beginTransaction();
+        t1.createTable(s, tableName, Table.Layout.DICTIONARY);
+        Table table = db.getTable(tableName);
+        assertEquals(Table.Layout.DICTIONARY, table.getLayout());
+
+        // Regions take 4 bytes instead of 20.
+        int numRecords = 1000;
+        List<List<DataBox>> rows = new ArrayList<>();
+        List<RecordId> rids = new ArrayList<>();
+        for (int i = 0; i < numRecords; ++i) {
+            rows.add(Arrays.asList(new IntDataBox(i), new StringDataBox("region" + i % 5, 20),
+                                   new StringDataBox("t" + i % 7, 3)));
+            rids.add(t1.addRecord(tableName, rows.get(i)));
+        }
+        assertTrue(table.getNumRecordsPerPage() > 2 * Table.computeNumRecordsPerPage(4096, s));
+
+        List<DataBox> updated = Arrays.asList(new IntDataBox(-1), new StringDataBox("north", 20),
+                                              new StringDataBox("t0", 3));
+        t1.updateRecord(tableName, updated, rids.get(3));
+        rows.set(3, updated);
+        for (int i = 0; i < numRecords; ++i) {
+            assertEquals(rows.get(i), t1.getRecord(tableName, rids.get(i)).getValues());
+        }
+
+        // Equalities on regions are tested on their codes.
+        Iterator<Record> records = t1.getRecordIterator(tableName, Arrays.asList(0), null,
+                                   Arrays.asList(1), Arrays.asList(new StringDataBox("region3", 20)));
+        for (int i = 8; i < numRecords; i += 5) {
+            assertEquals(Arrays.asList(new IntDataBox(i)), records.next().getValues());
+        }
+        assertFalse(records.hasNext());
+        records = t1.getRecordIterator(tableName, null, null, Arrays.asList(1),
+                                       Arrays.asList(new StringDataBox("south", 20)));
+        assertFalse(records.hasNext());
+
+        QueryPlan query = t1.query(tableName);
+        query.select("region", QueryPlan.PredicateOperator.EQUALS, new StringDataBox("region3", 20));
+        query.select("tag", QueryPlan.PredicateOperator.EQUALS, new StringDataBox("t1", 3));
+        query.count();
+        Iterator<Record> results = query.execute();
+        assertEquals(Arrays.asList(new IntDataBox(29)), results.next().getValues());
+        t1.end();
+        db.close();
+
+        // The dictionary is loaded back with the table.
+        db = new Database(this.filename);
+        t1 = db.beginTransaction();
+        table = db.getTable(tableName);
+        assertEquals(Table.Layout.DICTIONARY, table.getLayout());
+        for (int i = 0; i < numRecords; ++i) {
+            assertEquals(rows.get(i), t1.getRecord(tableName, rids.get(i)).getValues());
+        }
+
+        // Strings which do not fit on the header page go to overflow pages.
+        int numAdded = 1000;
+        for (int i = 0; i < numAdded; ++i) {
+            t1.addRecord(tableName, Arrays.asList(new IntDataBox(numRecords + i),
+                                                  new StringDataBox("r" + i, 20),
+                                                  new StringDataBox("t0", 3)));
+        }
+        assertEquals(numRecords + numAdded, table.getNumRecords());
+        t1.end();
+        db.close();
+
+        db = new Database(this.filename);
+        t1 = db.beginTransaction();
+        for (int i : new int[] {0, numAdded - 1}) {
+            records = t1.getRecordIterator(tableName, null, null, Arrays.asList(1),
+                                           Arrays.asList(new StringDataBox("r" + i, 20)));
+            assertEquals(new IntDataBox(numRecords + i), records.next().getValues().get(0));
+            assertFalse(records.hasNext());
+        }
+        assertEquals(numRecords + numAdded, db.getTable(tableName).getNumRecords());
+        t1.end();
+    }
+
+    @Test
+    public void testZoneMapsSkipPages() throws DatabaseException, QueryPlanException {
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        String tableName = "testTable1";
+
+        Database.Transaction t1 = db.beginTransaction();
+        t1.createTable(s, tableName);
+        Table table = db.getTable(tableName);
+        int numRecords = table.getNumRecordsPerPage() * 8;
+        List<RecordId> rids = new ArrayList<>();
+        for (int i = 0; i < numRecords; ++i) {
+            Record r = TestUtils.createRecordWithAllTypes();
+            r.getValues().set(1, new IntDataBox(i));
+            rids.add(t1.addRecord(tableName, r.getValues()));
+        }
+        ZoneMap zoneMap = table.getZoneMap(rids.get(0).getPageNum());
+        assertEquals(new IntDataBox(0), zoneMap.getMin(1));
+        assertEquals(new IntDataBox(table.getNumRecordsPerPage() - 1), zoneMap.getMax(1));
+
+        // Only the first of the 8 pages can hold records with int < 10. Hits
+        // and misses count page references, so a full scan makes about one
+        // per page.
+        IOStats ioStats = table.getAllocator().getIOStats();
+        long pins = ioStats.getHits() + ioStats.getMisses();
+        assertEquals(numRecords, countLessThan(t1, tableName, numRecords));
+        long fullScanPins = ioStats.getHits() + ioStats.getMisses() - pins;
+        pins = ioStats.getHits() + ioStats.getMisses();
+        assertEquals(10, countLessThan(t1, tableName, 10));
+        assertTrue(ioStats.getHits() + ioStats.getMisses() - pins < fullScanPins / 2);
+
+        // Updates widen the zone map of their page, deletes leave it as is.
+        Record r = TestUtils.createRecordWithAllTypes();
+        r.getValues().set(1, new IntDataBox(-1));
+        t1.updateRecord(tableName, r.getValues(), rids.get(numRecords - 1));
+        t1.deleteRecord(tableName, rids.get(0));
+        assertEquals(10, countLessThan(t1, tableName, 10));
+        t1.end();
+        db.close();
+
+        // Zone maps are saved with the table's metadata, so the first scan
+        // after the table is loaded already skips pages.
+        db = new Database(this.filename);
+        t1 = db.beginTransaction();
+        table = db.getTable(tableName);
+        zoneMap = table.getZoneMap(rids.get(numRecords - 1).getPageNum());
+        assertEquals(new IntDataBox(-1), zoneMap.getMin(1));
+        assertEquals(new IntDataBox(numRecords - 1), zoneMap.getMax(1));
+        assertEquals(new StringDataBox("abcde", 5), zoneMap.getMax(2));
+        ioStats = table.getAllocator().getIOStats();
+        pins = ioStats.getHits() + ioStats.getMisses();
+        assertEquals(10, countLessThan(t1, tableName, 10));
+        assertTrue(ioStats.getHits() + ioStats.getMisses() - pins < fullScanPins / 2);
+        t1.end();
+    }
+
+    @Test
+    public void testZoneMapsCompareLikeSelects() throws DatabaseException, QueryPlanException {
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        String tableName = "testTable1";
+
+        Database.Transaction t1 = db.beginTransaction();
+        t1.createTable(s, tableName);
+        for (int i = 0; i < 10; ++i) {
+            Record r = TestUtils.createRecordWithAllTypes();
+            r.getValues().set(3, new FloatDataBox(0.0f));
+            t1.addRecord(tableName, r.getValues());
+        }
+
+        // A value of another type than the column equals none of its values,
+        // and differs from all of them.
+        QueryPlan query = t1.query(tableName);
+        query.select("int", QueryPlan.PredicateOperator.EQUALS, new FloatDataBox(1f));
+        assertFalse(query.execute().hasNext());
+        query = t1.query(tableName);
+        query.select("int", QueryPlan.PredicateOperator.NOT_EQUALS, new FloatDataBox(1f));
+        assertEquals(10, count(query.execute()));
+
+        // -0.0 equals 0.0.
+        query = t1.query(tableName);
+        query.select("float", QueryPlan.PredicateOperator.EQUALS, new FloatDataBox(-0.0f));
+        assertEquals(10, count(query.execute()));
+        query = t1.query(tableName);
+        query.select("float", QueryPlan.PredicateOperator.GREATER_THAN_EQUALS, new FloatDataBox(-0.0f));
+        assertEquals(10, count(query.execute()));
+        query = t1.query(tableName);
+        query.select("float", QueryPlan.PredicateOperator.GREATER_THAN, new FloatDataBox(-0.0f));
+        assertEquals(0, count(query.execute()));
+        t1.end();
+    }
+
+    private static int count(Iterator<Record> records) {
+        int count = 0;
+        while (records.hasNext()) {
+            records.next();
+            count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void testZoneMapsSkipPagesWithReadAhead() throws DatabaseException, QueryPlanException {
+        // A buffer pool too small for the table, so that scans read its pages
+        // from disk, with read-ahead on.
+        db.close();
+        BufferManager bufferManager = new BufferManager(64);
+        db = new Database(this.filename, 5, new DummyLockManager(), bufferManager);
+        assertTrue(bufferManager.getReadAhead() > 0);
+
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        String tableName = "testTable1";
+
+        Database.Transaction t1 = db.beginTransaction();
+        t1.createTable(s, tableName);
+        Table table = db.getTable(tableName);
+        int numPages = 100;
+        int numRecords = table.getNumRecordsPerPage() * numPages;
+        for (int i = 0; i < numRecords; ++i) {
+            Record r = TestUtils.createRecordWithAllTypes();
+            r.getValues().set(1, new IntDataBox(i));
+            t1.addRecord(tableName, r.getValues());
+        }
+
+        IOStats ioStats = table.getAllocator().getIOStats();
+        long misses = ioStats.getMisses();
+        assertEquals(numRecords, countLessThan(t1, tableName, numRecords));
+        assertTrue(ioStats.getMisses() - misses > numPages / 2);
+
+        // Only the first page can hold records with int < 10, and the pages
+        // ruled out are not read ahead either.
+        misses = ioStats.getMisses();
+        long bytesRead = ioStats.getBytesRead();
+        assertEquals(10, countLessThan(t1, tableName, 10));
+        assertTrue(ioStats.getMisses() - misses <= 2);
+        assertTrue(ioStats.getBytesRead() - bytesRead <= 2 * Page.pageSize);
+        t1.end();
+    }
+
+    @Test
+    public void testBatchExecution() throws DatabaseException, QueryPlanException {
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        String tableName = "testTable1";
+
+        Database.Transaction t1 = db.beginTransaction();
+        t1.createTable(s, tableName);
+        int numRecords = 3000;
+        for (int i = 0; i < numRecords; ++i) {
+            t1.addRecord(tableName, TestUtils.createRecordWithAllTypesWithValue(i).getValues());
+        }
+
+        // The scan refills a single batch from the pages of the table.
+        QueryOperator scan = new SequentialScanOperator(t1, tableName);
+        Iterator<ColumnBatch> scanBatches = scan.executeBatches();
+        ColumnBatch first = scanBatches.next();
+        Record row = first.getRecord(0);
+        int scanned = first.size();
+        while (scanBatches.hasNext()) {
+            ColumnBatch batch = scanBatches.next();
+            assertSame(first, batch);
+            scanned += batch.size();
+        }
+        assertEquals(numRecords, scanned);
+        // Rows are copied out of the batch, so they outlive it.
+        assertEquals(TestUtils.createRecordWithAllTypesWithValue(0), row);
+
+        // Selects narrow the selection vectors of the batches of the scan.
+        scan = new SequentialScanOperator(t1, tableName);
+        QueryOperator select = new SelectOperator(scan, "string", QueryPlan.PredicateOperator.GREATER_THAN_EQUALS,
+                                                  new StringDataBox("01000", 5));
+        select = new SelectOperator(select, "float", QueryPlan.PredicateOperator.LESS_THAN,
+                                    new FloatDataBox(2500f));
+        Iterator<ColumnBatch> batches = select.executeBatches();
+        int expected = 1000;
+        while (batches.hasNext()) {
+            ColumnBatch batch = batches.next();
+            assertTrue(batch.size() > 0 && batch.size() <= ColumnBatch.CAPACITY);
+            int[] ints = batch.getInts(1);
+            for (int i = 0; i < batch.size(); ++i) {
+                assertEquals(expected++, ints[batch.getSelection()[i]]);
+            }
+        }
+        assertEquals(2500, expected);
+
+        // Projections only pick columns; the row iterator unpacks the batches.
+        QueryOperator project = new ProjectOperator(select, new ArrayList<>(Arrays.asList("string", "int")),
+                                                    false, null, null);
+        Iterator<Record> records = project.execute();
+        for (int i = 1000; i < 2500; ++i) {
+            assertEquals(new Record(Arrays.asList(new StringDataBox(String.format("%05d", i), 5),
+                                                  new IntDataBox(i))),
+                         records.next());
+        }
+        assertFalse(records.hasNext());
+
+        // Aggregates are computed a batch at a time.
+        select = new SelectOperator(new SequentialScanOperator(t1, tableName), "int",
+                                    QueryPlan.PredicateOperator.LESS_THAN, new IntDataBox(2000));
+        project = new ProjectOperator(select, new ArrayList<>(), true, "int", "int");
+        records = project.execute();
+        assertEquals(new Record(Arrays.asList(new IntDataBox(2000), new IntDataBox(1999 * 1000),
+                                              new FloatDataBox(999.5f))),
+                     records.next());
+        assertFalse(records.hasNext());
+
+        // An aggregate over no rows has no result.
+        select = new SelectOperator(new SequentialScanOperator(t1, tableName), "int",
+                                    QueryPlan.PredicateOperator.LESS_THAN, new IntDataBox(0));
+        project = new ProjectOperator(select, new ArrayList<>(), true, null, null);
+        assertFalse(project.execute().hasNext());
+        t1.end();
+    }
+
+    private static int countLessThan(Database.Transaction transaction, String tableName,
+                                     int value) throws DatabaseException, QueryPlanException {
+        QueryPlan query = transaction.query(tableName);
+        query.select("int", QueryPlan.PredicateOperator.LESS_THAN, new IntDataBox(value));
+        Iterator<Record> records = query.execute();
+        int count = 0;
+        while (records.hasNext()) {
+            assertTrue(records.next().getValues().get(1).getInt() < value);
+            count++;
+        }
+        return count;
+    }
 }
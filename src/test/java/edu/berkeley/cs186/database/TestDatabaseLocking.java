@@ -210,6 +210,48 @@ public class TestDatabaseLocking {
                      ), lockManager.log);
     }
 
+    @Test
+    public void testConcurrentRecordWrites() throws DatabaseException {
+        String tableName = "testTable1";
+        List<RecordId> rids = createTable(tableName, 1);
+        Record input = TestUtils.createRecordWithAllTypes();
+        List<DataBox> values = input.getValues();
+
+        BaseTransaction t0 = db.beginTransaction();
+        t0.deleteRecord(tableName, rids.get(0));
+        t0.deleteRecord(tableName, rids.get(1));
+        t0.end();
+
+        // The second transaction does not wait for the first one's lock on
+        // the only free page, and appends to a new page instead.
+        lockManager.startLog();
+        BaseTransaction t1 = db.beginTransaction();
+        BaseTransaction t2 = db.beginTransaction();
+        assertEquals(1, t1.addRecord(tableName, values).getPageNum());
+        assertEquals(2, t2.addRecord(tableName, values).getPageNum());
+        assertFalse(t1.getBlocked());
+        assertFalse(t2.getBlocked());
+        assertEquals(Arrays.asList(
+                         "acquire 3 database IX",
+                         "acquire 3 database/table-testTable1 IX",
+                         "acquire 3 database/table-testTable1/1 X",
+                         "acquire 4 database IX",
+                         "acquire 4 database/table-testTable1 IX",
+                         "acquire 4 database/table-testTable1/-1 X",
+                         "acquire 4 database/table-testTable1/2 X",
+                         "set-capacity database/table-testTable1 3"
+                     ), lockManager.log);
+        lockManager.endLog();
+
+        // Once the first one is done, its page is used again.
+        t1.end();
+        BaseTransaction t3 = db.beginTransaction();
+        assertEquals(1, t3.addRecord(tableName, values).getPageNum());
+        assertFalse(t3.getBlocked());
+        t2.end();
+        t3.end();
+    }
+
     @Test
     public void testRecordUpdate() throws DatabaseException {
         String tableName = "testTable1";
@@ -19,6 +19,8 @@ import java.util.List;
 
 import edu.berkeley.cs186.database.databox.FloatDataBox;
 import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.io.IOStats;
+import edu.berkeley.cs186.database.query.QueryPlan.PredicateOperator;
 import edu.berkeley.cs186.database.query.QueryPlan;
 import edu.berkeley.cs186.database.query.QueryPlanException;
 import edu.berkeley.cs186.database.table.Record;
@@ -76,6 +78,24 @@ public class TestDatabaseQueries {
         assertEquals(1000, count);
     }
 
+    @Test
+    public void testQueryIOStats() throws DatabaseException, QueryPlanException {
+        this.transaction.queryAs("Students", "S");
+        QueryPlan queryPlan = this.transaction.query("S");
+        queryPlan.select("S.major", PredicateOperator.EQUALS, new StringDataBox("Chemistry", 20));
+
+        Iterator<Record> recordIterator = queryPlan.execute();
+        while (recordIterator.hasNext()) {
+            recordIterator.next();
+        }
+
+        IOStats operatorStats = queryPlan.getFinalOperator().getIOStats();
+        IOStats transactionStats = this.transaction.getIOStats();
+        long operatorPins = operatorStats.getHits() + operatorStats.getMisses();
+        assertTrue(operatorPins > 0);
+        assertTrue(transactionStats.getHits() + transactionStats.getMisses() >= operatorPins);
+    }
+
     private static void createSchemas() throws DatabaseException {
         List<String> studentSchemaNames = new ArrayList<String>();
         studentSchemaNames.add("sid");
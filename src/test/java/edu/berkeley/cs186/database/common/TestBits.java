@@ -3,6 +3,8 @@ package edu.berkeley.cs186.database.common;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
+import java.util.Arrays;
+
 import org.junit.Test;
 
 public class TestBits {
@@ -137,4 +139,57 @@ public class TestBits {
             assertEquals(1, buf.position());
         }
     }
+
+    @Test
+    public void testGetBitOnBuffer() {
+        byte[] bytes = {0b00000000, 0b01101011, 0b01001101};
+        Buffer buf = ByteBuffer.wrap(bytes);
+        buf.position(1);
+        assertEquals(Bits.Bit.ZERO, Bits.getBit(buf, 0));
+        assertEquals(Bits.Bit.ONE, Bits.getBit(buf, 1));
+        assertEquals(Bits.Bit.ONE, Bits.getBit(buf, 7));
+        assertEquals(Bits.Bit.ONE, Bits.getBit(buf, 9));
+        assertEquals(Bits.Bit.ZERO, Bits.getBit(buf, 14));
+        assertEquals(Bits.Bit.ONE, Bits.getBit(buf, 15));
+        assertEquals(1, buf.position());
+    }
+
+    @Test
+    public void testCountOnes() {
+        byte[] bytes = {0b01101011, 0b01000000};
+        assertEquals(6, Bits.countOnes(bytes, 16));
+        assertEquals(5, Bits.countOnes(bytes, 8));
+        assertEquals(2, Bits.countOnes(bytes, 4));
+        assertEquals(0, Bits.countOnes(bytes, 0));
+
+        // Bitmaps spanning several words, with and without a partial last word.
+        byte[] full = new byte[20];
+        Arrays.fill(full, (byte) 0xFF);
+        assertEquals(160, Bits.countOnes(full, 160));
+        assertEquals(130, Bits.countOnes(full, 130));
+        assertEquals(64, Bits.countOnes(full, 64));
+    }
+
+    @Test
+    public void testIndexOf() {
+        byte[] bytes = {(byte) 0b11101000};
+        assertEquals(3, Bits.indexOf(bytes, Bits.Bit.ZERO, 0, 8));
+        assertEquals(0, Bits.indexOf(bytes, Bits.Bit.ONE, 0, 8));
+        assertEquals(4, Bits.indexOf(bytes, Bits.Bit.ONE, 3, 8));
+        assertEquals(-1, Bits.indexOf(bytes, Bits.Bit.ONE, 5, 8));
+        assertEquals(-1, Bits.indexOf(bytes, Bits.Bit.ZERO, 0, 3));
+        assertEquals(-1, Bits.indexOf(bytes, Bits.Bit.ONE, 8, 8));
+
+        // Searches crossing word boundaries and stopping before the padding.
+        byte[] bitmap = new byte[20];
+        Arrays.fill(bitmap, (byte) 0xFF);
+        assertEquals(-1, Bits.indexOf(bitmap, Bits.Bit.ZERO, 0, 160));
+        bitmap[17] = (byte) 0b11111011;
+        assertEquals(141, Bits.indexOf(bitmap, Bits.Bit.ZERO, 0, 160));
+        assertEquals(141, Bits.indexOf(bitmap, Bits.Bit.ZERO, 70, 160));
+        assertEquals(-1, Bits.indexOf(bitmap, Bits.Bit.ZERO, 142, 160));
+        assertEquals(-1, Bits.indexOf(bitmap, Bits.Bit.ZERO, 0, 141));
+        assertEquals(-1, Bits.indexOf(new byte[20], Bits.Bit.ONE, 0, 160));
+        assertEquals(64, Bits.indexOf(new byte[20], Bits.Bit.ZERO, 64, 160));
+    }
 }
@@ -2,6 +2,7 @@ package edu.berkeley.cs186.database.concurrency;
 
 import java.util.Iterator;
 import java.util.List;
+import java.util.function.Predicate;
 
 import edu.berkeley.cs186.database.BaseTransaction;
 import edu.berkeley.cs186.database.DatabaseException;
@@ -13,9 +14,10 @@ import edu.berkeley.cs186.database.io.PageAllocator.PageIterator;
 import edu.berkeley.cs186.database.query.QueryPlan;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.RecordId;
-import edu.berkeley.cs186.database.table.RecordIterator;
 import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.Table;
 import edu.berkeley.cs186.database.table.stats.TableStats;
+import edu.berkeley.cs186.database.table.stats.ZoneMap;
 
 /**
  * A dummy transaction class that only supports checking/setting active/blocked
@@ -51,6 +53,11 @@ public class DummyTransaction implements BaseTransaction {
         throw new UnsupportedOperationException("dummy transaction cannot do this");
     }
 
+    public void createTable(Schema s, String tableName,
+                            Table.Layout layout) throws DatabaseException {
+        throw new UnsupportedOperationException("dummy transaction cannot do this");
+    }
+
     public void createTableWithIndices(Schema s, String tableName,
                                        List<String> indexColumns) throws DatabaseException {
         throw new UnsupportedOperationException("dummy transaction cannot do this");
@@ -106,6 +113,11 @@ public class DummyTransaction implements BaseTransaction {
         throw new UnsupportedOperationException("dummy transaction cannot do this");
     }
 
+    public List<RecordId> addRecords(String tableName,
+                                     Iterator<List<DataBox>> values) throws DatabaseException {
+        throw new UnsupportedOperationException("dummy transaction cannot do this");
+    }
+
     public int getNumMemoryPages() throws DatabaseException {
         throw new UnsupportedOperationException("dummy transaction cannot do this");
     }
@@ -114,11 +126,25 @@ public class DummyTransaction implements BaseTransaction {
         throw new UnsupportedOperationException("dummy transaction cannot do this");
     }
 
+    public int vacuum(String tableName) throws DatabaseException {
+        throw new UnsupportedOperationException("dummy transaction cannot do this");
+    }
+
     public Record getRecord(String tableName, RecordId rid) throws DatabaseException {
         throw new UnsupportedOperationException("dummy transaction cannot do this");
     }
 
-    public RecordIterator getRecordIterator(String tableName) throws DatabaseException {
+    public BacktrackingIterator<Record> getRecordIterator(String tableName) throws DatabaseException {
+        throw new UnsupportedOperationException("dummy transaction cannot do this");
+    }
+
+    public BacktrackingIterator<Record> getRecordIterator(String tableName,
+            List<Integer> columns) throws DatabaseException {
+        throw new UnsupportedOperationException("dummy transaction cannot do this");
+    }
+
+    public BacktrackingIterator<Record> getRecordIterator(String tableName, List<Integer> columns,
+            Predicate<ZoneMap> pageFilter) throws DatabaseException {
         throw new UnsupportedOperationException("dummy transaction cannot do this");
     }
 
@@ -0,0 +1,74 @@
+package edu.berkeley.cs186.database.databox;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+
+import edu.berkeley.cs186.database.common.ByteBuffer;
+
+import org.junit.Test;
+
+public class TestKeyEncoding {
+    // Checks that encoding preserves the order of the sorted boxes, and that
+    // decoding undoes encoding.
+    private void checkOrder(List<DataBox> boxes) {
+        for (DataBox a : boxes) {
+            byte[] x = KeyEncoding.encode(a);
+            assertEquals(a.type().getSizeInBytes(), x.length);
+            assertEquals(a, KeyEncoding.decode(ByteBuffer.wrap(x), a.type()));
+            for (DataBox b : boxes) {
+                byte[] y = KeyEncoding.encode(b);
+                assertEquals(Integer.signum(a.compareTo(b)),
+                             Integer.signum(KeyEncoding.compare(x, 0, y, 0, x.length)));
+            }
+        }
+    }
+
+    @Test
+    public void testBool() {
+        checkOrder(Arrays.asList(new BoolDataBox(false), new BoolDataBox(true)));
+    }
+
+    @Test
+    public void testInt() {
+        checkOrder(Arrays.asList(new IntDataBox(Integer.MIN_VALUE), new IntDataBox(-256),
+                                 new IntDataBox(-1), new IntDataBox(0), new IntDataBox(1),
+                                 new IntDataBox(255), new IntDataBox(Integer.MAX_VALUE)));
+    }
+
+    @Test
+    public void testFloat() {
+        checkOrder(Arrays.asList(new FloatDataBox(Float.NEGATIVE_INFINITY), new FloatDataBox(-2.5f),
+                                 new FloatDataBox(-Float.MIN_VALUE), new FloatDataBox(0f),
+                                 new FloatDataBox(Float.MIN_VALUE), new FloatDataBox(1f),
+                                 new FloatDataBox(Float.POSITIVE_INFINITY)));
+    }
+
+    @Test
+    public void testFloatNegativeZero() {
+        // -0.0 equals 0.0, so it has the same key, which decodes to 0.0.
+        byte[] key = KeyEncoding.encode(new FloatDataBox(-0f));
+        assertArrayEquals(KeyEncoding.encode(new FloatDataBox(0f)), key);
+        DataBox decoded = KeyEncoding.decode(ByteBuffer.wrap(key), Type.floatType());
+        assertEquals(0, Float.compare(0f, decoded.getFloat()));
+    }
+
+    @Test
+    public void testString() {
+        checkOrder(Arrays.asList(new StringDataBox("", 3), new StringDataBox("0", 3),
+                                 new StringDataBox("A9", 3), new StringDataBox("Z", 3),
+                                 new StringDataBox("a", 3), new StringDataBox("zzz", 3)));
+    }
+
+    @Test
+    public void testCompareAtOffsets() {
+        byte[] bytes = new byte[8];
+        KeyEncoding.encode(new IntDataBox(-5), bytes, 0);
+        KeyEncoding.encode(new IntDataBox(3), bytes, 4);
+        assertEquals(-1, Integer.signum(KeyEncoding.compare(bytes, 0, bytes, 4, Integer.BYTES)));
+        assertEquals(0, KeyEncoding.compare(bytes, 4, KeyEncoding.encode(new IntDataBox(3)), 0,
+                                            Integer.BYTES));
+    }
+}
@@ -7,8 +7,10 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.Random;
 
 import org.junit.*;
 import org.junit.rules.DisableOnDebug;
@@ -17,13 +19,15 @@ import org.junit.rules.TestRule;
 import org.junit.rules.Timeout;
 
 import edu.berkeley.cs186.database.common.Pair;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.FloatDataBox;
 import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
 import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.io.PageAllocator;
 import edu.berkeley.cs186.database.table.RecordId;
 
-@Ignore
 public class TestInnerNode {
     public static final String testFile = "TestInnerNode";
 
@@ -213,6 +217,104 @@ public class TestInnerNode {
         }
     }
 
+    @Test
+    public void testGetRecordId() {
+        // The leaves are searched on their pages, and agree with the loaded
+        // leaves on present and absent keys alike.
+        for (int i = -1; i < 31; ++i) {
+            IntDataBox key = new IntDataBox(i);
+            assertEquals(inner.get(null, key).getKey(key), inner.getRecordId(null, key));
+        }
+        assertEquals(Optional.of(new RecordId(12, (short) 12)),
+                     inner.getRecordId(null, new IntDataBox(12)));
+        assertEquals(Optional.empty(), inner.getRecordId(null, new IntDataBox(14)));
+    }
+
+    // Puts keys into a fresh tree of order 1, in a random order, and checks
+    // that get finds every one of them but none of absent. The tree is deep
+    // enough that get searches several levels of inner nodes on their pages.
+    private void checkGetAfterSplits(Type keySchema, List<DataBox> keys, List<DataBox> absent)
+    throws BPlusTreeException, IOException {
+        File file = tempFolder.newFile(testFile + "Tree");
+        BPlusTree tree = new BPlusTree(file.getAbsolutePath(), keySchema, 1, new DummyLockContext(),
+                                       null);
+        List<DataBox> shuffled = new ArrayList<>(keys);
+        Collections.shuffle(shuffled, new Random(42));
+        for (DataBox key : shuffled) {
+            tree.put(null, key, new RecordId(keys.indexOf(key), (short) 0));
+        }
+
+        // An inner node's sexp starts with its first child's, and a leaf's
+        // with "((", so this holds for trees with at least 3 inner levels.
+        assertTrue(tree.toSexp(null).startsWith("((((("));
+        for (int i = 0; i < keys.size(); ++i) {
+            assertEquals(Optional.of(new RecordId(i, (short) 0)), tree.get(null, keys.get(i)));
+        }
+        for (DataBox key : absent) {
+            assertEquals(Optional.empty(), tree.get(null, key));
+        }
+    }
+
+    @Test
+    public void testGetAfterSplits() throws BPlusTreeException, IOException {
+        // Even keys only, negative and positive, so that every odd key falls
+        // between two keys of some inner node.
+        List<DataBox> keys = new ArrayList<>();
+        List<DataBox> absent = new ArrayList<>();
+        for (int i = -200; i < 200; ++i) {
+            (i % 2 == 0 ? keys : absent).add(new IntDataBox(i));
+        }
+        absent.add(new IntDataBox(Integer.MIN_VALUE));
+        absent.add(new IntDataBox(Integer.MAX_VALUE));
+        checkGetAfterSplits(Type.intType(), keys, absent);
+    }
+
+    @Test
+    public void testGetAfterSplitsStringKeys() throws BPlusTreeException, IOException {
+        // Keys which share their first bytes, so that they are told apart by
+        // the later ones.
+        List<DataBox> keys = new ArrayList<>();
+        List<DataBox> absent = new ArrayList<>();
+        for (int i = 0; i < 200; ++i) {
+            keys.add(new StringDataBox(String.format("ab%03d", 2 * i), 5));
+            absent.add(new StringDataBox(String.format("ab%03d", 2 * i + 1), 5));
+        }
+        absent.add(new StringDataBox("a", 5));
+        absent.add(new StringDataBox("b", 5));
+        checkGetAfterSplits(Type.stringType(5), keys, absent);
+    }
+
+    @Test
+    public void testGetFloatKeys() throws BPlusTreeException, IOException {
+        // Keys are found the way FloatDataBox.equals finds them: -0.0 is 0.0,
+        // and NaN is nothing, even once the tree has been read back from disk.
+        File file = tempFolder.newFile(testFile + "Tree");
+        BPlusTree tree = new BPlusTree(file.getAbsolutePath(), Type.floatType(), 1,
+                                       new DummyLockContext(), null);
+        for (int i = -10; i < 10; ++i) {
+            tree.put(null, new FloatDataBox(i == 0 ? -0f : i), new RecordId(i, (short) 0));
+        }
+        tree.put(null, new FloatDataBox(Float.NaN), new RecordId(10, (short) 0));
+        for (BPlusTree t : Arrays.asList(tree, new BPlusTree(file.getAbsolutePath(),
+                                         new DummyLockContext(), null))) {
+            assertEquals(Optional.of(new RecordId(0, (short) 0)), t.get(null, new FloatDataBox(0f)));
+            assertEquals(Optional.of(new RecordId(0, (short) 0)), t.get(null, new FloatDataBox(-0f)));
+            assertEquals(Optional.of(new RecordId(-1, (short) 0)), t.get(null, new FloatDataBox(-1f)));
+            assertEquals(Optional.empty(), t.get(null, new FloatDataBox(Float.NaN)));
+        }
+    }
+
+    @Test(expected = BPlusTreeException.class)
+    public void testOldFormatRejected() throws BPlusTreeException, IOException {
+        // Files written before keys were normalized start with the key schema.
+        File file = tempFolder.newFile(testFile + "Tree");
+        new BPlusTree(file.getAbsolutePath(), Type.intType(), 1, new DummyLockContext(), null).close();
+        PageAllocator allocator = new PageAllocator(file.getAbsolutePath(), false, null);
+        allocator.fetchPage(null, 0).getBuffer(null).put(Type.intType().toBytes());
+        allocator.close();
+        new BPlusTree(file.getAbsolutePath(), new DummyLockContext(), null);
+    }
+
     @Test
     public void testGetLeftmostLeaf() throws IOException {
         assertEquals(getLeaf(leaf0), inner.getLeftmostLeaf(null));
@@ -0,0 +1,495 @@
+package edu.berkeley.cs186.database.io;
+
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+
+/**
+* Tests BufferManager.java
+*/
+
+public class TestBufferManager {
+    private final String fName = "TestBufferManager.temp";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private PageAllocator newAllocator(BufferManager bufferManager) throws IOException {
+        File tempFile = tempFolder.newFile(fName);
+        return new PageAllocator(new DummyLockContext(), tempFile.getAbsolutePath(), true, false,
+                                 bufferManager, null);
+    }
+
+    @Test
+    public void TestBufferManagerFixedFrames() throws IOException {
+        BufferManager bufferManager = new BufferManager(4);
+        PageAllocator pA = newAllocator(bufferManager);
+        for (int i = 0; i < 10; i++) {
+            int pageNum = pA.allocPage(null);
+            pA.fetchPage(null, pageNum).getBuffer(null).putInt(0, i);
+            assertTrue(bufferManager.getNumResidentPages() <= 4);
+        }
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, pA.fetchPage(null, i).getBuffer(null).getInt(0));
+        }
+        assertEquals(0, bufferManager.getNumPinnedFrames());
+        pA.close();
+        assertEquals(0, bufferManager.getNumResidentPages());
+    }
+
+    @Test
+    public void TestBufferManagerPinnedNotEvicted() throws IOException {
+        BufferManager bufferManager = new BufferManager(2);
+        PageAllocator pA = newAllocator(bufferManager);
+        for (int i = 0; i < 4; i++) {
+            pA.allocPage(null);
+        }
+
+        Page pinned = pA.fetchPage(null, 0).pin();
+        pinned.getBuffer(null).putInt(0, 42);
+        for (int i = 1; i < 4; i++) {
+            pA.fetchPage(null, i).getBuffer(null).getInt(0);
+        }
+        assertSame(pinned, pA.fetchPage(null, 0));
+        assertEquals(1, bufferManager.getNumPinnedFrames());
+        pinned.unpin();
+        assertEquals(0, bufferManager.getNumPinnedFrames());
+        assertEquals(42, pA.fetchPage(null, 0).getBuffer(null).getInt(0));
+        pA.close();
+    }
+
+    @Test(expected = PageException.class)
+    public void TestBufferManagerAllFramesPinned() throws IOException {
+        BufferManager bufferManager = new BufferManager(2);
+        PageAllocator pA = newAllocator(bufferManager);
+        for (int i = 0; i < 3; i++) {
+            pA.allocPage(null);
+        }
+        pA.fetchPage(null, 0).pin();
+        pA.fetchPage(null, 1).pin();
+        pA.fetchPage(null, 2).pin();
+    }
+
+    @Test
+    public void TestBufferManagerStaleHandle() throws IOException {
+        BufferManager bufferManager = new BufferManager(1);
+        PageAllocator pA = newAllocator(bufferManager);
+        pA.allocPage(null);
+        pA.allocPage(null);
+
+        // Holding on to a handle across evictions is safe: the page is read back
+        // in the next time the handle is used.
+        Page p0 = pA.fetchPage(null, 0);
+        p0.getBuffer(null).putInt(0, 7);
+        Page p1 = pA.fetchPage(null, 1);
+        p1.getBuffer(null).putInt(0, 8);
+        assertEquals(7, p0.getBuffer(null).getInt(0));
+        assertEquals(8, p1.getBuffer(null).getInt(0));
+        pA.close();
+    }
+
+    @Test
+    public void TestBufferManagerShards() throws IOException {
+        assertEquals(1, new BufferManager(BufferManager.MIN_FRAMES_PER_SHARD).getNumShards());
+        int manyFrames = 2 * BufferManager.MAX_SHARDS * BufferManager.MIN_FRAMES_PER_SHARD;
+        assertEquals(BufferManager.MAX_SHARDS, new BufferManager(manyFrames).getNumShards());
+
+        BufferManager bufferManager = new BufferManager(10, LRUEvictionPolicy::new, 3);
+        PageAllocator pA = newAllocator(bufferManager);
+        for (int i = 0; i < 50; i++) {
+            pA.fetchPage(null, pA.allocPage(null)).getBuffer(null).putInt(0, i);
+            assertTrue(bufferManager.getNumResidentPages() <= 10);
+        }
+        for (int i = 0; i < 50; i++) {
+            assertEquals(i, pA.fetchPage(null, i).getBuffer(null).getInt(0));
+        }
+        pA.close();
+        assertEquals(0, bufferManager.getNumResidentPages());
+    }
+
+    @Test
+    public void TestBufferManagerConcurrentAccess() throws Exception {
+        BufferManager bufferManager = new BufferManager(16, LRUEvictionPolicy::new, 4);
+        PageAllocator pA = newAllocator(bufferManager);
+        int numPages = 64;
+        for (int i = 0; i < numPages; i++) {
+            pA.fetchPage(null, pA.allocPage(null)).getBuffer(null).putInt(0, i);
+        }
+
+        // Every thread reads every page many times, so that hits, misses, and
+        // evictions of the same pages race with each other.
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int offset = t;
+            threads.add(new Thread(() -> {
+                try {
+                    for (int round = 0; round < 20; round++) {
+                        for (int i = 0; i < numPages; i++) {
+                            int pageNum = (i * 7 + offset) % numPages;
+                            assertEquals(pageNum, pA.fetchPage(null, pageNum).getBuffer(null).getInt(0));
+                        }
+                    }
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (error.get() != null) {
+            throw new AssertionError(error.get());
+        }
+        assertEquals(0, bufferManager.getNumPinnedFrames());
+        pA.close();
+    }
+
+    @Test
+    public void TestBufferManagerPositionalIO() throws IOException {
+        File tempFile = tempFolder.newFile(fName);
+        BufferManager bufferManager = new BufferManager(4, BufferManager.IOMode.POSITIONAL);
+        PageAllocator pA = new PageAllocator(new DummyLockContext(), tempFile.getAbsolutePath(), true,
+                                             false, bufferManager, null);
+        for (int i = 0; i < 10; i++) {
+            int pageNum = pA.allocPage(null);
+            pA.fetchPage(null, pageNum).getBuffer(null).putInt(0, i);
+        }
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, pA.fetchPage(null, i).getBuffer(null).getInt(0));
+        }
+        pA.close();
+
+        // Everything written must have made it back to the file.
+        pA = new PageAllocator(new DummyLockContext(), tempFile.getAbsolutePath(), false, true,
+                               bufferManager, null);
+        assertEquals(10, pA.getNumPages());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, pA.fetchPage(null, i).getBuffer(null).getInt(0));
+        }
+        pA.close();
+    }
+
+    @Test
+    public void TestBufferManagerCompressedIO() throws IOException {
+        File tempFile = tempFolder.newFile(fName);
+        BufferManager bufferManager = new BufferManager(4, BufferManager.IOMode.COMPRESSED);
+        PageAllocator pA = new PageAllocator(new DummyLockContext(), tempFile.getAbsolutePath(), true,
+                                             false, bufferManager, null);
+        assertTrue(pA.isCompressed());
+        for (int i = 0; i < 20; i++) {
+            int pageNum = pA.allocPage(null);
+            pA.fetchPage(null, pageNum).getBuffer(null).putInt(0, i).putInt(Page.pageSize - 4, i);
+        }
+        pA.freePage(null, 7);
+        for (int i = 0; i < 20; i++) {
+            if (i != 7) {
+                assertEquals(i, pA.fetchPage(null, i).getBuffer(null).getInt(Page.pageSize - 4));
+            }
+        }
+        pA.close();
+
+        // The pages are read back by buffer pools of either kind, and take up
+        // a fraction of their size on disk.
+        for (BufferManager.IOMode ioMode : BufferManager.IOMode.values()) {
+            pA = new PageAllocator(new DummyLockContext(), tempFile.getAbsolutePath(), false, true,
+                                   new BufferManager(4, ioMode), null);
+            assertTrue(pA.isCompressed());
+            assertEquals(19, pA.getNumPages());
+            assertTrue(pA.getDataSizeOnDisk() < 19 * Page.pageSize / 10);
+            for (int i = 0; i < 20; i++) {
+                if (i != 7) {
+                    assertEquals(i, pA.fetchPage(null, i).getBuffer(null).getInt(0));
+                    assertEquals(i, pA.fetchPage(null, i).getBuffer(null).getInt(Page.pageSize - 4));
+                }
+            }
+            // Only the extents of the data pages are read, besides the
+            // uncompressed master and header pages.
+            IOStats stats = pA.getIOStats();
+            assertTrue(stats.getMisses() >= 21);
+            assertTrue(stats.getBytesRead() < 2 * Page.pageSize +
+                       (stats.getMisses() - 2) * Page.pageSize / 10);
+            pA.close();
+        }
+
+        // Wiping the file with an uncompressed buffer pool drops its pages.
+        pA = new PageAllocator(new DummyLockContext(), tempFile.getAbsolutePath(), true, false,
+                               new BufferManager(4), null);
+        assertFalse(pA.isCompressed());
+        assertFalse(new File(tempFile.getAbsolutePath() + CompressedPageStore.FILENAME_SUFFIX).exists());
+        pA.close();
+    }
+
+    @Test
+    public void TestBufferManagerCompressedTornWrite() throws IOException {
+        File tempFile = tempFolder.newFile(fName);
+        ByteBuffer page = ByteBuffer.allocate(Page.pageSize);
+
+        // A rewrite goes to a new extent, and the extent it leaves is reused.
+        CompressedPageStore store = new CompressedPageStore(tempFile, true, true);
+        store.write(0, page);
+        long size = store.size();
+        store.write(0, page);
+        assertEquals(2 * size, store.size());
+        store.write(1, page);
+        assertEquals(2 * size, store.size());
+        store.close();
+
+        store = new CompressedPageStore(tempFile, true, true);
+        page.put(0, (byte) 1);
+        store.write(0, page);
+        page.put(0, (byte) 2);
+        store.write(0, page);
+        store.close();
+
+        // If the header of the rewrite never made it to disk, the page is read
+        // back as it was before.
+        try (RandomAccessFile file = new RandomAccessFile(tempFile, "rw")) {
+            file.seek(size);
+            file.write(new byte[16]);
+        }
+        store = new CompressedPageStore(tempFile, false, true);
+        ByteBuffer read = ByteBuffer.allocate(Page.pageSize);
+        store.read(0, read);
+        assertEquals(1, read.get(0));
+
+        // A freed page stays freed when the store is reopened, even if a
+        // write of another page to its extent was torn before the header.
+        store.free(0);
+        store.close();
+        try (RandomAccessFile file = new RandomAccessFile(tempFile, "rw")) {
+            file.seek(16);
+            file.write(new byte[] {(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff});
+        }
+        store = new CompressedPageStore(tempFile, false, true);
+        read.put(0, (byte) 1);
+        assertEquals(0, store.read(0, read));
+        assertEquals(0, read.get(0));
+        store.close();
+    }
+
+    @Test
+    public void TestBufferManagerMetadataGroupCommit() throws Exception {
+        File tempFile = tempFolder.newFile(fName);
+        BufferManager bufferManager = new BufferManager(8);
+        bufferManager.setMetadataGroupCommit(4, 0);
+        PageAllocator pA = new PageAllocator(new DummyLockContext(), tempFile.getAbsolutePath(), true,
+                                             true, bufferManager, null);
+        for (int i = 0; i < 3; i++) {
+            pA.allocPage(null);
+        }
+        assertEquals(3, pA.getNumPendingMetadataUpdates());
+        pA.freePage(null, 0);
+        assertEquals(0, pA.getNumPendingMetadataUpdates());
+
+        pA.allocPage(null);
+        bufferManager.flushMetadata();
+        assertEquals(0, pA.getNumPendingMetadataUpdates());
+
+        // With a delay, pending updates are flushed in the background.
+        bufferManager.setMetadataGroupCommit(1000, 10);
+        pA.allocPage(null);
+        for (int i = 0; i < 500 && pA.getNumPendingMetadataUpdates() > 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, pA.getNumPendingMetadataUpdates());
+        pA.close();
+    }
+
+    @Test
+    public void TestBufferManagerPageCleaner() throws Exception {
+        BufferManager bufferManager = new BufferManager(8, BufferManager.IOMode.POSITIONAL);
+        PageAllocator pA = newAllocator(bufferManager);
+        for (int i = 0; i < 4; i++) {
+            pA.fetchPage(null, pA.allocPage(null)).getBuffer(null).putInt(0, i);
+        }
+        int numDirty = bufferManager.getNumDirtyFrames();
+        assertTrue(numDirty >= 4);
+
+        // Every page was just used, so the first round only clears the
+        // reference bits; the second one writes back one page.
+        PageCleaner cleaner = new PageCleaner(bufferManager, 1, 1, 1.0);
+        assertEquals(0, cleaner.clean());
+        assertEquals(1, cleaner.clean());
+        assertEquals(numDirty - 1, bufferManager.getNumDirtyFrames());
+
+        // Over the high-water mark, the cleaner writes back as much as needed.
+        cleaner = new PageCleaner(bufferManager, 1, 0, 0.0);
+        assertEquals(numDirty - 1, cleaner.clean());
+        assertEquals(0, bufferManager.getNumDirtyFrames());
+
+        // Running in the background.
+        pA.fetchPage(null, 0).getBuffer(null).putInt(0, 42);
+        cleaner = new PageCleaner(bufferManager, 1, 8, 1.0);
+        cleaner.start();
+        for (int i = 0; i < 500 && bufferManager.getNumDirtyFrames() > 0; i++) {
+            Thread.sleep(10);
+        }
+        cleaner.close();
+        assertEquals(0, bufferManager.getNumDirtyFrames());
+        assertEquals(42, pA.fetchPage(null, 0).getBuffer(null).getInt(0));
+        pA.close();
+
+        // Memory-mapped pages of non-durable files are only handed to the
+        // operating system, which does not count as writing them back.
+        bufferManager = new BufferManager(8);
+        pA = new PageAllocator(new DummyLockContext(), tempFolder.newFile().getAbsolutePath(), true,
+                               false, bufferManager, null);
+        pA.fetchPage(null, pA.allocPage(null)).getBuffer(null).putInt(0, 1);
+        cleaner = new PageCleaner(bufferManager, 1, 0, 0.0);
+        assertEquals(0, cleaner.clean());
+        assertEquals(0, cleaner.clean());
+        assertEquals(0, bufferManager.getNumDirtyFrames());
+        pA.close();
+    }
+
+    @Test
+    public void TestBufferManagerPageCleanerWhileClosing() throws Exception {
+        // Closing an allocator drops its pages while the cleaner may be
+        // writing them back; the cleaner must not trip over them.
+        BufferManager bufferManager = new BufferManager(8, BufferManager.IOMode.POSITIONAL);
+        PageCleaner cleaner = new PageCleaner(bufferManager, 1, 8, 0.0);
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            try {
+                while (!done.get()) {
+                    cleaner.clean();
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        thread.start();
+        for (int i = 0; i < 200 && failure.get() == null; i++) {
+            PageAllocator pA = new PageAllocator(new DummyLockContext(),
+                                                 tempFolder.newFile().getAbsolutePath(), true, true,
+                                                 bufferManager, null);
+            for (int j = 0; j < 4; j++) {
+                pA.fetchPage(null, pA.allocPage(null)).getBuffer(null).putInt(0, j);
+            }
+            pA.close();
+        }
+        done.set(true);
+        thread.join();
+        assertNull(failure.get());
+    }
+
+    @Test
+    public void TestBufferManagerIOStats() throws IOException {
+        BufferManager bufferManager = new BufferManager(2);
+        File tempFile = tempFolder.newFile(fName);
+        PageAllocator pA = new PageAllocator(new DummyLockContext(), tempFile.getAbsolutePath(),
+                                             true, true, bufferManager, null);
+        for (int i = 0; i < 4; i++) {
+            pA.fetchPage(null, pA.allocPage(null)).getBuffer(null).putInt(0, i);
+        }
+        pA.close();
+
+        // Reopen, and touch every page once so the allocator has read its
+        // metadata; pages 2 and 3 are left in the buffer pool.
+        pA = new PageAllocator(new DummyLockContext(), tempFile.getAbsolutePath(), false, true,
+                               bufferManager, null);
+        for (int i = 0; i < 4; i++) {
+            pA.fetchPage(null, i).getBuffer(null).getInt(0);
+        }
+        bufferManager.getIOStats().reset();
+        pA.getIOStats().reset();
+
+        pA.fetchPage(null, 0).getBuffer(null).getInt(0);
+        pA.fetchPage(null, 0).getBuffer(null).getInt(0);
+        assertEquals(1, pA.getIOStats().getMisses());
+        assertEquals(1, pA.getIOStats().getHits());
+        assertEquals(Page.pageSize, pA.getIOStats().getBytesRead());
+        assertEquals(0.5, pA.getIOStats().getHitRatio(), 1e-9);
+
+        // Events on this thread count towards entered stats as well.
+        IOStats scan = new IOStats();
+        scan.enter();
+        for (int i = 1; i < 4; i++) {
+            pA.fetchPage(null, i).getBuffer(null).getInt(0);
+        }
+        scan.exit();
+        pA.fetchPage(null, 0).getBuffer(null).getInt(0);
+        assertEquals(3, scan.getMisses());
+        assertEquals(0, scan.getHits());
+        assertTrue(scan.getEvictions() >= 2);
+        assertEquals(5, pA.getIOStats().getMisses());
+        assertEquals(pA.getIOStats().getMisses(), bufferManager.getIOStats().getMisses());
+        assertEquals(pA.getIOStats().getEvictions(), bufferManager.getIOStats().getEvictions());
+
+        pA.fetchPage(null, 0).getBuffer(null).putInt(0, 42);
+        IOStats allocStats = pA.getIOStats();
+        allocStats.reset();
+        pA.close();
+        assertEquals(1, allocStats.getFlushes());
+        assertEquals(Page.pageSize, allocStats.getBytesWritten());
+    }
+
+    @Test
+    public void TestBufferManagerHitsPerReference() throws IOException {
+        BufferManager bufferManager = new BufferManager(4);
+        PageAllocator pA = newAllocator(bufferManager);
+        Page page = pA.fetchPage(null, pA.allocPage(null));
+        page.getBuffer(null).putInt(0, 42);
+        IOStats ioStats = pA.getIOStats();
+        ioStats.reset();
+
+        // Accessing many fields through one Buffer is one reference.
+        Buffer buf = page.getBuffer(null);
+        for (int i = 0; i < 100; i++) {
+            buf.getInt(i * 4);
+        }
+        buf.slice().getInt(0);
+        assertEquals(1, ioStats.getHits());
+
+        // So is pinning a page and accessing it while it is pinned, through
+        // any number of Buffers.
+        page.pin();
+        try {
+            page.getBuffer(null).getInt(0);
+            page.getBuffer(null).putInt(4, 1);
+            page.readBytes(null);
+        } finally {
+            page.unpin();
+        }
+        assertEquals(2, ioStats.getHits());
+
+        // Separate accesses are separate references.
+        page.getBuffer(null).getInt(0);
+        pA.fetchPage(null, page.getPageNum()).getBuffer(null).getInt(0);
+        assertEquals(4, ioStats.getHits());
+        assertEquals(0, ioStats.getMisses());
+        pA.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void TestBufferManagerIOStatsUnmatchedExit() {
+        IOStats outer = new IOStats();
+        IOStats inner = new IOStats();
+        outer.enter();
+        inner.enter();
+        try {
+            outer.exit();
+        } finally {
+            inner.exit();
+            outer.exit();
+        }
+    }
+}
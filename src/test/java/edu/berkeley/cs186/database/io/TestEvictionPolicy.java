@@ -0,0 +1,183 @@
+package edu.berkeley.cs186.database.io;
+
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.function.Supplier;
+
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+
+/**
+* Tests the eviction policies of BufferManager.
+*/
+
+public class TestEvictionPolicy {
+    private final String fName = "TestEvictionPolicy.temp";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private PageAllocator newAllocator(BufferManager bufferManager, int numPages) throws IOException {
+        File tempFile = tempFolder.newFile(fName);
+        PageAllocator pA = new PageAllocator(new DummyLockContext(), tempFile.getAbsolutePath(), true,
+                                             false, bufferManager, null);
+        for (int i = 0; i < numPages; i++) {
+            pA.allocPage(null);
+        }
+        return pA;
+    }
+
+    private void touch(PageAllocator pA, int pageNum) {
+        pA.fetchPage(null, pageNum).getBuffer(null).getInt(0);
+    }
+
+    private boolean isResident(BufferManager bufferManager, PageAllocator pA, int pageNum) {
+        return bufferManager.getResidentPage(pA.fetchPage(null, pageNum).getKey()) != null;
+    }
+
+    private void testPinnedNeverEvicted(Supplier<EvictionPolicy> policy) throws IOException {
+        BufferManager bufferManager = new BufferManager(4, policy);
+        PageAllocator pA = newAllocator(bufferManager, 20);
+        Page pinned = pA.fetchPage(null, 0).pin();
+        for (int i = 1; i < 20; i++) {
+            touch(pA, i);
+            assertTrue(isResident(bufferManager, pA, 0));
+        }
+        pinned.unpin();
+        pA.close();
+    }
+
+    // Reads page pageNum the way a scan does: a few fields under one pin, and
+    // then a few more with separate accesses.
+    private void scan(PageAllocator pA, int pageNum) {
+        Page page = pA.fetchPage(null, pageNum).pin();
+        try {
+            Buffer buf = page.getBuffer(null);
+            buf.getInt(0);
+            buf.getInt(4);
+        } finally {
+            page.unpin();
+        }
+        touch(pA, pageNum);
+        touch(pA, pageNum);
+    }
+
+    private void testScanResistant(Supplier<EvictionPolicy> policy) throws IOException {
+        BufferManager bufferManager = new BufferManager(8, policy);
+        PageAllocator pA = newAllocator(bufferManager, 100);
+
+        // Make page 0 hot: read it, push it out of the buffer pool with other
+        // pages, and read it again shortly afterwards.
+        touch(pA, 0);
+        for (int i = 1; i <= 8; i++) {
+            touch(pA, i);
+        }
+        touch(pA, 0);
+
+        // A scan which touches every other page once should not evict it.
+        for (int i = 20; i < 100; i++) {
+            touch(pA, i);
+        }
+        assertTrue(isResident(bufferManager, pA, 0));
+
+        // Nor should one which touches every page several times in a row.
+        for (int i = 20; i < 100; i++) {
+            scan(pA, i);
+        }
+        assertTrue(isResident(bufferManager, pA, 0));
+        pA.close();
+    }
+
+    @Test
+    public void TestLRUPinned() throws IOException {
+        testPinnedNeverEvicted(LRUEvictionPolicy::new);
+    }
+
+    @Test
+    public void TestLRUEvictsLeastRecentlyUsed() throws IOException {
+        BufferManager bufferManager = new BufferManager(3, LRUEvictionPolicy::new);
+        PageAllocator pA = newAllocator(bufferManager, 4);
+        touch(pA, 0);
+        touch(pA, 1);
+        touch(pA, 2);
+        touch(pA, 0);
+        touch(pA, 3);
+        assertTrue(isResident(bufferManager, pA, 0));
+        assertFalse(isResident(bufferManager, pA, 1));
+        pA.close();
+    }
+
+    @Test
+    public void TestClockPinned() throws IOException {
+        testPinnedNeverEvicted(ClockEvictionPolicy::new);
+    }
+
+    @Test
+    public void TestClockSecondChance() {
+        BufferFrame[] frames = new BufferFrame[3];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = new BufferFrame(i);
+        }
+        EvictionPolicy policy = new ClockEvictionPolicy();
+        policy.init(frames);
+        for (BufferFrame frame : frames) {
+            policy.load(frame);
+        }
+        // The first sweep clears every reference bit, so the frame under the
+        // hand after a full revolution is evicted first.
+        assertSame(frames[0], policy.evict());
+        policy.load(frames[0]);
+
+        // Frame 1 is referenced again and gets a second chance; frame 2 is not.
+        policy.hit(frames[1]);
+        assertSame(frames[2], policy.evict());
+    }
+
+    @Test
+    public void TestTwoQueuePinned() throws IOException {
+        testPinnedNeverEvicted(TwoQueueEvictionPolicy::new);
+    }
+
+    @Test
+    public void TestTwoQueueScanResistant() throws IOException {
+        testScanResistant(TwoQueueEvictionPolicy::new);
+    }
+
+    @Test
+    public void TestLRUKPinned() throws IOException {
+        testPinnedNeverEvicted(LRUKEvictionPolicy::new);
+    }
+
+    @Test
+    public void TestLRUKScanResistant() throws IOException {
+        testScanResistant(LRUKEvictionPolicy::new);
+    }
+
+    @Test
+    public void TestLRUKCorrelatedReferences() {
+        BufferFrame[] frames = new BufferFrame[2];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = new BufferFrame(i);
+        }
+        // Frame 0 is referenced four times, but never more than two references
+        // apart, which counts as a single reference. Frame 1 is referenced
+        // twice, four references apart. Without a correlated reference period,
+        // frame 0 is the hotter one.
+        for (int period : new int[] {2, 0}) {
+            EvictionPolicy policy = new LRUKEvictionPolicy(2, period);
+            policy.init(frames);
+            policy.load(frames[1]);
+            policy.load(frames[0]);
+            policy.hit(frames[0]);
+            policy.hit(frames[0]);
+            policy.hit(frames[1]);
+            policy.hit(frames[0]);
+            assertSame(frames[period == 0 ? 1 : 0], policy.evict());
+        }
+    }
+}
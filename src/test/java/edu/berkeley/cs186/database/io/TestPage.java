@@ -6,6 +6,8 @@ import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
 import java.nio.channels.FileChannel;
+
+import edu.berkeley.cs186.database.common.Buffer;
 import java.io.RandomAccessFile;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -142,4 +144,48 @@ public class TestPage {
         fc.close();
     }
 
+    @Test
+    public void TestPageTypedAccessors() throws IOException, FileNotFoundException {
+        File tempFile = tempFolder.newFile(fName);
+        FileChannel fc = new RandomAccessFile(tempFile, "rw").getChannel();
+        Page p = new Page(fc, 0, 0);
+
+        Buffer buf = p.getBuffer(null);
+        buf.put((byte) 7).putChar('x').putShort((short) -2).putInt(42).putLong(1L << 40)
+        .putFloat(1.5f).putDouble(-0.25);
+        assertEquals(1 + 2 + 2 + 4 + 8 + 4 + 8, buf.position());
+
+        // Typed reads agree with the bytes written, whichever way they are read.
+        java.nio.ByteBuffer bytes = java.nio.ByteBuffer.wrap(p.readBytes(null));
+        assertEquals(7, bytes.get(0));
+        assertEquals('x', bytes.getChar(1));
+        assertEquals(42, bytes.getInt(5));
+
+        // Views do not share a position.
+        Buffer a = p.getBuffer(null);
+        Buffer b = p.getBuffer(null).position(5);
+        assertEquals(7, a.get());
+        assertEquals(42, b.getInt());
+        assertEquals('x', a.getChar());
+        assertEquals(1L << 40, b.getLong());
+        assertEquals(-2, a.getShort());
+        assertEquals(1.5f, b.getFloat(), 0);
+        assertEquals(-0.25, b.getDouble(), 0);
+
+        // Absolute accessors are relative to the start of a slice.
+        Buffer slice = p.getBuffer(null).position(5).slice();
+        assertEquals(42, slice.getInt(0));
+        slice.putInt(0, 43);
+        assertEquals(43, p.getBuffer(null).getInt(5));
+
+        boolean thrown = false;
+        try {
+            p.getBuffer(null).getInt(Page.pageSize - 2);
+        } catch (PageException e) {
+            thrown = true;
+        }
+        assertTrue(thrown);
+
+        fc.close();
+    }
 }
@@ -15,6 +15,8 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.ArrayList;
 
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+
 /**
 * Tests PageAllocator.java
 * Should be optional tests for student unless for debugging
@@ -434,4 +436,105 @@ public class TestPageAllocator {
         }
     }
 
+    @Test
+    public void TestPageAllocatorFreePageReopen() throws IOException, FileNotFoundException {
+        File tempFile = tempFolder.newFile(fName);
+        PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false, null);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, pA.allocPage(null));
+        }
+        assertTrue(pA.freePage(null, 3));
+        assertTrue(pA.freePage(null, 7));
+        assertFalse(pA.freePage(null, 7));
+        pA.close();
+
+        // The allocation index is rebuilt from the master and header pages.
+        pA = new PageAllocator(tempFile.getAbsolutePath(), false, false, null);
+        assertEquals(8, pA.getNumPages());
+        boolean thrown = false;
+        try {
+            pA.fetchPage(null, 3);
+        } catch (PageException e) {
+            thrown = true;
+        }
+        assertTrue(thrown);
+        pA.fetchPage(null, 4);
+        assertEquals(3, pA.allocPage(null));
+        assertEquals(7, pA.allocPage(null));
+        assertEquals(10, pA.allocPage(null));
+        pA.close();
+    }
+
+    @Test
+    public void TestPageAllocatorIteratorReadAhead() throws Exception {
+        File tempFile = tempFolder.newFile(fName);
+        BufferManager bufferManager = new BufferManager(64);
+        assertEquals(4, bufferManager.getReadAhead());
+        PageAllocator pA = new PageAllocator(new DummyLockContext(), tempFile.getAbsolutePath(), true,
+                                             false, bufferManager, null);
+        for (int i = 0; i < 200; i++) {
+            pA.allocPage(null);
+        }
+        pA.freePage(null, 3);
+        pA.freePage(null, 4);
+
+        Iterator<Page> iter = pA.iterator(null);
+        assertEquals(0, iter.next().getPageNum());
+        assertEquals(1, iter.next().getPageNum());
+
+        // The next four allocated pages are read in the background.
+        int[] expected = new int[] {2, 5, 6, 7};
+        for (int pageNum : expected) {
+            long key = pA.fetchPage(null, pageNum).getKey();
+            for (int i = 0; i < 500 && bufferManager.getResidentPage(key) == null; i++) {
+                Thread.sleep(10);
+            }
+        }
+        for (int pageNum : expected) {
+            assertNotNull(bufferManager.getResidentPage(pA.fetchPage(null, pageNum).getKey()));
+        }
+
+        int numPages = 2;
+        int lastPageNum = 1;
+        while (iter.hasNext()) {
+            int pageNum = iter.next().getPageNum();
+            assertTrue(pageNum > lastPageNum);
+            assertTrue(pageNum != 3 && pageNum != 4);
+            lastPageNum = pageNum;
+            numPages++;
+        }
+        assertEquals(198, numPages);
+        pA.close();
+    }
+
+    @Test
+    public void TestPageAllocatorIteratorReadAheadFilter() throws Exception {
+        File tempFile = tempFolder.newFile(fName);
+        BufferManager bufferManager = new BufferManager(64);
+        PageAllocator pA = new PageAllocator(new DummyLockContext(), tempFile.getAbsolutePath(), true,
+                                             false, bufferManager, null);
+        for (int i = 0; i < 200; i++) {
+            pA.allocPage(null);
+        }
+
+        // Of the next four pages, only the even ones are read in the background.
+        PageAllocator.PageIterator iter = pA.iterator(null);
+        iter.setReadAheadFilter(pageNum -> pageNum % 2 == 0);
+        long misses = pA.getIOStats().getMisses();
+        assertEquals(0, iter.next().getPageNum());
+        assertEquals(1, iter.next().getPageNum());
+        for (int pageNum : new int[] {2, 4}) {
+            long key = pA.fetchPage(null, pageNum).getKey();
+            for (int i = 0; i < 500 && bufferManager.getResidentPage(key) == null; i++) {
+                Thread.sleep(10);
+            }
+            assertNotNull(bufferManager.getResidentPage(key));
+        }
+        // Pages are read ahead in order, so pages 3 and 5 would have been read
+        // by now.
+        assertNull(bufferManager.getResidentPage(pA.fetchPage(null, 3).getKey()));
+        assertNull(bufferManager.getResidentPage(pA.fetchPage(null, 5).getKey()));
+        assertEquals(misses + 2, pA.getIOStats().getMisses());
+        pA.close();
+    }
 }
@@ -0,0 +1,94 @@
+package edu.berkeley.cs186.database.io;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+* Tests PageCodec.java
+*/
+
+public class TestPageCodec {
+    // Compresses page into a buffer of capacity bytes, and checks that it
+    // decompresses back to page. Returns the compressed length, or -1.
+    private int roundTrip(byte[] page, int capacity) {
+        byte[] compressed = new byte[capacity];
+        int length = PageCodec.compress(ByteBuffer.wrap(page), page.length, compressed);
+        if (length >= 0) {
+            byte[] decompressed = new byte[page.length];
+            assertEquals(page.length, PageCodec.decompress(compressed, length, ByteBuffer.wrap(decompressed)));
+            assertArrayEquals(page, decompressed);
+        }
+        return length;
+    }
+
+    @Test
+    public void TestPageCodecZeroes() {
+        byte[] page = new byte[Page.pageSize];
+        int length = roundTrip(page, Page.pageSize);
+        assertTrue(length > 0 && length < 64);
+    }
+
+    @Test
+    public void TestPageCodecRecords() {
+        // Records of a small int, a padded string and a float, like a table's.
+        byte[] page = new byte[Page.pageSize];
+        for (int i = 0; i + 32 <= 3000; i += 32) {
+            page[i + 3] = (byte) (i / 32);
+            byte[] s = String.format("%-20s", "name" + i % 7).getBytes();
+            System.arraycopy(s, 0, page, i + 4, s.length);
+            page[i + 25] = (byte) 0x3f;
+        }
+        int length = roundTrip(page, Page.pageSize);
+        assertTrue(length > 0 && length < Page.pageSize / 4);
+    }
+
+    @Test
+    public void TestPageCodecRandom() {
+        // Random bytes do not compress; they must not be cut short either.
+        byte[] page = new byte[Page.pageSize];
+        new Random(186).nextBytes(page);
+        assertEquals(-1, roundTrip(page, Page.pageSize - 16));
+        assertTrue(roundTrip(page, 2 * Page.pageSize) > Page.pageSize);
+    }
+
+    @Test
+    public void TestPageCodecShortInputs() {
+        for (int n = 0; n < 20; ++n) {
+            byte[] bytes = new byte[n];
+            Arrays.fill(bytes, (byte) 'a');
+            assertTrue(roundTrip(bytes, 32) > 0 || n == 0);
+        }
+        assertEquals(-1, roundTrip(new byte[] {1, 2, 3}, 3));
+    }
+
+    @Test
+    public void TestPageCodecCorruptInput() {
+        byte[] page = new byte[Page.pageSize];
+        Arrays.fill(page, 0, 100, (byte) 'a');
+        byte[] compressed = new byte[Page.pageSize];
+        int length = PageCodec.compress(ByteBuffer.wrap(page), page.length, compressed);
+        ByteBuffer decompressed = ByteBuffer.allocate(Page.pageSize);
+
+        // Cut short, or with a match reaching back past the start of the
+        // output, or running off the end of it.
+        for (int n = 0; n < length; ++n) {
+            assertTrue(PageCodec.decompress(compressed, n, decompressed) <= Page.pageSize);
+        }
+        assertEquals(-1, PageCodec.decompress(new byte[] {(byte) 0xf0, (byte) 255}, 2, decompressed));
+        assertEquals(-1, PageCodec.decompress(new byte[] {0x10, 'a', 0, 2}, 4, decompressed));
+        assertEquals(-1, PageCodec.decompress(new byte[] {0x10, 'a', 0, 0}, 4, decompressed));
+        assertEquals(-1, PageCodec.decompress(compressed, length, ByteBuffer.allocate(100)));
+
+        // Garbage never throws.
+        Random random = new Random(186);
+        for (int i = 0; i < 1000; ++i) {
+            random.nextBytes(compressed);
+            int n = random.nextInt(compressed.length);
+            assertTrue(PageCodec.decompress(compressed, n, decompressed) <= Page.pageSize);
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package edu.berkeley.cs186.database.table;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.util.Arrays;
 
@@ -64,4 +66,55 @@ public class TestRecord {
         assertNotEquals(c, b);
         assertEquals(c, c);
     }
+
+    @Test
+    public void testFieldsOfBytes() {
+        Schema s = new Schema(Arrays.asList("w", "x", "y", "z"),
+                              Arrays.asList(Type.boolType(), Type.intType(),
+                                            Type.floatType(), Type.stringType(3)));
+        Record values = new Record(Arrays.asList(
+                                       new BoolDataBox(true),
+                                       new IntDataBox(-7),
+                                       new FloatDataBox(2.5f),
+                                       new StringDataBox("fo", 3)
+                                   ));
+        Record bytes = Record.fromBytes(ByteBuffer.wrap(values.toBytes(s)), s);
+
+        for (Record r : Arrays.asList(values, bytes)) {
+            assertTrue(r.getBool(0));
+            assertEquals(-7, r.getInt(1));
+            assertEquals(2.5f, r.getFloat(2), 0f);
+            assertEquals(new StringDataBox("fo", 3), r.getValue(3));
+
+            assertEquals(0, r.compareField(1, new IntDataBox(-7)));
+            assertTrue(r.compareField(1, new IntDataBox(-8)) > 0);
+            assertTrue(r.compareField(2, new FloatDataBox(3f)) < 0);
+            assertTrue(r.compareField(3, new StringDataBox("fo", 3)) == 0);
+            assertTrue(r.compareField(3, new StringDataBox("fp", 3)) < 0);
+            assertTrue(r.compareField(3, new StringDataBox("f", 3)) > 0);
+            assertTrue(r.fieldEquals(1, new IntDataBox(-7)));
+            assertFalse(r.fieldEquals(1, new FloatDataBox(-7f)));
+            assertTrue(r.fieldEquals(3, bytes, 3));
+            assertTrue(r.compareField(1, bytes, 1) == 0);
+
+            Schema projected = s.project(new int[] {3, 1});
+            assertEquals(new Record(Arrays.asList(new StringDataBox("fo", 3), new IntDataBox(-7))),
+                         r.project(new int[] {3, 1}, projected));
+            Schema concatenated = new Schema(Arrays.asList("x", "w", "x", "y", "z"),
+                                             Arrays.asList(Type.intType(), Type.boolType(),
+                                                           Type.intType(), Type.floatType(),
+                                                           Type.stringType(3)));
+            Record concat = r.project(new int[] {1}, s.project(new int[] {1})).concat(r, concatenated);
+            assertEquals(new Record(Arrays.asList(new IntDataBox(-7), new BoolDataBox(true),
+                                                  new IntDataBox(-7), new FloatDataBox(2.5f),
+                                                  new StringDataBox("fo", 3))),
+                         concat);
+            assertEquals(2.5f, concat.getFloat(3), 0f);
+        }
+
+        // A record backed by bytes is serialized without copying.
+        assertTrue(bytes.toBytes(s) == bytes.toBytes(s));
+        assertEquals(values, bytes);
+        assertEquals(values.hashCode(), bytes.hashCode());
+    }
 }